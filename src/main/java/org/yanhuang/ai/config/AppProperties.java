@@ -3,6 +3,8 @@ package org.yanhuang.ai.config;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -35,6 +37,8 @@ public class AppProperties {
 
     private final KiroProperties kiro = new KiroProperties();
 
+    private final AdmissionProperties admission = new AdmissionProperties();
+
     public String getApiKey() {
         return apiKey;
     }
@@ -55,9 +59,16 @@ public class AppProperties {
         return kiro;
     }
 
+    public AdmissionProperties getAdmission() {
+        return admission;
+    }
+
     @PostConstruct
     void loadTokensFromFile() {
         kiro.resolveTokenFiles();
+        for (CredentialProperties credential : kiro.getCredentials()) {
+            credential.resolveTokenFiles();
+        }
     }
 
     public static class KiroProperties {
@@ -68,19 +79,37 @@ public class AppProperties {
         @NotBlank
         private String profileArn;
 
-        private String accessToken;
+        // Volatile: swapped at runtime by token refreshes and token file reloads
+        private volatile String accessToken;
 
-        private String refreshToken;
+        private volatile String refreshToken;
 
         private String accessTokenFile;
 
         private String refreshTokenFile;
 
+        // Read from the token cache file along with the access token; null when unknown
+        private Instant accessTokenExpiresAt;
+
+        // Tokens as configured, before any were filled in from files
+        private String configuredAccessToken;
+
+        private String configuredRefreshToken;
+
+        // Files the tokens are read from; empty when both tokens are configured directly
+        private List<String> tokenFiles = List.of();
+
         @NotBlank
         private String refreshUrl;
 
         private int minRefreshIntervalSeconds = 5;
 
+        // Refresh tokens this long before they expire; 0 turns proactive refresh off
+        private int tokenRefreshAheadSeconds = 300;
+
+        // Pick up tokens rewritten on disk (e.g. by the Kiro IDE) without a restart
+        private boolean watchTokenFiles = true;
+
         private boolean disableTools = false;
 
         private boolean disableHistory = false;
@@ -89,6 +118,41 @@ public class AppProperties {
 
         private int maxHistorySize = 131072;
 
+        private int firstByteTimeoutSeconds = 60;
+
+        private int idleTimeoutSeconds = 30;
+
+        private int totalTimeoutSeconds = 600;
+
+        private final PoolProperties pool = new PoolProperties();
+
+        private final RetryProperties retry = new RetryProperties();
+
+        private final CircuitBreakerProperties circuitBreaker = new CircuitBreakerProperties();
+
+        private final ImageProperties images = new ImageProperties();
+
+        private final ResponseCacheProperties responseCache = new ResponseCacheProperties();
+
+        private final PromptCacheProperties promptCache = new PromptCacheProperties();
+
+        private final ToolCacheProperties toolCache = new ToolCacheProperties();
+
+        // Extra accounts to spread load over; the top-level profile and tokens stay the primary one
+        private List<CredentialProperties> credentials = new ArrayList<>();
+
+        // How long an account that keeps getting throttled or rejected is taken out of rotation
+        private int credentialCooldownSeconds = 60;
+
+        // Further generateAssistantResponse URLs (other regions or proxies) to route over besides base-url
+        private List<String> endpoints = new ArrayList<>();
+
+        // How long an endpoint that refuses connections or keeps failing is taken out of rotation
+        private int endpointCooldownSeconds = 30;
+
+        // Latency older than this is forgotten, so an endpoint that was slow gets measured again
+        private int endpointProbeSeconds = 30;
+
         public String getBaseUrl() {
             return baseUrl;
         }
@@ -153,6 +217,38 @@ public class AppProperties {
             this.minRefreshIntervalSeconds = minRefreshIntervalSeconds;
         }
 
+        public int getTokenRefreshAheadSeconds() {
+            return tokenRefreshAheadSeconds;
+        }
+
+        public void setTokenRefreshAheadSeconds(int tokenRefreshAheadSeconds) {
+            this.tokenRefreshAheadSeconds = tokenRefreshAheadSeconds;
+        }
+
+        public boolean isWatchTokenFiles() {
+            return watchTokenFiles;
+        }
+
+        public void setWatchTokenFiles(boolean watchTokenFiles) {
+            this.watchTokenFiles = watchTokenFiles;
+        }
+
+        public Instant getAccessTokenExpiresAt() {
+            return accessTokenExpiresAt;
+        }
+
+        public List<String> getTokenFiles() {
+            return tokenFiles;
+        }
+
+        /**
+         * Read the tokens from the token files again, as at startup except that a file is only read
+         * as a plain token if it does not look like JSON, e.g. a token cache caught mid-write.
+         */
+        public TokenPair readTokenFiles() {
+            return resolveTokens(configuredAccessToken, configuredRefreshToken, tokenFiles, true);
+        }
+
         public boolean isDisableTools() {
             return disableTools;
         }
@@ -185,11 +281,99 @@ public class AppProperties {
             this.maxHistorySize = maxHistorySize;
         }
 
-        void resolveTokenFiles() {
-            if (isPopulated(accessToken) && isPopulated(refreshToken)) {
-                return;
-            }
+        public int getFirstByteTimeoutSeconds() {
+            return firstByteTimeoutSeconds;
+        }
+
+        public void setFirstByteTimeoutSeconds(int firstByteTimeoutSeconds) {
+            this.firstByteTimeoutSeconds = firstByteTimeoutSeconds;
+        }
+
+        public int getIdleTimeoutSeconds() {
+            return idleTimeoutSeconds;
+        }
+
+        public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+            this.idleTimeoutSeconds = idleTimeoutSeconds;
+        }
+
+        public int getTotalTimeoutSeconds() {
+            return totalTimeoutSeconds;
+        }
+
+        public void setTotalTimeoutSeconds(int totalTimeoutSeconds) {
+            this.totalTimeoutSeconds = totalTimeoutSeconds;
+        }
+
+        public PoolProperties getPool() {
+            return pool;
+        }
+
+        public RetryProperties getRetry() {
+            return retry;
+        }
+
+        public CircuitBreakerProperties getCircuitBreaker() {
+            return circuitBreaker;
+        }
+
+        public ImageProperties getImages() {
+            return images;
+        }
+
+        public ResponseCacheProperties getResponseCache() {
+            return responseCache;
+        }
+
+        public PromptCacheProperties getPromptCache() {
+            return promptCache;
+        }
+
+        public ToolCacheProperties getToolCache() {
+            return toolCache;
+        }
+
+        public List<CredentialProperties> getCredentials() {
+            return credentials;
+        }
+
+        public void setCredentials(List<CredentialProperties> credentials) {
+            this.credentials = credentials;
+        }
+
+        public int getCredentialCooldownSeconds() {
+            return credentialCooldownSeconds;
+        }
+
+        public void setCredentialCooldownSeconds(int credentialCooldownSeconds) {
+            this.credentialCooldownSeconds = credentialCooldownSeconds;
+        }
+
+        public List<String> getEndpoints() {
+            return endpoints;
+        }
+
+        public void setEndpoints(List<String> endpoints) {
+            this.endpoints = endpoints;
+        }
+
+        public int getEndpointCooldownSeconds() {
+            return endpointCooldownSeconds;
+        }
+
+        public void setEndpointCooldownSeconds(int endpointCooldownSeconds) {
+            this.endpointCooldownSeconds = endpointCooldownSeconds;
+        }
+
+        public int getEndpointProbeSeconds() {
+            return endpointProbeSeconds;
+        }
 
+        public void setEndpointProbeSeconds(int endpointProbeSeconds) {
+            this.endpointProbeSeconds = endpointProbeSeconds;
+        }
+
+        void resolveTokenFiles() {
             List<String> candidates = new ArrayList<>();
             if (isPopulated(accessTokenFile)) {
                 candidates.add(accessTokenFile);
@@ -199,6 +383,28 @@ public class AppProperties {
             }
             defaultCachePath().ifPresent(candidates::add);
 
+            configuredAccessToken = accessToken;
+            configuredRefreshToken = refreshToken;
+            tokenFiles = isPopulated(accessToken) && isPopulated(refreshToken) ? List.of() : List.copyOf(candidates);
+            TokenPair pair = resolveTokens(accessToken, refreshToken, candidates, false);
+            accessToken = pair.accessToken();
+            refreshToken = pair.refreshToken();
+            accessTokenExpiresAt = pair.expiresAt();
+        }
+
+        /**
+         * Fill whichever of the two tokens is missing from the first candidate files that have them.
+         * The expiry is only known when the access token came from a token cache file. When
+         * {@code reloading}, files that look like JSON but are not a token cache are skipped instead
+         * of being read as a plain token.
+         */
+        static TokenPair resolveTokens(String accessToken, String refreshToken, List<String> candidates,
+                                       boolean reloading) {
+            if (isPopulated(accessToken) && isPopulated(refreshToken)) {
+                return new TokenPair(accessToken, refreshToken, null);
+            }
+            Instant expiresAt = null;
+
             Set<String> visited = new HashSet<>();
             for (String candidate : candidates) {
                 if (!visited.add(candidate)) {
@@ -208,12 +414,13 @@ public class AppProperties {
                 if (!Files.exists(path)) {
                     continue;
                 }
-                TokenPair pair = readTokenCache(path).orElseGet(() -> readPlainToken(path));
+                TokenPair pair = readTokenCache(path).orElseGet(() -> readPlainToken(path, reloading));
                 if (pair == null) {
                     continue;
                 }
                 if (!isPopulated(accessToken) && isPopulated(pair.accessToken())) {
                     accessToken = pair.accessToken();
+                    expiresAt = pair.expiresAt();
                     log.debug("Loaded Kiro access token from {}", path);
                 }
                 if (!isPopulated(refreshToken) && isPopulated(pair.refreshToken())) {
@@ -224,9 +431,10 @@ public class AppProperties {
                     break;
                 }
             }
+            return new TokenPair(accessToken, refreshToken, expiresAt);
         }
 
-        private Optional<TokenPair> readTokenCache(Path path) {
+        private static Optional<TokenPair> readTokenCache(Path path) {
             try {
                 String json = Files.readString(path);
                 JsonNode node = mapper.readTree(json);
@@ -242,7 +450,7 @@ public class AppProperties {
                     refresh = optionalText(node, "refresh_token");
                 }
                 if (isPopulated(access) || isPopulated(refresh)) {
-                    return Optional.of(new TokenPair(access, refresh));
+                    return Optional.of(new TokenPair(access, refresh, parseInstant(optionalText(node, "expiresAt"))));
                 }
             } catch (IOException ex) {
                 log.debug("Failed to parse token cache at {}: {}", path, ex.getMessage());
@@ -250,11 +458,15 @@ public class AppProperties {
             return Optional.empty();
         }
 
-        private TokenPair readPlainToken(Path path) {
+        private static TokenPair readPlainToken(Path path, boolean reloading) {
             try {
                 String value = Files.readString(path).trim();
+                if (reloading && (value.startsWith("{") || value.startsWith("["))) {
+                    log.debug("Ignoring token file {}, it is not a complete token cache", path);
+                    return null;
+                }
                 if (!value.isEmpty()) {
-                    return new TokenPair(value, null);
+                    return new TokenPair(value, null, null);
                 }
             } catch (IOException ex) {
                 log.debug("Failed to read token file {}: {}", path, ex.getMessage());
@@ -262,7 +474,7 @@ public class AppProperties {
             return null;
         }
 
-        private Optional<String> defaultCachePath() {
+        private static Optional<String> defaultCachePath() {
             String osName = System.getProperty("os.name", "").toLowerCase();
             String home = System.getProperty("user.home");
             if (home == null || home.isBlank()) {
@@ -280,16 +492,747 @@ public class AppProperties {
             return Optional.of(path.toString());
         }
 
-        private boolean isPopulated(String value) {
+        private static boolean isPopulated(String value) {
             return value != null && !value.isBlank();
         }
 
-        private String optionalText(JsonNode node, String field) {
+        private static String optionalText(JsonNode node, String field) {
             JsonNode value = node.get(field);
             return value != null && !value.isNull() ? value.asText() : null;
         }
 
-        private record TokenPair(String accessToken, String refreshToken) {}
+        private static Instant parseInstant(String value) {
+            if (!isPopulated(value)) {
+                return null;
+            }
+            try {
+                return Instant.parse(value);
+            } catch (DateTimeParseException ex) {
+                log.debug("Ignoring unparseable token expiry {}", value);
+                return null;
+            }
+        }
+
+        public record TokenPair(String accessToken, String refreshToken, Instant expiresAt) {}
     }
-}
 
+    /**
+     * One additional Kiro account in the credential pool
+     */
+    public static class CredentialProperties {
+
+        // Label for logs and metrics; defaults to the profile id
+        private String name;
+
+        private String profileArn;
+
+        private String accessToken;
+
+        private String refreshToken;
+
+        private String accessTokenFile;
+
+        private String refreshTokenFile;
+
+        // Share of traffic relative to the other accounts
+        private int weight = 1;
+
+        private Instant accessTokenExpiresAt;
+
+        private String configuredAccessToken;
+
+        private String configuredRefreshToken;
+
+        private List<String> tokenFiles = List.of();
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getProfileArn() {
+            return profileArn;
+        }
+
+        public void setProfileArn(String profileArn) {
+            this.profileArn = profileArn;
+        }
+
+        public String getAccessToken() {
+            return accessToken;
+        }
+
+        public void setAccessToken(String accessToken) {
+            this.accessToken = accessToken;
+        }
+
+        public String getRefreshToken() {
+            return refreshToken;
+        }
+
+        public void setRefreshToken(String refreshToken) {
+            this.refreshToken = refreshToken;
+        }
+
+        public String getAccessTokenFile() {
+            return accessTokenFile;
+        }
+
+        public void setAccessTokenFile(String accessTokenFile) {
+            this.accessTokenFile = accessTokenFile;
+        }
+
+        public String getRefreshTokenFile() {
+            return refreshTokenFile;
+        }
+
+        public void setRefreshTokenFile(String refreshTokenFile) {
+            this.refreshTokenFile = refreshTokenFile;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
+        public Instant getAccessTokenExpiresAt() {
+            return accessTokenExpiresAt;
+        }
+
+        public List<String> getTokenFiles() {
+            return tokenFiles;
+        }
+
+        public KiroProperties.TokenPair readTokenFiles() {
+            return KiroProperties.resolveTokens(configuredAccessToken, configuredRefreshToken, tokenFiles, true);
+        }
+
+        // Unlike the primary account, there is no default cache file to fall back on
+        void resolveTokenFiles() {
+            List<String> candidates = new ArrayList<>();
+            if (accessTokenFile != null && !accessTokenFile.isBlank()) {
+                candidates.add(accessTokenFile);
+            }
+            if (refreshTokenFile != null && !refreshTokenFile.isBlank()) {
+                candidates.add(refreshTokenFile);
+            }
+            configuredAccessToken = accessToken;
+            configuredRefreshToken = refreshToken;
+            tokenFiles = KiroProperties.isPopulated(accessToken) && KiroProperties.isPopulated(refreshToken)
+                ? List.of() : List.copyOf(candidates);
+            KiroProperties.TokenPair pair = KiroProperties.resolveTokens(accessToken, refreshToken, candidates, false);
+            accessToken = pair.accessToken();
+            refreshToken = pair.refreshToken();
+            accessTokenExpiresAt = pair.expiresAt();
+        }
+    }
+
+    /**
+     * Circuit breaker settings for the Kiro gateway
+     */
+    public static class CircuitBreakerProperties {
+
+        private boolean enabled = true;
+
+        // Number of most recent calls the rates are computed over
+        private int windowSize = 20;
+
+        // Calls needed in the window before the breaker may trip
+        private int minimumCalls = 10;
+
+        private int failureRateThreshold = 50;
+
+        private int slowCallRateThreshold = 80;
+
+        // Calls waiting longer than this for their first event count as slow
+        private int slowCallDurationSeconds = 20;
+
+        private int openStateSeconds = 30;
+
+        private int halfOpenPermittedCalls = 3;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        public void setWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        public int getMinimumCalls() {
+            return minimumCalls;
+        }
+
+        public void setMinimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+        }
+
+        public int getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(int failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public int getSlowCallRateThreshold() {
+            return slowCallRateThreshold;
+        }
+
+        public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+        }
+
+        public int getSlowCallDurationSeconds() {
+            return slowCallDurationSeconds;
+        }
+
+        public void setSlowCallDurationSeconds(int slowCallDurationSeconds) {
+            this.slowCallDurationSeconds = slowCallDurationSeconds;
+        }
+
+        public int getOpenStateSeconds() {
+            return openStateSeconds;
+        }
+
+        public void setOpenStateSeconds(int openStateSeconds) {
+            this.openStateSeconds = openStateSeconds;
+        }
+
+        public int getHalfOpenPermittedCalls() {
+            return halfOpenPermittedCalls;
+        }
+
+        public void setHalfOpenPermittedCalls(int halfOpenPermittedCalls) {
+            this.halfOpenPermittedCalls = halfOpenPermittedCalls;
+        }
+    }
+
+    /**
+     * Local load shedding in front of Kiro: per-API-key rate limits and a global in-flight cap.
+     * The gateway accepts a single {@code app.api-key}, so the per-key limits cap every client
+     * together; they are off unless set.
+     */
+    public static class AdmissionProperties {
+
+        private boolean enabled = true;
+
+        // Per API key, i.e. for the whole gateway while it has one key; 0 disables the limit
+        private int requestsPerMinute = 0;
+
+        // Requests a key may send at once before the per-minute rate applies
+        private int requestBurst = 20;
+
+        // Estimated input plus max_tokens, per API key like requests-per-minute; 0 disables the limit
+        private long tokensPerMinute = 0;
+
+        // Requests running against Kiro at once, across all keys; the ceiling when the limit adapts
+        private int maxInFlight = 64;
+
+        // Follow Kiro's first-event latency instead of holding max-in-flight fixed
+        private boolean adaptiveLimit = true;
+
+        private int initialLimit = 16;
+
+        private int minLimit = 4;
+
+        // Requests allowed to wait for an in-flight slot; beyond that they are rejected right away
+        private int maxQueued = 128;
+
+        private int maxQueueWaitMillis = 10_000;
+
+        // Keys whose requests are batch traffic unless an x-request-priority header or metadata.priority says otherwise
+        private List<String> batchApiKeys = new ArrayList<>();
+
+        // Share of queued slots each class gets while both are waiting
+        private int interactiveWeight = 4;
+
+        private int batchWeight = 1;
+
+        // Batch calls never hold more than this fraction of the limit, so interactive ones find a free slot
+        private double batchMaxShare = 0.75;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getRequestsPerMinute() {
+            return requestsPerMinute;
+        }
+
+        public void setRequestsPerMinute(int requestsPerMinute) {
+            this.requestsPerMinute = requestsPerMinute;
+        }
+
+        public int getRequestBurst() {
+            return requestBurst;
+        }
+
+        public void setRequestBurst(int requestBurst) {
+            this.requestBurst = requestBurst;
+        }
+
+        public long getTokensPerMinute() {
+            return tokensPerMinute;
+        }
+
+        public void setTokensPerMinute(long tokensPerMinute) {
+            this.tokensPerMinute = tokensPerMinute;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        public boolean isAdaptiveLimit() {
+            return adaptiveLimit;
+        }
+
+        public void setAdaptiveLimit(boolean adaptiveLimit) {
+            this.adaptiveLimit = adaptiveLimit;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        public void setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+        }
+
+        public int getMaxQueueWaitMillis() {
+            return maxQueueWaitMillis;
+        }
+
+        public void setMaxQueueWaitMillis(int maxQueueWaitMillis) {
+            this.maxQueueWaitMillis = maxQueueWaitMillis;
+        }
+
+        public List<String> getBatchApiKeys() {
+            return batchApiKeys;
+        }
+
+        public void setBatchApiKeys(List<String> batchApiKeys) {
+            this.batchApiKeys = batchApiKeys;
+        }
+
+        public int getInteractiveWeight() {
+            return interactiveWeight;
+        }
+
+        public void setInteractiveWeight(int interactiveWeight) {
+            this.interactiveWeight = interactiveWeight;
+        }
+
+        public int getBatchWeight() {
+            return batchWeight;
+        }
+
+        public void setBatchWeight(int batchWeight) {
+            this.batchWeight = batchWeight;
+        }
+
+        public double getBatchMaxShare() {
+            return batchMaxShare;
+        }
+
+        public void setBatchMaxShare(double batchMaxShare) {
+            this.batchMaxShare = batchMaxShare;
+        }
+    }
+
+    /**
+     * Retry settings for failed Kiro calls
+     */
+    public static class RetryProperties {
+
+        // Retries per request after the first attempt, so 2 allows 3 calls in all
+        private int maxRetries = 2;
+
+        private int initialBackoffMillis = 200;
+
+        private int maxBackoffMillis = 5000;
+
+        // Fraction of requests that may be retried once the burst allowance is spent
+        private double budgetRatio = 0.1;
+
+        // Retries available up front, and the most the budget can accumulate
+        private int budgetCapacity = 20;
+
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public int getInitialBackoffMillis() {
+            return initialBackoffMillis;
+        }
+
+        public void setInitialBackoffMillis(int initialBackoffMillis) {
+            this.initialBackoffMillis = initialBackoffMillis;
+        }
+
+        public int getMaxBackoffMillis() {
+            return maxBackoffMillis;
+        }
+
+        public void setMaxBackoffMillis(int maxBackoffMillis) {
+            this.maxBackoffMillis = maxBackoffMillis;
+        }
+
+        public double getBudgetRatio() {
+            return budgetRatio;
+        }
+
+        public void setBudgetRatio(double budgetRatio) {
+            this.budgetRatio = budgetRatio;
+        }
+
+        public int getBudgetCapacity() {
+            return budgetCapacity;
+        }
+
+        public void setBudgetCapacity(int budgetCapacity) {
+            this.budgetCapacity = budgetCapacity;
+        }
+    }
+
+    /**
+     * Connection pool settings for the dedicated Kiro HTTP client
+     */
+    public static class PoolProperties {
+
+        private int maxConnections = 200;
+
+        private int pendingAcquireMaxCount = 1000;
+
+        private int pendingAcquireTimeoutSeconds = 10;
+
+        private int maxIdleTimeSeconds = 60;
+
+        private int maxLifeTimeSeconds = 600;
+
+        private int evictInBackgroundSeconds = 30;
+
+        private int connectTimeoutMillis = 5000;
+
+        private boolean http2 = false;
+
+        private int warmupConnections = 4;
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getPendingAcquireMaxCount() {
+            return pendingAcquireMaxCount;
+        }
+
+        public void setPendingAcquireMaxCount(int pendingAcquireMaxCount) {
+            this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+        }
+
+        public int getPendingAcquireTimeoutSeconds() {
+            return pendingAcquireTimeoutSeconds;
+        }
+
+        public void setPendingAcquireTimeoutSeconds(int pendingAcquireTimeoutSeconds) {
+            this.pendingAcquireTimeoutSeconds = pendingAcquireTimeoutSeconds;
+        }
+
+        public int getMaxIdleTimeSeconds() {
+            return maxIdleTimeSeconds;
+        }
+
+        public void setMaxIdleTimeSeconds(int maxIdleTimeSeconds) {
+            this.maxIdleTimeSeconds = maxIdleTimeSeconds;
+        }
+
+        public int getMaxLifeTimeSeconds() {
+            return maxLifeTimeSeconds;
+        }
+
+        public void setMaxLifeTimeSeconds(int maxLifeTimeSeconds) {
+            this.maxLifeTimeSeconds = maxLifeTimeSeconds;
+        }
+
+        public int getEvictInBackgroundSeconds() {
+            return evictInBackgroundSeconds;
+        }
+
+        public void setEvictInBackgroundSeconds(int evictInBackgroundSeconds) {
+            this.evictInBackgroundSeconds = evictInBackgroundSeconds;
+        }
+
+        public int getConnectTimeoutMillis() {
+            return connectTimeoutMillis;
+        }
+
+        public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+        }
+
+        public boolean isHttp2() {
+            return http2;
+        }
+
+        public void setHttp2(boolean http2) {
+            this.http2 = http2;
+        }
+
+        public int getWarmupConnections() {
+            return warmupConnections;
+        }
+
+        public void setWarmupConnections(int warmupConnections) {
+            this.warmupConnections = warmupConnections;
+        }
+    }
+
+    /**
+     * Downscaling of oversized images before they are forwarded to Kiro
+     */
+    public static class ImageProperties {
+
+        private boolean enabled = true;
+
+        // Images with a longer edge or more pixels than this are downscaled to fit
+        private int maxLongEdge = 1568;
+
+        private int maxPixels = 1_150_000;
+
+        // Threads decoding and re-encoding images, and resizes allowed to wait for one
+        private int workers = 2;
+
+        private int maxQueued = 32;
+
+        private float jpegQuality = 0.85f;
+
+        // Base64 characters of original and downscaled images kept, so a resent image is resized once
+        private int cacheSizeMegabytes = 64;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxLongEdge() {
+            return maxLongEdge;
+        }
+
+        public void setMaxLongEdge(int maxLongEdge) {
+            this.maxLongEdge = maxLongEdge;
+        }
+
+        public int getMaxPixels() {
+            return maxPixels;
+        }
+
+        public void setMaxPixels(int maxPixels) {
+            this.maxPixels = maxPixels;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        public void setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+        }
+
+        public float getJpegQuality() {
+            return jpegQuality;
+        }
+
+        public void setJpegQuality(float jpegQuality) {
+            this.jpegQuality = jpegQuality;
+        }
+
+        public int getCacheSizeMegabytes() {
+            return cacheSizeMegabytes;
+        }
+
+        public void setCacheSizeMegabytes(int cacheSizeMegabytes) {
+            this.cacheSizeMegabytes = cacheSizeMegabytes;
+        }
+    }
+
+    /**
+     * Exact-match cache of Kiro responses for deterministic requests
+     */
+    public static class ResponseCacheProperties {
+
+        private boolean enabled = true;
+
+        private int ttlSeconds = 300;
+
+        // Approximate characters of cached responses kept
+        private int maxSizeMegabytes = 64;
+
+        // Text of a replayed response is streamed in deltas of this many characters, this far apart
+        private int replayChunkChars = 128;
+
+        private int replayIntervalMillis = 0;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public void setTtlSeconds(int ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public int getMaxSizeMegabytes() {
+            return maxSizeMegabytes;
+        }
+
+        public void setMaxSizeMegabytes(int maxSizeMegabytes) {
+            this.maxSizeMegabytes = maxSizeMegabytes;
+        }
+
+        public int getReplayChunkChars() {
+            return replayChunkChars;
+        }
+
+        public void setReplayChunkChars(int replayChunkChars) {
+            this.replayChunkChars = replayChunkChars;
+        }
+
+        public int getReplayIntervalMillis() {
+            return replayIntervalMillis;
+        }
+
+        public void setReplayIntervalMillis(int replayIntervalMillis) {
+            this.replayIntervalMillis = replayIntervalMillis;
+        }
+    }
+
+    /**
+     * Cache of the Kiro representation of prompt prefixes marked with cache_control
+     */
+    public static class PromptCacheProperties {
+
+        private boolean enabled = true;
+
+        // Lifetime of an ephemeral breakpoint, renewed whenever it is read
+        private int ttlSeconds = 300;
+
+        // Approximate characters of cached prefixes kept
+        private int maxSizeMegabytes = 64;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public void setTtlSeconds(int ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public int getMaxSizeMegabytes() {
+            return maxSizeMegabytes;
+        }
+
+        public void setMaxSizeMegabytes(int maxSizeMegabytes) {
+            this.maxSizeMegabytes = maxSizeMegabytes;
+        }
+    }
+
+    /**
+     * Cache of the Kiro toolSpecification and token count of each distinct tool definition
+     */
+    public static class ToolCacheProperties {
+
+        private boolean enabled = true;
+
+        // Approximate characters of cached tool specifications kept
+        private int maxSizeMegabytes = 16;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSizeMegabytes() {
+            return maxSizeMegabytes;
+        }
+
+        public void setMaxSizeMegabytes(int maxSizeMegabytes) {
+            this.maxSizeMegabytes = maxSizeMegabytes;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.yanhuang.ai.config;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import org.yanhuang.ai.service.KiroCircuitBreaker;
+
+/**
+ * Exposes the Kiro circuit breaker states at {@code /actuator/circuitbreakers}.
+ */
+@Component
+@Endpoint(id = "circuitbreakers")
+public class CircuitBreakerEndpoint {
+
+    private final KiroCircuitBreaker circuitBreaker;
+
+    public CircuitBreakerEndpoint(KiroCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @ReadOperation
+    public Map<String, KiroCircuitBreaker.Snapshot> circuitBreakers() {
+        return circuitBreaker.snapshot();
+    }
+}
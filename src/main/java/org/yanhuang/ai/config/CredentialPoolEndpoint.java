@@ -0,0 +1,28 @@
+package org.yanhuang.ai.config;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import org.yanhuang.ai.service.CredentialPool;
+
+/**
+ * Exposes per-account routing counters of the Kiro credential pool at {@code /actuator/credentials}.
+ */
+@Component
+@Endpoint(id = "credentials")
+public class CredentialPoolEndpoint {
+
+    private final CredentialPool credentialPool;
+
+    public CredentialPoolEndpoint(CredentialPool credentialPool) {
+        this.credentialPool = credentialPool;
+    }
+
+    @ReadOperation
+    public Map<String, CredentialPool.Snapshot> credentials() {
+        return credentialPool.snapshot();
+    }
+}
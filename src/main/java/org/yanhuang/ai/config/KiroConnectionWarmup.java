@@ -0,0 +1,74 @@
+package org.yanhuang.ai.config;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.yanhuang.ai.service.KiroEndpoint;
+import org.yanhuang.ai.service.KiroEndpointRouter;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+/**
+ * Opens a few connections to every Kiro endpoint once the application is ready, so the
+ * first requests after a deploy, and the router's first probes of each endpoint, find TLS
+ * sessions already established in the pool.
+ */
+@Component
+public class KiroConnectionWarmup {
+
+    private static final Logger log = LoggerFactory.getLogger(KiroConnectionWarmup.class);
+
+    private static final Duration WARMUP_TIMEOUT = Duration.ofSeconds(10);
+
+    private final AppProperties properties;
+    private final HttpClient kiroHttpClient;
+    private final KiroEndpointRouter endpointRouter;
+
+    public KiroConnectionWarmup(AppProperties properties, HttpClient kiroHttpClient,
+                                KiroEndpointRouter endpointRouter) {
+        this.properties = properties;
+        this.kiroHttpClient = kiroHttpClient;
+        this.endpointRouter = endpointRouter;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        warmup().subscribe();
+    }
+
+    /**
+     * Issue concurrent HEAD requests against each endpoint URL. Any HTTP response counts as
+     * success: the point is the handshake, and the connection goes back to the pool afterwards.
+     */
+    Mono<Long> warmup() {
+        int connections = properties.getKiro().getPool().getWarmupConnections();
+        List<KiroEndpoint> endpoints = endpointRouter.getEndpoints();
+        if (connections <= 0) {
+            return Mono.empty();
+        }
+
+        int total = connections * endpoints.size();
+        long started = System.nanoTime();
+        return Flux.fromIterable(endpoints)
+            .flatMap(endpoint -> Flux.range(0, connections).map(i -> endpoint.getUrl()))
+            .flatMap(url -> kiroHttpClient.head()
+                .uri(url)
+                // Draining the (empty) body lets the connection be released back to the pool
+                .responseSingle((response, body) -> body.then(Mono.just(response.status().code())))
+                .timeout(WARMUP_TIMEOUT)
+                .onErrorResume(error -> {
+                    log.warn("Kiro connection warmup request to {} failed: {}", url, error.getMessage());
+                    return Mono.empty();
+                }), total)
+            .count()
+            .doOnNext(warmed -> log.info("Warmed up {}/{} connections to {} Kiro endpoint(s) in {} ms",
+                warmed, total, endpoints.size(), Duration.ofNanos(System.nanoTime() - started).toMillis()));
+    }
+}
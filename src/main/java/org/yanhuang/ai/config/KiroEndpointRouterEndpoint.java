@@ -0,0 +1,28 @@
+package org.yanhuang.ai.config;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import org.yanhuang.ai.service.KiroEndpointRouter;
+
+/**
+ * Exposes per-endpoint latency and failure counters of the Kiro router at {@code /actuator/upstreams}.
+ */
+@Component
+@Endpoint(id = "upstreams")
+public class KiroEndpointRouterEndpoint {
+
+    private final KiroEndpointRouter endpointRouter;
+
+    public KiroEndpointRouterEndpoint(KiroEndpointRouter endpointRouter) {
+        this.endpointRouter = endpointRouter;
+    }
+
+    @ReadOperation
+    public Map<String, KiroEndpointRouter.Snapshot> upstreams() {
+        return endpointRouter.snapshot();
+    }
+}
@@ -1,12 +1,18 @@
 package org.yanhuang.ai.config;
 
+import java.time.Duration;
+
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import io.netty.channel.ChannelOption;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 /**
  * WebClient configuration for outbound HTTP requests
@@ -16,19 +22,63 @@ import reactor.netty.http.client.HttpClient;
 @Configuration
 public class WebClientConfig {
 
+    // Set max in-memory size to 32MB for outbound requests
+    private static final int MAX_IN_MEMORY_SIZE = 32 * 1024 * 1024;
+
     @Bean
+    @Primary
     public WebClient.Builder webClientBuilder() {
-        // Set max in-memory size to 32MB for outbound requests
-        int size = 32 * 1024 * 1024;
-        ExchangeStrategies strategies = ExchangeStrategies.builder()
-            .codecs(cfg -> cfg.defaultCodecs().maxInMemorySize(size))
-            .build();
-
         HttpClient httpClient = HttpClient.create();
 
         return WebClient.builder()
-            .exchangeStrategies(strategies)
+            .exchangeStrategies(exchangeStrategies())
             .clientConnector(new ReactorClientHttpConnector(httpClient));
     }
-}
 
+    /**
+     * Dedicated pool for generateAssistantResponse calls, so long-lived streams don't
+     * compete with token refreshes and bursts queue instead of failing on the default limits
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider kiroConnectionProvider(AppProperties properties) {
+        AppProperties.PoolProperties pool = properties.getKiro().getPool();
+        return ConnectionProvider.builder("kiro")
+            .maxConnections(pool.getMaxConnections())
+            .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+            .pendingAcquireTimeout(Duration.ofSeconds(pool.getPendingAcquireTimeoutSeconds()))
+            .maxIdleTime(Duration.ofSeconds(pool.getMaxIdleTimeSeconds()))
+            .maxLifeTime(Duration.ofSeconds(pool.getMaxLifeTimeSeconds()))
+            .evictInBackground(Duration.ofSeconds(pool.getEvictInBackgroundSeconds()))
+            // Most recently used first keeps a warm core of connections and lets the rest idle out
+            .lifo()
+            .build();
+    }
+
+    @Bean
+    public HttpClient kiroHttpClient(ConnectionProvider kiroConnectionProvider, AppProperties properties) {
+        AppProperties.PoolProperties pool = properties.getKiro().getPool();
+        HttpClient httpClient = HttpClient.create(kiroConnectionProvider)
+            .keepAlive(true)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, pool.getConnectTimeoutMillis())
+            .option(ChannelOption.SO_KEEPALIVE, true)
+            .option(ChannelOption.TCP_NODELAY, true);
+        if (pool.isHttp2()) {
+            // Negotiated through ALPN; falls back to HTTP/1.1 when the server doesn't offer h2
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        return httpClient;
+    }
+
+    @Bean
+    public WebClient.Builder kiroWebClientBuilder(HttpClient kiroHttpClient) {
+        return WebClient.builder()
+            .exchangeStrategies(exchangeStrategies())
+            .clientConnector(new ReactorClientHttpConnector(kiroHttpClient));
+    }
+
+    private static ExchangeStrategies exchangeStrategies() {
+        return ExchangeStrategies.builder()
+            .codecs(cfg -> cfg.defaultCodecs().maxInMemorySize(MAX_IN_MEMORY_SIZE))
+            .build();
+    }
+}
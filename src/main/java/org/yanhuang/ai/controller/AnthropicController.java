@@ -1,5 +1,6 @@
 package org.yanhuang.ai.controller;
 
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -16,12 +17,16 @@ import org.yanhuang.ai.model.AnthropicChatRequest;
 import org.yanhuang.ai.model.AnthropicChatResponse;
 import org.yanhuang.ai.model.AnthropicMessage;
 import org.yanhuang.ai.model.ToolDefinition;
+import org.yanhuang.ai.service.AdmissionLimiter;
 import org.yanhuang.ai.service.ImageValidator;
 import org.yanhuang.ai.service.KiroService;
+import org.yanhuang.ai.service.SseEventWriter;
 import org.yanhuang.ai.service.TokenCounter;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -38,12 +43,15 @@ public class AnthropicController {
     private final KiroService kiroService;
     private final TokenCounter tokenCounter;
     private final ImageValidator imageValidator;
+    private final AdmissionLimiter admissionLimiter;
 
-    public AnthropicController(AppProperties properties, KiroService kiroService, TokenCounter tokenCounter, ImageValidator imageValidator) {
+    public AnthropicController(AppProperties properties, KiroService kiroService, TokenCounter tokenCounter,
+                               ImageValidator imageValidator, AdmissionLimiter admissionLimiter) {
         this.properties = properties;
         this.kiroService = kiroService;
         this.tokenCounter = tokenCounter;
         this.imageValidator = imageValidator;
+        this.admissionLimiter = admissionLimiter;
     }
 
     @PostMapping(produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
@@ -51,6 +59,9 @@ public class AnthropicController {
         @RequestHeader(name = "x-api-key", required = false) String apiKey,
         @RequestHeader(name = "Authorization", required = false) String authorization,
         @RequestHeader(name = "anthropic-version", required = false) String apiVersion,
+        @RequestHeader(name = "x-stainless-timeout", required = false) String clientTimeout,
+        @RequestHeader(name = "x-request-priority", required = false) String priority,
+        @RequestHeader(name = "x-response-cache", required = false) String responseCache,
         @RequestBody AnthropicChatRequest request) {
 
         // Enhanced request logging for debugging
@@ -64,6 +75,8 @@ public class AnthropicController {
         }
 
         String resolvedApiKey = resolveApiKey(apiKey, authorization);
+        request.setClientTimeout(parseClientTimeout(clientTimeout));
+        request.setCacheResponse(parseResponseCache(responseCache));
         if (log.isDebugEnabled()) {
             log.debug("Resolved API key: {}", resolvedApiKey != null ? "present(" + resolvedApiKey.length() + " chars)" : "missing");
         }
@@ -121,10 +134,11 @@ public class AnthropicController {
             log.info("Processing as streaming request");
             try {
                 // Force SSE content type for streaming branch
-                Flux<String> sseStream = kiroService.streamCompletion(request)
-                    .map(content -> (content.startsWith("event:") || content.startsWith("data:")) ? content : "data: " + content + "\n")
-                    .concatWithValues("data: [DONE]\n")
-                    .doOnNext(event -> log.debug("Streaming event: {}", truncate(event, 200)))
+                Flux<DataBuffer> sseStream = admissionLimiter.admit(resolvedApiKey,
+                        admissionLimiter.classify(resolvedApiKey, priority, request),
+                        tokenCounter.estimateRequestTokens(request), kiroService.streamCompletion(request))
+                    .concatWith(Mono.fromSupplier(SseEventWriter::done))
+                    .doOnNext(this::logStreamingEvent)
                     .doOnError(error -> log.error("Streaming error: {}", error.getMessage(), error))
                     .doOnComplete(() -> log.info("Streaming completed successfully"));
 
@@ -140,7 +154,9 @@ public class AnthropicController {
         } else {
             log.info("Processing as non-streaming request");
             try {
-                Object response = kiroService.createCompletion(request);
+                Object response = admissionLimiter.admit(resolvedApiKey,
+                    admissionLimiter.classify(resolvedApiKey, priority, request), tokenCounter.estimateRequestTokens(request),
+                    Mono.defer(() -> kiroService.createCompletion(request)));
                 log.info("Non-streaming request completed successfully");
                 return response;
             } catch (Exception e) {
@@ -151,10 +167,13 @@ public class AnthropicController {
     }
 
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public ResponseEntity<Flux<String>> streamMessage(
+    public ResponseEntity<Flux<DataBuffer>> streamMessage(
         @RequestHeader(name = "x-api-key", required = false) String apiKey,
         @RequestHeader(name = "Authorization", required = false) String authorization,
         @RequestHeader(name = "anthropic-version", required = false) String apiVersion,
+        @RequestHeader(name = "x-stainless-timeout", required = false) String clientTimeout,
+        @RequestHeader(name = "x-request-priority", required = false) String priority,
+        @RequestHeader(name = "x-response-cache", required = false) String responseCache,
         @RequestBody AnthropicChatRequest request) {
 
         if (log.isDebugEnabled()) {
@@ -167,6 +186,8 @@ public class AnthropicController {
         }
 
         String resolvedApiKey = resolveApiKey(apiKey, authorization);
+        request.setClientTimeout(parseClientTimeout(clientTimeout));
+        request.setCacheResponse(parseResponseCache(responseCache));
         if (log.isDebugEnabled()) {
             log.debug("Resolved API key: {}", resolvedApiKey != null ? "present(" + resolvedApiKey.length() + " chars)" : "missing");
         }
@@ -187,9 +208,10 @@ public class AnthropicController {
 
         try {
             log.info("Creating streaming response");
-            Flux<String> sseStream = kiroService.streamCompletion(request)
-                .map(content -> (content.startsWith("event:") || content.startsWith("data:")) ? content : "data: " + content + "\n")
-                .doOnNext(event -> log.debug("Streaming event: {}", truncate(event, 200)))
+            Flux<DataBuffer> sseStream = admissionLimiter.admit(resolvedApiKey,
+                    admissionLimiter.classify(resolvedApiKey, priority, request),
+                    tokenCounter.estimateRequestTokens(request), kiroService.streamCompletion(request))
+                .doOnNext(this::logStreamingEvent)
                 .doOnError(error -> log.error("Streaming error: {}", error.getMessage(), error))
                 .doOnComplete(() -> log.info("Streaming completed successfully"));
 
@@ -227,6 +249,36 @@ public class AnthropicController {
         return apiKey; // null
     }
 
+    // Anthropic SDKs send their request timeout in seconds; the upstream call should give up before the client does
+    private Duration parseClientTimeout(String clientTimeout) {
+        if (!StringUtils.hasText(clientTimeout)) {
+            return null;
+        }
+        try {
+            double seconds = Double.parseDouble(clientTimeout.trim());
+            if (seconds > 0) {
+                return Duration.ofMillis((long) (seconds * 1000));
+            }
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring invalid x-stainless-timeout header: {}", clientTimeout);
+        }
+        return null;
+    }
+
+    private Boolean parseResponseCache(String responseCache) {
+        if (!StringUtils.hasText(responseCache)) {
+            return null;
+        }
+        return switch (responseCache.trim().toLowerCase()) {
+            case "true", "on" -> Boolean.TRUE;
+            case "false", "off", "no-store" -> Boolean.FALSE;
+            default -> {
+                log.debug("Ignoring invalid x-response-cache header: {}", responseCache);
+                yield null;
+            }
+        };
+    }
+
     private void validateRequest(AnthropicChatRequest request) {
         if (!StringUtils.hasText(request.getModel())) {
             throw new IllegalArgumentException("model is required");
@@ -505,6 +557,13 @@ public class AnthropicController {
         }
     }
 
+    private void logStreamingEvent(DataBuffer event) {
+        if (log.isDebugEnabled()) {
+            int length = Math.min(event.readableByteCount(), 200);
+            log.debug("Streaming event: {}", event.toString(event.readPosition(), length, StandardCharsets.UTF_8));
+        }
+    }
+
     private static String truncate(String s, int max) {
         if (s == null) return "";
         if (s.length() <= max) return s;
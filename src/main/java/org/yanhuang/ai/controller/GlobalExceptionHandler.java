@@ -2,6 +2,7 @@ package org.yanhuang.ai.controller;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -9,12 +10,18 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
 import org.yanhuang.ai.model.AnthropicErrorResponse;
+import org.yanhuang.ai.service.CircuitBreakerOpenException;
+import org.yanhuang.ai.service.RateLimitExceededException;
+import org.yanhuang.ai.service.UpstreamTimeoutException;
 
 @ControllerAdvice
 public class GlobalExceptionHandler {
 
     private static final Logger log = LoggerFactory.getLogger(GlobalExceptionHandler.class);
 
+    // Anthropic's status for overloaded_error; not in HttpStatus
+    private static final int OVERLOADED = 529;
+
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<AnthropicErrorResponse> handleBadRequest(IllegalArgumentException ex) {
         log.error("=== IllegalArgumentException Handler ===");
@@ -89,6 +96,34 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(ex.getStatusCode()).body(errorResponse);
     }
 
+    @ExceptionHandler(UpstreamTimeoutException.class)
+    public ResponseEntity<AnthropicErrorResponse> handleUpstreamTimeout(UpstreamTimeoutException ex) {
+        log.error("Upstream timeout ({}): {}", ex.getPhase(), ex.getMessage());
+
+        AnthropicErrorResponse errorResponse = AnthropicErrorResponse.apiError(ex.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(errorResponse);
+    }
+
+    @ExceptionHandler(CircuitBreakerOpenException.class)
+    public ResponseEntity<AnthropicErrorResponse> handleCircuitOpen(CircuitBreakerOpenException ex) {
+        log.warn("Rejected by circuit breaker {}: {}", ex.getCircuit(), ex.getMessage());
+
+        AnthropicErrorResponse errorResponse = AnthropicErrorResponse.overloadError(ex.getMessage());
+        return ResponseEntity.status(OVERLOADED)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, ex.getRetryAfter().toSeconds())))
+            .body(errorResponse);
+    }
+
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<AnthropicErrorResponse> handleAdmissionRejected(RateLimitExceededException ex) {
+        log.warn("Request shed locally: {}", ex.getMessage());
+
+        AnthropicErrorResponse errorResponse = AnthropicErrorResponse.rateLimitError(ex.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1000)))
+            .body(errorResponse);
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<AnthropicErrorResponse> handleGeneric(Exception ex) {
         log.error("=== Generic Exception Handler ===");
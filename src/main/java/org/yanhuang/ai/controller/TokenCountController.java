@@ -2,6 +2,7 @@ package org.yanhuang.ai.controller;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -9,9 +10,12 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.yanhuang.ai.service.TokenCounter;
 
 import java.util.Map;
-import java.util.concurrent.ThreadLocalRandom;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @RestController
 @RequestMapping("/v1/messages")
@@ -19,17 +23,27 @@ public class TokenCountController {
 
     private static final Logger log = LoggerFactory.getLogger(TokenCountController.class);
 
+    private final TokenCounter tokenCounter;
+
+    public TokenCountController(TokenCounter tokenCounter) {
+        this.tokenCounter = tokenCounter;
+    }
+
+    /**
+     * Count the input tokens of a Messages API request. The body is scanned as it streams in
+     * rather than bound, so large conversations and images cost little to count.
+     */
     @PostMapping(value = "/count_tokens", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Map<String, Object>> countTokens(
+    public Mono<ResponseEntity<Map<String, Object>>> countTokens(
             @RequestHeader(name = "anthropic-version", required = false) String apiVersion,
-            @RequestBody(required = false) Map<String, Object> body) {
-        int tokens = ThreadLocalRandom.current().nextInt(20, 501);
-        log.info("[ClaudeCode] count_tokens request, version={}, tokens={}", apiVersion, tokens);
-        return ResponseEntity.ok(Map.of(
-                "type", "token_count",
-                "input_tokens", tokens
-        ));
+            @RequestBody(required = false) Flux<DataBuffer> body) {
+        return tokenCounter.countInputTokens(body)
+            .map(tokens -> {
+                log.info("[ClaudeCode] count_tokens request, version={}, tokens={}", apiVersion, tokens);
+                return ResponseEntity.ok(Map.<String, Object>of(
+                        "type", "token_count",
+                        "input_tokens", tokens
+                ));
+            });
     }
 }
-
-
@@ -1,9 +1,11 @@
 package org.yanhuang.ai.model;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -43,6 +45,18 @@ public class AnthropicChatRequest {
 
     private Map<String, Object> thinking;
 
+    // Client-side timeout from the request headers; not part of the JSON body
+    @JsonIgnore
+    private Duration clientTimeout;
+
+    // Response cache opt-in (true) or opt-out (false) from the request headers; not part of the JSON body
+    @JsonIgnore
+    private Boolean cacheResponse;
+
+    // Input token count, filled in once by TokenCounter; not part of the JSON body
+    @JsonIgnore
+    private Integer inputTokens;
+
     public String getModel() {
         return model;
     }
@@ -146,5 +160,28 @@ public class AnthropicChatRequest {
     public void setThinking(Map<String, Object> thinking) {
         this.thinking = thinking;
     }
-}
 
+    public Duration getClientTimeout() {
+        return clientTimeout;
+    }
+
+    public void setClientTimeout(Duration clientTimeout) {
+        this.clientTimeout = clientTimeout;
+    }
+
+    public Boolean getCacheResponse() {
+        return cacheResponse;
+    }
+
+    public void setCacheResponse(Boolean cacheResponse) {
+        this.cacheResponse = cacheResponse;
+    }
+
+    public Integer getInputTokens() {
+        return inputTokens;
+    }
+
+    public void setInputTokens(Integer inputTokens) {
+        this.inputTokens = inputTokens;
+    }
+}
@@ -117,6 +117,12 @@ public class AnthropicChatResponse {
         @JsonProperty("output_tokens")
         private Integer outputTokens;
 
+        @JsonProperty("cache_creation_input_tokens")
+        private Integer cacheCreationInputTokens;
+
+        @JsonProperty("cache_read_input_tokens")
+        private Integer cacheReadInputTokens;
+
         public Integer getInputTokens() {
             return inputTokens;
         }
@@ -132,6 +138,22 @@ public class AnthropicChatResponse {
         public void setOutputTokens(Integer outputTokens) {
             this.outputTokens = outputTokens;
         }
+
+        public Integer getCacheCreationInputTokens() {
+            return cacheCreationInputTokens;
+        }
+
+        public void setCacheCreationInputTokens(Integer cacheCreationInputTokens) {
+            this.cacheCreationInputTokens = cacheCreationInputTokens;
+        }
+
+        public Integer getCacheReadInputTokens() {
+            return cacheReadInputTokens;
+        }
+
+        public void setCacheReadInputTokens(Integer cacheReadInputTokens) {
+            this.cacheReadInputTokens = cacheReadInputTokens;
+        }
     }
 }
 
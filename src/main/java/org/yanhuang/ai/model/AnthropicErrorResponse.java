@@ -113,8 +113,8 @@ public class AnthropicErrorResponse {
         @JsonProperty("api_error")
         API_ERROR("api_error"),
 
-        @JsonProperty("overload_error")
-        OVERLOAD_ERROR("overload_error"),
+        @JsonProperty("overloaded_error")
+        OVERLOAD_ERROR("overloaded_error"),
 
         @JsonProperty("internal_server_error")
         INTERNAL_SERVER_ERROR("internal_server_error");
@@ -0,0 +1,321 @@
+package org.yanhuang.ai.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * Stateful decoder for the AWS event-stream framing used by the Kiro gateway.
+ *
+ * Frame layout: total length (4) | headers length (4) | prelude CRC (4) | headers | payload | message CRC (4).
+ * Complete frames are decoded in place from the incoming buffer and handed to Jackson as a byte range;
+ * only the tail of a frame split across network chunks is copied into a reusable carry buffer.
+ * One instance per upstream response; not thread-safe.
+ */
+public class EventStreamDecoder {
+
+    private static final Logger log = LoggerFactory.getLogger(EventStreamDecoder.class);
+
+    private static final int PRELUDE_LENGTH = 12;
+    private static final int MESSAGE_CRC_LENGTH = 4;
+    private static final int MIN_FRAME_LENGTH = PRELUDE_LENGTH + MESSAGE_CRC_LENGTH;
+    // Far above any real event; a larger length prefix is corrupt and would never be filled
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte[] MESSAGE_TYPE = ":message-type".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EVENT_TYPE = ":event-type".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXCEPTION_TYPE = ":exception-type".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MESSAGE_TYPE_EVENT = "event".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int HEADER_TYPE_STRING = 7;
+
+    private final ObjectMapper mapper;
+
+    private byte[] carry = new byte[0];
+    private ByteBuffer carryView = ByteBuffer.wrap(carry);
+    private int carryLength;
+    private boolean malformed;
+
+    // Header value positions of the frame being decoded, relative to its buffer; -1 when absent
+    private int messageTypeOffset;
+    private int messageTypeLength;
+    private int eventTypeOffset;
+    private int eventTypeLength;
+    private int exceptionTypeOffset;
+    private int exceptionTypeLength;
+
+    public EventStreamDecoder(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Decode every frame completed by {@code chunk} and append the event payloads to {@code out}.
+     * Reads the chunk from its position to its limit without modifying either.
+     *
+     * @throws WebClientResponseException if the gateway sent an exception frame or a frame longer
+     *         than the maximum
+     */
+    public void decode(ByteBuffer chunk, List<JsonNode> out) {
+        if (malformed) {
+            return;
+        }
+        int position = chunk.position();
+        int limit = chunk.limit();
+
+        if (carryLength > 0) {
+            position = fillCarry(chunk, position, limit, out);
+        }
+
+        while (!malformed && position < limit) {
+            int remaining = limit - position;
+            if (remaining < 4) {
+                stash(chunk, position, remaining);
+                return;
+            }
+            int totalLength = chunk.getInt(position);
+            if (totalLength < MIN_FRAME_LENGTH) {
+                markMalformed(remaining);
+                return;
+            }
+            if (totalLength > MAX_FRAME_LENGTH) {
+                throw oversizedFrame(totalLength, remaining);
+            }
+            if (totalLength > remaining) {
+                stash(chunk, position, remaining);
+                return;
+            }
+            decodeFrame(chunk, position, totalLength, out);
+            position += totalLength;
+        }
+    }
+
+    /**
+     * Convenience overload for a fully buffered response.
+     */
+    public void decode(byte[] data, List<JsonNode> out) {
+        decode(ByteBuffer.wrap(data), out);
+    }
+
+    /**
+     * Number of bytes held back waiting for the rest of a split frame.
+     */
+    public int pendingBytes() {
+        return carryLength;
+    }
+
+    private int fillCarry(ByteBuffer chunk, int position, int limit, List<JsonNode> out) {
+        // Complete the length prefix first so we know how many bytes the frame needs
+        if (carryLength < 4) {
+            int take = Math.min(4 - carryLength, limit - position);
+            copyIntoCarry(chunk, position, take);
+            position += take;
+            if (carryLength < 4) {
+                return position;
+            }
+        }
+        int totalLength = carryView.getInt(0);
+        if (totalLength < MIN_FRAME_LENGTH) {
+            markMalformed(carryLength + limit - position);
+            return limit;
+        }
+        if (totalLength > MAX_FRAME_LENGTH) {
+            throw oversizedFrame(totalLength, carryLength + limit - position);
+        }
+        int take = Math.min(totalLength - carryLength, limit - position);
+        copyIntoCarry(chunk, position, take);
+        position += take;
+        if (carryLength == totalLength) {
+            carryLength = 0;
+            decodeFrame(carryView, 0, totalLength, out);
+        }
+        return position;
+    }
+
+    private void stash(ByteBuffer chunk, int position, int length) {
+        carryLength = 0;
+        copyIntoCarry(chunk, position, length);
+    }
+
+    private void copyIntoCarry(ByteBuffer chunk, int position, int length) {
+        int required = carryLength + length;
+        if (required > carry.length) {
+            carry = Arrays.copyOf(carry, Math.max(required, Math.max(256, carry.length * 2)));
+            carryView = ByteBuffer.wrap(carry);
+        }
+        chunk.get(position, carry, carryLength, length);
+        carryLength = required;
+    }
+
+    private void markMalformed(int discarded) {
+        log.warn("Discarding {} bytes of malformed event-stream data", discarded);
+        malformed = true;
+        carryLength = 0;
+    }
+
+    private WebClientResponseException oversizedFrame(int totalLength, int discarded) {
+        markMalformed(discarded);
+        String message = "Malformed event-stream frame: declared length " + totalLength
+            + " exceeds " + MAX_FRAME_LENGTH + " bytes";
+        return WebClientResponseException.create(502, message, HttpHeaders.EMPTY,
+            message.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    private void decodeFrame(ByteBuffer frame, int start, int totalLength, List<JsonNode> out) {
+        int headersLength = frame.getInt(start + 4);
+        int headersStart = start + PRELUDE_LENGTH;
+        int payloadStart = headersStart + headersLength;
+        int payloadEnd = start + totalLength - MESSAGE_CRC_LENGTH;
+        if (headersLength < 0 || payloadStart > payloadEnd) {
+            log.debug("Skipping event frame with invalid headers length {}", headersLength);
+            return;
+        }
+
+        readHeaders(frame, headersStart, payloadStart);
+
+        if (exceptionTypeOffset >= 0 || (messageTypeOffset >= 0
+                && !regionEquals(frame, messageTypeOffset, messageTypeLength, MESSAGE_TYPE_EVENT))) {
+            throw upstreamException(frame, payloadStart, payloadEnd);
+        }
+
+        // Some gateways prefix the JSON document; start at the first '{'
+        int jsonStart = payloadStart;
+        while (jsonStart < payloadEnd && frame.get(jsonStart) != '{') {
+            jsonStart++;
+        }
+        if (jsonStart == payloadEnd) {
+            return;
+        }
+
+        try {
+            out.add(readJson(frame, jsonStart, payloadEnd));
+            if (log.isDebugEnabled() && eventTypeOffset >= 0) {
+                log.debug("Decoded {} frame ({} bytes)", headerString(frame, eventTypeOffset, eventTypeLength), totalLength);
+            }
+        } catch (IOException ex) {
+            log.debug("Failed to parse event payload as JSON", ex);
+        }
+    }
+
+    private JsonNode readJson(ByteBuffer frame, int start, int end) throws IOException {
+        if (frame.hasArray()) {
+            return mapper.readTree(frame.array(), frame.arrayOffset() + start, end - start);
+        }
+        ByteBuffer view = frame.duplicate();
+        view.limit(end).position(start);
+        return mapper.readTree(new ByteBufferBackedInputStream(view));
+    }
+
+    private void readHeaders(ByteBuffer frame, int position, int end) {
+        messageTypeOffset = -1;
+        eventTypeOffset = -1;
+        exceptionTypeOffset = -1;
+
+        while (position < end) {
+            int nameLength = frame.get(position) & 0xFF;
+            int nameOffset = position + 1;
+            int typePosition = nameOffset + nameLength;
+            if (typePosition >= end) {
+                return;
+            }
+            int type = frame.get(typePosition);
+            int valuePosition = typePosition + 1;
+            int valueLength = headerValueLength(frame, type, valuePosition, end);
+            if (valueLength < 0) {
+                log.debug("Stopping header parsing at unknown header type {}", type);
+                return;
+            }
+            if (type == HEADER_TYPE_STRING) {
+                int stringOffset = valuePosition + 2;
+                int stringLength = valueLength - 2;
+                if (regionEquals(frame, nameOffset, nameLength, MESSAGE_TYPE)) {
+                    messageTypeOffset = stringOffset;
+                    messageTypeLength = stringLength;
+                } else if (regionEquals(frame, nameOffset, nameLength, EVENT_TYPE)) {
+                    eventTypeOffset = stringOffset;
+                    eventTypeLength = stringLength;
+                } else if (regionEquals(frame, nameOffset, nameLength, EXCEPTION_TYPE)) {
+                    exceptionTypeOffset = stringOffset;
+                    exceptionTypeLength = stringLength;
+                }
+            }
+            position = valuePosition + valueLength;
+        }
+    }
+
+    /**
+     * Encoded size of a header value, including any length prefix; -1 if the type is unknown
+     * or the value runs past the headers section.
+     */
+    private static int headerValueLength(ByteBuffer frame, int type, int position, int end) {
+        int length = switch (type) {
+            case 0, 1 -> 0;                 // boolean true / false
+            case 2 -> 1;                    // byte
+            case 3 -> 2;                    // short
+            case 4 -> 4;                    // int
+            case 5, 8 -> 8;                 // long, timestamp
+            case 9 -> 16;                   // uuid
+            case 6, HEADER_TYPE_STRING -> position + 2 <= end
+                ? 2 + (frame.getShort(position) & 0xFFFF)
+                : -1;                       // byte array / string with 2-byte length
+            default -> -1;
+        };
+        return length >= 0 && position + length <= end ? length : -1;
+    }
+
+    private static boolean regionEquals(ByteBuffer frame, int offset, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (frame.get(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String headerString(ByteBuffer frame, int offset, int length) {
+        byte[] bytes = new byte[length];
+        frame.get(offset, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private WebClientResponseException upstreamException(ByteBuffer frame, int payloadStart, int payloadEnd) {
+        String exceptionType = exceptionTypeOffset >= 0
+            ? headerString(frame, exceptionTypeOffset, exceptionTypeLength)
+            : headerString(frame, messageTypeOffset, messageTypeLength);
+        byte[] body = new byte[payloadEnd - payloadStart];
+        frame.get(payloadStart, body, 0, body.length);
+        log.error("Kiro stream returned {} frame: {}", exceptionType, new String(body, StandardCharsets.UTF_8));
+        return WebClientResponseException.create(statusFor(exceptionType), exceptionType,
+            HttpHeaders.EMPTY, body, StandardCharsets.UTF_8);
+    }
+
+    private static int statusFor(String exceptionType) {
+        String type = exceptionType.toLowerCase();
+        if (type.contains("throttl") || type.contains("toomanyrequests")) {
+            return 429;
+        }
+        if (type.contains("accessdenied")) {
+            return 403;
+        }
+        if (type.contains("validation")) {
+            return 400;
+        }
+        if (type.contains("unavailable")) {
+            return 503;
+        }
+        return 500;
+    }
+}
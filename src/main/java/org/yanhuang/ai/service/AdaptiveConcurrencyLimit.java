@@ -0,0 +1,163 @@
+package org.yanhuang.ai.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.yanhuang.ai.config.AppProperties;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * How many Kiro calls may run at once, adjusted from the time to Kiro's first event.
+ *
+ * Gradient style: the limit shrinks when recent first-event latency rises above its
+ * long-term average, grows by roughly its square root while latency holds, and is cut by
+ * 10% whenever Kiro answers with an overload error. {@link AdmissionLimiter} enforces it,
+ * with {@code max-in-flight} as the ceiling.
+ */
+@Component
+public class AdaptiveConcurrencyLimit implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+    // Samples the long-term latency average effectively spans
+    private static final int LONG_WINDOW = 600;
+    // Recent latency may be this much above the long-term average before the limit shrinks
+    private static final double RTT_TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final AppProperties.AdmissionProperties config;
+    private final RetryPolicy retryPolicy;
+    private final LongSupplier nanoClock;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Guarded by this
+    private double limit;
+    private double longRttNanos;
+
+    private volatile int currentLimit;
+
+    @Autowired
+    public AdaptiveConcurrencyLimit(AppProperties properties, RetryPolicy retryPolicy) {
+        this(properties, retryPolicy, () -> Schedulers.parallel().now(TimeUnit.NANOSECONDS));
+    }
+
+    AdaptiveConcurrencyLimit(AppProperties properties, RetryPolicy retryPolicy, LongSupplier nanoClock) {
+        this.config = properties.getAdmission();
+        this.retryPolicy = retryPolicy;
+        this.nanoClock = nanoClock;
+        this.limit = clamp(config.getInitialLimit());
+        this.currentLimit = (int) limit;
+    }
+
+    /**
+     * Calls allowed in flight right now; {@code max-in-flight} itself when adaptation is off.
+     */
+    public int getLimit() {
+        return config.isAdaptiveLimit() ? currentLimit : config.getMaxInFlight();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Long-term average time to Kiro's first event, in milliseconds; 0 before any sample.
+     */
+    public synchronized double getLongRttMillis() {
+        return longRttNanos / 1_000_000.0;
+    }
+
+    /**
+     * Time {@code call} to its first item and feed the result into the limit.
+     */
+    public <T> Flux<T> measure(Flux<T> call) {
+        return Flux.defer(() -> {
+            long started = nanoClock.getAsLong();
+            inFlight.incrementAndGet();
+            AtomicBoolean settled = new AtomicBoolean(false);
+            return call
+                .doOnNext(item -> {
+                    if (settled.compareAndSet(false, true)) {
+                        onSample(nanoClock.getAsLong() - started);
+                    }
+                })
+                .doOnError(error -> {
+                    if (settled.compareAndSet(false, true)
+                        && retryPolicy.classify(error) == RetryPolicy.Decision.BACKOFF_RETRY) {
+                        onOverload();
+                    }
+                })
+                .doFinally(signal -> inFlight.decrementAndGet());
+        });
+    }
+
+    synchronized void onSample(long rttNanos) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+        } else {
+            longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+            // Kiro got much faster than the average remembers; let the average catch up sooner
+            if (longRttNanos / rttNanos > 2) {
+                longRttNanos *= 0.95;
+            }
+        }
+        // Only move the limit while it is actually being used
+        if (inFlight.get() < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRttNanos / rttNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        update(limit * (1 - SMOOTHING) + target * SMOOTHING);
+    }
+
+    synchronized void onOverload() {
+        update(limit * BACKOFF_RATIO);
+    }
+
+    private void update(double next) {
+        limit = clamp(next);
+        int rounded = (int) limit;
+        if (rounded != currentLimit) {
+            if (log.isDebugEnabled()) {
+                log.debug("Kiro concurrency limit {} -> {} (long rtt {} ms, in flight {})",
+                    currentLimit, rounded, Math.round(longRttNanos / 1_000_000.0), inFlight.get());
+            }
+            currentLimit = rounded;
+        }
+    }
+
+    private double clamp(double value) {
+        int max = config.getMaxInFlight() > 0 ? config.getMaxInFlight() : Integer.MAX_VALUE;
+        int min = Math.min(Math.max(1, config.getMinLimit()), max);
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("kiro.concurrency.limit", this, AdaptiveConcurrencyLimit::getLimit)
+            .description("Kiro calls allowed in flight")
+            .register(registry);
+        Gauge.builder("kiro.concurrency.in.flight", this, AdaptiveConcurrencyLimit::getInFlight)
+            .description("Kiro calls in flight")
+            .register(registry);
+        Gauge.builder("kiro.concurrency.rtt", this, AdaptiveConcurrencyLimit::getLongRttMillis)
+            .description("Long-term average time to Kiro's first event")
+            .baseUnit("milliseconds")
+            .register(registry);
+    }
+}
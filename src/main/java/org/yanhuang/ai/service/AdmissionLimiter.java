@@ -0,0 +1,366 @@
+package org.yanhuang.ai.service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.yanhuang.ai.config.AppProperties;
+import org.yanhuang.ai.model.AnthropicChatRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Sheds load before it reaches Kiro: each API key gets a request and a token bucket, and
+ * at most {@link AdaptiveConcurrencyLimit#getLimit()} calls run at once across all keys,
+ * with a bounded queue of callers waiting for a slot. Anything over those limits fails
+ * fast with {@link RateLimitExceededException} instead of coming back from Kiro as a 429.
+ * The gateway has a single API key, so the key buckets limit all clients together and are
+ * off by default.
+ *
+ * Waiting callers are served by weighted fair queuing over their {@link RequestPriority},
+ * and batch calls may only hold {@code batch-max-share} of the limit, so interactive
+ * traffic is not stuck behind a backlog of agent or CI requests.
+ */
+@Component
+public class AdmissionLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionLimiter.class);
+
+    private static final Duration SATURATED_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final AppProperties.AdmissionProperties config;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final LongSupplier nanoClock;
+    // Only keys that passed authentication get here, so this stays as small as the key list
+    private final Map<String, KeyLimits> keys = new ConcurrentHashMap<>();
+
+    // Guarded by lock
+    private final Object lock = new Object();
+    private final Map<RequestPriority, ArrayDeque<Waiter>> queues = new EnumMap<>(RequestPriority.class);
+    private final Map<RequestPriority, Integer> inFlightByPriority = new EnumMap<>(RequestPriority.class);
+    // Finish tag of the last waiter queued per class, and of the last one started
+    private final Map<RequestPriority, Double> lastTag = new EnumMap<>(RequestPriority.class);
+    private double virtualTime;
+    private int inFlight;
+    private int queued;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public AdmissionLimiter(AppProperties properties, AdaptiveConcurrencyLimit concurrencyLimit) {
+        this(properties, concurrencyLimit, () -> Schedulers.parallel().now(TimeUnit.NANOSECONDS));
+    }
+
+    AdmissionLimiter(AppProperties properties, AdaptiveConcurrencyLimit concurrencyLimit, LongSupplier nanoClock) {
+        this.config = properties.getAdmission();
+        this.concurrencyLimit = concurrencyLimit;
+        this.nanoClock = nanoClock;
+        for (RequestPriority priority : RequestPriority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            inFlightByPriority.put(priority, 0);
+            lastTag.put(priority, 0.0);
+        }
+    }
+
+    /**
+     * Scheduling class of a request: an explicit {@code x-request-priority} header wins, then
+     * {@code metadata.priority}, then the key's place in {@code batch-api-keys}; otherwise
+     * streaming requests count as interactive and the rest as batch.
+     */
+    public RequestPriority classify(String apiKey, String priorityHeader, AnthropicChatRequest request) {
+        RequestPriority priority = RequestPriority.parse(priorityHeader);
+        if (priority == null && request.getMetadata() != null
+            && request.getMetadata().get("priority") instanceof String hint) {
+            priority = RequestPriority.parse(hint);
+        }
+        if (priority == null && apiKey != null && config.getBatchApiKeys() != null
+            && config.getBatchApiKeys().contains(apiKey)) {
+            priority = RequestPriority.BATCH;
+        }
+        if (priority == null) {
+            priority = Boolean.TRUE.equals(request.getStream()) ? RequestPriority.INTERACTIVE : RequestPriority.BATCH;
+        }
+        return priority;
+    }
+
+    /**
+     * Run {@code call} once the key's rate limits and a global in-flight slot allow it.
+     *
+     * @param priority        class the call queues in; null counts as interactive
+     * @param estimatedTokens input estimate plus max_tokens, charged to the key's token bucket
+     */
+    public <T> Flux<T> admit(String apiKey, RequestPriority priority, int estimatedTokens, Flux<T> call) {
+        if (!config.isEnabled()) {
+            return call;
+        }
+        RequestPriority resolved = priority != null ? priority : RequestPriority.INTERACTIVE;
+        return Flux.defer(() -> {
+            checkRate(apiKey, estimatedTokens);
+            return Flux.usingWhen(acquire(resolved), permit -> call,
+                permit -> Mono.fromRunnable(() -> release(permit)),
+                (permit, error) -> Mono.fromRunnable(() -> release(permit)),
+                permit -> Mono.fromRunnable(() -> release(permit)));
+        });
+    }
+
+    public <T> Mono<T> admit(String apiKey, RequestPriority priority, int estimatedTokens, Mono<T> call) {
+        return admit(apiKey, priority, estimatedTokens, call.flux()).singleOrEmpty();
+    }
+
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    public int getInFlight(RequestPriority priority) {
+        synchronized (lock) {
+            return inFlightByPriority.get(priority);
+        }
+    }
+
+    public int getQueued() {
+        synchronized (lock) {
+            return queued;
+        }
+    }
+
+    public int getQueued(RequestPriority priority) {
+        synchronized (lock) {
+            return queues.get(priority).size();
+        }
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private void checkRate(String apiKey, int estimatedTokens) {
+        KeyLimits limits = keys.computeIfAbsent(apiKey == null ? "" : apiKey, key -> new KeyLimits(config));
+        long waitNanos = limits.tryAcquire(estimatedTokens, nanoClock.getAsLong());
+        if (waitNanos > 0) {
+            rejected.increment();
+            Duration retryAfter = Duration.ofNanos(waitNanos);
+            throw new RateLimitExceededException("Rate limit exceeded for this API key, retry after "
+                + Math.max(1, ceilSeconds(retryAfter)) + " s", retryAfter);
+        }
+    }
+
+    private Mono<RequestPriority> acquire(RequestPriority priority) {
+        Mono<RequestPriority> slot = Mono.create(sink -> {
+            Waiter waiter = null;
+            boolean granted = false;
+            synchronized (lock) {
+                // Queued callers of the same or a higher class go first
+                if (queues.get(RequestPriority.INTERACTIVE).isEmpty()
+                    && (priority == RequestPriority.INTERACTIVE || queues.get(RequestPriority.BATCH).isEmpty())
+                    && canStart(priority)) {
+                    start(priority);
+                    granted = true;
+                } else if (queued < config.getMaxQueued()) {
+                    double tag = Math.max(virtualTime, lastTag.get(priority)) + 1.0 / weight(priority);
+                    lastTag.put(priority, tag);
+                    waiter = new Waiter(sink, priority, tag);
+                    queues.get(priority).add(waiter);
+                    queued++;
+                }
+            }
+            if (granted) {
+                admitted.increment();
+                sink.success(priority);
+                return;
+            }
+            if (waiter == null) {
+                sink.error(saturated());
+                return;
+            }
+            Waiter pending = waiter;
+            sink.onCancel(() -> {
+                if (pending.claimed.compareAndSet(false, true)) {
+                    synchronized (lock) {
+                        if (queues.get(priority).remove(pending)) {
+                            queued--;
+                        }
+                    }
+                } else {
+                    // A slot was handed over just as the caller gave up; pass it on
+                    release(priority);
+                }
+            });
+        });
+        return slot.timeout(Duration.ofMillis(Math.max(1, config.getMaxQueueWaitMillis())),
+            Mono.error(this::saturated));
+    }
+
+    private void release(RequestPriority priority) {
+        synchronized (lock) {
+            inFlight--;
+            inFlightByPriority.merge(priority, -1, Integer::sum);
+        }
+        // The limit may have moved since, so this can start none, one or several waiters
+        while (true) {
+            Waiter next;
+            synchronized (lock) {
+                next = nextEligible();
+                if (next == null) {
+                    return;
+                }
+                queues.get(next.priority).poll();
+                queued--;
+                virtualTime = Math.max(virtualTime, next.tag);
+                start(next.priority);
+            }
+            if (next.claimed.compareAndSet(false, true)) {
+                admitted.increment();
+                next.sink.success(next.priority);
+            } else {
+                synchronized (lock) {
+                    inFlight--;
+                    inFlightByPriority.merge(next.priority, -1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    // Call with lock held: the queue head with the smallest finish tag that may start now
+    private Waiter nextEligible() {
+        Waiter next = null;
+        for (ArrayDeque<Waiter> queue : queues.values()) {
+            Waiter head = queue.peek();
+            if (head != null && canStart(head.priority) && (next == null || head.tag < next.tag)) {
+                next = head;
+            }
+        }
+        return next;
+    }
+
+    // Call with lock held
+    private void start(RequestPriority priority) {
+        inFlight++;
+        inFlightByPriority.merge(priority, 1, Integer::sum);
+    }
+
+    // Call with lock held
+    private boolean canStart(RequestPriority priority) {
+        int limit = concurrencyLimit.getLimit();
+        if (limit > 0 && inFlight >= limit) {
+            return false;
+        }
+        if (priority != RequestPriority.BATCH || limit <= 0 || config.getBatchMaxShare() >= 1) {
+            return true;
+        }
+        int batchSlots = Math.max(1, (int) Math.ceil(limit * Math.max(0, config.getBatchMaxShare())));
+        return inFlightByPriority.get(RequestPriority.BATCH) < batchSlots;
+    }
+
+    private int weight(RequestPriority priority) {
+        int weight = priority == RequestPriority.BATCH ? config.getBatchWeight() : config.getInteractiveWeight();
+        return Math.max(1, weight);
+    }
+
+    private RateLimitExceededException saturated() {
+        rejected.increment();
+        if (log.isDebugEnabled()) {
+            log.debug("Admission queue saturated: in_flight={}, queued={}", getInFlight(), getQueued());
+        }
+        return new RateLimitExceededException("Too many concurrent requests, retry after "
+            + SATURATED_RETRY_AFTER.toSeconds() + " s", SATURATED_RETRY_AFTER);
+    }
+
+    private static long ceilSeconds(Duration duration) {
+        return (duration.toMillis() + 999) / 1000;
+    }
+
+    private static final class Waiter {
+        private final MonoSink<RequestPriority> sink;
+        private final RequestPriority priority;
+        // Virtual finish time; the smallest eligible one is served next
+        private final double tag;
+        // Set by whoever settles the waiter first: a releasing caller, or the waiter giving up
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Waiter(MonoSink<RequestPriority> sink, RequestPriority priority, double tag) {
+            this.sink = sink;
+            this.priority = priority;
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Request and token buckets of one API key; a null bucket means that limit is off.
+     */
+    private static final class KeyLimits {
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+
+        private KeyLimits(AppProperties.AdmissionProperties config) {
+            this.requests = config.getRequestsPerMinute() > 0
+                ? new TokenBucket(Math.max(1, config.getRequestBurst()), config.getRequestsPerMinute())
+                : null;
+            this.tokens = config.getTokensPerMinute() > 0
+                ? new TokenBucket(config.getTokensPerMinute(), config.getTokensPerMinute())
+                : null;
+        }
+
+        /**
+         * Take one request and {@code estimatedTokens} tokens, or neither.
+         *
+         * @return 0 when admitted, otherwise how long until both buckets would have enough
+         */
+        synchronized long tryAcquire(int estimatedTokens, long now) {
+            // A request bigger than the whole bucket would never fit; it costs a full bucket instead
+            double tokenCost = tokens == null ? 0 : Math.min(Math.max(0, estimatedTokens), tokens.capacity);
+            long wait = Math.max(requests == null ? 0 : requests.waitNanos(1, now),
+                tokens == null ? 0 : tokens.waitNanos(tokenCost, now));
+            if (wait > 0) {
+                return wait;
+            }
+            if (requests != null) {
+                requests.level -= 1;
+            }
+            if (tokens != null) {
+                tokens.level -= tokenCost;
+            }
+            return 0;
+        }
+    }
+
+    private static final class TokenBucket {
+        private final double capacity;
+        private final double perNano;
+        private double level;
+        private long updatedAt = Long.MIN_VALUE;
+
+        private TokenBucket(double capacity, double perMinute) {
+            this.capacity = capacity;
+            this.perNano = perMinute / TimeUnit.MINUTES.toNanos(1);
+            this.level = capacity;
+        }
+
+        long waitNanos(double cost, long now) {
+            if (updatedAt != Long.MIN_VALUE) {
+                level = Math.min(capacity, level + (now - updatedAt) * perNano);
+            }
+            updatedAt = now;
+            return level >= cost ? 0 : (long) Math.ceil((cost - level) / perNano);
+        }
+    }
+}
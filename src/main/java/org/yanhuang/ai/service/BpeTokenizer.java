@@ -0,0 +1,375 @@
+package org.yanhuang.ai.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Byte-level BPE tokenizer used for token counts and usage reporting.
+ *
+ * Text is split into pieces much like GPT-2 does it (words with their leading space,
+ * runs of up to three digits, punctuation runs, whitespace, single CJK characters),
+ * each piece is UTF-8 encoded, and adjacent tokens are merged by rank until no merge
+ * applies. The merges come from {@value #VOCABULARY}: the magic {@code BPE1}, a count,
+ * then that many big-endian {@code u16} pairs in rank order, merge {@code i} producing
+ * token {@code 256 + i}. tools/tokenizer/build_vocabulary.py builds them from pinned
+ * public sources (Node.js, Vim and Perl documentation, JDK and Python library sources),
+ * with merges added so common Chinese, Japanese and Korean characters are one token
+ * each. Counts are close to, not equal to, Claude's own.
+ *
+ * Counting allocates nothing: merges live in a primitive open-addressing table and
+ * each thread reuses one scratch buffer per piece.
+ */
+public final class BpeTokenizer {
+
+    static final String VOCABULARY = "tokenizer/bpe-merges.bin";
+
+    private static final int MAGIC = 0x42504531; // "BPE1"
+    private static final int BYTE_TOKENS = 256;
+    // Longest piece in code points; longer runs are split, which keeps merging linear in the input
+    private static final int MAX_PIECE = 64;
+    private static final int NO_MERGE = Integer.MAX_VALUE;
+
+    private static final int LETTER = 0;
+    private static final int DIGIT = 1;
+    private static final int CJK = 2;
+    private static final int SPACE = 3;
+    private static final int OTHER = 4;
+
+    // (left << 16 | right) -> merged token, linear probing; -1 marks a free slot
+    private final int[] mergeKeys;
+    private final char[] mergeValues;
+    private final int mask;
+    private final int shift;
+    // Parts of each merged token, for decoding
+    private final char[] lefts;
+    private final char[] rights;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private BpeTokenizer(char[] lefts, char[] rights) {
+        this.lefts = lefts;
+        this.rights = rights;
+        int capacity = Integer.highestOneBit(Math.max(16, lefts.length * 2 + 1) - 1) << 1;
+        this.mergeKeys = new int[capacity];
+        this.mergeValues = new char[capacity];
+        this.mask = capacity - 1;
+        this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        Arrays.fill(mergeKeys, -1);
+        for (int i = 0; i < lefts.length; i++) {
+            int key = lefts[i] << 16 | rights[i];
+            int slot = slot(key);
+            while (mergeKeys[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            mergeKeys[slot] = key;
+            mergeValues[slot] = (char) (BYTE_TOKENS + i);
+        }
+    }
+
+    /**
+     * The tokenizer over the bundled vocabulary, loaded on first use.
+     */
+    public static BpeTokenizer shared() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Load merges from a classpath resource, memory-mapping it when it is a plain file.
+     */
+    static BpeTokenizer load(String resource) {
+        URL url = BpeTokenizer.class.getClassLoader().getResource(resource);
+        if (url == null) {
+            throw new IllegalStateException("Tokenizer vocabulary " + resource + " not found on the classpath");
+        }
+        try {
+            ByteBuffer data;
+            if ("file".equals(url.getProtocol())) {
+                try (FileChannel channel = FileChannel.open(Path.of(url.toURI()), StandardOpenOption.READ)) {
+                    data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            } else {
+                try (InputStream in = url.openStream()) {
+                    data = ByteBuffer.wrap(in.readAllBytes());
+                }
+            }
+            return parse(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read tokenizer vocabulary " + resource, e);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Bad tokenizer vocabulary location " + url, e);
+        }
+    }
+
+    static BpeTokenizer parse(ByteBuffer data) {
+        if (data.remaining() < 8 || data.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a BPE1 tokenizer vocabulary");
+        }
+        int count = data.getInt();
+        if (count < 0 || count > Character.MAX_VALUE - BYTE_TOKENS || data.remaining() < count * 4L) {
+            throw new IllegalStateException("Corrupt tokenizer vocabulary: " + count + " merges");
+        }
+        char[] lefts = new char[count];
+        char[] rights = new char[count];
+        for (int i = 0; i < count; i++) {
+            lefts[i] = data.getChar();
+            rights[i] = data.getChar();
+            if (lefts[i] >= BYTE_TOKENS + i || rights[i] >= BYTE_TOKENS + i) {
+                throw new IllegalStateException("Corrupt tokenizer vocabulary: merge " + i + " uses a later token");
+            }
+        }
+        return new BpeTokenizer(lefts, rights);
+    }
+
+    public int vocabularySize() {
+        return BYTE_TOKENS + lefts.length;
+    }
+
+    /**
+     * Number of tokens in {@code text}; 0 for null or empty text.
+     */
+    public int count(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        Scratch buffers = scratch.get();
+        int total = 0;
+        int length = text.length();
+        for (int start = 0; start < length; ) {
+            int end = pieceEnd(text, start);
+            total += mergePiece(text, start, end, buffers);
+            start = end;
+        }
+        return total;
+    }
+
+    public int[] encode(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return new int[0];
+        }
+        Scratch buffers = scratch.get();
+        int[] tokens = new int[Math.max(16, text.length() / 3)];
+        int size = 0;
+        int length = text.length();
+        for (int start = 0; start < length; ) {
+            int end = pieceEnd(text, start);
+            int pieceTokens = mergePiece(text, start, end, buffers);
+            if (size + pieceTokens > tokens.length) {
+                tokens = Arrays.copyOf(tokens, Math.max(tokens.length * 2, size + pieceTokens));
+            }
+            System.arraycopy(buffers.ids, 0, tokens, size, pieceTokens);
+            size += pieceTokens;
+            start = end;
+        }
+        return Arrays.copyOf(tokens, size);
+    }
+
+    public String decode(int[] tokens) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(tokens.length * 4);
+        for (int token : tokens) {
+            if (token < 0 || token >= vocabularySize()) {
+                throw new IllegalArgumentException("Unknown token " + token);
+            }
+            appendBytes(token, bytes);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private void appendBytes(int token, ByteArrayOutputStream bytes) {
+        if (token < BYTE_TOKENS) {
+            bytes.write(token);
+            return;
+        }
+        appendBytes(lefts[token - BYTE_TOKENS], bytes);
+        appendBytes(rights[token - BYTE_TOKENS], bytes);
+    }
+
+    /**
+     * UTF-8 encode {@code text[start, end)} into the scratch ids and apply merges by rank.
+     *
+     * @return the number of tokens left in {@code buffers.ids}
+     */
+    private int mergePiece(CharSequence text, int start, int end, Scratch buffers) {
+        int[] ids = buffers.ids;
+        int size = 0;
+        for (int i = start; i < end; ) {
+            int cp = Character.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if (cp < 0x80) {
+                ids[size++] = cp;
+            } else if (cp < 0x800) {
+                ids[size++] = 0xC0 | cp >> 6;
+                ids[size++] = 0x80 | cp & 0x3F;
+            } else if (cp < 0x10000) {
+                ids[size++] = 0xE0 | cp >> 12;
+                ids[size++] = 0x80 | cp >> 6 & 0x3F;
+                ids[size++] = 0x80 | cp & 0x3F;
+            } else {
+                ids[size++] = 0xF0 | cp >> 18;
+                ids[size++] = 0x80 | cp >> 12 & 0x3F;
+                ids[size++] = 0x80 | cp >> 6 & 0x3F;
+                ids[size++] = 0x80 | cp & 0x3F;
+            }
+        }
+        if (size < 2) {
+            return size;
+        }
+
+        // ranks[i] is the token ids[i] and ids[i + 1] merge into; lower tokens were learned first
+        int[] ranks = buffers.ranks;
+        for (int i = 0; i < size - 1; i++) {
+            ranks[i] = lookup(ids[i], ids[i + 1]);
+        }
+        while (size > 1) {
+            int best = 0;
+            for (int i = 1; i < size - 1; i++) {
+                if (ranks[i] < ranks[best]) {
+                    best = i;
+                }
+            }
+            int merged = ranks[best];
+            if (merged == NO_MERGE) {
+                break;
+            }
+            ids[best] = merged;
+            System.arraycopy(ids, best + 2, ids, best + 1, size - best - 2);
+            System.arraycopy(ranks, best + 2, ranks, best + 1, Math.max(0, size - best - 3));
+            size--;
+            if (best > 0) {
+                ranks[best - 1] = lookup(ids[best - 1], merged);
+            }
+            if (best < size - 1) {
+                ranks[best] = lookup(merged, ids[best + 1]);
+            }
+        }
+        return size;
+    }
+
+    private int lookup(int left, int right) {
+        int key = left << 16 | right;
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            int candidate = mergeKeys[slot];
+            if (candidate == key) {
+                return mergeValues[slot];
+            }
+            if (candidate == -1) {
+                return NO_MERGE;
+            }
+        }
+    }
+
+    private int slot(int key) {
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * End of the piece starting at {@code start}: a word or punctuation run with its leading
+     * space, up to three digits, one CJK character, or a whitespace run that leaves its last
+     * space to the word after it.
+     */
+    private static int pieceEnd(CharSequence text, int start) {
+        int length = text.length();
+        int i = start;
+        int cp = Character.codePointAt(text, i);
+        int type = classify(cp);
+        int pieceLength = 0;
+        if (cp == ' ' && i + 1 < length) {
+            int nextType = classify(Character.codePointAt(text, i + 1));
+            if (nextType == LETTER || nextType == DIGIT || nextType == OTHER) {
+                i++;
+                pieceLength++;
+                cp = Character.codePointAt(text, i);
+                type = nextType;
+            }
+        }
+        switch (type) {
+            case CJK:
+                return i + Character.charCount(cp);
+            case DIGIT: {
+                int digits = 0;
+                while (i < length && digits < 3) {
+                    cp = Character.codePointAt(text, i);
+                    if (classify(cp) != DIGIT) {
+                        break;
+                    }
+                    i += Character.charCount(cp);
+                    digits++;
+                }
+                return i;
+            }
+            case SPACE: {
+                int last = -1;
+                int lastStart = i;
+                while (i < length && pieceLength < MAX_PIECE) {
+                    cp = Character.codePointAt(text, i);
+                    if (classify(cp) != SPACE) {
+                        break;
+                    }
+                    last = cp;
+                    lastStart = i;
+                    i += Character.charCount(cp);
+                    pieceLength++;
+                }
+                if (i < length && pieceLength > 1 && last == ' '
+                    && classify(Character.codePointAt(text, i)) != SPACE) {
+                    return lastStart;
+                }
+                return i;
+            }
+            default:
+                while (i < length && pieceLength < MAX_PIECE) {
+                    cp = Character.codePointAt(text, i);
+                    if (classify(cp) != type) {
+                        break;
+                    }
+                    i += Character.charCount(cp);
+                    pieceLength++;
+                }
+                return i;
+        }
+    }
+
+    private static int classify(int cp) {
+        if (cp < 0x80) {
+            if (cp >= 'a' && cp <= 'z' || cp >= 'A' && cp <= 'Z') {
+                return LETTER;
+            }
+            if (cp >= '0' && cp <= '9') {
+                return DIGIT;
+            }
+            return Character.isWhitespace(cp) ? SPACE : OTHER;
+        }
+        if (cp >= 0x3040 && cp <= 0x30FF || cp >= 0x3400 && cp <= 0x4DBF || cp >= 0x4E00 && cp <= 0x9FFF
+            || cp >= 0xAC00 && cp <= 0xD7AF || cp >= 0xF900 && cp <= 0xFAFF) {
+            return CJK;
+        }
+        int category = Character.getType(cp);
+        if (Character.isLetter(cp) || category == Character.NON_SPACING_MARK
+            || category == Character.COMBINING_SPACING_MARK) {
+            return LETTER;
+        }
+        if (category == Character.DECIMAL_DIGIT_NUMBER) {
+            return DIGIT;
+        }
+        return Character.isWhitespace(cp) ? SPACE : OTHER;
+    }
+
+    private static final class Scratch {
+        // A piece is at most MAX_PIECE code points of up to four UTF-8 bytes each
+        private final int[] ids = new int[MAX_PIECE * 4 + 4];
+        private final int[] ranks = new int[MAX_PIECE * 4 + 4];
+    }
+
+    private static final class Holder {
+        private static final BpeTokenizer INSTANCE = load(VOCABULARY);
+    }
+}
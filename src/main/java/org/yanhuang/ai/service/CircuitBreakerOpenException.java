@@ -0,0 +1,28 @@
+package org.yanhuang.ai.service;
+
+import java.time.Duration;
+
+/**
+ * Raised without calling Kiro while the circuit breaker for the target endpoint is open.
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String circuit;
+    private final Duration retryAfter;
+
+    public CircuitBreakerOpenException(String circuit, Duration retryAfter) {
+        super("Kiro upstream is overloaded, retry after " + Math.max(1, retryAfter.toSeconds()) + " s");
+        this.circuit = circuit;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getCircuit() {
+        return circuit;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
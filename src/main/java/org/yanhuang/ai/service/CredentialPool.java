@@ -0,0 +1,191 @@
+package org.yanhuang.ai.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import org.yanhuang.ai.config.AppProperties;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The Kiro accounts requests are spread over: the primary one from the top-level
+ * {@code app.kiro} settings plus any listed under {@code app.kiro.credentials}.
+ *
+ * Requests go to the account with the fewest in-flight calls relative to its weight.
+ * An account answering 429, or 403 twice in a row, is ejected for the cool-down period
+ * and only used again before that when every other account is unavailable too.
+ */
+@Component
+public class CredentialPool {
+
+    private static final Logger log = LoggerFactory.getLogger(CredentialPool.class);
+
+    public record Snapshot(String profileArn, int weight, int inFlight, long requests, long failures,
+                           long throttled, long ejections, long cooldownRemainingMillis) {
+    }
+
+    private final AppProperties.KiroProperties kiro;
+    private final List<KiroCredential> credentials;
+    private final LongSupplier nanoClock;
+    // Rotating start point, so ties don't always go to the first account
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    @Autowired
+    public CredentialPool(AppProperties properties) {
+        this(properties, () -> Schedulers.parallel().now(TimeUnit.NANOSECONDS));
+    }
+
+    CredentialPool(AppProperties properties, LongSupplier nanoClock) {
+        this.kiro = properties.getKiro();
+        this.nanoClock = nanoClock;
+        this.credentials = Collections.unmodifiableList(buildCredentials(kiro));
+        if (credentials.size() > 1) {
+            log.info("Kiro credential pool: {}", credentials);
+        }
+    }
+
+    public List<KiroCredential> getCredentials() {
+        return credentials;
+    }
+
+    public KiroCredential primary() {
+        return credentials.get(0);
+    }
+
+    /**
+     * Pick the account for the next call, preferring ones that are not cooling down and
+     * pass {@code usable}; among those, the lowest in-flight count per unit of weight.
+     */
+    public KiroCredential select(Predicate<KiroCredential> usable) {
+        if (credentials.size() == 1) {
+            return credentials.get(0);
+        }
+        long now = nanoClock.getAsLong();
+        int start = Math.floorMod(cursor.getAndIncrement(), credentials.size());
+        KiroCredential best = null;
+        int bestTier = Integer.MAX_VALUE;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < credentials.size(); i++) {
+            KiroCredential candidate = credentials.get((start + i) % credentials.size());
+            int tier = (candidate.cooldownUntilNanos - now > 0 ? 2 : 0) + (usable.test(candidate) ? 0 : 1);
+            double load = (candidate.inFlight.get() + 1.0) / candidate.getWeight();
+            if (tier < bestTier || (tier == bestTier && load < bestLoad)) {
+                best = candidate;
+                bestTier = tier;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Count {@code call} against the account while it runs, and eject the account if the
+     * call is throttled or keeps getting rejected.
+     */
+    public <T> Flux<T> track(KiroCredential credential, Flux<T> call) {
+        return Flux.defer(() -> {
+            credential.inFlight.incrementAndGet();
+            credential.requests.increment();
+            AtomicBoolean accepted = new AtomicBoolean(false);
+            return call
+                .doOnNext(item -> {
+                    if (accepted.compareAndSet(false, true)) {
+                        credential.authFailures.set(0);
+                    }
+                })
+                .doOnError(error -> onFailure(credential, error))
+                .doFinally(signal -> credential.inFlight.decrementAndGet());
+        });
+    }
+
+    /**
+     * Counters and cool-down state of every account, by name.
+     */
+    public Map<String, Snapshot> snapshot() {
+        long now = nanoClock.getAsLong();
+        Map<String, Snapshot> result = new LinkedHashMap<>();
+        for (KiroCredential credential : credentials) {
+            long cooldown = Math.max(0, credential.cooldownUntilNanos - now);
+            result.put(credential.getName(), new Snapshot(credential.getProfileArn(), credential.getWeight(),
+                credential.inFlight.get(), credential.requests.sum(), credential.failures.sum(),
+                credential.throttled.sum(), credential.ejections.sum(), TimeUnit.NANOSECONDS.toMillis(cooldown)));
+        }
+        return result;
+    }
+
+    private void onFailure(KiroCredential credential, Throwable error) {
+        credential.failures.increment();
+        if (!(error instanceof WebClientResponseException responseError)) {
+            return;
+        }
+        int status = responseError.getStatusCode().value();
+        if (status == 429) {
+            credential.throttled.increment();
+            long retryAfter = RetryPolicy.retryAfterMillis(responseError);
+            eject(credential, Math.max(TimeUnit.SECONDS.toMillis(kiro.getCredentialCooldownSeconds()), retryAfter), "throttled");
+        } else if (status == 403 && credential.authFailures.incrementAndGet() >= 2) {
+            eject(credential, TimeUnit.SECONDS.toMillis(kiro.getCredentialCooldownSeconds()), "rejected");
+        }
+    }
+
+    private void eject(KiroCredential credential, long cooldownMillis, String reason) {
+        credential.cooldownUntilNanos = nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+        credential.ejections.increment();
+        if (credentials.size() > 1) {
+            log.warn("Kiro credential {} {}, out of rotation for {} ms", credential.getName(), reason, cooldownMillis);
+        }
+    }
+
+    private static List<KiroCredential> buildCredentials(AppProperties.KiroProperties kiro) {
+        List<KiroCredential> result = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        // The primary account's tokens live in TokenManager
+        result.add(new KiroCredential(uniqueName(profileId(kiro.getProfileArn()), names), kiro.getProfileArn(),
+            1, true, null, null, null));
+
+        List<AppProperties.CredentialProperties> extra = kiro.getCredentials();
+        if (extra == null) {
+            return result;
+        }
+        for (int i = 0; i < extra.size(); i++) {
+            AppProperties.CredentialProperties config = extra.get(i);
+            if (config.getProfileArn() == null || config.getProfileArn().isBlank()) {
+                throw new IllegalStateException("app.kiro.credentials[" + i + "].profile-arn is required");
+            }
+            String name = config.getName() != null && !config.getName().isBlank()
+                ? config.getName()
+                : profileId(config.getProfileArn());
+            result.add(new KiroCredential(uniqueName(name, names), config.getProfileArn(), config.getWeight(),
+                false, config.getAccessToken(), config.getRefreshToken(), config.getAccessTokenExpiresAt()));
+        }
+        return result;
+    }
+
+    private static String profileId(String profileArn) {
+        return profileArn == null ? "primary" : profileArn.substring(profileArn.lastIndexOf('/') + 1);
+    }
+
+    private static String uniqueName(String name, Set<String> taken) {
+        String unique = name;
+        for (int i = 2; !taken.add(unique); i++) {
+            unique = name + "-" + i;
+        }
+        return unique;
+    }
+}
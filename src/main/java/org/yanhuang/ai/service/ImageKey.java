@@ -0,0 +1,26 @@
+package org.yanhuang.ai.service;
+
+/**
+ * Cache key for base64 image data. The hash covers the length and a fixed sample of characters, so a
+ * lookup does not hash megabytes; equality, checked after the hash, still compares the whole data.
+ */
+record ImageKey(int hash, String data) {
+
+    // Characters of the data hashed into a key, spread evenly over it
+    private static final int SAMPLES = 64;
+
+    static ImageKey of(String data) {
+        int length = data.length();
+        int hash = length;
+        int step = Math.max(1, length / SAMPLES);
+        for (int i = 0; i < length; i += step) {
+            hash = 31 * hash + data.charAt(i);
+        }
+        return new ImageKey(length == 0 ? hash : hash + data.charAt(length - 1), data);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,244 @@
+package org.yanhuang.ai.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.yanhuang.ai.config.AppProperties;
+
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Downscales images larger than the configured budget before they are forwarded to Kiro.
+ *
+ * Dimensions are read from the image header on the calling thread, so images within budget pass
+ * through untouched. The others are decoded, scaled and re-encoded with ImageIO on a small bounded
+ * pool, never on the event loop: as PNG when they have transparency, as JPEG otherwise. Results are
+ * cached by content, so a screenshot resent on every turn is resized once. Whenever an image cannot
+ * be resized (a format ImageIO does not read, a full pool, a result no smaller) the original is sent.
+ */
+@Component
+public class ImagePreprocessor {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagePreprocessor.class);
+
+    // Larger images are not decoded at all: their raster alone would take hundreds of megabytes
+    private static final long MAX_DECODE_PIXELS = 40_000_000L;
+
+    private final AppProperties.ImageProperties config;
+    private final Scheduler workers;
+    private final long maxCachedChars;
+
+    // Original data to the image sent in its place, least recently used first; guarded by itself
+    private final Map<ImageKey, KiroPayload.Image> preparedImages = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedChars;
+
+    public ImagePreprocessor(AppProperties properties) {
+        this.config = properties.getKiro().getImages();
+        this.workers = Schedulers.newBoundedElastic(Math.max(1, config.getWorkers()), Math.max(0, config.getMaxQueued()),
+            "kiro-image", 60, true);
+        this.maxCachedChars = (long) config.getCacheSizeMegabytes() * 1024 * 1024;
+    }
+
+    /**
+     * The images to send in place of {@code images}, in the same order
+     */
+    public Mono<List<KiroPayload.Image>> prepare(List<KiroPayload.Image> images) {
+        if (!config.isEnabled() || images.isEmpty()) {
+            return Mono.just(images);
+        }
+        return Flux.fromIterable(images)
+            .flatMapSequential(this::prepare)
+            .collectList();
+    }
+
+    private Mono<KiroPayload.Image> prepare(KiroPayload.Image image) {
+        ImageProbe.Dimensions dimensions = ImageProbe.probe(image.data());
+        if (dimensions == null || scale(dimensions) >= 1.0
+            || (long) dimensions.width() * dimensions.height() > MAX_DECODE_PIXELS) {
+            return Mono.just(image);
+        }
+        ImageKey key = ImageKey.of(image.data());
+        KiroPayload.Image cached;
+        synchronized (preparedImages) {
+            cached = preparedImages.get(key);
+        }
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return Mono.fromCallable(() -> resize(image, dimensions))
+            .subscribeOn(workers)
+            .doOnNext(prepared -> remember(key, prepared))
+            .onErrorResume(ex -> {
+                // Includes a rejected task when every worker is busy and the queue is full
+                log.warn("Sending {}x{} {} image as is: {}", dimensions.width(), dimensions.height(), image.format(), ex.toString());
+                return Mono.just(image);
+            });
+    }
+
+    /**
+     * Factor to scale an image by to fit the long edge and pixel budgets, at most 1
+     */
+    double scale(ImageProbe.Dimensions dimensions) {
+        long pixels = (long) dimensions.width() * dimensions.height();
+        double edgeScale = (double) config.getMaxLongEdge() / Math.max(dimensions.width(), dimensions.height());
+        double pixelScale = Math.sqrt((double) config.getMaxPixels() / pixels);
+        return Math.min(1.0, Math.min(edgeScale, pixelScale));
+    }
+
+    private KiroPayload.Image resize(KiroPayload.Image image, ImageProbe.Dimensions dimensions) throws IOException {
+        byte[] original = Base64.getDecoder().decode(image.data());
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(original));
+        if (source == null) {
+            // No ImageIO reader for the format, e.g. WebP
+            return image;
+        }
+        double scale = scale(dimensions);
+        int width = Math.max(1, (int) (source.getWidth() * scale));
+        int height = Math.max(1, (int) (source.getHeight() * scale));
+        boolean alpha = source.getColorModel().hasAlpha();
+        BufferedImage scaled = scale(source, width, height, alpha);
+
+        String format = alpha && isTranslucent(scaled) ? "png" : "jpeg";
+        byte[] encoded = "png".equals(format) ? encodePng(scaled) : encodeJpeg(opaque(scaled));
+        if (encoded.length >= original.length) {
+            return image;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Downscaled {} image {}x{} to {} {}x{}: {} -> {} bytes", image.format(), dimensions.width(),
+                dimensions.height(), format, width, height, original.length, encoded.length);
+        }
+        return new KiroPayload.Image(format, Base64.getEncoder().encodeToString(encoded));
+    }
+
+    /**
+     * Bilinear scaling, halving first while the image is over twice the target size so that
+     * every pixel of the source still contributes to the result
+     */
+    private static BufferedImage scale(BufferedImage source, int width, int height, boolean alpha) {
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            BufferedImage step = new BufferedImage(currentWidth, currentHeight, type);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = step;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    private static boolean isTranslucent(BufferedImage image) {
+        int[] row = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+            for (int argb : row) {
+                if (argb >>> 24 != 0xFF) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // JPEG has no alpha channel; ImageIO refuses to write one
+    private static BufferedImage opaque(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", out)) {
+            throw new IOException("No PNG writer");
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG writer");
+        }
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(config.getJpegQuality());
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private void remember(ImageKey key, KiroPayload.Image prepared) {
+        long chars = cachedChars(key, prepared);
+        if (chars > maxCachedChars) {
+            return;
+        }
+        synchronized (preparedImages) {
+            KiroPayload.Image previous = preparedImages.put(key, prepared);
+            cachedChars += chars;
+            if (previous != null) {
+                cachedChars -= cachedChars(key, previous);
+            }
+            Iterator<Map.Entry<ImageKey, KiroPayload.Image>> eldest = preparedImages.entrySet().iterator();
+            while (cachedChars > maxCachedChars) {
+                Map.Entry<ImageKey, KiroPayload.Image> entry = eldest.next();
+                cachedChars -= cachedChars(entry.getKey(), entry.getValue());
+                eldest.remove();
+            }
+        }
+    }
+
+    // An image sent as is shares its data with the key
+    private static long cachedChars(ImageKey key, KiroPayload.Image prepared) {
+        return key.data().length() + (prepared.data() == key.data() ? 0 : prepared.data().length());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.dispose();
+    }
+}
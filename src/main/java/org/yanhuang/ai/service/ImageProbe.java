@@ -0,0 +1,232 @@
+package org.yanhuang.ai.service;
+
+import java.util.Arrays;
+
+/**
+ * Reads the pixel dimensions of a base64-encoded PNG, JPEG, GIF or WebP image from its header.
+ *
+ * Base64 maps every 3 bytes to 4 characters, so any byte can be decoded on its own from the
+ * character quad that holds it. Only the header fields are decoded: JPEG segments before the frame
+ * header are skipped by their length, not read, and the image data itself is never touched.
+ */
+public final class ImageProbe {
+
+    public record Dimensions(int width, int height) {
+    }
+
+    // JPEG segments to walk before giving up on finding the frame header
+    private static final int MAX_JPEG_SEGMENTS = 128;
+
+    // Value of each Latin-1 character in the base64 alphabet, -1 outside it
+    static final byte[] BASE64_VALUES = new byte[256];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private ImageProbe() {
+    }
+
+    /**
+     * Media type of the image in {@code base64} by its magic bytes, or null if it is none of
+     * image/png, image/jpeg, image/gif and image/webp.
+     */
+    public static String mediaType(CharSequence base64) {
+        if (base64 == null || base64.length() < 16) {
+            return null;
+        }
+        if (matches(base64, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (matches(base64, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (matches(base64, 0, 'G', 'I', 'F', '8') && (u8(base64, 4) == '7' || u8(base64, 4) == '9') && u8(base64, 5) == 'a') {
+            return "image/gif";
+        }
+        if (matches(base64, 0, 'R', 'I', 'F', 'F') && matches(base64, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        return null;
+    }
+
+    /**
+     * Dimensions of the image in {@code base64}, or null if it is not a well-formed image of a
+     * supported format (a URL, an unsupported format, or a header cut short).
+     */
+    public static Dimensions probe(CharSequence base64) {
+        if (base64 == null || base64.length() < 16) {
+            return null;
+        }
+        int b0 = u8(base64, 0);
+        int b1 = u8(base64, 1);
+        if (b0 == 0x89 && b1 == 'P' && u8(base64, 2) == 'N' && u8(base64, 3) == 'G') {
+            return png(base64);
+        }
+        if (b0 == 0xFF && b1 == 0xD8) {
+            return jpeg(base64);
+        }
+        if (b0 == 'G' && b1 == 'I' && u8(base64, 2) == 'F') {
+            return dimensions(u16le(base64, 6), u16le(base64, 8));
+        }
+        if (b0 == 'R' && b1 == 'I' && u8(base64, 2) == 'F' && u8(base64, 3) == 'F'
+            && u8(base64, 8) == 'W' && u8(base64, 9) == 'E' && u8(base64, 10) == 'B' && u8(base64, 11) == 'P') {
+            return webp(base64);
+        }
+        return null;
+    }
+
+    private static Dimensions png(CharSequence base64) {
+        // Signature (8), then the IHDR chunk: length (4), type (4), width (4), height (4)
+        if (u8(base64, 12) != 'I' || u8(base64, 13) != 'H' || u8(base64, 14) != 'D' || u8(base64, 15) != 'R') {
+            return null;
+        }
+        return dimensions(u32be(base64, 16), u32be(base64, 20));
+    }
+
+    private static Dimensions jpeg(CharSequence base64) {
+        long offset = 2;
+        for (int segment = 0; segment < MAX_JPEG_SEGMENTS; segment++) {
+            if (u8(base64, offset) != 0xFF) {
+                return null;
+            }
+            int marker = u8(base64, offset + 1);
+            // Fill bytes may pad a marker
+            while (marker == 0xFF) {
+                offset++;
+                marker = u8(base64, offset + 1);
+            }
+            if (marker < 0 || marker == 0xD9 || marker == 0xDA) {
+                // End of image or start of scan before any frame header
+                return null;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                // Standalone markers carry no length
+                offset += 2;
+                continue;
+            }
+            int length = u16be(base64, offset + 2);
+            if (length < 2) {
+                return null;
+            }
+            boolean frameHeader = marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (frameHeader) {
+                // Length (2), precision (1), height (2), width (2)
+                return dimensions(u16be(base64, offset + 7), u16be(base64, offset + 5));
+            }
+            offset += 2 + length;
+        }
+        return null;
+    }
+
+    private static Dimensions webp(CharSequence base64) {
+        int chunk0 = u8(base64, 12);
+        int chunk1 = u8(base64, 13);
+        int chunk2 = u8(base64, 14);
+        int chunk3 = u8(base64, 15);
+        if (chunk0 != 'V' || chunk1 != 'P' || chunk2 != '8') {
+            return null;
+        }
+        if (chunk3 == ' ') {
+            // Lossy: frame tag (3), start code 9D 01 2A (3), then 14-bit width and height
+            if (u8(base64, 23) != 0x9D || u8(base64, 24) != 0x01 || u8(base64, 25) != 0x2A) {
+                return null;
+            }
+            int width = u16le(base64, 26);
+            int height = u16le(base64, 28);
+            return width < 0 || height < 0 ? null : dimensions(width & 0x3FFF, height & 0x3FFF);
+        }
+        if (chunk3 == 'L') {
+            // Lossless: signature 2F, then width - 1 and height - 1 in 14 bits each
+            if (u8(base64, 20) != 0x2F) {
+                return null;
+            }
+            long bits = u32le(base64, 21);
+            return bits < 0 ? null : dimensions((int) (bits & 0x3FFF) + 1, (int) ((bits >> 14) & 0x3FFF) + 1);
+        }
+        if (chunk3 == 'X') {
+            // Extended: flags (4), then canvas width - 1 and height - 1 in 24 bits each
+            int width = u24le(base64, 24);
+            int height = u24le(base64, 27);
+            return width < 0 || height < 0 ? null : dimensions(width + 1, height + 1);
+        }
+        return null;
+    }
+
+    private static boolean matches(CharSequence base64, long offset, int... expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (u8(base64, offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Dimensions dimensions(long width, long height) {
+        if (width <= 0 || height <= 0 || width > Integer.MAX_VALUE || height > Integer.MAX_VALUE) {
+            return null;
+        }
+        return new Dimensions((int) width, (int) height);
+    }
+
+    private static int u16be(CharSequence base64, long offset) {
+        int high = u8(base64, offset);
+        int low = u8(base64, offset + 1);
+        return high < 0 || low < 0 ? -1 : high << 8 | low;
+    }
+
+    private static int u16le(CharSequence base64, long offset) {
+        int low = u8(base64, offset);
+        int high = u8(base64, offset + 1);
+        return high < 0 || low < 0 ? -1 : high << 8 | low;
+    }
+
+    private static int u24le(CharSequence base64, long offset) {
+        int low = u16le(base64, offset);
+        int high = u8(base64, offset + 2);
+        return high < 0 || low < 0 ? -1 : high << 16 | low;
+    }
+
+    private static long u32be(CharSequence base64, long offset) {
+        int high = u16be(base64, offset);
+        int low = u16be(base64, offset + 2);
+        return high < 0 || low < 0 ? -1 : (long) high << 16 | low;
+    }
+
+    private static long u32le(CharSequence base64, long offset) {
+        int low = u16le(base64, offset);
+        int high = u16le(base64, offset + 2);
+        return high < 0 || low < 0 ? -1 : (long) high << 16 | low;
+    }
+
+    /**
+     * The decoded byte at {@code offset}, or -1 if the data ends before it or is not base64 there.
+     */
+    static int u8(CharSequence base64, long offset) {
+        long quad = offset / 3;
+        long start = quad * 4;
+        if (offset < 0 || start + 4 > base64.length()) {
+            return -1;
+        }
+        int position = (int) (offset - quad * 3);
+        // Byte n of a quad spans characters n and n + 1
+        int first = value(base64.charAt((int) start + position));
+        int second = value(base64.charAt((int) start + position + 1));
+        if (first < 0 || second < 0) {
+            return -1;
+        }
+        return switch (position) {
+            case 0 -> (first << 2 | second >> 4) & 0xFF;
+            case 1 -> (first << 4 | second >> 2) & 0xFF;
+            default -> (first << 6 | second) & 0xFF;
+        };
+    }
+
+    private static int value(char c) {
+        return c < 256 ? BASE64_VALUES[c] : -1;
+    }
+}
@@ -3,7 +3,9 @@ package org.yanhuang.ai.service;
 import org.springframework.stereotype.Component;
 import org.yanhuang.ai.model.AnthropicMessage;
 
-import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -28,16 +30,22 @@ public class ImageValidator {
         "url"
     );
 
-    // Maximum base64 image size: ~5MB (approximately 32MB unencoded)
-    // Base64 encoding increases size by ~33%, so 5MB base64 ≈ 3.75MB original
+    // Maximum decoded image size: 5MB
     private static final int MAX_BASE64_SIZE_BYTES = 5 * 1024 * 1024;
 
+    // Base64 characters of validated images kept, so a screenshot resent on every turn is checked once
+    private static final long MAX_VALIDATED_CHARS = 32L * 1024 * 1024;
+
     // URL pattern for validation
     private static final Pattern URL_PATTERN = Pattern.compile(
         "^https?://[^\\s/$.?#].[^\\s]*$",
         Pattern.CASE_INSENSITIVE
     );
 
+    // Validated base64 data to its media type, least recently used first; guarded by itself
+    private final Map<ImageKey, String> validatedImages = new LinkedHashMap<>(16, 0.75f, true);
+    private long validatedChars;
+
     /**
      * Validate an image source according to Anthropic API specifications.
      *
@@ -86,42 +94,95 @@ public class ImageValidator {
 
         // Type-specific validation
         if ("base64".equals(imageSource.getType())) {
-            validateBase64Image(imageSource.getData());
+            validateBase64Image(imageSource.getData(), imageSource.getMediaType());
         } else if ("url".equals(imageSource.getType())) {
             validateImageUrl(imageSource.getData());
         }
     }
 
     /**
-     * Validate base64-encoded image data.
+     * Validate base64-encoded image data without decoding it: the alphabet and padding are
+     * checked in one pass, the decoded size follows from the length, and the magic bytes
+     * are decoded on their own to check the declared media type.
      *
      * @param base64Data Base64 string to validate
+     * @param mediaType Declared media type
      * @throws IllegalArgumentException if base64 data is invalid
      */
-    private void validateBase64Image(String base64Data) {
-        // Check if the string is valid base64
-        try {
-            byte[] decodedBytes = Base64.getDecoder().decode(base64Data);
-
-            // Check size limits
-            if (decodedBytes.length > MAX_BASE64_SIZE_BYTES) {
-                throw new IllegalArgumentException(
-                    String.format(
-                        "Image size exceeds maximum limit: %d bytes > %d bytes (5MB). " +
-                        "Consider resizing the image or using a URL instead.",
-                        decodedBytes.length,
-                        MAX_BASE64_SIZE_BYTES
-                    )
-                );
-            }
-        } catch (IllegalArgumentException e) {
-            if (e.getMessage().contains("size exceeds")) {
-                throw e;
+    private void validateBase64Image(String base64Data, String mediaType) {
+        ImageKey key = ImageKey.of(base64Data);
+        synchronized (validatedImages) {
+            if (mediaType.equals(validatedImages.get(key))) {
+                return;
             }
+        }
+
+        int length = base64Data.length();
+        int padding = 0;
+        while (padding < 2 && padding < length && base64Data.charAt(length - 1 - padding) == '=') {
+            padding++;
+        }
+        int dataLength = length - padding;
+        // Padding, when present, completes the last quad; a lone trailing character holds no whole byte
+        if ((padding > 0 && length % 4 != 0) || dataLength % 4 == 1 || !isBase64Alphabet(base64Data, dataLength)) {
             throw new IllegalArgumentException(
                 "Invalid base64 encoding in image data. Ensure the image is properly base64-encoded."
             );
         }
+
+        // Check size limits
+        long decodedBytes = (long) dataLength * 3 / 4;
+        if (decodedBytes > MAX_BASE64_SIZE_BYTES) {
+            throw new IllegalArgumentException(
+                String.format(
+                    "Image size exceeds maximum limit: %d bytes > %d bytes (5MB). " +
+                    "Consider resizing the image or using a URL instead.",
+                    decodedBytes,
+                    MAX_BASE64_SIZE_BYTES
+                )
+            );
+        }
+
+        String actualMediaType = ImageProbe.mediaType(base64Data);
+        if (!mediaType.equals(actualMediaType)) {
+            throw new IllegalArgumentException(
+                actualMediaType == null
+                    ? String.format("Image data is not a valid %s image", mediaType)
+                    : String.format("Image data does not match media_type: declared %s but the data is %s",
+                        mediaType, actualMediaType)
+            );
+        }
+
+        rememberValidated(key, mediaType);
+    }
+
+    private void rememberValidated(ImageKey key, String mediaType) {
+        if (key.data().length() > MAX_VALIDATED_CHARS) {
+            return;
+        }
+        synchronized (validatedImages) {
+            if (validatedImages.put(key, mediaType) == null) {
+                validatedChars += key.data().length();
+            }
+            Iterator<ImageKey> eldest = validatedImages.keySet().iterator();
+            while (validatedChars > MAX_VALIDATED_CHARS) {
+                validatedChars -= eldest.next().data().length();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Whether the first {@code length} characters are all in the base64 alphabet.
+     * The loop has no early exit or data-dependent branch, so the JIT can unroll it.
+     */
+    private static boolean isBase64Alphabet(String data, int length) {
+        int invalid = 0;
+        for (int i = 0; i < length; i++) {
+            char c = data.charAt(i);
+            invalid |= ImageProbe.BASE64_VALUES[c & 0xFF] | -(c >> 8);
+        }
+        return invalid >= 0;
     }
 
     /**
@@ -0,0 +1,243 @@
+package org.yanhuang.ai.service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.yanhuang.ai.config.AppProperties;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Circuit breakers around Kiro calls, one per upstream endpoint.
+ *
+ * A circuit trips when the failure rate or slow-call rate over the last {@code windowSize}
+ * calls crosses its threshold, rejects calls while open, then lets a few probe calls through
+ * (half-open) and closes again once they all succeed. Only the errors {@link RetryPolicy}
+ * treats as transient upstream trouble count as failures; a call is slow when its first
+ * event takes longer than {@code slowCallDurationSeconds}.
+ */
+@Component
+public class KiroCircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(KiroCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public record Snapshot(State state, int bufferedCalls, float failureRate, float slowCallRate) {
+    }
+
+    private final AppProperties.CircuitBreakerProperties config;
+    private final RetryPolicy retryPolicy;
+    private final LongSupplier nanoClock;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    @Autowired
+    public KiroCircuitBreaker(AppProperties properties, RetryPolicy retryPolicy) {
+        // Scheduler clock, so timings follow virtual time in tests like the stream timeouts do
+        this(properties, retryPolicy, () -> Schedulers.parallel().now(TimeUnit.NANOSECONDS));
+    }
+
+    KiroCircuitBreaker(AppProperties properties, RetryPolicy retryPolicy, LongSupplier nanoClock) {
+        this.config = properties.getKiro().getCircuitBreaker();
+        this.retryPolicy = retryPolicy;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Run {@code call} through the named circuit. The outcome is settled by the first event,
+     * or by termination if no event arrives; a call cancelled before that leaves no record.
+     */
+    public <T> Flux<T> guard(String name, Flux<T> call) {
+        if (!config.isEnabled()) {
+            return call;
+        }
+        Circuit circuit = circuits.computeIfAbsent(name, Circuit::new);
+        return Flux.defer(() -> {
+            long now = nanoClock.getAsLong();
+            if (!circuit.tryAcquire(now)) {
+                return Flux.error(new CircuitBreakerOpenException(name, circuit.retryAfter(now)));
+            }
+            AtomicBoolean settled = new AtomicBoolean(false);
+            return call
+                .doOnNext(item -> {
+                    if (settled.compareAndSet(false, true)) {
+                        circuit.onResult(false, now, nanoClock.getAsLong());
+                    }
+                })
+                .doOnComplete(() -> {
+                    if (settled.compareAndSet(false, true)) {
+                        circuit.onResult(false, now, nanoClock.getAsLong());
+                    }
+                })
+                .doOnError(error -> {
+                    if (settled.compareAndSet(false, true)) {
+                        boolean failure = retryPolicy.classify(error) == RetryPolicy.Decision.BACKOFF_RETRY;
+                        circuit.onResult(failure, now, nanoClock.getAsLong());
+                    }
+                })
+                .doOnCancel(() -> {
+                    if (settled.compareAndSet(false, true)) {
+                        circuit.release();
+                    }
+                });
+        });
+    }
+
+    /**
+     * Whether calls through the named circuit are being rejected right now
+     */
+    public boolean isOpen(String name) {
+        Circuit circuit = circuits.get(name);
+        return circuit != null && circuit.isOpen(nanoClock.getAsLong());
+    }
+
+    /**
+     * Current state of every circuit that has seen traffic, by name.
+     */
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> result = new LinkedHashMap<>();
+        circuits.forEach((name, circuit) -> result.put(name, circuit.snapshot(nanoClock.getAsLong())));
+        return result;
+    }
+
+    private final class Circuit {
+
+        private static final byte FAILED = 1;
+        private static final byte SLOW = 2;
+
+        private final String name;
+        // Ring buffer of the last windowSize outcomes
+        private final byte[] outcomes = new byte[Math.max(1, config.getWindowSize())];
+        private int next;
+        private int buffered;
+        private int failures;
+        private int slowCalls;
+
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int probesInFlight;
+        private int probesSucceeded;
+
+        Circuit(String name) {
+            this.name = name;
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            if (state == State.OPEN) {
+                if (now - openedAt < openDuration()) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesInFlight + probesSucceeded >= config.getHalfOpenPermittedCalls()) {
+                    return false;
+                }
+                probesInFlight++;
+            }
+            return true;
+        }
+
+        synchronized void onResult(boolean failed, long startedAt, long now) {
+            boolean slow = now - startedAt > TimeUnit.SECONDS.toNanos(config.getSlowCallDurationSeconds());
+            switch (state) {
+                case HALF_OPEN -> {
+                    probesInFlight = Math.max(0, probesInFlight - 1);
+                    if (failed || slow) {
+                        log.warn("Kiro circuit {} probe {}, reopening", name, failed ? "failed" : "was slow");
+                        open(now);
+                    } else if (++probesSucceeded >= config.getHalfOpenPermittedCalls()) {
+                        resetWindow();
+                        transition(State.CLOSED);
+                    }
+                }
+                case CLOSED -> {
+                    record((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+                    if (buffered >= config.getMinimumCalls()
+                            && (failures * 100 >= config.getFailureRateThreshold() * buffered
+                                || slowCalls * 100 >= config.getSlowCallRateThreshold() * buffered)) {
+                        log.warn("Opening Kiro circuit {}: failure rate {}%, slow call rate {}% over {} calls",
+                            name, failures * 100 / buffered, slowCalls * 100 / buffered, buffered);
+                        open(now);
+                    }
+                }
+                default -> {
+                    // Calls admitted before the circuit opened; their outcome no longer matters
+                }
+            }
+        }
+
+        synchronized boolean isOpen(long now) {
+            return state == State.OPEN && now - openedAt < openDuration();
+        }
+
+        synchronized void release() {
+            if (state == State.HALF_OPEN) {
+                probesInFlight = Math.max(0, probesInFlight - 1);
+            }
+        }
+
+        synchronized Duration retryAfter(long now) {
+            return Duration.ofNanos(Math.max(0, openDuration() - (now - openedAt)));
+        }
+
+        synchronized Snapshot snapshot(long now) {
+            State current = state == State.OPEN && now - openedAt >= openDuration() ? State.HALF_OPEN : state;
+            return new Snapshot(current, buffered,
+                buffered == 0 ? 0f : failures * 100f / buffered,
+                buffered == 0 ? 0f : slowCalls * 100f / buffered);
+        }
+
+        private void record(byte outcome) {
+            if (buffered == outcomes.length) {
+                byte evicted = outcomes[next];
+                failures -= evicted & FAILED;
+                slowCalls -= (evicted & SLOW) >> 1;
+            } else {
+                buffered++;
+            }
+            outcomes[next] = outcome;
+            failures += outcome & FAILED;
+            slowCalls += (outcome & SLOW) >> 1;
+            next = (next + 1) % outcomes.length;
+        }
+
+        private void open(long now) {
+            openedAt = now;
+            resetWindow();
+            transition(State.OPEN);
+        }
+
+        private void resetWindow() {
+            next = 0;
+            buffered = 0;
+            failures = 0;
+            slowCalls = 0;
+            probesInFlight = 0;
+            probesSucceeded = 0;
+        }
+
+        private void transition(State target) {
+            if (state != target) {
+                log.info("Kiro circuit {} {} -> {}", name, state, target);
+                state = target;
+            }
+        }
+
+        private long openDuration() {
+            return TimeUnit.SECONDS.toNanos(config.getOpenStateSeconds());
+        }
+    }
+}
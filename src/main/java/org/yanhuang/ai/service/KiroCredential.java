@@ -0,0 +1,76 @@
+package org.yanhuang.ai.service;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One Kiro account in the {@link CredentialPool}: its profile, routing state and counters.
+ *
+ * The primary account's tokens are kept by {@link TokenManager} itself; additional accounts
+ * carry their own token state here.
+ */
+public final class KiroCredential {
+
+    private final String name;
+    private final String profileArn;
+    private final int weight;
+    private final boolean primary;
+
+    // Token state for non-primary accounts, managed by TokenManager
+    final String configuredAccessToken;
+    final AtomicReference<String> accessToken;
+    final AtomicReference<String> refreshToken;
+    final AtomicReference<Instant> lastRefresh = new AtomicReference<>(Instant.EPOCH);
+    final AtomicReference<Instant> expiresAt;
+    final AtomicReference<CompletableFuture<String>> refreshing = new AtomicReference<>();
+
+    final AtomicInteger inFlight = new AtomicInteger();
+    // Consecutive 403s; one is usually an expired token, a second one after a refresh is not
+    final AtomicInteger authFailures = new AtomicInteger();
+    volatile long cooldownUntilNanos;
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder throttled = new LongAdder();
+    final LongAdder ejections = new LongAdder();
+
+    KiroCredential(String name, String profileArn, int weight, boolean primary,
+                   String accessToken, String refreshToken, Instant expiresAt) {
+        this.name = name;
+        this.profileArn = profileArn;
+        this.weight = Math.max(1, weight);
+        this.primary = primary;
+        this.configuredAccessToken = accessToken;
+        this.accessToken = new AtomicReference<>(accessToken);
+        this.refreshToken = new AtomicReference<>(refreshToken);
+        this.expiresAt = new AtomicReference<>(expiresAt);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getProfileArn() {
+        return profileArn;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public boolean isPrimary() {
+        return primary;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,41 @@
+package org.yanhuang.ai.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One upstream URL in the {@link KiroEndpointRouter}: its measured latency, error rate and counters.
+ */
+public final class KiroEndpoint {
+
+    private final String url;
+
+    // Written under this endpoint's lock, read without it by routing; 0 means no sample yet
+    volatile double rttNanos;
+    volatile double errorRate;
+    volatile long lastSampleNanos;
+
+    final AtomicInteger inFlight = new AtomicInteger();
+    volatile long cooldownUntilNanos;
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder ejections = new LongAdder();
+
+    KiroEndpoint(String url) {
+        this.url = url;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
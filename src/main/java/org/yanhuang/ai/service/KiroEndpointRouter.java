@@ -0,0 +1,250 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import org.yanhuang.ai.config.AppProperties;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The Kiro endpoints requests are routed over: {@code app.kiro.base-url} plus any listed
+ * under {@code app.kiro.endpoints}, e.g. other regions or proxies.
+ *
+ * Each endpoint keeps an EWMA of the time to its first event and of its failure rate.
+ * Requests go to the endpoint with the lowest latency times in-flight calls; one that
+ * refuses connections, or fails half of its recent calls, is ejected for the cool-down
+ * period and only used again before that when every other endpoint is out too.
+ */
+@Component
+public class KiroEndpointRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(KiroEndpointRouter.class);
+
+    private static final double RTT_SMOOTHING = 0.3;
+    private static final double ERROR_SMOOTHING = 0.2;
+    private static final double MAX_ERROR_RATE = 0.5;
+
+    public record Snapshot(long rttMillis, double errorRate, int inFlight, long requests, long failures,
+                           long ejections, long cooldownRemainingMillis) {
+    }
+
+    private final AppProperties.KiroProperties kiro;
+    private final List<KiroEndpoint> endpoints;
+    private final LongSupplier nanoClock;
+    // Rotating start point, so ties don't always go to the first endpoint
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    @Autowired
+    public KiroEndpointRouter(AppProperties properties) {
+        this(properties, () -> Schedulers.parallel().now(TimeUnit.NANOSECONDS));
+    }
+
+    KiroEndpointRouter(AppProperties properties, LongSupplier nanoClock) {
+        this.kiro = properties.getKiro();
+        this.nanoClock = nanoClock;
+        this.endpoints = Collections.unmodifiableList(buildEndpoints(kiro));
+        if (endpoints.size() > 1) {
+            log.info("Kiro endpoints: {}", endpoints);
+        }
+    }
+
+    public List<KiroEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Pick the endpoint for the next call, preferring ones that are not cooling down and
+     * pass {@code usable}; among those, the lowest expected latency under current load.
+     */
+    public KiroEndpoint select(Predicate<KiroEndpoint> usable) {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        long now = nanoClock.getAsLong();
+        // Endpoints without a recent sample are assumed as fast as the best one, so they get probed
+        double fallbackRtt = Double.MAX_VALUE;
+        for (KiroEndpoint endpoint : endpoints) {
+            if (isFresh(endpoint, now)) {
+                fallbackRtt = Math.min(fallbackRtt, endpoint.rttNanos);
+            }
+        }
+        if (fallbackRtt == Double.MAX_VALUE) {
+            fallbackRtt = 1;
+        }
+
+        int start = Math.floorMod(cursor.getAndIncrement(), endpoints.size());
+        KiroEndpoint best = null;
+        int bestTier = Integer.MAX_VALUE;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = 0; i < endpoints.size(); i++) {
+            KiroEndpoint candidate = endpoints.get((start + i) % endpoints.size());
+            int tier = (candidate.cooldownUntilNanos - now > 0 ? 2 : 0) + (usable.test(candidate) ? 0 : 1);
+            double rtt = isFresh(candidate, now) ? candidate.rttNanos : fallbackRtt;
+            double cost = rtt * (candidate.inFlight.get() + 1);
+            if (tier < bestTier || (tier == bestTier && cost < bestCost)) {
+                best = candidate;
+                bestTier = tier;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Whether a call that failed on {@code failed} has another endpoint in rotation to go to.
+     */
+    public boolean hasAlternative(KiroEndpoint failed) {
+        long now = nanoClock.getAsLong();
+        for (KiroEndpoint endpoint : endpoints) {
+            if (endpoint != failed && endpoint.cooldownUntilNanos - now <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count {@code call} against the endpoint while it runs, time it to its first item,
+     * and eject the endpoint if it cannot be reached or keeps failing.
+     */
+    public <T> Flux<T> track(KiroEndpoint endpoint, Flux<T> call) {
+        return Flux.defer(() -> {
+            long started = nanoClock.getAsLong();
+            endpoint.inFlight.incrementAndGet();
+            endpoint.requests.increment();
+            AtomicBoolean settled = new AtomicBoolean(false);
+            return call
+                .doOnNext(item -> {
+                    if (settled.compareAndSet(false, true)) {
+                        onSuccess(endpoint, nanoClock.getAsLong() - started);
+                    }
+                })
+                .doOnError(error -> {
+                    if (settled.compareAndSet(false, true)) {
+                        onFailure(endpoint, error);
+                    }
+                })
+                .doFinally(signal -> endpoint.inFlight.decrementAndGet());
+        });
+    }
+
+    /**
+     * Latency, failure rate and cool-down state of every endpoint, by URL.
+     */
+    public Map<String, Snapshot> snapshot() {
+        long now = nanoClock.getAsLong();
+        Map<String, Snapshot> result = new LinkedHashMap<>();
+        for (KiroEndpoint endpoint : endpoints) {
+            long cooldown = Math.max(0, endpoint.cooldownUntilNanos - now);
+            synchronized (endpoint) {
+                result.put(endpoint.getUrl(), new Snapshot(TimeUnit.NANOSECONDS.toMillis((long) endpoint.rttNanos),
+                    endpoint.errorRate, endpoint.inFlight.get(), endpoint.requests.sum(), endpoint.failures.sum(),
+                    endpoint.ejections.sum(), TimeUnit.NANOSECONDS.toMillis(cooldown)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The request never reached the endpoint, so trying another one is always safe
+     */
+    public static boolean isConnectError(Throwable error) {
+        return error instanceof WebClientRequestException;
+    }
+
+    private void onSuccess(KiroEndpoint endpoint, long rttNanos) {
+        long now = nanoClock.getAsLong();
+        synchronized (endpoint) {
+            endpoint.rttNanos = isFresh(endpoint, now)
+                ? endpoint.rttNanos + (rttNanos - endpoint.rttNanos) * RTT_SMOOTHING
+                : rttNanos;
+            endpoint.lastSampleNanos = now;
+            endpoint.errorRate *= 1 - ERROR_SMOOTHING;
+        }
+    }
+
+    private void onFailure(KiroEndpoint endpoint, Throwable error) {
+        boolean connectError = isConnectError(error);
+        if (!connectError && !isEndpointFault(error)) {
+            // Rejected for the request or the account; the endpoint itself answered fine
+            synchronized (endpoint) {
+                endpoint.errorRate *= 1 - ERROR_SMOOTHING;
+            }
+            return;
+        }
+        endpoint.failures.increment();
+        double errorRate;
+        synchronized (endpoint) {
+            endpoint.errorRate += (1 - endpoint.errorRate) * ERROR_SMOOTHING;
+            errorRate = endpoint.errorRate;
+        }
+        if (connectError || errorRate >= MAX_ERROR_RATE) {
+            eject(endpoint, connectError ? "unreachable" : "failing");
+        }
+    }
+
+    private static boolean isEndpointFault(Throwable error) {
+        if (error instanceof WebClientResponseException responseError) {
+            return responseError.getStatusCode().is5xxServerError();
+        }
+        if (error instanceof UpstreamTimeoutException timeout) {
+            return timeout.getPhase() == UpstreamTimeoutException.Phase.FIRST_BYTE;
+        }
+        return error instanceof IOException || error.getCause() instanceof IOException;
+    }
+
+    private void eject(KiroEndpoint endpoint, String reason) {
+        long cooldownMillis = TimeUnit.SECONDS.toMillis(kiro.getEndpointCooldownSeconds());
+        endpoint.cooldownUntilNanos = nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+        endpoint.ejections.increment();
+        if (endpoints.size() > 1) {
+            log.warn("Kiro endpoint {} {}, out of rotation for {} ms", endpoint.getUrl(), reason, cooldownMillis);
+        }
+    }
+
+    private boolean isFresh(KiroEndpoint endpoint, long now) {
+        return endpoint.rttNanos > 0
+            && now - endpoint.lastSampleNanos < TimeUnit.SECONDS.toNanos(kiro.getEndpointProbeSeconds());
+    }
+
+    private static List<KiroEndpoint> buildEndpoints(AppProperties.KiroProperties kiro) {
+        Set<String> urls = new LinkedHashSet<>();
+        if (kiro.getBaseUrl() != null && !kiro.getBaseUrl().isBlank()) {
+            urls.add(kiro.getBaseUrl().trim());
+        }
+        if (kiro.getEndpoints() != null) {
+            for (String url : kiro.getEndpoints()) {
+                if (url != null && !url.isBlank()) {
+                    urls.add(url.trim());
+                }
+            }
+        }
+        if (urls.isEmpty()) {
+            throw new IllegalStateException("app.kiro.base-url is required");
+        }
+        List<KiroEndpoint> result = new ArrayList<>();
+        for (String url : urls) {
+            result.add(new KiroEndpoint(url));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+package org.yanhuang.ai.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Everything needed to serialize one Kiro generateAssistantResponse request.
+ *
+ * Built once per Anthropic request from already-flattened strings; {@link KiroPayloadWriter}
+ * streams it to JSON without going through a Jackson tree.
+ */
+final class KiroPayload {
+
+    final String profileArn;
+    final String conversationId;
+    final String content;
+    // Images of the current message, forwarded as base64 in userInputMessage.images
+    final List<Image> images;
+    final String modelId;
+    // Serialized toolSpecification element of each tool, from ToolSpecificationCache; null when the
+    // tools context is disabled or the request has no tools
+    final List<SerializedString> tools;
+    final ToolChoice toolChoice;
+    final List<String> stopSequences;
+    final Map<String, Object> thinking;
+    final List<HistoryEntry> history;
+
+    // Size of the most recent serialization, for logging; -1 until written
+    volatile int serializedBytes = -1;
+
+    KiroPayload(String profileArn, String conversationId, String content, List<Image> images, String modelId,
+                List<SerializedString> tools, ToolChoice toolChoice, List<String> stopSequences,
+                Map<String, Object> thinking, List<HistoryEntry> history) {
+        this.profileArn = profileArn;
+        this.conversationId = conversationId;
+        this.content = content;
+        this.images = images;
+        this.modelId = modelId;
+        this.tools = tools;
+        this.toolChoice = toolChoice;
+        this.stopSequences = stopSequences;
+        this.thinking = thinking;
+        this.history = history;
+    }
+
+    /**
+     * The same request addressed to another profile; everything else is shared
+     */
+    KiroPayload forProfile(String targetProfileArn) {
+        if (Objects.equals(profileArn, targetProfileArn)) {
+            return this;
+        }
+        return new KiroPayload(targetProfileArn, conversationId, content, images, modelId, tools, toolChoice,
+            stopSequences, thinking, history);
+    }
+
+    /**
+     * The same request with other images, e.g. downscaled ones; everything else is shared
+     */
+    KiroPayload withImages(List<Image> targetImages) {
+        if (targetImages.equals(images)) {
+            return this;
+        }
+        return new KiroPayload(profileArn, conversationId, content, targetImages, modelId, tools, toolChoice,
+            stopSequences, thinking, history);
+    }
+
+    /**
+     * Rough serialized size, used to size the request buffer up front
+     */
+    int estimatedSize() {
+        int size = 512 + content.length();
+        for (Image image : images) {
+            size += image.data().length() + 64;
+        }
+        for (HistoryEntry entry : history) {
+            size += entry.content().charLength() + 96;
+        }
+        if (tools != null) {
+            for (SerializedString tool : tools) {
+                size += tool.charLength() + 8;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Kiro toolChoice; name is null unless a specific tool is requested
+     */
+    record ToolChoice(String type, String name) {
+    }
+
+    /**
+     * A base64 image; format is the media subtype, e.g. png or jpeg
+     */
+    record Image(String format, String data) {
+    }
+
+    /**
+     * One history turn; user turns carry the model id, assistant turns only content. The content
+     * keeps its JSON-escaped form once written, for turns shared through the prompt cache.
+     */
+    record HistoryEntry(boolean user, SerializedString content, String modelId) {
+
+        static HistoryEntry user(SerializedString content, String modelId) {
+            return new HistoryEntry(true, content, modelId);
+        }
+
+        static HistoryEntry assistant(SerializedString content) {
+            return new HistoryEntry(false, content, null);
+        }
+    }
+}
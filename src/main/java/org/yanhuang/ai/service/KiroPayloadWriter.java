@@ -0,0 +1,183 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import org.yanhuang.ai.model.ToolDefinition;
+
+/**
+ * Serializes a {@link KiroPayload} with a streaming {@link JsonGenerator}, straight into the
+ * request body buffer. Stateless; safe to share.
+ */
+class KiroPayloadWriter {
+
+    private final ObjectMapper mapper;
+
+    KiroPayloadWriter(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Write the payload into a new buffer from {@code bufferFactory}.
+     */
+    DataBuffer write(KiroPayload payload, DataBufferFactory bufferFactory) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(payload.estimatedSize());
+        try (OutputStream out = buffer.asOutputStream();
+             JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            write(payload, generator);
+        } catch (IOException | RuntimeException ex) {
+            DataBufferUtils.release(buffer);
+            throw new IllegalStateException("Failed to serialize Kiro payload", ex);
+        }
+        payload.serializedBytes = buffer.readableByteCount();
+        return buffer;
+    }
+
+    /**
+     * Render the payload as a String; only meant for debug logging.
+     */
+    String toJson(KiroPayload payload) {
+        StringWriter out = new StringWriter(payload.estimatedSize());
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            write(payload, generator);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to serialize Kiro payload", ex);
+        }
+        return out.toString();
+    }
+
+    private void write(KiroPayload payload, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("profileArn", payload.profileArn);
+        generator.writeObjectFieldStart("conversationState");
+        generator.writeStringField("chatTriggerType", "MANUAL");
+        generator.writeStringField("conversationId", payload.conversationId);
+
+        generator.writeObjectFieldStart("currentMessage");
+        generator.writeObjectFieldStart("userInputMessage");
+        generator.writeStringField("content", payload.content);
+        generator.writeStringField("modelId", payload.modelId);
+        generator.writeStringField("origin", "AI_EDITOR");
+        if (!payload.images.isEmpty()) {
+            writeImages(payload, generator);
+        }
+        if (payload.tools != null) {
+            writeToolsContext(payload, generator);
+        }
+        if (payload.stopSequences != null && !payload.stopSequences.isEmpty()) {
+            generator.writeArrayFieldStart("stopSequences");
+            for (String stopSequence : payload.stopSequences) {
+                generator.writeString(stopSequence);
+            }
+            generator.writeEndArray();
+        }
+        if (payload.thinking != null && !payload.thinking.isEmpty()) {
+            generator.writeFieldName("thinking");
+            mapper.writeValue(generator, payload.thinking);
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+
+        generator.writeArrayFieldStart("history");
+        for (KiroPayload.HistoryEntry entry : payload.history) {
+            generator.writeStartObject();
+            if (entry.user()) {
+                generator.writeObjectFieldStart("userInputMessage");
+                generator.writeFieldName("content");
+                generator.writeString(entry.content());
+                generator.writeStringField("modelId", entry.modelId());
+                generator.writeStringField("origin", "AI_EDITOR");
+            } else {
+                generator.writeObjectFieldStart("assistantResponseMessage");
+                generator.writeFieldName("content");
+                generator.writeString(entry.content());
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private void writeImages(KiroPayload payload, JsonGenerator generator) throws IOException {
+        generator.writeArrayFieldStart("images");
+        for (KiroPayload.Image image : payload.images) {
+            generator.writeStartObject();
+            generator.writeStringField("format", image.format());
+            generator.writeObjectFieldStart("source");
+            // Already base64, as Kiro expects; copied into the request buffer without decoding
+            generator.writeStringField("bytes", image.data());
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeToolsContext(KiroPayload payload, JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart("userInputMessageContext");
+        generator.writeArrayFieldStart("tools");
+        for (SerializedString tool : payload.tools) {
+            // Already serialized; its UTF-8 bytes are copied as they are
+            generator.writeRawValue(tool);
+        }
+        generator.writeEndArray();
+        if (payload.toolChoice != null) {
+            generator.writeObjectFieldStart("toolChoice");
+            generator.writeStringField("type", payload.toolChoice.type());
+            if (payload.toolChoice.name() != null) {
+                generator.writeStringField("name", payload.toolChoice.name());
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Render the tools element of one tool as a String, for {@link ToolSpecificationCache}.
+     */
+    String toolSpecification(ToolDefinition tool) {
+        StringWriter out = new StringWriter(512);
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            writeToolSpecification(tool, generator);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to serialize tool " + tool.getEffectiveName(), ex);
+        }
+        return out.toString();
+    }
+
+    private void writeToolSpecification(ToolDefinition tool, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("toolSpecification");
+        // Only write non-null values to avoid null fields in JSON
+        String name = tool.getEffectiveName();
+        if (name != null) {
+            generator.writeStringField("name", name);
+        }
+        String description = tool.getEffectiveDescription();
+        if (description != null) {
+            generator.writeStringField("description", description);
+        }
+        Map<String, Object> inputSchema = tool.getEffectiveInputSchema();
+        if (inputSchema != null) {
+            generator.writeObjectFieldStart("inputSchema");
+            generator.writeFieldName("json");
+            mapper.writeValue(generator, inputSchema);
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+}
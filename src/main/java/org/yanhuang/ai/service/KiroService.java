@@ -1,25 +1,39 @@
 package org.yanhuang.ai.service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.netty.buffer.PooledByteBufAllocator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
 import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
+import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
@@ -28,25 +42,45 @@ import org.yanhuang.ai.model.AnthropicChatRequest;
 import org.yanhuang.ai.model.AnthropicChatResponse;
 import org.yanhuang.ai.model.AnthropicMessage;
 import org.yanhuang.ai.model.ToolCall;
+import org.yanhuang.ai.model.ToolDefinition;
 import org.yanhuang.ai.parser.BracketToolCallParser;
 import org.yanhuang.ai.parser.CodeWhispererEventParser;
 import org.yanhuang.ai.parser.ToolCallDeduplicator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @Service
 public class KiroService {
 
     private static final Logger log = LoggerFactory.getLogger(KiroService.class);
 
+    // Stand-ins that keep history alternating between user and assistant turns
+    private static final SerializedString PLACEHOLDER_USER_CONTENT = new SerializedString("Continue");
+    private static final SerializedString PLACEHOLDER_ASSISTANT_CONTENT = new SerializedString("I understand.");
+
     private final AppProperties properties;
     private final TokenManager tokenManager;
     private final CodeWhispererEventParser eventParser;
     private final BracketToolCallParser bracketToolCallParser;
     private final ToolCallDeduplicator toolCallDeduplicator;
     private final McpToolIdentifier mcpToolIdentifier;
+    private final RetryPolicy retryPolicy;
+    private final KiroCircuitBreaker circuitBreaker;
+    private final CredentialPool credentialPool;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final KiroEndpointRouter endpointRouter;
+    private final TokenCounter tokenCounter;
+    private final ImagePreprocessor imagePreprocessor;
+    private final ResponseCache responseCache;
+    private final PromptCache promptCache;
+    private final ToolSpecificationCache toolSpecificationCache;
+    private final PromptCache.Renderer promptRenderer = new PromptRenderer();
     private final WebClient webClient;
     private final ObjectMapper mapper;
+    private final KiroPayloadWriter payloadWriter;
+    // Same pooled allocator Reactor Netty uses for server responses, so event buffers go to the wire without copying
+    private final DataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
 
     public KiroService(AppProperties properties,
                        TokenManager tokenManager,
@@ -54,7 +88,17 @@ public class KiroService {
                        BracketToolCallParser bracketToolCallParser,
                        ToolCallDeduplicator toolCallDeduplicator,
                        McpToolIdentifier mcpToolIdentifier,
-                       WebClient.Builder webClientBuilder,
+                       RetryPolicy retryPolicy,
+                       KiroCircuitBreaker circuitBreaker,
+                       CredentialPool credentialPool,
+                       AdaptiveConcurrencyLimit concurrencyLimit,
+                       KiroEndpointRouter endpointRouter,
+                       TokenCounter tokenCounter,
+                       ImagePreprocessor imagePreprocessor,
+                       ResponseCache responseCache,
+                       PromptCache promptCache,
+                       ToolSpecificationCache toolSpecificationCache,
+                       @Qualifier("kiroWebClientBuilder") WebClient.Builder webClientBuilder,
                        ObjectMapper mapper) {
         this.properties = properties;
         this.tokenManager = tokenManager;
@@ -62,137 +106,301 @@ public class KiroService {
         this.bracketToolCallParser = bracketToolCallParser;
         this.toolCallDeduplicator = toolCallDeduplicator;
         this.mcpToolIdentifier = mcpToolIdentifier;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+        this.credentialPool = credentialPool;
+        this.concurrencyLimit = concurrencyLimit;
+        this.endpointRouter = endpointRouter;
+        this.tokenCounter = tokenCounter;
+        this.imagePreprocessor = imagePreprocessor;
+        this.responseCache = responseCache;
+        this.promptCache = promptCache;
+        this.toolSpecificationCache = toolSpecificationCache;
+        // Each call names the endpoint it was routed to; the base URL only fills in when it does not
         this.webClient = webClientBuilder.baseUrl(properties.getKiro().getBaseUrl()).build();
         this.mapper = mapper;
+        this.payloadWriter = new KiroPayloadWriter(mapper);
     }
 
     public Mono<AnthropicChatResponse> createCompletion(AnthropicChatRequest request) {
-        return callKiroEvents(request)
-            .map(events -> mapResponse(events, request));
+        String cacheKey = responseCache.key(request);
+        AnthropicChatResponse cached = cacheKey != null ? responseCache.get(cacheKey) : null;
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        PromptCache.Match promptMatch = matchPromptCache(request);
+        return callKiroEvents(request, promptMatch)
+            .map(events -> mapResponse(events, request, promptMatch))
+            .doOnNext(response -> {
+                if (cacheKey != null) {
+                    responseCache.put(cacheKey, response);
+                }
+            });
     }
 
-    public Flux<String> streamCompletion(AnthropicChatRequest request) {
+    /**
+     * Stream the completion as SSE-encoded event buffers, ready to be written to the client as-is.
+     * Buffers come from a pooled allocator; whoever drops one without writing it must release it.
+     */
+    public Flux<DataBuffer> streamCompletion(AnthropicChatRequest request) {
         if (log.isDebugEnabled()) {
             log.debug("=== Starting stream completion ===");
         }
-        return callKiroEvents(request)
+        return Flux.defer(() -> {
+            SseEventWriter writer = new SseEventWriter(mapper.getFactory(), bufferFactory);
+            String cacheKey = responseCache.key(request);
+            AnthropicChatResponse cached = cacheKey != null ? responseCache.get(cacheKey) : null;
+            if (cached != null) {
+                return replayStream(cached, writer);
+            }
+            PromptCache.Match promptMatch = matchPromptCache(request);
+            StreamTranslator translator = new StreamTranslator(request, promptMatch, writer);
+            Flux<JsonNode> events = streamKiroEvents(request, promptMatch);
+            if (cacheKey != null) {
+                // The complete response is cached as the non-streaming path would have built it
+                List<JsonNode> received = new ArrayList<>();
+                events = events.doOnNext(received::add)
+                    .doOnComplete(() -> responseCache.put(cacheKey, mapResponse(received, request, promptMatch)));
+            }
+            return events
+                .concatMapIterable(translator::onEvent)
+                .concatWith(Flux.defer(() -> Flux.fromIterable(translator.finish())))
+                .doOnNext(event -> {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Stream event: {}", event.toString(event.readPosition(), event.readableByteCount(), StandardCharsets.UTF_8));
+                    }
+                });
+        }).doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    /**
+     * A cached response as SSE events, its text split into deltas as a live stream would be
+     */
+    private Flux<DataBuffer> replayStream(AnthropicChatResponse response, SseEventWriter writer) {
+        Flux<DataBuffer> events = Flux.defer(() -> Flux.fromIterable(
+            buildStreamEvents(response, writer, responseCache.getReplayChunkChars())));
+        Duration interval = responseCache.getReplayInterval();
+        return interval.isZero() ? events : events.delayElements(interval);
+    }
+
+    private Mono<List<JsonNode>> callKiroEvents(AnthropicChatRequest request, PromptCache.Match promptMatch) {
+        return streamKiroEvents(request, promptMatch)
+            .collectList()
             .map(events -> {
                 if (log.isDebugEnabled()) {
-                    log.debug("=== Map events to response ===");
-                }
-                AnthropicChatResponse response = mapResponse(events, request);
-                if (log.isDebugEnabled()) {
-                    log.debug("Response has {} content blocks", response.getContent() != null ? response.getContent().size() : 0);
-                    log.debug("Stop reason: {}", response.getStopReason());
-                }
-                return response;
-            })
-            .flatMapMany(response -> {
-                if (log.isDebugEnabled()) {
-                    log.debug("=== Building stream events ===");
-                }
-                List<String> events = buildStreamEvents(response);
-                if (log.isDebugEnabled()) {
-                    log.debug("Built {} stream events", events.size());
+                    log.debug("Parsed {} events from Kiro response", events.size());
                     for (int i = 0; i < events.size(); i++) {
-                        log.debug("Stream event {}: {}", i, events.get(i));
+                        log.debug("Event {}: {}", i, events.get(i).toString());
                     }
                 }
-                return Flux.fromIterable(events);
+                return events;
             });
     }
 
-    private Mono<List<JsonNode>> callKiroEvents(AnthropicChatRequest request) {
-        ObjectNode payload = buildKiroPayload(request);
-        String token = tokenManager.ensureToken();
+    /**
+     * Stream decoded Kiro events as upstream frames arrive.
+     * A failed call is retried as {@link RetryPolicy} allows, but only while no event
+     * has been delivered downstream yet.
+     */
+    private Flux<JsonNode> streamKiroEvents(AnthropicChatRequest request, PromptCache.Match promptMatch) {
+        KiroPayload built = buildKiroPayload(request, promptMatch);
 
         if (log.isDebugEnabled()) {
             log.debug("=== Kiro API Request Debug ===");
-            log.debug("URL: {}", properties.getKiro().getBaseUrl());
-            log.debug("Authorization: Bearer {}...", token.substring(0, Math.min(token.length(), 20)));
+            log.debug("Endpoints: {}", endpointRouter.getEndpoints());
             log.debug("Content-Type: {}", MediaType.APPLICATION_JSON);
             log.debug("Accept: {}", MediaType.TEXT_EVENT_STREAM);
-            log.debug("Profile ARN: {}", properties.getKiro().getProfileArn());
-            log.debug("Payload size: {} characters", payload.toString().length());
+            String payloadJson = payloadWriter.toJson(built);
+            log.debug("Payload size: {} characters", payloadJson.length());
             try {
                 log.debug("Payload-from-cc: {}", new ObjectMapper().writeValueAsString(request));
-                log.debug("Payload-to-kiro: {}", payload);
+                log.debug("Payload-to-kiro: {}", payloadJson);
             } catch (JsonProcessingException e) {
                 log.warn("print payload error", e);
             }
         }
 
+        long deadline = now() + totalTimeout(request).toNanos();
+        AtomicBoolean received = new AtomicBoolean(false);
+        // Oversized images are downscaled off the event loop before the first attempt
+        Mono<KiroPayload> payload = built.images.isEmpty()
+            ? Mono.just(built)
+            : imagePreprocessor.prepare(built.images).map(built::withImages);
+        return payload.flatMapMany(prepared -> {
+            retryPolicy.recordRequest();
+            return attemptKiroEvents(prepared, null, deadline, received, 0);
+        });
+    }
+
+    /**
+     * One upstream attempt on {@code pinned}, or on the least loaded pool account when null,
+     * sent to the best endpoint; on failure, consults the retry policy and chains the next attempt.
+     */
+    private Flux<JsonNode> attemptKiroEvents(KiroPayload payload, KiroCredential pinned, long deadline,
+                                             AtomicBoolean received, int attempt) {
+        return Flux.defer(() -> {
+            KiroEndpoint endpoint = endpointRouter.select(candidate -> credentialPool.getCredentials().stream()
+                .anyMatch(account -> !circuitBreaker.isOpen(circuitName(candidate, account))));
+            KiroCredential credential = pinned != null
+                ? pinned
+                : credentialPool.select(candidate -> !circuitBreaker.isOpen(circuitName(endpoint, candidate)));
+            KiroPayload attemptPayload = payload.forProfile(credential.getProfileArn());
+            String token = tokenManager.ensureToken(credential);
+            if (log.isDebugEnabled()) {
+                log.debug("Attempt {} on {} with credential {} (profile ARN {})", attempt + 1, endpoint.getUrl(),
+                    credential.getName(), credential.getProfileArn());
+                log.debug("Authorization: Bearer {}...", token.substring(0, Math.min(token.length(), 20)));
+            }
+            Flux<JsonNode> events = concurrencyLimit.measure(credentialPool.track(credential,
+                endpointRouter.track(endpoint, exchangeKiroEvents(endpoint, attemptPayload, token, deadline))));
+            return circuitBreaker.guard(circuitName(endpoint, credential), events)
+                .doOnNext(event -> received.set(true))
+                .onErrorResume(error -> !received.get(), error -> {
+                    log.error("=== Kiro API Error Debug ===");
+                    if (error instanceof WebClientResponseException) {
+                        WebClientResponseException webEx = (WebClientResponseException) error;
+                        log.error("Status Code: {}", webEx.getStatusCode());
+                        log.error("Status Text: {}", webEx.getStatusText());
+                        log.error("Response Headers: {}", webEx.getHeaders());
+                        log.error("Response Body: {}", webEx.getResponseBodyAsString());
+                    } else {
+                        log.error("Error Type: {}", error.getClass().getSimpleName());
+                        log.error("Error Message: {}", error.getMessage());
+                    }
+                    log.error("Request URL: {}", endpoint.getUrl());
+                    log.error("Original Payload size: {} bytes", attemptPayload.serializedBytes);
+
+                    RetryPolicy.Decision decision = retryPolicy.classify(error);
+                    if (decision == RetryPolicy.Decision.NO_RETRY) {
+                        return Flux.error(error);
+                    }
+                    if (attempt >= retryPolicy.getMaxRetries()) {
+                        log.error("Giving up on Kiro request after {} attempts", attempt + 1);
+                        return Flux.error(error);
+                    }
+                    // A connection that never opened cost Kiro nothing; go straight to another endpoint
+                    boolean failover = KiroEndpointRouter.isConnectError(error) && endpointRouter.hasAlternative(endpoint);
+                    Duration delay = decision == RetryPolicy.Decision.REFRESH_AND_RETRY || failover
+                        ? Duration.ZERO
+                        : retryPolicy.backoff(attempt, error);
+                    if (now() + delay.toNanos() >= deadline) {
+                        log.warn("Not retrying Kiro request: {} ms backoff would pass the deadline", delay.toMillis());
+                        return Flux.error(error);
+                    }
+                    if (!failover && !retryPolicy.tryAcquireRetry()) {
+                        log.warn("Not retrying Kiro request: retry budget exhausted");
+                        return Flux.error(error);
+                    }
+
+                    if (log.isDebugEnabled()) {
+                        log.debug("=== Kiro API Retry Debug ===");
+                        log.debug("Retry {} ({}) after {} ms", attempt + 1, decision, delay.toMillis());
+                    }
+                    // Auth failures retry on the same account once its token is refreshed; anything
+                    // else goes back to the pool, which by now may prefer another account
+                    if (decision == RetryPolicy.Decision.REFRESH_AND_RETRY) {
+                        return Mono.delay(delay)
+                            .then(Mono.defer(() -> tokenManager.refreshIfNeeded(credential)))
+                            .thenMany(attemptKiroEvents(payload, credential, deadline, received, attempt + 1));
+                    }
+                    return Mono.delay(delay)
+                        .thenMany(attemptKiroEvents(payload, null, deadline, received, attempt + 1));
+                });
+        });
+    }
+
+    private Flux<JsonNode> exchangeKiroEvents(KiroEndpoint endpoint, KiroPayload payload, String token, long deadline) {
         return webClient.post()
+            .uri(endpoint.getUrl())
             .header("Authorization", "Bearer " + token)
             .contentType(MediaType.APPLICATION_JSON)
             .accept(MediaType.TEXT_EVENT_STREAM)
-            .bodyValue(payload)
+            .body(payloadInserter(payload))
             .retrieve()
-            .bodyToMono(byte[].class)
-            .map(bytes -> {
-                List<JsonNode> events = eventParser.parse(bytes);
-                if (log.isDebugEnabled()) {
-                    log.debug("Parsed {} events from Kiro response", events.size());
-                    for (int i = 0; i < events.size(); i++) {
-                        log.debug("Event {}: {}", i, events.get(i).toString());
-                    }
-                }
-                return events;
-            })
-            .timeout(Duration.ofSeconds(120))
-            .onErrorResume(error -> {
-                log.error("=== Kiro API Error Debug ===");
-                if (error instanceof WebClientResponseException) {
-                    WebClientResponseException webEx = (WebClientResponseException) error;
-                    log.error("Status Code: {}", webEx.getStatusCode());
-                    log.error("Status Text: {}", webEx.getStatusText());
-                    log.error("Response Headers: {}", webEx.getHeaders());
-                    log.error("Response Body: {}", webEx.getResponseBodyAsString());
-                } else {
-                    log.error("Error Type: {}", error.getClass().getSimpleName());
-                    log.error("Error Message: {}", error.getMessage());
-                }
-                log.error("Request URL: {}", properties.getKiro().getBaseUrl());
-                log.error("Original Payload size: {} characters", payload.toString().length());
+            .bodyToFlux(DataBuffer.class)
+            .transform(body -> applyTimeouts(body, deadline))
+            .transform(eventParser::parseStream);
+    }
 
-                return tokenManager.refreshIfNeeded()
-                    .flatMap(refreshed -> {
-                        if (log.isDebugEnabled()) {
-                            log.debug("=== Kiro API Retry Debug ===");
-                            log.debug("Token refreshed: {}", refreshed);
-                            log.debug("Retrying with new token...");
-                        }
-                        String newToken = tokenManager.ensureToken();
-                        if (log.isDebugEnabled()) {
-                            log.debug("New Authorization: Bearer {}...", newToken.substring(0, Math.min(newToken.length(), 20)));
-                        }
+    /**
+     * Enforce the first-byte, inter-frame idle and overall deadlines on the raw response body.
+     * Each timer is capped by the time left until {@code deadline} (see {@link #now()}),
+     * so a slow but steady stream is only cut off by the overall deadline.
+     */
+    private Flux<DataBuffer> applyTimeouts(Flux<DataBuffer> body, long deadline) {
+        Duration firstByte = Duration.ofSeconds(properties.getKiro().getFirstByteTimeoutSeconds());
+        Duration idle = Duration.ofSeconds(properties.getKiro().getIdleTimeoutSeconds());
+        return Flux.defer(() -> {
+            long started = now();
+            AtomicBoolean received = new AtomicBoolean(false);
+            // Whether the timer currently armed was shortened by the overall deadline
+            AtomicBoolean deadlineBound = new AtomicBoolean(false);
+            Function<Duration, Mono<Long>> timer = timeout -> {
+                long remaining = deadline - now();
+                deadlineBound.set(remaining <= timeout.toNanos());
+                return Mono.delay(Duration.ofNanos(Math.max(0, Math.min(timeout.toNanos(), remaining))));
+            };
+            return body
+                .timeout(Mono.defer(() -> timer.apply(firstByte)), buffer -> timer.apply(idle))
+                .doOnNext(buffer -> received.set(true))
+                .onErrorMap(TimeoutException.class, ex -> {
+                    UpstreamTimeoutException.Phase phase = deadlineBound.get()
+                        ? UpstreamTimeoutException.Phase.DEADLINE
+                        : received.get() ? UpstreamTimeoutException.Phase.IDLE : UpstreamTimeoutException.Phase.FIRST_BYTE;
+                    UpstreamTimeoutException timeout = new UpstreamTimeoutException(phase, Duration.ofNanos(now() - started));
+                    log.warn(timeout.getMessage());
+                    return timeout;
+                });
+        });
+    }
 
-                        return webClient.post()
-                            .header("Authorization", "Bearer " + newToken)
-                            .contentType(MediaType.APPLICATION_JSON)
-                            .accept(MediaType.TEXT_EVENT_STREAM)
-                            .bodyValue(payload)
-                            .retrieve()
-                            .bodyToMono(byte[].class)
-                            .map(eventParser::parse)
-                            .timeout(Duration.ofSeconds(120))
-                            .onErrorResume(retryError -> {
-                                log.error("=== Retry Failed ===");
-                                if (retryError instanceof WebClientResponseException) {
-                                    WebClientResponseException retryWebEx = (WebClientResponseException) retryError;
-                                    log.error("Retry Status Code: {}", retryWebEx.getStatusCode());
-                                    log.error("Retry Status Text: {}", retryWebEx.getStatusText());
-                                    log.error("Retry Response Body: {}", retryWebEx.getResponseBodyAsString());
-                                }
-                                log.error("Retry Error: {}", retryError.getMessage());
-                                return Mono.error(retryError);
-                            });
-                    });
+    // Clock of the scheduler that runs the timeout timers
+    private static long now() {
+        return Schedulers.parallel().now(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Overall deadline for one request: the configured total, shortened by the client's own timeout if it sent one
+     */
+    private Duration totalTimeout(AnthropicChatRequest request) {
+        Duration total = Duration.ofSeconds(properties.getKiro().getTotalTimeoutSeconds());
+        Duration clientTimeout = request.getClientTimeout();
+        if (clientTimeout != null && !clientTimeout.isNegative() && clientTimeout.compareTo(total) < 0) {
+            return clientTimeout;
+        }
+        return total;
+    }
+
+    /**
+     * Circuit breaker key: the endpoint plus the pool account, named after its profile id by default
+     */
+    private static String circuitName(KiroEndpoint endpoint, KiroCredential credential) {
+        return endpoint.getUrl() + "#" + credential.getName();
+    }
+
+    /**
+     * Serialize the payload into a buffer from the connection's own allocator when the request is written,
+     * so the JSON never exists as a tree or String on the hot path.
+     */
+    private BodyInserter<KiroPayload, ReactiveHttpOutputMessage> payloadInserter(KiroPayload payload) {
+        return (message, context) -> Mono.fromCallable(() -> payloadWriter.write(payload, message.bufferFactory()))
+            .flatMap(buffer -> {
+                message.getHeaders().setContentLength(buffer.readableByteCount());
+                return message.writeWith(Mono.just(buffer));
             });
     }
 
+    /**
+     * Look up and fill in the prompt cache for the cache_control prefixes of {@code request};
+     * null if it has none. Payload and usage are then built from the returned match.
+     */
+    // Package-private for testing
+    PromptCache.Match matchPromptCache(AnthropicChatRequest request) {
+        return promptCache.match(request, promptRenderer);
+    }
+
     // Package-private for testing
-    ObjectNode buildKiroPayload(AnthropicChatRequest request) {
+    KiroPayload buildKiroPayload(AnthropicChatRequest request, PromptCache.Match promptMatch) {
         if (log.isDebugEnabled()) {
             log.debug("=== Building Kiro Payload ===");
         }
@@ -202,22 +410,14 @@ public class KiroService {
             log.debug("Generated conversationId: {}", conversationId);
         }
 
-        ObjectNode conversationState = mapper.createObjectNode();
-        conversationState.put("chatTriggerType", "MANUAL");
-        conversationState.put("conversationId", conversationId);
-
-        ObjectNode currentMessage = mapper.createObjectNode();
-        ObjectNode userInput = mapper.createObjectNode();
+        PromptCache.Prefix prefix = promptMatch != null ? promptMatch.prefix() : null;
 
-        String content = buildCurrentMessageContent(request);
+        String content = buildCurrentMessageContent(request, prefix);
+        List<KiroPayload.Image> images = buildCurrentImages(request);
         String modelId = mapModel(request.getModel());
 
-        userInput.put("content", content);
-        userInput.put("modelId", modelId);
-        userInput.put("origin", "AI_EDITOR");
-
         if (log.isDebugEnabled()) {
-            log.debug("Current message: content_length={}, modelId={}", content.length(), modelId);
+            log.debug("Current message: content_length={}, images={}, modelId={}", content.length(), images.size(), modelId);
         }
 
         // Log tools context status
@@ -226,6 +426,8 @@ public class KiroService {
             log.debug("Tools context disabled: {}", disableToolsContext);
         }
 
+        List<SerializedString> tools = null;
+        KiroPayload.ToolChoice toolChoice = null;
         if (!disableToolsContext && !CollectionUtils.isEmpty(request.getTools())) {
             // Log MCP tool detection
             long mcpToolCount = mcpToolIdentifier.countMcpTools(request.getTools());
@@ -241,65 +443,25 @@ public class KiroService {
                 }
             }
 
-            ObjectNode context = mapper.createObjectNode();
-            ArrayNode toolsNode = mapper.createArrayNode();
-            request.getTools().forEach(tool -> {
-                ObjectNode specNode = mapper.createObjectNode();
-                ObjectNode toolSpec = mapper.createObjectNode();
-
-                // Use effective methods to handle both direct and Anthropic function format
-                String effectiveName = tool.getEffectiveName();
-                String effectiveDescription = tool.getEffectiveDescription();
-                Map<String, Object> effectiveInputSchema = tool.getEffectiveInputSchema();
-
-                // Only add non-null values to avoid null fields in JSON
-                if (effectiveName != null) {
-                    toolSpec.put("name", effectiveName);
-                }
-                if (effectiveDescription != null) {
-                    toolSpec.put("description", effectiveDescription);
-                }
-                if (effectiveInputSchema != null) {
-                    toolSpec.set("inputSchema", mapper.createObjectNode().set("json", mapper.valueToTree(effectiveInputSchema)));
-                }
-
-                specNode.set("toolSpecification", toolSpec);
-                toolsNode.add(specNode);
-            });
-            context.set("tools", toolsNode);
+            tools = toolSpecificationCache.resolve(request.getTools(), tokenCounter).specifications();
             if (request.getToolChoice() != null && !request.getToolChoice().isEmpty()) {
-                context.set("toolChoice", convertToolChoice(request.getToolChoice()));
+                toolChoice = convertToolChoice(request.getToolChoice());
             }
-            userInput.set("userInputMessageContext", context);
-        }
-
-        if (request.getStopSequences() != null && !request.getStopSequences().isEmpty()) {
-            ArrayNode stopArray = mapper.createArrayNode();
-            request.getStopSequences().forEach(stopArray::add);
-            userInput.set("stopSequences", stopArray);
         }
 
         // Add thinking parameter if present (for extended thinking mode)
-        if (request.getThinking() != null && !request.getThinking().isEmpty()) {
-            userInput.set("thinking", mapper.valueToTree(request.getThinking()));
-            if (log.isDebugEnabled()) {
-                log.debug("Extended thinking enabled with config: {}", request.getThinking());
-            }
+        if (request.getThinking() != null && !request.getThinking().isEmpty() && log.isDebugEnabled()) {
+            log.debug("Extended thinking enabled with config: {}", request.getThinking());
         }
 
-        currentMessage.set("userInputMessage", userInput);
+        List<KiroPayload.HistoryEntry> history = buildHistory(request, prefix);
 
-        ArrayNode history = buildHistory(request);
-        conversationState.set("currentMessage", currentMessage);
-        conversationState.set("history", history);
-
-        ObjectNode payload = mapper.createObjectNode();
-        payload.put("profileArn", properties.getKiro().getProfileArn());
-        payload.set("conversationState", conversationState);
+        KiroPayload payload = new KiroPayload(properties.getKiro().getProfileArn(), conversationId, content, images, modelId,
+            tools, toolChoice, request.getStopSequences(), request.getThinking(), history);
 
         // Final payload analysis
         if (log.isDebugEnabled()) {
-            String payloadString = payload.toString();
+            String payloadString = payloadWriter.toJson(payload);
             log.debug("=== Kiro Payload Analysis Complete ===");
             log.debug("Final payload size: {} characters ({} KB)", payloadString.length(), payloadString.length() / 1024);
             log.debug("Profile ARN: {}", properties.getKiro().getProfileArn());
@@ -310,14 +472,17 @@ public class KiroService {
         return payload;
     }
 
-    private String buildCurrentMessageContent(AnthropicChatRequest request) {
+    private String buildCurrentMessageContent(AnthropicChatRequest request, PromptCache.Prefix prefix) {
         List<String> segments = new ArrayList<>();
         if (!CollectionUtils.isEmpty(request.getSystem())) {
-            request.getSystem().forEach(block -> {
-                if ("text".equalsIgnoreCase(block.getType())) {
-                    segments.add("[System] " + block.getText());
+            for (int i = 0; i < request.getSystem().size(); i++) {
+                String segment = prefix != null && prefix.coversSystemBlock(i)
+                    ? prefix.systemSegments.get(i)
+                    : buildSystemSegment(request.getSystem().get(i));
+                if (segment != null) {
+                    segments.add(segment);
                 }
-            });
+            }
         }
 
         // Only process the last message (current one)
@@ -327,8 +492,9 @@ public class KiroService {
                 lastMessage.getContent().forEach(block -> {
                     if ("text".equalsIgnoreCase(block.getType())) {
                         segments.add("[" + lastMessage.getRole() + "] " + block.getText());
-                    } else if ("image".equalsIgnoreCase(block.getType()) && block.getSource() != null) {
-                        // Include a concise image marker so downstream can be aware of images
+                    } else if ("image".equalsIgnoreCase(block.getType()) && block.getSource() != null
+                        && !"base64".equals(block.getSource().getType())) {
+                        // Kiro only takes inline images; mark the others so downstream is aware of them
                         AnthropicMessage.ImageSource src = block.getSource();
                         String media = src.getMediaType() != null ? src.getMediaType() : "unknown";
                         String srcType = src.getType() != null ? src.getType() : "unknown";
@@ -340,7 +506,31 @@ public class KiroService {
         return String.join("\n", segments);
     }
 
-    private AnthropicChatResponse mapResponse(List<JsonNode> events, AnthropicChatRequest request) {
+    /**
+     * Base64 images of the last message, already validated by the controller
+     */
+    private List<KiroPayload.Image> buildCurrentImages(AnthropicChatRequest request) {
+        if (CollectionUtils.isEmpty(request.getMessages())) {
+            return List.of();
+        }
+        AnthropicMessage lastMessage = request.getMessages().get(request.getMessages().size() - 1);
+        if (CollectionUtils.isEmpty(lastMessage.getContent())) {
+            return List.of();
+        }
+        List<KiroPayload.Image> images = new ArrayList<>();
+        for (AnthropicMessage.ContentBlock block : lastMessage.getContent()) {
+            AnthropicMessage.ImageSource src = block.getSource();
+            if ("image".equalsIgnoreCase(block.getType()) && src != null && "base64".equals(src.getType())
+                && src.getMediaType() != null && src.getData() != null) {
+                String format = src.getMediaType().substring(src.getMediaType().indexOf('/') + 1);
+                images.add(new KiroPayload.Image(format, src.getData()));
+            }
+        }
+        return images;
+    }
+
+    private AnthropicChatResponse mapResponse(List<JsonNode> events, AnthropicChatRequest request,
+                                              PromptCache.Match promptMatch) {
         AnthropicChatResponse response = new AnthropicChatResponse();
         response.setId("msg_" + UUID.randomUUID().toString().replace("-", ""));
         response.setType("message");
@@ -473,28 +663,7 @@ public class KiroService {
             AnthropicMessage.ContentBlock block = new AnthropicMessage.ContentBlock();
             block.setType("text");
 
-            // Add thinking mode warning if requested but not supported
-            String finalText = contentBuilder.toString();
-            if (request.getThinking() != null && !request.getThinking().isEmpty()) {
-                String warning = "[Note: Extended thinking mode is not supported by Kiro Gateway. Response generated in standard mode.]\n\n";
-                finalText = warning + finalText;
-                log.info("Added thinking mode unsupported warning to response");
-            }
-
-            // If the last message carried images, append a short note for E2E verification
-            if (!CollectionUtils.isEmpty(request.getMessages())) {
-                AnthropicMessage last = request.getMessages().get(request.getMessages().size() - 1);
-                if (!CollectionUtils.isEmpty(last.getContent())) {
-                    long imageCount = last.getContent().stream()
-                        .filter(cb -> "image".equalsIgnoreCase(cb.getType()) && cb.getSource() != null)
-                        .count();
-                    if (imageCount > 0) {
-                        finalText = String.format("[Note: %d image(s) received by Kiro]\n\n", imageCount) + finalText;
-                    }
-                }
-            }
-
-            block.setText(finalText);
+            block.setText(buildTextPreamble(request) + contentBuilder);
             response.addContentBlock(block);
         } else {
             uniqueToolCalls.forEach(call -> {
@@ -508,16 +677,32 @@ public class KiroService {
             });
         }
 
-        AnthropicChatResponse.Usage usage = new AnthropicChatResponse.Usage();
-        usage.setInputTokens(estimateTokens(request));
-        usage.setOutputTokens(estimateTokens(contentBuilder.toString()));
-        response.setUsage(usage);
+        response.setUsage(buildUsage(request, promptMatch, countOutputTokens(contentBuilder, uniqueToolCalls)));
 
         return response;
     }
 
-    private ArrayNode buildHistory(AnthropicChatRequest request) {
-        ArrayNode history = mapper.createArrayNode();
+    /**
+     * Notes prepended to the text block of a response (unsupported thinking mode)
+     */
+    private String buildTextPreamble(AnthropicChatRequest request) {
+        String preamble = "";
+
+        // Add thinking mode warning if requested but not supported
+        if (request.getThinking() != null && !request.getThinking().isEmpty()) {
+            preamble = "[Note: Extended thinking mode is not supported by Kiro Gateway. Response generated in standard mode.]\n\n";
+            log.info("Added thinking mode unsupported warning to response");
+        }
+
+        return preamble;
+    }
+
+    private String buildSystemSegment(AnthropicMessage.ContentBlock block) {
+        return "text".equalsIgnoreCase(block.getType()) ? "[System] " + block.getText() : null;
+    }
+
+    private List<KiroPayload.HistoryEntry> buildHistory(AnthropicChatRequest request, PromptCache.Prefix prefix) {
+        List<KiroPayload.HistoryEntry> history = new ArrayList<>();
         if (CollectionUtils.isEmpty(request.getMessages()) || request.getMessages().size() <= 1) {
             return history;
         }
@@ -540,8 +725,9 @@ public class KiroService {
         }
 
         // Limit history to the most recent messages
+        int skipCount = 0;
         if (historicalMessages.size() > maxHistoryMessages) {
-            int skipCount = historicalMessages.size() - maxHistoryMessages;
+            skipCount = historicalMessages.size() - maxHistoryMessages;
             historicalMessages = historicalMessages.subList(skipCount, historicalMessages.size());
             log.info("Limited history by skipping {} oldest messages, keeping {} most recent",
                 skipCount, maxHistoryMessages);
@@ -553,19 +739,24 @@ public class KiroService {
         final int maxHistorySize = properties.getKiro().getMaxHistorySize();
         int totalContentSize = 0;
 
-        for (AnthropicMessage message : historicalMessages) {
-            String content = buildMessageContent(message);
+        for (int index = 0; index < historicalMessages.size(); index++) {
+            AnthropicMessage message = historicalMessages.get(index);
+            // Messages covered by a cached prompt prefix are already rendered and escaped
+            SerializedString content = prefix != null ? prefix.messageContent(skipCount + index) : null;
+            if (content == null) {
+                content = new SerializedString(buildMessageContent(message));
+            }
 
             // Check size limit
-            if (totalContentSize + content.length() > maxHistorySize) {
+            if (totalContentSize + content.charLength() > maxHistorySize) {
                 if (log.isDebugEnabled()) {
                     log.debug("Skipping message due to size limit: current={}, message_size={}, limit={}",
-                        totalContentSize, content.length(), maxHistorySize);
+                        totalContentSize, content.charLength(), maxHistorySize);
                 }
                 break;
             }
 
-            totalContentSize += content.length();
+            totalContentSize += content.charLength();
 
             if ("user".equalsIgnoreCase(message.getRole())) {
                 processedMessages.add(new MessagePair("user", content));
@@ -586,53 +777,34 @@ public class KiroService {
 
             if ("user".equals(current.role)) {
                 // Add userInputMessage
-                ObjectNode userNode = mapper.createObjectNode();
-                userNode.set("userInputMessage", mapper.createObjectNode()
-                    .put("content", current.content)
-                    .put("modelId", historyModelId)
-                    .put("origin", "AI_EDITOR"));
-                history.add(userNode);
+                history.add(KiroPayload.HistoryEntry.user(current.content, historyModelId));
                 if (log.isDebugEnabled()) {
-                    log.debug("History userInputMessage added: content_length={}", current.content.length());
+                    log.debug("History userInputMessage added: content_length={}", current.content.charLength());
                 }
 
                 // Look for assistant response
                 if (i + 1 < processedMessages.size() && "assistant".equals(processedMessages.get(i + 1).role)) {
                     // Found paired assistant response
                     MessagePair assistant = processedMessages.get(i + 1);
-                    ObjectNode assistantNode = mapper.createObjectNode();
-                    assistantNode.set("assistantResponseMessage", mapper.createObjectNode()
-                        .put("content", assistant.content));
-                    history.add(assistantNode);
+                    history.add(KiroPayload.HistoryEntry.assistant(assistant.content));
                     if (log.isDebugEnabled()) {
-                        log.debug("History assistantResponseMessage added: content_length={}", assistant.content.length());
+                        log.debug("History assistantResponseMessage added: content_length={}", assistant.content.charLength());
                     }
                     i += 2;
                 } else {
                     // No assistant response, add placeholder
-                    ObjectNode assistantNode = mapper.createObjectNode();
-                    assistantNode.set("assistantResponseMessage", mapper.createObjectNode()
-                        .put("content", "I understand."));
-                    history.add(assistantNode);
+                    history.add(KiroPayload.HistoryEntry.assistant(PLACEHOLDER_ASSISTANT_CONTENT));
                     log.debug("History assistantResponseMessage placeholder added");
                     i += 1;
                 }
             } else if ("assistant".equals(current.role)) {
                 // Orphaned assistant message - add placeholder user message first
-                ObjectNode userNode = mapper.createObjectNode();
-                userNode.set("userInputMessage", mapper.createObjectNode()
-                    .put("content", "Continue")
-                    .put("modelId", historyModelId)
-                    .put("origin", "AI_EDITOR"));
-                history.add(userNode);
+                history.add(KiroPayload.HistoryEntry.user(PLACEHOLDER_USER_CONTENT, historyModelId));
                 log.debug("History userInputMessage placeholder added for orphaned assistant");
 
-                ObjectNode assistantNode = mapper.createObjectNode();
-                assistantNode.set("assistantResponseMessage", mapper.createObjectNode()
-                    .put("content", current.content));
-                history.add(assistantNode);
+                history.add(KiroPayload.HistoryEntry.assistant(current.content));
                 if (log.isDebugEnabled()) {
-                    log.debug("History orphaned assistantResponseMessage added: content_length={}", current.content.length());
+                    log.debug("History orphaned assistantResponseMessage added: content_length={}", current.content.charLength());
                 }
                 i += 1;
             } else {
@@ -652,9 +824,9 @@ public class KiroService {
      */
     private static class MessagePair {
         final String role;
-        final String content;
+        final SerializedString content;
 
-        MessagePair(String role, String content) {
+        MessagePair(String role, SerializedString content) {
             this.role = role;
             this.content = content;
         }
@@ -708,27 +880,31 @@ public class KiroService {
         }
     }
 
-    private int estimateTokens(AnthropicChatRequest request) {
-        if (CollectionUtils.isEmpty(request.getMessages())) {
-            return 0;
-        }
-        int total = 0;
-        for (AnthropicMessage message : request.getMessages()) {
-            if (CollectionUtils.isEmpty(message.getContent())) {
-                continue;
-            }
-            for (AnthropicMessage.ContentBlock block : message.getContent()) {
-                total += estimateTokens(block.getText());
-            }
+    /**
+     * Usage of a request; as on the Anthropic API, input tokens exclude those of the prompt prefix
+     * read from or written to the cache by {@code promptMatch}
+     */
+    private AnthropicChatResponse.Usage buildUsage(AnthropicChatRequest request, PromptCache.Match promptMatch,
+                                                   int outputTokens) {
+        AnthropicChatResponse.Usage usage = new AnthropicChatResponse.Usage();
+        int inputTokens = tokenCounter.countInputTokens(request);
+        if (promptMatch != null) {
+            inputTokens -= promptMatch.cacheReadInputTokens() + promptMatch.cacheCreationInputTokens();
+            usage.setCacheReadInputTokens(promptMatch.cacheReadInputTokens());
+            usage.setCacheCreationInputTokens(promptMatch.cacheCreationInputTokens());
         }
-        return total;
+        usage.setInputTokens(Math.max(0, inputTokens));
+        usage.setOutputTokens(outputTokens);
+        return usage;
     }
 
-    private int estimateTokens(String text) {
-        if (text == null) {
-            return 0;
+    private int countOutputTokens(CharSequence text, List<ToolCall> toolCalls) {
+        int total = tokenCounter.countTokens(text);
+        for (ToolCall call : toolCalls) {
+            total += tokenCounter.countTokens(call.getFunction().getName());
+            total += tokenCounter.countTokens(call.getFunction().getArguments());
         }
-        return Math.max(1, text.length() / 4);
+        return total;
     }
 
     private Map<String, Object> parseArguments(String arguments) {
@@ -795,8 +971,8 @@ public class KiroService {
             }
         }
 
-        // Priority 4: Estimate if max_tokens was reached
-        int estimatedOutputTokens = estimateTokens(contentBuilder.toString());
+        // Priority 4: Check if max_tokens was reached
+        int estimatedOutputTokens = tokenCounter.countTokens(contentBuilder);
         if (request.getMaxTokens() != null && estimatedOutputTokens >= request.getMaxTokens() - 10) {
             // Allow small margin for token estimation inaccuracy
             return "max_tokens";
@@ -806,55 +982,38 @@ public class KiroService {
         return "end_turn";
     }
 
-    private ObjectNode convertToolChoice(Map<String, Object> toolChoice) {
-        ObjectNode node = mapper.createObjectNode();
-        Object type = toolChoice.get("type");
-        if (type instanceof String choiceType) {
+    private KiroPayload.ToolChoice convertToolChoice(Map<String, Object> toolChoice) {
+        String type;
+        String name = null;
+        Object choice = toolChoice.get("type");
+        if (choice instanceof String choiceType) {
             switch (choiceType) {
                 case "auto":
-                    node.put("type", "AUTO");
-                    break;
                 case "any":
-                    node.put("type", "AUTO");
+                    type = "AUTO";
                     break;
                 case "none":
-                    node.put("type", "NONE");
+                    type = "NONE";
                     break;
                 case "required":
-                    node.put("type", "REQUIRED");
-                    if (toolChoice.containsKey("name")) {
-                        node.put("name", String.valueOf(toolChoice.get("name")));
-                    }
+                    type = "REQUIRED";
                     break;
                 default:
-                    node.put("type", "SPECIFIC");
-                    node.put("name", choiceType);
+                    type = "SPECIFIC";
+                    name = choiceType;
             }
         } else {
-            node.put("type", "AUTO");
+            type = "AUTO";
         }
-        if (toolChoice.containsKey("name") && !node.has("name")) {
-            node.put("name", String.valueOf(toolChoice.get("name")));
+        if (name == null && toolChoice.containsKey("name")) {
+            name = String.valueOf(toolChoice.get("name"));
         }
-        return node;
+        return new KiroPayload.ToolChoice(type, name);
     }
 
-    private List<String> buildStreamEvents(AnthropicChatResponse response) {
-        List<String> events = new ArrayList<>();
-        String messageId = response.getId();
-
-        ObjectNode messageStart = mapper.createObjectNode();
-        messageStart.put("type", "message_start");
-        ObjectNode messageNode = mapper.createObjectNode();
-        messageNode.put("id", messageId);
-        messageNode.put("type", "message");
-        messageNode.put("role", response.getRole());
-        messageNode.put("model", response.getModel());
-        messageNode.putNull("stop_reason");
-        messageNode.putNull("stop_sequence");
-        messageNode.put("created_at", response.getCreatedAt());
-        messageStart.set("message", messageNode);
-        events.add(toSseEvent("message_start", messageStart));
+    private List<DataBuffer> buildStreamEvents(AnthropicChatResponse response, SseEventWriter writer, int textChunkChars) {
+        List<DataBuffer> events = new ArrayList<>();
+        events.add(writer.messageStart(response.getId(), response.getRole(), response.getModel(), response.getCreatedAt()));
 
         List<AnthropicMessage.ContentBlock> contentBlocks = response.getContent();
         if (contentBlocks != null && !contentBlocks.isEmpty()) {
@@ -863,87 +1022,50 @@ public class KiroService {
                 String blockType = block.getType();
 
                 // Send content_block_start event
-                ObjectNode blockStart = mapper.createObjectNode();
-                blockStart.put("type", "content_block_start");
-                blockStart.put("index", index);
-                ObjectNode blockNode = mapper.createObjectNode();
-                blockNode.put("type", blockType);
-                if ("tool_use".equals(blockType)) {
-                    // For tool_use, only include id and name in start event (no input yet)
-                    blockNode.put("id", block.getId());
-                    blockNode.put("name", block.getName());
-                } else if ("text".equals(blockType)) {
-                    blockNode.put("text", "");
-                }
-                blockStart.set("content_block", blockNode);
-                events.add(toSseEvent("content_block_start", blockStart));
+                events.add(writer.contentBlockStart(index, blockType, block.getId(), block.getName()));
 
                 // Send content_block_delta event(s)
                 if ("text".equals(blockType)) {
-                    ObjectNode delta = mapper.createObjectNode();
-                    delta.put("type", "content_block_delta");
-                    delta.put("index", index);
-                    ObjectNode deltaNode = mapper.createObjectNode();
-                    deltaNode.put("type", "text_delta");
-                    deltaNode.put("text", block.getText() != null ? block.getText() : "");
-                    delta.set("delta", deltaNode);
-                    events.add(toSseEvent("content_block_delta", delta));
+                    for (String chunk : chunkText(block.getText() != null ? block.getText() : "", textChunkChars)) {
+                        events.add(writer.textDelta(index, chunk));
+                    }
                 } else if ("tool_use".equals(blockType)) {
                     // For tool_use, stream the input as JSON deltas
                     String inputJson = serializeToolInput(block.getInput());
-                    List<String> jsonChunks = chunkJsonString(inputJson);
-                    for (String chunk : jsonChunks) {
-                        ObjectNode delta = mapper.createObjectNode();
-                        delta.put("type", "content_block_delta");
-                        delta.put("index", index);
-                        ObjectNode deltaNode = mapper.createObjectNode();
-                        deltaNode.put("type", "input_json_delta");
-                        deltaNode.put("partial_json", chunk);
-                        delta.set("delta", deltaNode);
-                        events.add(toSseEvent("content_block_delta", delta));
+                    for (String chunk : chunkJsonString(inputJson)) {
+                        events.add(writer.inputJsonDelta(index, chunk));
                     }
                 }
 
                 // Send content_block_stop event
-                ObjectNode blockStop = mapper.createObjectNode();
-                blockStop.put("type", "content_block_stop");
-                blockStop.put("index", index);
-                events.add(toSseEvent("content_block_stop", blockStop));
+                events.add(writer.contentBlockStop(index));
             }
         }
 
-        ObjectNode messageDelta = mapper.createObjectNode();
-        messageDelta.put("type", "message_delta");
-        ObjectNode deltaNode = mapper.createObjectNode();
-        deltaNode.put("stop_reason", response.getStopReason());
-        if (response.getStopSequence() != null) {
-            deltaNode.put("stop_sequence", response.getStopSequence());
-        } else {
-            deltaNode.putNull("stop_sequence");
-        }
-        messageDelta.set("delta", deltaNode);
-        if (response.getUsage() != null) {
-            ObjectNode usageNode = mapper.createObjectNode();
-            usageNode.put("input_tokens", response.getUsage().getInputTokens());
-            usageNode.put("output_tokens", response.getUsage().getOutputTokens());
-            messageDelta.set("usage", usageNode);
-        }
-        events.add(toSseEvent("message_delta", messageDelta));
-
-        ObjectNode messageStop = mapper.createObjectNode();
-        messageStop.put("type", "message_stop");
-        events.add(toSseEvent("message_stop", messageStop));
+        events.add(writer.messageDelta(response.getStopReason(), response.getStopSequence(), response.getUsage()));
+        events.add(writer.messageStop());
 
         return events;
     }
 
-    private String toSseEvent(String eventName, ObjectNode payload) {
-        try {
-            String data = mapper.writeValueAsString(payload);
-            return "event: " + eventName + "\n" + "data: " + data + "\n\n";
-        } catch (Exception e) {
-            throw new IllegalStateException("Failed to serialize SSE payload", e);
+    /**
+     * Split text into chunks of at most {@code chunkChars}, never between the halves of a surrogate pair
+     */
+    private static List<String> chunkText(String text, int chunkChars) {
+        if (text.length() <= chunkChars || chunkChars < 2) {
+            return List.of(text);
+        }
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(start + chunkChars, text.length());
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            chunks.add(text.substring(start, end));
+            start = end;
         }
+        return chunks;
     }
 
     /**
@@ -997,6 +1119,242 @@ public class KiroService {
         };
     }
 
+    /**
+     * Renders prompt parts for the prompt cache exactly as buildKiroPayload would
+     */
+    private class PromptRenderer implements PromptCache.Renderer {
+
+        @Override
+        public String systemSegment(AnthropicMessage.ContentBlock block) {
+            return buildSystemSegment(block);
+        }
+
+        @Override
+        public String messageContent(AnthropicMessage message) {
+            return buildMessageContent(message);
+        }
+    }
+
+    /**
+     * Translates Kiro events into Anthropic SSE events while the upstream response is still arriving.
+     * Text and tool input fragments are forwarded as soon as they are received; only tool calls
+     * recovered from legacy formats (toolCalls, bracket text) are emitted once upstream completes.
+     */
+    private class StreamTranslator {
+        private final AnthropicChatRequest request;
+        private final PromptCache.Match promptMatch;
+        private final SseEventWriter writer;
+        private final String messageId = "msg_" + UUID.randomUUID().toString().replace("-", "");
+        private final StringBuilder contentBuilder = new StringBuilder();
+        private final Map<String, LiveToolUse> liveToolUses = new LinkedHashMap<>();
+        private final List<ToolCall> toolCalls = new ArrayList<>();
+        // Only events that carry stop indicators are kept for determineStopReason
+        private final List<JsonNode> stopSignals = new ArrayList<>();
+        private boolean started;
+        private boolean hasTextBlock;
+        private int nextIndex;
+        // Index of the open content block (-1 if none); openToolUseId is null while a text block is open
+        private int openIndex = -1;
+        private String openToolUseId;
+
+        StreamTranslator(AnthropicChatRequest request, PromptCache.Match promptMatch, SseEventWriter writer) {
+            this.request = request;
+            this.promptMatch = promptMatch;
+            this.writer = writer;
+        }
+
+        List<DataBuffer> onEvent(JsonNode event) {
+            List<DataBuffer> out = new ArrayList<>(3);
+            ensureStarted(out);
+
+            // Handle text content
+            if (event.hasNonNull("content")) {
+                String content = event.get("content").asText();
+                contentBuilder.append(content);
+                openTextBlock(out);
+                out.add(writer.textDelta(openIndex, content));
+            }
+
+            // Handle tool use events from Kiro: forward each input fragment as it arrives
+            if (event.hasNonNull("name") && event.hasNonNull("toolUseId")) {
+                onToolUseEvent(event, out);
+            }
+
+            // Fallback: Handle legacy toolCalls field format
+            if (event.hasNonNull("toolCalls")) {
+                event.get("toolCalls").forEach(callNode -> {
+                    ToolCall call = mapper.convertValue(callNode, ToolCall.class);
+                    toolCalls.add(call);
+                    log.info("Added tool call from toolCalls: {}", call.getFunction().getName());
+                });
+            }
+
+            // Fallback: Parse bracket format from rawText
+            if (event.hasNonNull("rawText")) {
+                List<ToolCall> bracketCalls = bracketToolCallParser.parse(event.get("rawText").asText());
+                if (bracketCalls != null && !bracketCalls.isEmpty()) {
+                    log.info("Parsed {} tool calls from bracket format", bracketCalls.size());
+                    toolCalls.addAll(bracketCalls);
+                }
+            }
+
+            if (event.hasNonNull("contentFilter") || event.hasNonNull("moderation") || event.hasNonNull("finishReason")) {
+                stopSignals.add(event);
+            }
+            return out;
+        }
+
+        List<DataBuffer> finish() {
+            List<DataBuffer> out = new ArrayList<>();
+            ensureStarted(out);
+
+            closeOpenBlock(out);
+            for (LiveToolUse live : liveToolUses.values()) {
+                if (!live.closed) {
+                    log.warn("Kiro stream ended before tool call {} was stopped", live.builder.id);
+                    closeToolUse(live, out);
+                }
+            }
+
+            List<ToolCall> uniqueToolCalls = toolCallDeduplicator.deduplicate(toolCalls);
+            if (uniqueToolCalls.isEmpty() && !hasTextBlock) {
+                // A response always carries a text block when no tool was called
+                openTextBlock(out);
+                closeOpenBlock(out);
+            }
+
+            for (ToolCall call : uniqueToolCalls) {
+                if (call.getId() != null && liveToolUses.containsKey(call.getId())) {
+                    continue;
+                }
+                int index = nextIndex++;
+                String toolUseId = call.getId() != null ? call.getId() : "toolu_" + UUID.randomUUID().toString().replace("-", "");
+                out.add(writer.contentBlockStart(index, "tool_use", toolUseId, call.getFunction().getName()));
+                String inputJson = serializeToolInput(parseArguments(call.getFunction().getArguments()));
+                for (String chunk : chunkJsonString(inputJson)) {
+                    out.add(writer.inputJsonDelta(index, chunk));
+                }
+                out.add(writer.contentBlockStop(index));
+            }
+
+            String stopReason = determineStopReason(stopSignals, uniqueToolCalls, contentBuilder, request);
+            String stopSequence = null;
+            if ("stop_sequence".equals(stopReason) && request.getStopSequences() != null) {
+                for (String seq : request.getStopSequences()) {
+                    if (contentBuilder.indexOf(seq) >= 0) {
+                        stopSequence = seq;
+                        break;
+                    }
+                }
+            }
+
+            out.add(writer.messageDelta(stopReason, stopSequence,
+                buildUsage(request, promptMatch, countOutputTokens(contentBuilder, uniqueToolCalls))));
+            out.add(writer.messageStop());
+            return out;
+        }
+
+        private void onToolUseEvent(JsonNode event, List<DataBuffer> out) {
+            String toolUseId = event.get("toolUseId").asText();
+            LiveToolUse live = liveToolUses.get(toolUseId);
+            if (live == null) {
+                String name = event.get("name").asText();
+                closeOpenBlock(out);
+                live = new LiveToolUse(new ToolCallBuilder(toolUseId, name), nextIndex++);
+                liveToolUses.put(toolUseId, live);
+                openIndex = live.index;
+                openToolUseId = toolUseId;
+                out.add(writer.contentBlockStart(live.index, "tool_use", toolUseId, name));
+            }
+            if (live.closed) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Ignoring tool event for already completed tool call {}", toolUseId);
+                }
+                return;
+            }
+
+            if (event.hasNonNull("input")) {
+                String input = event.get("input").asText();
+                if (!input.isEmpty()) {
+                    live.builder.appendInput(input);
+                    live.inputSent = true;
+                    out.add(writer.inputJsonDelta(live.index, input));
+                }
+            }
+            if (event.hasNonNull("stop") && event.get("stop").asBoolean()) {
+                closeToolUse(live, out);
+                log.info("Completed tool call from Kiro events: {} with args: {}",
+                    live.builder.name, live.builder.getInputBuilder().toString());
+            }
+        }
+
+        private void closeToolUse(LiveToolUse live, List<DataBuffer> out) {
+            if (!live.inputSent) {
+                // Clients parse the accumulated partial_json; a tool without arguments still needs an object
+                out.add(writer.inputJsonDelta(live.index, "{}"));
+            }
+            out.add(writer.contentBlockStop(live.index));
+            live.closed = true;
+            toolCalls.add(live.builder.build());
+            if (live.index == openIndex) {
+                openIndex = -1;
+                openToolUseId = null;
+            }
+        }
+
+        private void closeOpenBlock(List<DataBuffer> out) {
+            if (openIndex < 0) {
+                return;
+            }
+            if (openToolUseId != null) {
+                closeToolUse(liveToolUses.get(openToolUseId), out);
+            } else {
+                out.add(writer.contentBlockStop(openIndex));
+                openIndex = -1;
+            }
+        }
+
+        private void ensureStarted(List<DataBuffer> out) {
+            if (!started) {
+                started = true;
+                out.add(writer.messageStart(messageId, "assistant", request.getModel(), Instant.now().getEpochSecond()));
+            }
+        }
+
+        private void openTextBlock(List<DataBuffer> out) {
+            if (openIndex >= 0 && openToolUseId == null) {
+                return;
+            }
+            closeOpenBlock(out);
+            openIndex = nextIndex++;
+            out.add(writer.contentBlockStart(openIndex, "text", null, null));
+            if (!hasTextBlock) {
+                hasTextBlock = true;
+                String preamble = buildTextPreamble(request);
+                if (!preamble.isEmpty()) {
+                    out.add(writer.textDelta(openIndex, preamble));
+                } else if (contentBuilder.length() == 0) {
+                    out.add(writer.textDelta(openIndex, ""));
+                }
+            }
+        }
+    }
+
+    /**
+     * A tool_use block whose input is being forwarded to the client as it arrives
+     */
+    private static class LiveToolUse {
+        final ToolCallBuilder builder;
+        final int index;
+        boolean inputSent;
+        boolean closed;
+
+        LiveToolUse(ToolCallBuilder builder, int index) {
+            this.builder = builder;
+            this.index = index;
+        }
+    }
+
     // Helper class to build tool calls from streaming events
     private static class ToolCallBuilder {
         private final String id;
@@ -0,0 +1,296 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.yanhuang.ai.config.AppProperties;
+import org.yanhuang.ai.model.AnthropicChatRequest;
+import org.yanhuang.ai.model.AnthropicMessage;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Cache of the Kiro representation of prompt prefixes, keyed by their cache_control breakpoints.
+ *
+ * As on the Anthropic API, a block marked {@code cache_control: {type: ephemeral}} ends a prefix
+ * made of every tool, then the system blocks and messages up to and including it. The prefix is
+ * keyed by a {@link RequestDigest} of its parts, and cached as the system segments and history
+ * contents KiroService would otherwise rebuild on every turn, tools having their own
+ * {@link ToolSpecificationCache}; history contents are kept as {@link SerializedString}s, so they are
+ * JSON-escaped once. A request reads the longest cached prefix ending at one of its breakpoints or
+ * at a message boundary before them, so a breakpoint that moved on to a later turn still finds the
+ * previous one, and writes the breakpoints after it; the tokens of each are reported as cache read
+ * and cache creation input tokens. An entry expires once unused for the TTL, and the least recently
+ * used go first once the cache exceeds its size budget.
+ */
+@Component
+public class PromptCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PromptCache.class);
+
+    // Fixed cost of an entry and of each of its parts on top of their content
+    private static final int ENTRY_OVERHEAD_CHARS = 256;
+    private static final int PART_OVERHEAD_CHARS = 32;
+
+    private final AppProperties.PromptCacheProperties config;
+    private final TokenCounter tokenCounter;
+    private final LongSupplier clock;
+    private final long ttlNanos;
+    private final long maxChars;
+
+    // Prefix key to prefix, least recently used first; guarded by itself
+    private final Map<String, Prefix> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedChars;
+
+    /**
+     * How KiroService renders the parts of a prompt
+     */
+    interface Renderer {
+
+        /**
+         * Current message segment of a system block, or null if it has none
+         */
+        String systemSegment(AnthropicMessage.ContentBlock block);
+
+        /**
+         * History content of a message
+         */
+        String messageContent(AnthropicMessage message);
+    }
+
+    /**
+     * End of a prefix: every tool, the first {@code systemBlocks} system blocks, the first
+     * {@code messages} messages and the first {@code blocks} blocks of the message after them
+     */
+    record Breakpoint(int systemBlocks, int messages, int blocks) {
+    }
+
+    /**
+     * Rendered parts of a prefix. Only messages it covers whole have a history content.
+     */
+    static final class Prefix {
+
+        final Breakpoint breakpoint;
+        final int tokens;
+        // One per covered system block, null for blocks without a segment
+        final List<String> systemSegments;
+        final List<SerializedString> messageContents;
+        final long chars;
+        // Guarded by the cache entries
+        long expiresAtNanos;
+
+        Prefix(Breakpoint breakpoint, int tokens, List<String> systemSegments, List<SerializedString> messageContents) {
+            this.breakpoint = breakpoint;
+            this.tokens = tokens;
+            this.systemSegments = systemSegments;
+            this.messageContents = messageContents;
+            this.chars = sizeOf(this);
+        }
+
+        boolean coversSystemBlock(int index) {
+            return index < systemSegments.size();
+        }
+
+        /**
+         * History content of message {@code index}, or null if the prefix does not cover it whole
+         */
+        SerializedString messageContent(int index) {
+            return index < messageContents.size() ? messageContents.get(index) : null;
+        }
+    }
+
+    /**
+     * The prefix of the last breakpoint of a request, and how many of its tokens were read from
+     * the cache or written to it
+     */
+    record Match(Prefix prefix, int cacheReadInputTokens, int cacheCreationInputTokens) {
+    }
+
+    /**
+     * A place a cached prefix may end; only breakpoints marked by the client are written
+     */
+    private record Candidate(Breakpoint breakpoint, String key, boolean marked) {
+    }
+
+    @Autowired
+    public PromptCache(AppProperties properties, TokenCounter tokenCounter) {
+        this(properties, tokenCounter, () -> Schedulers.parallel().now(TimeUnit.NANOSECONDS));
+    }
+
+    // Package-private for testing
+    PromptCache(AppProperties properties, TokenCounter tokenCounter, LongSupplier clock) {
+        this.config = properties.getKiro().getPromptCache();
+        this.tokenCounter = tokenCounter;
+        this.clock = clock;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(config.getTtlSeconds());
+        this.maxChars = (long) config.getMaxSizeMegabytes() * 1024 * 1024;
+    }
+
+    /**
+     * Look up and fill in the prefixes of {@code request}; null if it has no breakpoint
+     */
+    Match match(AnthropicChatRequest request, Renderer renderer) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        List<Candidate> candidates;
+        try {
+            candidates = findCandidates(request);
+        } catch (IOException ex) {
+            log.warn("Not caching prompt prefix, request could not be hashed: {}", ex.getMessage());
+            return null;
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        long now = clock.getAsLong();
+        Prefix hit = null;
+        int hitIndex = -1;
+        synchronized (entries) {
+            for (int i = candidates.size() - 1; i >= 0 && hit == null; i--) {
+                String key = candidates.get(i).key();
+                Prefix prefix = entries.get(key);
+                if (prefix != null && now - prefix.expiresAtNanos >= 0) {
+                    entries.remove(key);
+                    cachedChars -= prefix.chars;
+                } else if (prefix != null) {
+                    prefix.expiresAtNanos = now + ttlNanos;
+                    hit = prefix;
+                    hitIndex = i;
+                }
+            }
+        }
+
+        // The last candidate is always marked, so this ends with the prefix of the last breakpoint
+        Prefix last = hit;
+        for (int i = hitIndex + 1; i < candidates.size(); i++) {
+            if (candidates.get(i).marked()) {
+                last = render(request, candidates.get(i).breakpoint(), last, renderer);
+                remember(candidates.get(i).key(), last, now);
+            }
+        }
+        int readTokens = hit != null ? hit.tokens : 0;
+        if (log.isDebugEnabled()) {
+            log.debug("Prompt cache: read {} tokens, wrote {} tokens", readTokens, last.tokens - readTokens);
+        }
+        return new Match(last, readTokens, last.tokens - readTokens);
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Walk the request in cache order (tools, system, messages), keying every breakpoint and every
+     * message boundary up to the last breakpoint
+     */
+    private static List<Candidate> findCandidates(AnthropicChatRequest request) throws IOException {
+        List<Candidate> candidates = new ArrayList<>();
+        RequestDigest digest = new RequestDigest();
+        digest.update(request.getTools() != null ? request.getTools() : List.of());
+
+        List<AnthropicMessage.ContentBlock> system = request.getSystem() != null ? request.getSystem() : List.of();
+        for (int i = 0; i < system.size(); i++) {
+            digest.update(system.get(i));
+            if (isBreakpoint(system.get(i))) {
+                candidates.add(new Candidate(new Breakpoint(i + 1, 0, 0), digest.snapshot(), true));
+            }
+        }
+
+        List<AnthropicMessage> messages = request.getMessages() != null ? request.getMessages() : List.of();
+        for (int m = 0; m < messages.size(); m++) {
+            List<AnthropicMessage.ContentBlock> blocks = messages.get(m).getContent() != null
+                ? messages.get(m).getContent() : List.of();
+            // The block count tells the end of a message, which covers it whole, from a block inside it
+            digest.update(messages.get(m).getRole()).update(blocks.size());
+            for (int b = 0; b < blocks.size() - 1; b++) {
+                digest.update(blocks.get(b));
+                if (isBreakpoint(blocks.get(b))) {
+                    candidates.add(new Candidate(new Breakpoint(system.size(), m, b + 1), digest.snapshot(), true));
+                }
+            }
+            boolean marked = false;
+            if (!blocks.isEmpty()) {
+                digest.update(blocks.get(blocks.size() - 1));
+                marked = isBreakpoint(blocks.get(blocks.size() - 1));
+            }
+            candidates.add(new Candidate(new Breakpoint(system.size(), m + 1, 0), digest.snapshot(), marked));
+        }
+
+        int end = candidates.size();
+        while (end > 0 && !candidates.get(end - 1).marked()) {
+            end--;
+        }
+        return candidates.subList(0, end);
+    }
+
+    private static boolean isBreakpoint(AnthropicMessage.ContentBlock block) {
+        return block.getCacheControl() != null && "ephemeral".equals(block.getCacheControl().get("type"));
+    }
+
+    /**
+     * Render the prefix ending at {@code breakpoint}, reusing the parts of {@code base}, a shorter prefix
+     */
+    private Prefix render(AnthropicChatRequest request, Breakpoint breakpoint, Prefix base, Renderer renderer) {
+        List<String> systemSegments = new ArrayList<>(breakpoint.systemBlocks());
+        for (int i = 0; i < breakpoint.systemBlocks(); i++) {
+            systemSegments.add(base != null && base.coversSystemBlock(i)
+                ? base.systemSegments.get(i)
+                : renderer.systemSegment(request.getSystem().get(i)));
+        }
+
+        List<SerializedString> messageContents = new ArrayList<>(breakpoint.messages());
+        for (int i = 0; i < breakpoint.messages(); i++) {
+            SerializedString content = base != null ? base.messageContent(i) : null;
+            messageContents.add(content != null ? content
+                : new SerializedString(renderer.messageContent(request.getMessages().get(i))));
+        }
+
+        int tokens = tokenCounter.countPrefixTokens(request, breakpoint.systemBlocks(), breakpoint.messages(),
+            breakpoint.blocks());
+        return new Prefix(breakpoint, tokens, systemSegments, messageContents);
+    }
+
+    private void remember(String key, Prefix prefix, long now) {
+        if (prefix.chars > maxChars) {
+            return;
+        }
+        prefix.expiresAtNanos = now + ttlNanos;
+        synchronized (entries) {
+            Prefix previous = entries.put(key, prefix);
+            cachedChars += prefix.chars - (previous != null ? previous.chars : 0);
+            Iterator<Prefix> eldest = entries.values().iterator();
+            while (cachedChars > maxChars) {
+                cachedChars -= eldest.next().chars;
+                eldest.remove();
+            }
+        }
+    }
+
+    // Parts shared with a shorter prefix are counted in both
+    private static long sizeOf(Prefix prefix) {
+        long chars = ENTRY_OVERHEAD_CHARS;
+        for (String segment : prefix.systemSegments) {
+            chars += PART_OVERHEAD_CHARS + (segment != null ? segment.length() : 0);
+        }
+        for (SerializedString content : prefix.messageContents) {
+            chars += PART_OVERHEAD_CHARS + content.charLength();
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,22 @@
+package org.yanhuang.ai.service;
+
+import java.time.Duration;
+
+/**
+ * Raised by {@link AdmissionLimiter} when a request is shed locally instead of being sent to Kiro.
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    public RateLimitExceededException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,72 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.yanhuang.ai.model.AnthropicMessage;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+/**
+ * SHA-256 over the canonical JSON of request parts, fed one part at a time.
+ *
+ * Properties and map entries are sorted, so equal parts hash equally whatever their member order.
+ * cache_control markers are left out: they say where a client wants a cache breakpoint, not what
+ * the request asks, and move forward as a conversation grows. Not thread-safe.
+ */
+final class RequestDigest {
+
+    @JsonIgnoreProperties("cache_control")
+    private abstract static class IgnoreCacheControl {
+    }
+
+    private static final ObjectMapper CANONICAL_MAPPER = JsonMapper.builder()
+        .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+        .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+        .addMixIn(AnthropicMessage.ContentBlock.class, IgnoreCacheControl.class)
+        // The digest stream takes every part in turn
+        .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+        .build();
+
+    private final MessageDigest digest;
+    private final OutputStream out;
+
+    RequestDigest() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+        this.out = new DigestOutputStream(OutputStream.nullOutputStream(), digest);
+    }
+
+    /**
+     * Add the canonical JSON of {@code value}
+     */
+    RequestDigest update(Object value) throws IOException {
+        CANONICAL_MAPPER.writeValue(out, value);
+        // Separates parts, so that moving content from one to the next changes the hash
+        digest.update((byte) 0);
+        return this;
+    }
+
+    /**
+     * Hex hash of everything added so far; more parts may still be added
+     */
+    String snapshot() {
+        try {
+            return HexFormat.of().formatHex(((MessageDigest) digest.clone()).digest());
+        } catch (CloneNotSupportedException ex) {
+            throw new IllegalStateException("SHA-256 digest cannot be cloned", ex);
+        }
+    }
+}
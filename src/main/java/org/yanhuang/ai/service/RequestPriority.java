@@ -0,0 +1,28 @@
+package org.yanhuang.ai.service;
+
+/**
+ * Scheduling class of a request waiting for an upstream slot in {@link AdmissionLimiter}.
+ */
+public enum RequestPriority {
+
+    // Someone is watching the output, e.g. an editor session
+    INTERACTIVE,
+
+    // Agents, CI jobs and other traffic that can take the capacity left over
+    BATCH;
+
+    /**
+     * Parse a priority hint such as {@code interactive}, {@code high}, {@code batch} or {@code low};
+     * null when the value is not one of those.
+     */
+    public static RequestPriority parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        return switch (value.trim().toLowerCase()) {
+            case "interactive", "high" -> INTERACTIVE;
+            case "batch", "background", "low" -> BATCH;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,180 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.yanhuang.ai.config.AppProperties;
+import org.yanhuang.ai.model.AnthropicChatRequest;
+import org.yanhuang.ai.model.AnthropicChatResponse;
+import org.yanhuang.ai.model.AnthropicMessage;
+
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Exact-match cache of completed responses, for requests whose answer does not vary.
+ *
+ * A request is cacheable when its temperature is 0 or the client opted in with the
+ * {@code x-response-cache} header, and never when it opted out. The key is a {@link RequestDigest}
+ * of everything that shapes the answer (model, system, messages, tools, tool choice and sampling
+ * parameters); stream, metadata and headers are left out. Entries expire after the TTL and the
+ * least recently used go first once the cached responses exceed the size budget.
+ */
+@Component
+public class ResponseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+    // Fixed cost of an entry on top of its content
+    private static final int ENTRY_OVERHEAD_CHARS = 256;
+
+    private final AppProperties.ResponseCacheProperties config;
+    private final LongSupplier clock;
+    private final long ttlNanos;
+    private final long maxChars;
+
+    // Request key to response, least recently used first; guarded by itself
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedChars;
+
+    private record Entry(AnthropicChatResponse response, long chars, long expiresAtNanos) {
+    }
+
+    @Autowired
+    public ResponseCache(AppProperties properties) {
+        this(properties, () -> Schedulers.parallel().now(TimeUnit.NANOSECONDS));
+    }
+
+    // Package-private for testing
+    ResponseCache(AppProperties properties, LongSupplier clock) {
+        this.config = properties.getKiro().getResponseCache();
+        this.clock = clock;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(config.getTtlSeconds());
+        this.maxChars = (long) config.getMaxSizeMegabytes() * 1024 * 1024;
+    }
+
+    /**
+     * Cache key of {@code request}, or null if its response must not be cached
+     */
+    public String key(AnthropicChatRequest request) {
+        if (!config.isEnabled() || Boolean.FALSE.equals(request.getCacheResponse())) {
+            return null;
+        }
+        boolean deterministic = request.getTemperature() != null && request.getTemperature() == 0.0;
+        if (!deterministic && !Boolean.TRUE.equals(request.getCacheResponse())) {
+            return null;
+        }
+        Map<String, Object> shape = new LinkedHashMap<>();
+        shape.put("model", request.getModel());
+        shape.put("system", request.getSystem());
+        shape.put("messages", request.getMessages());
+        shape.put("tools", request.getTools());
+        shape.put("tool_choice", request.getToolChoice());
+        shape.put("max_tokens", request.getMaxTokens());
+        shape.put("temperature", request.getTemperature());
+        shape.put("top_p", request.getTopP());
+        shape.put("top_k", request.getTopK());
+        shape.put("stop_sequences", request.getStopSequences());
+        shape.put("thinking", request.getThinking());
+        try {
+            return new RequestDigest().update(shape).snapshot();
+        } catch (IOException ex) {
+            log.warn("Not caching response, request could not be hashed: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The cached response for {@code key} under a new message id, or null if there is none
+     */
+    public AnthropicChatResponse get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && clock.getAsLong() - entry.expiresAtNanos() >= 0) {
+                entries.remove(key);
+                cachedChars -= entry.chars();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Response cache hit for {}", key);
+        }
+        return replay(entry.response());
+    }
+
+    public void put(String key, AnthropicChatResponse response) {
+        long chars = sizeOf(response);
+        if (chars > maxChars) {
+            return;
+        }
+        Entry entry = new Entry(replay(response), chars, clock.getAsLong() + ttlNanos);
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            cachedChars += chars - (previous != null ? previous.chars() : 0);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (cachedChars > maxChars) {
+                cachedChars -= eldest.next().chars();
+                eldest.remove();
+            }
+        }
+    }
+
+    public int getReplayChunkChars() {
+        return config.getReplayChunkChars();
+    }
+
+    public Duration getReplayInterval() {
+        return Duration.ofMillis(Math.max(0, config.getReplayIntervalMillis()));
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // A shallow copy with its own identity; the content blocks are never modified once built
+    private static AnthropicChatResponse replay(AnthropicChatResponse response) {
+        AnthropicChatResponse copy = new AnthropicChatResponse();
+        copy.setId("msg_" + UUID.randomUUID().toString().replace("-", ""));
+        copy.setType(response.getType());
+        copy.setModel(response.getModel());
+        copy.setCreatedAt(Instant.now().getEpochSecond());
+        copy.setRole(response.getRole());
+        copy.setContent(response.getContent());
+        copy.setUsage(response.getUsage());
+        copy.setStopReason(response.getStopReason());
+        copy.setStopSequence(response.getStopSequence());
+        return copy;
+    }
+
+    private static long sizeOf(AnthropicChatResponse response) {
+        long chars = ENTRY_OVERHEAD_CHARS;
+        if (response.getContent() != null) {
+            for (AnthropicMessage.ContentBlock block : response.getContent()) {
+                chars += ENTRY_OVERHEAD_CHARS;
+                if (block.getText() != null) {
+                    chars += block.getText().length();
+                }
+                if (block.getInput() != null) {
+                    chars += block.getInput().toString().length();
+                }
+            }
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,152 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import org.yanhuang.ai.config.AppProperties;
+
+/**
+ * Decides whether and when a failed Kiro call is retried.
+ *
+ * Errors are classified by cause, backoff is exponential with jitter, and all retries draw
+ * from one process-wide budget that refills by a fixed fraction of each new request, so an
+ * upstream brownout cannot multiply our load on it.
+ */
+@Component
+public class RetryPolicy {
+
+    public enum Decision {
+        /** Credentials were rejected: refresh the token and retry right away */
+        REFRESH_AND_RETRY,
+        /** Transient upstream or network failure: retry after a backoff */
+        BACKOFF_RETRY,
+        /** The request itself is at fault, or retrying cannot help */
+        NO_RETRY
+    }
+
+    // The budget is kept in thousandths of a retry so fractional deposits stay exact
+    private static final long SCALE = 1000;
+
+    private final AppProperties.RetryProperties config;
+    private final long capacity;
+    private final long deposit;
+    private final AtomicLong budget;
+    private final AtomicLong retriesGranted = new AtomicLong();
+    private final AtomicLong retriesDenied = new AtomicLong();
+
+    public RetryPolicy(AppProperties properties) {
+        this.config = properties.getKiro().getRetry();
+        this.capacity = config.getBudgetCapacity() * SCALE;
+        this.deposit = Math.round(config.getBudgetRatio() * SCALE);
+        this.budget = new AtomicLong(capacity);
+    }
+
+    public Decision classify(Throwable error) {
+        if (error instanceof WebClientResponseException responseError) {
+            HttpStatusCode status = responseError.getStatusCode();
+            if (status.value() == 401 || status.value() == 403) {
+                return Decision.REFRESH_AND_RETRY;
+            }
+            if (status.value() == 429 || status.is5xxServerError()) {
+                return Decision.BACKOFF_RETRY;
+            }
+            return Decision.NO_RETRY;
+        }
+        if (error instanceof UpstreamTimeoutException timeout) {
+            // Idle and deadline timeouts mean the time is already spent
+            return timeout.getPhase() == UpstreamTimeoutException.Phase.FIRST_BYTE
+                ? Decision.BACKOFF_RETRY
+                : Decision.NO_RETRY;
+        }
+        if (error instanceof WebClientRequestException || error instanceof IOException
+                || error.getCause() instanceof IOException) {
+            // Connect failures, resets and premature closes
+            return Decision.BACKOFF_RETRY;
+        }
+        return Decision.NO_RETRY;
+    }
+
+    public int getMaxRetries() {
+        return config.getMaxRetries();
+    }
+
+    /**
+     * Count a new upstream request, earning the budget its share of a retry.
+     */
+    public void recordRequest() {
+        budget.accumulateAndGet(deposit, (current, amount) -> Math.min(capacity, current + amount));
+    }
+
+    /**
+     * Take one retry from the budget; false when the budget is exhausted.
+     */
+    public boolean tryAcquireRetry() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < SCALE) {
+                retriesDenied.incrementAndGet();
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - SCALE));
+        retriesGranted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Delay before retry number {@code attempt} (0-based): exponential with equal jitter,
+     * stretched to the server's Retry-After when it asks for longer, capped at the max backoff.
+     */
+    public Duration backoff(int attempt, Throwable error) {
+        long ceiling = Math.min(config.getMaxBackoffMillis(),
+            (long) config.getInitialBackoffMillis() << Math.min(attempt, 20));
+        long half = ceiling / 2;
+        long delay = half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+
+        if (error instanceof WebClientResponseException responseError) {
+            long retryAfter = retryAfterMillis(responseError);
+            if (retryAfter > delay) {
+                delay = Math.min(retryAfter, config.getMaxBackoffMillis());
+            }
+        }
+        return Duration.ofMillis(delay);
+    }
+
+    public long getRetriesGranted() {
+        return retriesGranted.get();
+    }
+
+    public long getRetriesDenied() {
+        return retriesDenied.get();
+    }
+
+    /**
+     * Retries currently available in the budget
+     */
+    public double getAvailableRetries() {
+        return (double) budget.get() / SCALE;
+    }
+
+    /**
+     * Retry-After in milliseconds, or -1 when absent or not in delta-seconds form
+     */
+    static long retryAfterMillis(WebClientResponseException error) {
+        String retryAfter = error.getHeaders().getFirst("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException ex) {
+            // HTTP-date form is not used by Kiro; fall back to our own backoff
+            return -1;
+        }
+    }
+}
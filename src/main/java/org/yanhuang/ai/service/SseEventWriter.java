@@ -0,0 +1,233 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import org.yanhuang.ai.model.AnthropicChatResponse;
+
+/**
+ * Encodes Anthropic streaming events as SSE frames written straight into {@link DataBuffer}s.
+ *
+ * A single {@link JsonGenerator} is kept for the whole stream and re-targeted at a freshly
+ * allocated buffer for every event, so no intermediate tree, String or byte[] is built per token.
+ * One instance per response stream; not thread-safe.
+ */
+public class SseEventWriter {
+
+    private static final byte[] DONE = "data: [DONE]\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EVENT_END = "\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] MESSAGE_START = prefix("message_start");
+    private static final byte[] CONTENT_BLOCK_START = prefix("content_block_start");
+    private static final byte[] CONTENT_BLOCK_DELTA = prefix("content_block_delta");
+    private static final byte[] CONTENT_BLOCK_STOP = prefix("content_block_stop");
+    private static final byte[] MESSAGE_DELTA = prefix("message_delta");
+    private static final byte[] MESSAGE_STOP = prefix("message_stop");
+
+    // Enough for a typical delta event without the buffer having to grow
+    private static final int INITIAL_EVENT_CAPACITY = 128;
+
+    private final DataBufferFactory bufferFactory;
+    private final BufferOutputStream target = new BufferOutputStream();
+    private final JsonGenerator generator;
+
+    public SseEventWriter(JsonFactory jsonFactory, DataBufferFactory bufferFactory) {
+        this.bufferFactory = bufferFactory;
+        try {
+            this.generator = jsonFactory.createGenerator(target, JsonEncoding.UTF8);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to create SSE JSON generator", ex);
+        }
+        // Each event is its own root value; don't let the generator insert separators between them
+        this.generator.setRootValueSeparator(null);
+    }
+
+    /**
+     * The terminal {@code data: [DONE]} line. Wraps a shared constant, so it needs no release.
+     */
+    public static DataBuffer done() {
+        return DefaultDataBufferFactory.sharedInstance.wrap(DONE);
+    }
+
+    public DataBuffer messageStart(String messageId, String role, String model, long createdAt) {
+        DataBuffer buffer = begin(MESSAGE_START);
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("type", "message_start");
+            generator.writeObjectFieldStart("message");
+            generator.writeStringField("id", messageId);
+            generator.writeStringField("type", "message");
+            generator.writeStringField("role", role);
+            generator.writeStringField("model", model);
+            generator.writeNullField("stop_reason");
+            generator.writeNullField("stop_sequence");
+            generator.writeNumberField("created_at", createdAt);
+            generator.writeEndObject();
+            generator.writeEndObject();
+            return end(buffer);
+        } catch (IOException | RuntimeException ex) {
+            throw fail(buffer, ex);
+        }
+    }
+
+    public DataBuffer contentBlockStart(int index, String blockType, String toolUseId, String toolName) {
+        DataBuffer buffer = begin(CONTENT_BLOCK_START);
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("type", "content_block_start");
+            generator.writeNumberField("index", index);
+            generator.writeObjectFieldStart("content_block");
+            generator.writeStringField("type", blockType);
+            if ("tool_use".equals(blockType)) {
+                // For tool_use, only include id and name in start event (no input yet)
+                generator.writeStringField("id", toolUseId);
+                generator.writeStringField("name", toolName);
+            } else if ("text".equals(blockType)) {
+                generator.writeStringField("text", "");
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+            return end(buffer);
+        } catch (IOException | RuntimeException ex) {
+            throw fail(buffer, ex);
+        }
+    }
+
+    public DataBuffer textDelta(int index, String text) {
+        return delta(index, "text_delta", "text", text);
+    }
+
+    public DataBuffer inputJsonDelta(int index, String partialJson) {
+        return delta(index, "input_json_delta", "partial_json", partialJson);
+    }
+
+    public DataBuffer contentBlockStop(int index) {
+        DataBuffer buffer = begin(CONTENT_BLOCK_STOP);
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("type", "content_block_stop");
+            generator.writeNumberField("index", index);
+            generator.writeEndObject();
+            return end(buffer);
+        } catch (IOException | RuntimeException ex) {
+            throw fail(buffer, ex);
+        }
+    }
+
+    public DataBuffer messageDelta(String stopReason, String stopSequence, AnthropicChatResponse.Usage usage) {
+        DataBuffer buffer = begin(MESSAGE_DELTA);
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("type", "message_delta");
+            generator.writeObjectFieldStart("delta");
+            generator.writeStringField("stop_reason", stopReason);
+            generator.writeStringField("stop_sequence", stopSequence);
+            generator.writeEndObject();
+            if (usage != null) {
+                generator.writeObjectFieldStart("usage");
+                writeIntegerField("input_tokens", usage.getInputTokens());
+                writeIntegerField("output_tokens", usage.getOutputTokens());
+                if (usage.getCacheCreationInputTokens() != null) {
+                    generator.writeNumberField("cache_creation_input_tokens", usage.getCacheCreationInputTokens());
+                }
+                if (usage.getCacheReadInputTokens() != null) {
+                    generator.writeNumberField("cache_read_input_tokens", usage.getCacheReadInputTokens());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+            return end(buffer);
+        } catch (IOException | RuntimeException ex) {
+            throw fail(buffer, ex);
+        }
+    }
+
+    public DataBuffer messageStop() {
+        DataBuffer buffer = begin(MESSAGE_STOP);
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("type", "message_stop");
+            generator.writeEndObject();
+            return end(buffer);
+        } catch (IOException | RuntimeException ex) {
+            throw fail(buffer, ex);
+        }
+    }
+
+    private DataBuffer delta(int index, String deltaType, String field, String value) {
+        DataBuffer buffer = begin(CONTENT_BLOCK_DELTA);
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("type", "content_block_delta");
+            generator.writeNumberField("index", index);
+            generator.writeObjectFieldStart("delta");
+            generator.writeStringField("type", deltaType);
+            generator.writeStringField(field, value);
+            generator.writeEndObject();
+            generator.writeEndObject();
+            return end(buffer);
+        } catch (IOException | RuntimeException ex) {
+            throw fail(buffer, ex);
+        }
+    }
+
+    private void writeIntegerField(String name, Integer value) throws IOException {
+        if (value != null) {
+            generator.writeNumberField(name, value.intValue());
+        } else {
+            generator.writeNullField(name);
+        }
+    }
+
+    private DataBuffer begin(byte[] eventPrefix) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(INITIAL_EVENT_CAPACITY);
+        buffer.write(eventPrefix);
+        target.buffer = buffer;
+        return buffer;
+    }
+
+    private DataBuffer end(DataBuffer buffer) throws IOException {
+        // Drain the generator's internal buffer into the current DataBuffer before switching targets
+        generator.flush();
+        target.buffer = null;
+        buffer.write(EVENT_END);
+        return buffer;
+    }
+
+    private IllegalStateException fail(DataBuffer buffer, Exception ex) {
+        target.buffer = null;
+        DataBufferUtils.release(buffer);
+        return new IllegalStateException("Failed to write SSE event", ex);
+    }
+
+    private static byte[] prefix(String eventName) {
+        return ("event: " + eventName + "\ndata: ").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Output stream that forwards to whichever buffer the current event is being written into
+     */
+    private static final class BufferOutputStream extends OutputStream {
+        private DataBuffer buffer;
+
+        @Override
+        public void write(int b) {
+            buffer.write((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.write(bytes, offset, length);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+
+/**
+ * Counts the input tokens of a Messages API request body while it is still arriving.
+ *
+ * Chunks are fed to Jackson's non-blocking parser and every token is handled as it completes,
+ * so no request object is bound and no part of the body is kept once scanned. The fields counted,
+ * and their overheads, are the ones {@link TokenCounter#countInputTokens} counts on a bound request.
+ * Images are priced from their header alone. One instance per body; not thread-safe.
+ */
+final class TokenCountScanner {
+
+    // What the container being scanned is, by its position in the request
+    private enum Scope {
+        ROOT, SYSTEM, MESSAGES, MESSAGE, CONTENT, BLOCK, SOURCE, TOOLS, TOOL, JSON_OBJECT, JSON_ARRAY, SKIP
+    }
+
+    private final TokenCounter counter;
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+
+    private Scope[] scopes = new Scope[16];
+    private int depth;
+    // Name of the member whose value comes next, in the innermost object
+    private String field;
+    private int tokens;
+    private boolean started;
+
+    TokenCountScanner(TokenCounter counter, JsonFactory jsonFactory) {
+        this.counter = counter;
+        try {
+            this.parser = jsonFactory.createNonBlockingByteBufferParser();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to create JSON parser", ex);
+        }
+        this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Scan the next chunk of the body; the buffer is fully read before this returns.
+     */
+    void feed(ByteBuffer chunk) {
+        try {
+            feeder.feedInput(chunk);
+            drain();
+        } catch (IOException ex) {
+            throw invalid(ex);
+        }
+    }
+
+    /**
+     * Signal the end of the body and return its input token count.
+     */
+    int finish() {
+        try {
+            feeder.endOfInput();
+            drain();
+            parser.close();
+        } catch (IOException ex) {
+            throw invalid(ex);
+        }
+        if (started && depth > 0) {
+            throw new IllegalArgumentException("Invalid JSON body: unexpected end of input");
+        }
+        return tokens;
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (!started) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Invalid JSON body: expected an object");
+                }
+                started = true;
+                push(Scope.ROOT);
+                continue;
+            }
+            if (depth == 0) {
+                throw new IllegalArgumentException("Invalid JSON body: unexpected content after the object");
+            }
+            handle(token);
+        }
+    }
+
+    private void handle(JsonToken token) throws IOException {
+        Scope scope = scopes[depth - 1];
+        switch (token) {
+            case FIELD_NAME -> {
+                field = parser.currentName();
+                if (scope == Scope.JSON_OBJECT) {
+                    tokens += TokenCounter.JSON_MEMBER_OVERHEAD_TOKENS + counter.countTokens(field);
+                }
+            }
+            case END_OBJECT, END_ARRAY -> depth--;
+            case START_OBJECT, START_ARRAY -> push(childScope(scope, token == JsonToken.START_OBJECT));
+            default -> value(scope, token);
+        }
+    }
+
+    private Scope childScope(Scope scope, boolean object) {
+        if (scope == Scope.JSON_ARRAY) {
+            tokens += TokenCounter.JSON_MEMBER_OVERHEAD_TOKENS / 2;
+        }
+        return switch (scope) {
+            case ROOT -> switch (field) {
+                case "system" -> object ? Scope.SKIP : Scope.SYSTEM;
+                case "messages" -> object ? Scope.SKIP : Scope.MESSAGES;
+                case "tools" -> object ? Scope.SKIP : Scope.TOOLS;
+                default -> Scope.SKIP;
+            };
+            case MESSAGES -> {
+                if (!object) {
+                    yield Scope.SKIP;
+                }
+                tokens += TokenCounter.MESSAGE_OVERHEAD_TOKENS;
+                yield Scope.MESSAGE;
+            }
+            case MESSAGE -> "content".equals(field) ? (object ? Scope.BLOCK : Scope.CONTENT) : Scope.SKIP;
+            case SYSTEM, CONTENT -> object ? Scope.BLOCK : Scope.SKIP;
+            case BLOCK -> switch (field) {
+                case "input", "content" -> object ? Scope.JSON_OBJECT : Scope.JSON_ARRAY;
+                case "source" -> object ? Scope.SOURCE : Scope.SKIP;
+                default -> Scope.SKIP;
+            };
+            case TOOLS -> object ? Scope.TOOL : Scope.SKIP;
+            case TOOL -> switch (field) {
+                case "input_schema", "parameters" -> object ? Scope.JSON_OBJECT : Scope.SKIP;
+                case "function" -> object ? Scope.TOOL : Scope.SKIP;
+                default -> Scope.SKIP;
+            };
+            case JSON_OBJECT, JSON_ARRAY -> object ? Scope.JSON_OBJECT : Scope.JSON_ARRAY;
+            case SOURCE, SKIP -> Scope.SKIP;
+        };
+    }
+
+    private void value(Scope scope, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        switch (scope) {
+            case ROOT -> {
+                if ("system".equals(field) && token == JsonToken.VALUE_STRING) {
+                    tokens += countText();
+                }
+            }
+            case MESSAGE -> {
+                if ("content".equals(field) && token == JsonToken.VALUE_STRING) {
+                    tokens += countText();
+                }
+            }
+            case BLOCK -> {
+                switch (field) {
+                    case "text", "name", "tool_use_id", "input", "content" -> tokens += countText();
+                    default -> { }
+                }
+            }
+            case TOOL -> {
+                switch (field) {
+                    case "name", "description" -> tokens += countText();
+                    default -> { }
+                }
+            }
+            case SOURCE -> {
+                if ("data".equals(field)) {
+                    tokens += counter.countImageTokens(textView());
+                }
+            }
+            case JSON_OBJECT -> tokens += countText();
+            case JSON_ARRAY -> tokens += TokenCounter.JSON_MEMBER_OVERHEAD_TOKENS / 2 + countText();
+            default -> { }
+        }
+    }
+
+    private int countText() throws IOException {
+        return counter.countTokens(textView());
+    }
+
+    // The current value straight from the parser's buffer, without creating a String
+    private CharSequence textView() throws IOException {
+        return CharBuffer.wrap(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+
+    private void push(Scope scope) {
+        if (depth == scopes.length) {
+            Scope[] grown = new Scope[depth * 2];
+            System.arraycopy(scopes, 0, grown, 0, depth);
+            scopes = grown;
+        }
+        scopes[depth++] = scope;
+    }
+
+    private static IllegalArgumentException invalid(IOException ex) {
+        String message = ex instanceof JsonProcessingException parseError ? parseError.getOriginalMessage() : ex.getMessage();
+        return new IllegalArgumentException("Invalid JSON body: " + message, ex);
+    }
+}
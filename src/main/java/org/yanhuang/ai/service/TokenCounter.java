@@ -1,5 +1,8 @@
 package org.yanhuang.ai.service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.stereotype.Component;
 import org.yanhuang.ai.model.AnthropicChatRequest;
 import org.yanhuang.ai.model.AnthropicMessage;
@@ -8,9 +11,13 @@ import org.yanhuang.ai.model.ToolDefinition;
 import java.util.List;
 import java.util.Map;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 /**
  * Token counter service for estimating context window usage.
- * Uses character-based approximation algorithm (1 token ≈ 4 characters for English).
+ * Text is counted with the embedded {@link BpeTokenizer}; images by the pixel dimensions read
+ * from their headers, as Anthropic prices them.
  */
 @Component
 public class TokenCounter {
@@ -19,211 +26,275 @@ public class TokenCounter {
     public static final int MAX_CONTEXT_TOKENS_API_MODE = 1_000_000;      // 1M tokens for API mode
     public static final int MAX_CONTEXT_TOKENS_SUBSCRIPTION = 200_000;    // 200K tokens for subscription mode
 
-    // Conservative approximation: 1 token ≈ 4 characters (for English text)
-    private static final int CHARS_PER_TOKEN = 4;
+    // Role marker and turn separators around each message
+    static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    // Quotes, colon and comma around each JSON member or array item
+    static final int JSON_MEMBER_OVERHEAD_TOKENS = 2;
+
+    // Images cost width * height / 750 tokens, after scaling to fit 1568 px on the long edge
+    // and about 1.15 megapixels, which caps them near 1600 tokens
+    private static final int PIXELS_PER_IMAGE_TOKEN = 750;
+    private static final int MAX_IMAGE_EDGE = 1568;
+    private static final int MAX_IMAGE_TOKENS = 1600;
 
-    // Additional overhead for JSON structure and metadata
-    private static final double JSON_OVERHEAD_FACTOR = 1.15;  // 15% overhead for JSON formatting
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final BpeTokenizer tokenizer = BpeTokenizer.shared();
+    private final ToolSpecificationCache toolSpecificationCache;
+
+    public TokenCounter(ToolSpecificationCache toolSpecificationCache) {
+        this.toolSpecificationCache = toolSpecificationCache;
+    }
 
     /**
-     * Estimate total token count for a complete request.
+     * Estimate total token count for a complete request: its input plus the max_tokens output budget.
      *
      * @param request The Anthropic chat request
      * @return Estimated token count
      */
     public int estimateRequestTokens(AnthropicChatRequest request) {
-        int totalChars = 0;
+        int estimatedTokens = countInputTokens(request);
+
+        // Add max_tokens (output budget) to get total context usage
+        if (request.getMaxTokens() != null) {
+            estimatedTokens += request.getMaxTokens();
+        }
+
+        return estimatedTokens;
+    }
+
+    /**
+     * Count the input tokens of a request: system prompt, messages and tool definitions.
+     * The count is kept on the request, so admission, validation and usage share one pass.
+     *
+     * @param request The Anthropic chat request
+     * @return Input token count
+     */
+    public int countInputTokens(AnthropicChatRequest request) {
+        Integer cached = request.getInputTokens();
+        if (cached != null) {
+            return cached;
+        }
+
+        int totalTokens = 0;
 
         // Count system message tokens
         if (request.getSystem() != null) {
-            totalChars += estimateContentBlocksChars(request.getSystem());
+            totalTokens += countContentBlocksTokens(request.getSystem());
         }
 
         // Count conversation message tokens
         if (request.getMessages() != null) {
             for (AnthropicMessage message : request.getMessages()) {
-                // Role overhead (e.g., "user:", "assistant:")
-                totalChars += message.getRole() != null ? message.getRole().length() : 0;
+                totalTokens += MESSAGE_OVERHEAD_TOKENS;
 
-                // Content tokens
                 if (message.getContent() != null) {
-                    totalChars += estimateContentBlocksChars(message.getContent());
+                    totalTokens += countContentBlocksTokens(message.getContent());
                 }
             }
         }
 
-        // Count tool definition tokens
+        // Count tool definition tokens, once per distinct tool
         if (request.getTools() != null) {
-            for (ToolDefinition tool : request.getTools()) {
-                totalChars += estimateToolDefinitionChars(tool);
-            }
+            totalTokens += toolSpecificationCache.resolve(request.getTools(), this).tokens();
         }
 
-        // Apply JSON overhead and convert to tokens
-        int estimatedTokens = (int) Math.ceil((totalChars * JSON_OVERHEAD_FACTOR) / CHARS_PER_TOKEN);
+        request.setInputTokens(totalTokens);
+        return totalTokens;
+    }
 
-        // Add max_tokens (output budget) to get total context usage
-        if (request.getMaxTokens() != null) {
-            estimatedTokens += request.getMaxTokens();
+    /**
+     * Count the input tokens of a prompt prefix in cache order: every tool definition, the first
+     * {@code systemBlocks} system blocks, the first {@code messages} messages and the first
+     * {@code blocks} content blocks of the message after them.
+     *
+     * @param request The Anthropic chat request
+     * @return Input token count of the prefix
+     */
+    public int countPrefixTokens(AnthropicChatRequest request, int systemBlocks, int messages, int blocks) {
+        int totalTokens = 0;
+
+        if (request.getTools() != null) {
+            totalTokens += toolSpecificationCache.resolve(request.getTools(), this).tokens();
         }
 
-        return estimatedTokens;
+        if (systemBlocks > 0) {
+            totalTokens += countContentBlocksTokens(request.getSystem().subList(0, systemBlocks));
+        }
+
+        for (int i = 0; i < messages; i++) {
+            AnthropicMessage message = request.getMessages().get(i);
+            totalTokens += MESSAGE_OVERHEAD_TOKENS;
+            if (message.getContent() != null) {
+                totalTokens += countContentBlocksTokens(message.getContent());
+            }
+        }
+
+        if (blocks > 0) {
+            totalTokens += MESSAGE_OVERHEAD_TOKENS
+                + countContentBlocksTokens(request.getMessages().get(messages).getContent().subList(0, blocks));
+        }
+
+        return totalTokens;
+    }
+
+    /**
+     * Count the input tokens of a raw request body as its chunks arrive, without binding it
+     * to a request; each chunk is released once scanned.
+     *
+     * @param body JSON body of a Messages API request
+     * @return Input token count, or an IllegalArgumentException if the body is not a JSON object
+     */
+    public Mono<Integer> countInputTokens(Flux<DataBuffer> body) {
+        return Mono.defer(() -> {
+            TokenCountScanner scanner = new TokenCountScanner(this, JSON_FACTORY);
+            return body.doOnNext(buffer -> {
+                    try (DataBuffer.ByteBufferIterator chunks = buffer.readableByteBuffers()) {
+                        while (chunks.hasNext()) {
+                            scanner.feed(chunks.next());
+                        }
+                    } finally {
+                        DataBufferUtils.release(buffer);
+                    }
+                })
+                .then(Mono.fromCallable(scanner::finish));
+        });
     }
 
     /**
-     * Estimate character count for a list of content blocks.
+     * Count the tokens of a piece of text.
+     *
+     * @param text Text to count, may be null
+     * @return Token count
+     */
+    public int countTokens(CharSequence text) {
+        return text == null ? 0 : tokenizer.count(text);
+    }
+
+    /**
+     * Count the tokens of an image from the dimensions in its header.
+     * URLs and images whose header cannot be read are priced as the largest image.
+     *
+     * @param data Base64 image data or URL, may be null
+     * @return Token count
+     */
+    public int countImageTokens(CharSequence data) {
+        if (data == null) {
+            return 0;
+        }
+        ImageProbe.Dimensions dimensions = ImageProbe.probe(data);
+        if (dimensions == null) {
+            return MAX_IMAGE_TOKENS;
+        }
+        double scale = Math.min(1.0, (double) MAX_IMAGE_EDGE / Math.max(dimensions.width(), dimensions.height()));
+        double pixels = dimensions.width() * scale * (dimensions.height() * scale);
+        return (int) Math.max(1, Math.min(MAX_IMAGE_TOKENS, Math.ceil(pixels / PIXELS_PER_IMAGE_TOKEN)));
+    }
+
+    /**
+     * Count tokens for a list of content blocks.
      *
      * @param contentBlocks List of content blocks
-     * @return Total character count
+     * @return Total token count
      */
-    private int estimateContentBlocksChars(List<AnthropicMessage.ContentBlock> contentBlocks) {
-        int totalChars = 0;
+    private int countContentBlocksTokens(List<AnthropicMessage.ContentBlock> contentBlocks) {
+        int totalTokens = 0;
 
         for (AnthropicMessage.ContentBlock block : contentBlocks) {
-            if (block.getType() != null) {
-                totalChars += block.getType().length();
-            }
-
-            if (block.getText() != null) {
-                totalChars += block.getText().length();
-            }
+            totalTokens += countTokens(block.getText());
 
             // Tool use content
-            if (block.getName() != null) {
-                totalChars += block.getName().length();
-            }
+            totalTokens += countTokens(block.getName());
 
             if (block.getInput() != null) {
-                totalChars += estimateMapChars(block.getInput());
+                totalTokens += countMapTokens(block.getInput());
             }
 
             // Tool result content
-            if (block.getToolUseId() != null) {
-                totalChars += block.getToolUseId().length();
-            }
+            totalTokens += countTokens(block.getToolUseId());
 
             if (block.getContent() != null) {
-                if (block.getContent() instanceof String) {
-                    totalChars += ((String) block.getContent()).length();
-                } else if (block.getContent() instanceof Map) {
-                    totalChars += estimateMapChars((Map<?, ?>) block.getContent());
-                }
+                totalTokens += countValueTokens(block.getContent());
             }
 
             // Image content
             if (block.getSource() != null) {
-                totalChars += estimateImageSourceChars(block.getSource());
+                totalTokens += countImageTokens(block.getSource().getData());
             }
         }
 
-        return totalChars;
+        return totalTokens;
     }
 
     /**
-     * Estimate character count for image source data.
-     * Base64-encoded images contribute significantly to token count.
-     *
-     * @param imageSource Image source object
-     * @return Character count
-     */
-    private int estimateImageSourceChars(AnthropicMessage.ImageSource imageSource) {
-        int totalChars = 0;
-
-        if (imageSource.getType() != null) {
-            totalChars += imageSource.getType().length();
-        }
-
-        if (imageSource.getMediaType() != null) {
-            totalChars += imageSource.getMediaType().length();
-        }
-
-        // Base64 data or URL - both count as significant characters
-        if (imageSource.getData() != null) {
-            totalChars += imageSource.getData().length();
-        }
-
-        return totalChars;
-    }
-
-    /**
-     * Estimate character count for a tool definition.
+     * Count tokens for a tool definition. Callers go through {@link ToolSpecificationCache}, which
+     * counts each distinct tool once.
      *
      * @param tool Tool definition
-     * @return Character count
+     * @return Token count
      */
-    private int estimateToolDefinitionChars(ToolDefinition tool) {
-        int totalChars = 0;
-
-        if (tool.getEffectiveName() != null) {
-            totalChars += tool.getEffectiveName().length();
-        }
-
-        if (tool.getEffectiveDescription() != null) {
-            totalChars += tool.getEffectiveDescription().length();
-        }
+    int countToolDefinitionTokens(ToolDefinition tool) {
+        int totalTokens = countTokens(tool.getEffectiveName()) + countTokens(tool.getEffectiveDescription());
 
         if (tool.getEffectiveInputSchema() != null) {
-            totalChars += estimateMapChars(tool.getEffectiveInputSchema());
+            totalTokens += countMapTokens(tool.getEffectiveInputSchema());
         }
 
-        return totalChars;
+        return totalTokens;
     }
 
     /**
-     * Estimate character count for a generic map structure.
+     * Count tokens for a generic map structure, as it would appear serialized to JSON.
      *
-     * @param map Map to estimate
-     * @return Character count
+     * @param map Map to count
+     * @return Token count
      */
-    private int estimateMapChars(Map<?, ?> map) {
-        int totalChars = 0;
+    private int countMapTokens(Map<?, ?> map) {
+        int totalTokens = 0;
 
         for (Map.Entry<?, ?> entry : map.entrySet()) {
-            // Count key
+            totalTokens += JSON_MEMBER_OVERHEAD_TOKENS;
+
             if (entry.getKey() != null) {
-                totalChars += entry.getKey().toString().length();
+                totalTokens += countTokens(entry.getKey().toString());
             }
 
-            // Count value
             if (entry.getValue() != null) {
-                Object value = entry.getValue();
-                if (value instanceof String) {
-                    totalChars += ((String) value).length();
-                } else if (value instanceof Map) {
-                    totalChars += estimateMapChars((Map<?, ?>) value);
-                } else if (value instanceof List) {
-                    totalChars += estimateListChars((List<?>) value);
-                } else {
-                    totalChars += value.toString().length();
-                }
+                totalTokens += countValueTokens(entry.getValue());
             }
         }
 
-        return totalChars;
+        return totalTokens;
     }
 
     /**
-     * Estimate character count for a generic list structure.
+     * Count tokens for a generic list structure.
      *
-     * @param list List to estimate
-     * @return Character count
+     * @param list List to count
+     * @return Token count
      */
-    private int estimateListChars(List<?> list) {
-        int totalChars = 0;
+    private int countListTokens(List<?> list) {
+        int totalTokens = 0;
 
         for (Object item : list) {
-            if (item instanceof String) {
-                totalChars += ((String) item).length();
-            } else if (item instanceof Map) {
-                totalChars += estimateMapChars((Map<?, ?>) item);
-            } else if (item instanceof List) {
-                totalChars += estimateListChars((List<?>) item);
-            } else if (item != null) {
-                totalChars += item.toString().length();
+            if (item != null) {
+                totalTokens += JSON_MEMBER_OVERHEAD_TOKENS / 2 + countValueTokens(item);
             }
         }
 
-        return totalChars;
+        return totalTokens;
+    }
+
+    private int countValueTokens(Object value) {
+        if (value instanceof CharSequence text) {
+            return countTokens(text);
+        } else if (value instanceof Map<?, ?> map) {
+            return countMapTokens(map);
+        } else if (value instanceof List<?> list) {
+            return countListTokens(list);
+        }
+        return countTokens(value.toString());
     }
 
     /**
@@ -0,0 +1,178 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import org.yanhuang.ai.config.AppProperties;
+
+/**
+ * Watches the token files the accounts were loaded from and swaps re-read tokens into
+ * {@link TokenManager} when they change, so tokens rotated on disk (e.g. by the Kiro IDE)
+ * are picked up without a restart and without touching in-flight streams.
+ */
+@Component
+public class TokenFileWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenFileWatcher.class);
+
+    // Editors and the IDE write through temp files and renames, i.e. several events per update
+    private static final long SETTLE_MILLIS = 200;
+
+    private final AppProperties properties;
+    private final TokenManager tokenManager;
+    private final CredentialPool credentialPool;
+    private final List<WatchedAccount> accounts = new ArrayList<>();
+    private volatile WatchService watchService;
+
+    public TokenFileWatcher(AppProperties properties, TokenManager tokenManager, CredentialPool credentialPool) {
+        this.properties = properties;
+        this.tokenManager = tokenManager;
+        this.credentialPool = credentialPool;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        AppProperties.KiroProperties kiro = properties.getKiro();
+        if (!kiro.isWatchTokenFiles()) {
+            return;
+        }
+        // The pool lists the primary account first, then the configured ones in order
+        List<KiroCredential> credentials = credentialPool.getCredentials();
+        addAccount(credentials.get(0), kiro.getTokenFiles(), kiro::readTokenFiles);
+        for (int i = 0; i < kiro.getCredentials().size(); i++) {
+            AppProperties.CredentialProperties config = kiro.getCredentials().get(i);
+            addAccount(credentials.get(i + 1), config.getTokenFiles(), config::readTokenFiles);
+        }
+        if (accounts.isEmpty()) {
+            return;
+        }
+
+        Set<Path> directories = new HashSet<>();
+        for (WatchedAccount account : accounts) {
+            for (Path file : account.files()) {
+                if (file.getParent() != null && Files.isDirectory(file.getParent())) {
+                    directories.add(file.getParent());
+                }
+            }
+        }
+        if (directories.isEmpty()) {
+            return;
+        }
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            for (Path directory : directories) {
+                directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+            watchService = service;
+        } catch (IOException e) {
+            log.warn("Cannot watch Kiro token files, tokens changed on disk need a restart: {}", e.getMessage());
+            return;
+        }
+
+        Thread thread = new Thread(this::watch, "kiro-token-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching Kiro token files in {}", directories);
+    }
+
+    @PreDestroy
+    public void stop() {
+        WatchService service = watchService;
+        watchService = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                log.debug("Failed to close token file watcher: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void addAccount(KiroCredential credential, List<String> files,
+                            Supplier<AppProperties.KiroProperties.TokenPair> reader) {
+        if (files.isEmpty()) {
+            return;
+        }
+        accounts.add(new WatchedAccount(credential,
+            files.stream().map(file -> Path.of(file).toAbsolutePath().normalize()).toList(), reader));
+    }
+
+    private void watch() {
+        WatchService service;
+        while ((service = watchService) != null) {
+            try {
+                Set<Path> changed = new HashSet<>();
+                collect(service.take(), changed);
+                WatchKey more;
+                while ((more = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(more, changed);
+                }
+                reload(changed);
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Failed to reload Kiro token files", e);
+            }
+        }
+    }
+
+    private static void collect(WatchKey key, Set<Path> changed) {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost; treat everything in the directory as changed
+                changed.add(directory);
+            } else {
+                changed.add(directory.resolve((Path) event.context()).toAbsolutePath().normalize());
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Re-read the tokens of every account with a file among {@code changed} (files, or whole
+     * directories when events overflowed).
+     */
+    void reload(Set<Path> changed) {
+        for (WatchedAccount account : accounts) {
+            boolean affected = account.files().stream()
+                .anyMatch(file -> changed.contains(file) || changed.contains(file.getParent()));
+            if (!affected) {
+                continue;
+            }
+            if (tokenManager.reloadTokens(account.credential(), account.reader().get())) {
+                log.info("Reloaded Kiro token for {} from disk", account.credential().getName());
+            } else if (log.isDebugEnabled()) {
+                log.debug("Token files of {} changed but the access token did not", account.credential().getName());
+            }
+        }
+    }
+
+    private record WatchedAccount(KiroCredential credential, List<Path> files,
+                                  Supplier<AppProperties.KiroProperties.TokenPair> reader) {
+    }
+}
@@ -2,7 +2,11 @@ package org.yanhuang.ai.service;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,12 +25,22 @@ public class TokenManager {
     private final WebClient webClient;
     private final AtomicReference<String> accessToken;
     private final AtomicReference<Instant> lastRefresh;
+    private final AtomicReference<Instant> expiresAt;
+    // The primary account's refresh in progress, shared by everyone who needs it
+    private final AtomicReference<CompletableFuture<String>> refreshing = new AtomicReference<>();
+    private final Account primary;
 
     public TokenManager(AppProperties properties, WebClient.Builder webClientBuilder) {
         this.properties = properties;
         this.webClient = webClientBuilder.baseUrl(properties.getKiro().getRefreshUrl()).build();
-        this.accessToken = new AtomicReference<>(properties.getKiro().getAccessToken());
+        AppProperties.KiroProperties kiro = properties.getKiro();
+        this.accessToken = new AtomicReference<>(kiro.getAccessToken());
         this.lastRefresh = new AtomicReference<>(Instant.EPOCH);
+        this.expiresAt = new AtomicReference<>(kiro.getAccessTokenExpiresAt());
+        this.primary = new Account("primary", accessToken, lastRefresh, expiresAt, refreshing,
+            () -> properties.getKiro().getRefreshToken(),
+            rotated -> properties.getKiro().setRefreshToken(rotated),
+            this::ensureToken);
     }
 
     public String currentToken() {
@@ -42,35 +56,141 @@ public class TokenManager {
         return token;
     }
 
+    /**
+     * Current token of a pool account; the primary account's is the one {@link #ensureToken()} returns.
+     */
+    public String ensureToken(KiroCredential credential) {
+        if (credential.isPrimary()) {
+            return ensureToken();
+        }
+        String token = credential.accessToken.get();
+        if (token == null || token.isBlank()) {
+            token = credential.configuredAccessToken;
+            credential.accessToken.set(token);
+        }
+        return token;
+    }
+
+    /**
+     * Swap in tokens re-read from an account's token files, unless they expire earlier than
+     * the ones already held (e.g. a file not yet updated after our own refresh), or their expiry
+     * is unknown while the held one's is not.
+     *
+     * @return whether the access token changed
+     */
+    public boolean reloadTokens(KiroCredential credential, AppProperties.KiroProperties.TokenPair tokens) {
+        if (tokens.accessToken() == null || tokens.accessToken().isBlank()) {
+            return false;
+        }
+        AtomicReference<String> token = credential.isPrimary() ? accessToken : credential.accessToken;
+        AtomicReference<Instant> expiry = credential.isPrimary() ? expiresAt : credential.expiresAt;
+        Instant held = expiry.get();
+        if (held != null && tokens.expiresAt() == null) {
+            log.info("Ignoring reloaded token for {}: its expiry is unknown, the current one expires at {}",
+                credential.getName(), held);
+            return false;
+        }
+        if (held != null && tokens.expiresAt().isBefore(held)) {
+            log.info("Ignoring reloaded token for {}: it expires at {}, before the current one ({})",
+                credential.getName(), tokens.expiresAt(), held);
+            return false;
+        }
+
+        if (tokens.refreshToken() != null && !tokens.refreshToken().isBlank()) {
+            if (credential.isPrimary()) {
+                properties.getKiro().setRefreshToken(tokens.refreshToken());
+            } else {
+                credential.refreshToken.set(tokens.refreshToken());
+            }
+        }
+        if (credential.isPrimary()) {
+            properties.getKiro().setAccessToken(tokens.accessToken());
+        }
+        expiry.set(tokens.expiresAt());
+        String previous = token.getAndSet(tokens.accessToken());
+        return !tokens.accessToken().equals(previous);
+    }
+
+    /**
+     * When the primary account's token expires, if known from the token file or the last refresh.
+     */
+    public Instant getExpiresAt() {
+        return expiresAt.get();
+    }
+
+    public Instant getExpiresAt(KiroCredential credential) {
+        return credential.isPrimary() ? getExpiresAt() : credential.expiresAt.get();
+    }
+
+    /**
+     * Refresh the primary token. Callers arriving while a refresh is already running share
+     * its result instead of starting another one.
+     */
     public Mono<String> refreshIfNeeded() {
-        log.info("=== Token Refresh Analysis ===");
+        return Mono.defer(() -> refresh(primary));
+    }
 
+    /**
+     * Refresh the token of a pool account, with the same throttle as the primary one.
+     */
+    public Mono<String> refreshIfNeeded(KiroCredential credential) {
+        if (credential.isPrimary()) {
+            return refreshIfNeeded();
+        }
+        return Mono.defer(() -> refresh(new Account(credential.getName(), credential.accessToken,
+            credential.lastRefresh, credential.expiresAt, credential.refreshing,
+            credential.refreshToken::get, credential.refreshToken::set, () -> ensureToken(credential))));
+    }
+
+    private Mono<String> refresh(Account account) {
+        CompletableFuture<String> pending = account.refreshing().get();
+        if (pending != null) {
+            log.info("Token refresh already in flight ({}), waiting for it", account.name());
+            return Mono.fromFuture(pending, true);
+        }
+
+        log.info("=== Token Refresh Analysis ({}) ===", account.name());
+
+        AtomicReference<String> token = account.token();
         Instant now = Instant.now();
-        Duration elapsed = Duration.between(lastRefresh.get(), now);
+        Duration elapsed = Duration.between(account.refreshedAt().get(), now);
 
-        log.info("Current token status: has_token={}, token_length={}, last_refresh={}, elapsed_seconds={}",
-            accessToken.get() != null && !accessToken.get().isBlank(),
-            accessToken.get() != null ? accessToken.get().length() : 0,
-            lastRefresh.get(),
-            elapsed.getSeconds());
+        log.info("Current token status: has_token={}, token_length={}, last_refresh={}, elapsed_seconds={}, expires_at={}",
+            token.get() != null && !token.get().isBlank(),
+            token.get() != null ? token.get().length() : 0,
+            account.refreshedAt().get(),
+            elapsed.getSeconds(),
+            account.expiresAt().get());
 
         if (elapsed.getSeconds() < properties.getKiro().getMinRefreshIntervalSeconds()) {
             log.info("Skip token refresh because of throttle window: {} < {} seconds",
                 elapsed.getSeconds(), properties.getKiro().getMinRefreshIntervalSeconds());
-            return Mono.just(ensureToken());
+            return Mono.just(account.currentToken().get());
         }
 
-        String refreshToken = properties.getKiro().getRefreshToken();
+        String refreshToken = account.refreshToken().get();
         if (refreshToken == null || refreshToken.isBlank()) {
             log.warn("No refresh token configured, reuse current access token");
-            return Mono.just(ensureToken());
+            return Mono.just(account.currentToken().get());
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        if (!account.refreshing().compareAndSet(null, future)) {
+            // Another caller started one in the meantime
+            return refresh(account);
         }
 
         log.info("Initiating token refresh to: {}", properties.getKiro().getRefreshUrl());
-        log.info("Refresh token present: {} (length: {})",
-            refreshToken != null && !refreshToken.isBlank(),
-            refreshToken != null ? refreshToken.length() : 0);
+        log.info("Refresh token present: true (length: {})", refreshToken.length());
 
+        requestRefresh(account, refreshToken)
+            .doFinally(signal -> account.refreshing().compareAndSet(future, null))
+            .subscribe(future::complete, future::completeExceptionally,
+                () -> future.complete(account.currentToken().get()));
+        return Mono.fromFuture(future, true);
+    }
+
+    private Mono<String> requestRefresh(Account account, String refreshToken) {
         return webClient.post()
             .contentType(MediaType.APPLICATION_JSON)
             .bodyValue(new RefreshRequest(refreshToken))
@@ -78,9 +198,18 @@ public class TokenManager {
             .bodyToMono(RefreshResponse.class)
             .doOnSuccess(response -> {
                 if (response != null && response.accessToken() != null && !response.accessToken().isBlank()) {
-                    log.info("Token refresh successful: new_token_length={}", response.accessToken().length());
-                    accessToken.set(response.accessToken());
-                    lastRefresh.set(Instant.now());
+                    Instant refreshedAt = Instant.now();
+                    Instant expiry = response.expiresAt(refreshedAt);
+                    log.info("Token refresh successful: new_token_length={}, expires_at={}",
+                        response.accessToken().length(), expiry);
+                    account.token().set(response.accessToken());
+                    account.refreshedAt().set(refreshedAt);
+                    account.expiresAt().set(expiry);
+                    if (response.refreshToken() != null && !response.refreshToken().isBlank()
+                        && !response.refreshToken().equals(refreshToken)) {
+                        log.info("Refresh token rotated ({})", account.name());
+                        account.onRefreshTokenRotated().accept(response.refreshToken());
+                    }
                 } else {
                     log.warn("Refresh response missing accessToken, reuse existing token");
                 }
@@ -93,18 +222,43 @@ public class TokenManager {
                 if (response != null && response.accessToken() != null && !response.accessToken().isBlank()) {
                     return response.accessToken();
                 }
-                return ensureToken();
+                return account.currentToken().get();
             })
             .onErrorResume(ex -> {
                 log.error("Failed to refresh token, falling back to existing token", ex);
-                return Mono.just(ensureToken());
+                return Mono.fromSupplier(account.currentToken());
             });
     }
 
+    /**
+     * Token state of one account, as the refresh path sees it.
+     */
+    private record Account(String name, AtomicReference<String> token, AtomicReference<Instant> refreshedAt,
+                           AtomicReference<Instant> expiresAt, AtomicReference<CompletableFuture<String>> refreshing,
+                           Supplier<String> refreshToken, Consumer<String> onRefreshTokenRotated,
+                           Supplier<String> currentToken) {
+    }
+
     private record RefreshRequest(String refreshToken) {
     }
 
-    private record RefreshResponse(String accessToken) {
+    private record RefreshResponse(String accessToken, String refreshToken, Long expiresIn, String expiresAt) {
+
+        /**
+         * Expiry reported by the refresh endpoint, either as a lifetime or as a timestamp.
+         */
+        Instant expiresAt(Instant refreshedAt) {
+            if (expiresIn != null && expiresIn > 0) {
+                return refreshedAt.plusSeconds(expiresIn);
+            }
+            if (expiresAt != null && !expiresAt.isBlank()) {
+                try {
+                    return Instant.parse(expiresAt);
+                } catch (DateTimeParseException e) {
+                    log.debug("Ignoring unparseable expiresAt in refresh response: {}", expiresAt);
+                }
+            }
+            return null;
+        }
     }
 }
-
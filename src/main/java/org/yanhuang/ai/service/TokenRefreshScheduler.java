@@ -0,0 +1,125 @@
+package org.yanhuang.ai.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import org.yanhuang.ai.config.AppProperties;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+/**
+ * Refreshes each account's access token {@code token-refresh-ahead-seconds} before it
+ * expires, so requests don't have to hit a 403 and wait for a refresh first.
+ *
+ * Accounts whose expiry is unknown are only looked at again periodically; their tokens
+ * are still refreshed on demand when Kiro rejects them. A timer whose token was replaced in
+ * the meantime (refreshed after a 403, or reloaded from disk) is rearmed for the new expiry
+ * instead of refreshing again.
+ */
+@Component
+public class TokenRefreshScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenRefreshScheduler.class);
+
+    private static final Duration UNKNOWN_EXPIRY_RECHECK = Duration.ofMinutes(5);
+    // Floor between attempts when a refresh did not move the expiry (failed or throttled)
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(30);
+
+    private final TokenManager tokenManager;
+    private final CredentialPool credentialPool;
+    private final AppProperties properties;
+    private final Map<String, Disposable> scheduled = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    public TokenRefreshScheduler(TokenManager tokenManager, CredentialPool credentialPool, AppProperties properties) {
+        this.tokenManager = tokenManager;
+        this.credentialPool = credentialPool;
+        this.properties = properties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (properties.getKiro().getTokenRefreshAheadSeconds() <= 0) {
+            log.info("Proactive token refresh disabled");
+            return;
+        }
+        for (KiroCredential credential : credentialPool.getCredentials()) {
+            schedule(credential, null);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        scheduled.values().forEach(Disposable::dispose);
+        scheduled.clear();
+    }
+
+    private void schedule(KiroCredential credential, Instant previousExpiry) {
+        if (stopped) {
+            return;
+        }
+        Instant expiry = tokenManager.getExpiresAt(credential);
+        Mono<?> next;
+        if (expiry == null) {
+            next = Mono.delay(UNKNOWN_EXPIRY_RECHECK);
+        } else {
+            Duration delay = delayUntilRefresh(expiry, previousExpiry);
+            if (log.isDebugEnabled()) {
+                log.debug("Next token refresh for {} in {} s (expires at {})",
+                    credential.getName(), delay.getSeconds(), expiry);
+            }
+            next = Mono.delay(delay).then(Mono.defer(() -> refreshIfStillDue(credential)));
+        }
+
+        Disposable task = next
+            .onErrorResume(error -> {
+                log.warn("Scheduled token refresh for {} failed: {}", credential.getName(), error.getMessage());
+                return Mono.empty();
+            })
+            .then()
+            .subscribe(null, null, () -> schedule(credential, expiry));
+        Disposable previous = scheduled.put(credential.getName(), task);
+        if (previous != null && previous != task) {
+            previous.dispose();
+        }
+        if (stopped) {
+            task.dispose();
+        }
+    }
+
+    private Mono<?> refreshIfStillDue(KiroCredential credential) {
+        Instant expiry = tokenManager.getExpiresAt(credential);
+        // Some slack, so a timer firing a little early still refreshes
+        if (expiry != null && refreshAt(expiry).isAfter(Instant.now().plus(RETRY_DELAY))) {
+            log.debug("Token of {} was replaced since its refresh was scheduled, now expires at {}",
+                credential.getName(), expiry);
+            return Mono.empty();
+        }
+        return tokenManager.refreshIfNeeded(credential);
+    }
+
+    private Instant refreshAt(Instant expiry) {
+        return expiry.minusSeconds(properties.getKiro().getTokenRefreshAheadSeconds());
+    }
+
+    private Duration delayUntilRefresh(Instant expiry, Instant previousExpiry) {
+        Duration delay = Duration.between(Instant.now(), refreshAt(expiry));
+        if (delay.isNegative()) {
+            delay = Duration.ZERO;
+        }
+        if (expiry.equals(previousExpiry) && delay.compareTo(RETRY_DELAY) < 0) {
+            delay = RETRY_DELAY;
+        }
+        return delay;
+    }
+}
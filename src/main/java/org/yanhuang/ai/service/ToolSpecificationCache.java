@@ -0,0 +1,140 @@
+package org.yanhuang.ai.service;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.springframework.stereotype.Component;
+import org.yanhuang.ai.config.AppProperties;
+import org.yanhuang.ai.model.ToolDefinition;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Content-addressed cache of the Kiro toolSpecification of each tool and its input token count.
+ *
+ * Clients such as Claude Code send the same tool definitions, input schemas and all, on every
+ * request. A tool is keyed by a {@link RequestDigest} of its effective name, description and input
+ * schema. The key is remembered for as long as the definition object lives, so that a request,
+ * whose definitions are not changed once bound, hashes each tool once. Specifications are
+ * kept as {@link SerializedString}s, whose UTF-8 bytes are encoded once and copied into every
+ * request after that. Only the tools map holds them, so its character budget bounds the cache.
+ * Shared by {@link TokenCounter} and {@link KiroService}.
+ */
+@Component
+public class ToolSpecificationCache {
+
+    /**
+     * A tool as sent to Kiro: its toolSpecification element and input token count
+     */
+    record Tool(SerializedString specification, int tokens) {
+    }
+
+    /**
+     * A tools list: the toolSpecification element of each tool, in order, and their total tokens
+     */
+    record Tools(List<SerializedString> specifications, int tokens) {
+    }
+
+    private final AppProperties.ToolCacheProperties config;
+    private final KiroPayloadWriter writer;
+    private final long maxChars;
+
+    // Tool key to tool, least recently used first; guarded by itself
+    private final Map<String, Tool> tools = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedChars;
+    // Key of each definition still referenced by a request. ToolDefinition keeps identity equality,
+    // so this is weak by identity; guarded by tools
+    private final Map<ToolDefinition, String> keys = new WeakHashMap<>();
+
+    public ToolSpecificationCache(AppProperties properties, ObjectMapper mapper) {
+        this.config = properties.getKiro().getToolCache();
+        this.writer = new KiroPayloadWriter(mapper);
+        this.maxChars = (long) config.getMaxSizeMegabytes() * 1024 * 1024;
+    }
+
+    /**
+     * The toolSpecification elements and total tokens of {@code definitions}. Tools not cached yet
+     * are counted with {@code tokenCounter}, which is passed in because it depends on this cache.
+     */
+    Tools resolve(List<ToolDefinition> definitions, TokenCounter tokenCounter) {
+        // Without the cache every tool is a miss
+        String[] keys = new String[definitions.size()];
+        Tool[] resolved = new Tool[keys.length];
+        if (config.isEnabled()) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = key(definitions.get(i));
+            }
+            synchronized (tools) {
+                for (int i = 0; i < keys.length; i++) {
+                    resolved[i] = tools.get(keys[i]);
+                }
+            }
+        }
+
+        SerializedString[] specifications = new SerializedString[keys.length];
+        int tokens = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (resolved[i] == null) {
+                resolved[i] = new Tool(new SerializedString(writer.toolSpecification(definitions.get(i))),
+                    tokenCounter.countToolDefinitionTokens(definitions.get(i)));
+                if (keys[i] != null) {
+                    remember(keys[i], resolved[i]);
+                }
+            }
+            specifications[i] = resolved[i].specification();
+            tokens += resolved[i].tokens();
+        }
+        return new Tools(Arrays.asList(specifications), tokens);
+    }
+
+    int size() {
+        synchronized (tools) {
+            return tools.size();
+        }
+    }
+
+    private void remember(String key, Tool tool) {
+        long chars = tool.specification().charLength();
+        if (chars > maxChars) {
+            return;
+        }
+        synchronized (tools) {
+            Tool previous = tools.put(key, tool);
+            cachedChars += chars - (previous != null ? previous.specification().charLength() : 0);
+            Iterator<Tool> eldest = tools.values().iterator();
+            while (cachedChars > maxChars) {
+                cachedChars -= eldest.next().specification().charLength();
+                eldest.remove();
+            }
+        }
+    }
+
+    private String key(ToolDefinition definition) {
+        String key;
+        synchronized (tools) {
+            key = keys.get(definition);
+        }
+        if (key != null) {
+            return key;
+        }
+        try {
+            key = new RequestDigest()
+                .update(definition.getEffectiveName())
+                .update(definition.getEffectiveDescription())
+                .update(definition.getEffectiveInputSchema())
+                .snapshot();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to hash tool " + definition.getEffectiveName(), ex);
+        }
+        synchronized (tools) {
+            keys.put(definition, key);
+        }
+        return key;
+    }
+}
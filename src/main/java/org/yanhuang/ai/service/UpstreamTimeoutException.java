@@ -0,0 +1,31 @@
+package org.yanhuang.ai.service;
+
+import java.time.Duration;
+
+/**
+ * Raised when the Kiro stream misses one of its deadlines.
+ */
+public class UpstreamTimeoutException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Phase {
+        /** No bytes received after sending the request */
+        FIRST_BYTE,
+        /** The stream stalled between frames */
+        IDLE,
+        /** The overall request deadline passed */
+        DEADLINE
+    }
+
+    private final Phase phase;
+
+    public UpstreamTimeoutException(Phase phase, Duration elapsed) {
+        super("Kiro upstream " + phase.name().toLowerCase().replace('_', ' ') + " timeout after " + elapsed.toMillis() + " ms");
+        this.phase = phase;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+}
@@ -0,0 +1,80 @@
+package org.yanhuang.ai.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AppPropertiesTokenFilesTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rereadsTokensRewrittenOnDisk() throws IOException {
+        Path file = dir.resolve("kiro-auth-token.json");
+        Files.writeString(file, tokenCache("first", "2030-01-01T00:00:00Z"));
+        AppProperties properties = new AppProperties();
+        properties.getKiro().setAccessTokenFile(file.toString());
+        properties.loadTokensFromFile();
+
+        assertThat(properties.getKiro().getAccessToken()).isEqualTo("first");
+        assertThat(properties.getKiro().getTokenFiles()).contains(file.toString());
+
+        Files.writeString(file, tokenCache("second", "2030-01-01T01:00:00Z"));
+        AppProperties.KiroProperties.TokenPair reloaded = properties.getKiro().readTokenFiles();
+
+        assertThat(reloaded.accessToken()).isEqualTo("second");
+        assertThat(reloaded.refreshToken()).isEqualTo("refresh-second");
+        assertThat(reloaded.expiresAt()).isEqualTo(Instant.parse("2030-01-01T01:00:00Z"));
+    }
+
+    @Test
+    void partiallyWrittenTokenCacheIsNotRereadAsPlainToken() throws IOException {
+        Path file = dir.resolve("kiro-auth-token.json");
+        Files.writeString(file, tokenCache("first", "2030-01-01T00:00:00Z"));
+        AppProperties properties = new AppProperties();
+        properties.getKiro().setAccessTokenFile(file.toString());
+        properties.getKiro().setRefreshToken("refresh");
+        properties.loadTokensFromFile();
+
+        Files.writeString(file, "{\"accessToken\":\"ab");
+
+        assertThat(properties.getKiro().readTokenFiles().accessToken()).isNull();
+    }
+
+    @Test
+    void plainTokenFileIsReread() throws IOException {
+        Path file = dir.resolve("access-token");
+        Files.writeString(file, "first\n");
+        AppProperties properties = new AppProperties();
+        properties.getKiro().setAccessTokenFile(file.toString());
+        properties.getKiro().setRefreshToken("refresh");
+        properties.loadTokensFromFile();
+
+        Files.writeString(file, "second\n");
+
+        assertThat(properties.getKiro().readTokenFiles().accessToken()).isEqualTo("second");
+    }
+
+    @Test
+    void directlyConfiguredTokensAreNotReadFromFiles() {
+        AppProperties properties = new AppProperties();
+        properties.getKiro().setAccessToken("access");
+        properties.getKiro().setRefreshToken("refresh");
+        properties.loadTokensFromFile();
+
+        assertThat(properties.getKiro().getTokenFiles()).isEmpty();
+        assertThat(properties.getKiro().readTokenFiles().accessToken()).isEqualTo("access");
+    }
+
+    private static String tokenCache(String accessToken, String expiresAt) {
+        return "{\"accessToken\":\"" + accessToken + "\",\"refreshToken\":\"refresh-" + accessToken
+            + "\",\"expiresAt\":\"" + expiresAt + "\"}";
+    }
+}
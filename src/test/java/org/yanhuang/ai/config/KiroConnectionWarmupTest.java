@@ -0,0 +1,88 @@
+package org.yanhuang.ai.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.yanhuang.ai.service.KiroEndpointRouter;
+
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.test.StepVerifier;
+
+class KiroConnectionWarmupTest {
+
+    private final AtomicInteger connectionsOpened = new AtomicInteger();
+    private final AtomicInteger secondaryConnectionsOpened = new AtomicInteger();
+    private DisposableServer server;
+    private DisposableServer secondary;
+    private ConnectionProvider provider;
+    private AppProperties properties;
+    private WebClientConfig config;
+
+    @BeforeEach
+    void setUp() {
+        server = HttpServer.create()
+            .port(0)
+            .doOnChannelInit((observer, channel, address) -> connectionsOpened.incrementAndGet())
+            .handle((request, response) -> response.status(403).send())
+            .bindNow();
+        secondary = HttpServer.create()
+            .port(0)
+            .doOnChannelInit((observer, channel, address) -> secondaryConnectionsOpened.incrementAndGet())
+            .handle((request, response) -> response.status(403).send())
+            .bindNow();
+
+        properties = new AppProperties();
+        properties.getKiro().setBaseUrl("http://localhost:" + server.port() + "/generateAssistantResponse");
+        properties.getKiro().getPool().setWarmupConnections(3);
+        config = new WebClientConfig();
+        provider = config.kiroConnectionProvider(properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.dispose();
+        server.disposeNow();
+        secondary.disposeNow();
+    }
+
+    @Test
+    void warmupOpensConfiguredNumberOfConnections() {
+        HttpClient httpClient = config.kiroHttpClient(provider, properties);
+        KiroConnectionWarmup warmup = new KiroConnectionWarmup(properties, httpClient,
+            new KiroEndpointRouter(properties));
+
+        // Error statuses still count: only the established connection matters
+        StepVerifier.create(warmup.warmup()).expectNext(3L).verifyComplete();
+        assertThat(connectionsOpened.get()).isEqualTo(3);
+    }
+
+    @Test
+    void warmupCoversEveryEndpoint() {
+        properties.getKiro().setEndpoints(List.of("http://localhost:" + secondary.port() + "/generateAssistantResponse"));
+        HttpClient httpClient = config.kiroHttpClient(provider, properties);
+        KiroConnectionWarmup warmup = new KiroConnectionWarmup(properties, httpClient,
+            new KiroEndpointRouter(properties));
+
+        StepVerifier.create(warmup.warmup()).expectNext(6L).verifyComplete();
+        assertThat(connectionsOpened.get()).isEqualTo(3);
+        assertThat(secondaryConnectionsOpened.get()).isEqualTo(3);
+    }
+
+    @Test
+    void warmupIsSkippedWhenDisabled() {
+        properties.getKiro().getPool().setWarmupConnections(0);
+        KiroConnectionWarmup warmup = new KiroConnectionWarmup(properties, config.kiroHttpClient(provider, properties),
+            new KiroEndpointRouter(properties));
+
+        StepVerifier.create(warmup.warmup()).verifyComplete();
+        assertThat(connectionsOpened.get()).isZero();
+    }
+}
@@ -18,12 +18,15 @@ import org.springframework.test.web.reactive.server.WebTestClient;
 import org.yanhuang.ai.config.AppProperties;
 import org.yanhuang.ai.model.AnthropicChatResponse;
 import org.yanhuang.ai.model.AnthropicMessage;
+import org.yanhuang.ai.service.AdaptiveConcurrencyLimit;
+import org.yanhuang.ai.service.AdmissionLimiter;
 import org.yanhuang.ai.service.KiroService;
+import org.yanhuang.ai.service.RetryPolicy;
 import reactor.core.publisher.Mono;
 
 @WebFluxTest(controllers = AnthropicController.class)
 @EnableConfigurationProperties(AppProperties.class)
-@Import(GlobalExceptionHandler.class)
+@Import({GlobalExceptionHandler.class, AdmissionLimiter.class, AdaptiveConcurrencyLimit.class, RetryPolicy.class})
 @TestPropertySource(properties = {
     "app.api-key=test-key",
     "app.anthropic-version=2023-06-01",
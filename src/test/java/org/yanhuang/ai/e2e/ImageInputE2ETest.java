@@ -8,25 +8,17 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Base64;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
- * E2E tests for image inputs: verify single/multiple images and server-side recognition note.
+ * E2E tests for image inputs: verify single/multiple images are forwarded and answered.
  */
 @EnabledIfEnvironmentVariable(named = "CLAUDE_API_KEY", matches = ".*[^\\s].*")
 public class ImageInputE2ETest extends BaseE2ETest {
 
     private String tinyPngBase64() {
-        // Minimal PNG signature + IHDR (not a real image; only for base64/mediaType validation, no external dependency)
-        byte[] fake = new byte[]{
-            (byte)0x89, (byte)0x50, (byte)0x4E, (byte)0x47, (byte)0x0D, (byte)0x0A, (byte)0x1A, (byte)0x0A,
-            (byte)0x00,(byte)0x00,(byte)0x00,(byte)0x0D,(byte)0x49,(byte)0x48,(byte)0x44,(byte)0x52,
-            (byte)0x00,(byte)0x00,(byte)0x00,(byte)0x01,(byte)0x00,(byte)0x00,(byte)0x00,(byte)0x01,
-            (byte)0x08,(byte)0x02,(byte)0x00,(byte)0x00,(byte)0x00,(byte)0x90,(byte)0x77,(byte)0x53,
-            (byte)0xDE
-        };
-        return Base64.getEncoder().encodeToString(fake);
+        // A complete 1x1 PNG: images are now forwarded to Kiro, which decodes them
+        return "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==";
     }
 
     private ObjectNode imageBlock(String mediaType, String type, String data) {
@@ -41,7 +33,7 @@ public class ImageInputE2ETest extends BaseE2ETest {
     }
 
     @Test
-    @DisplayName("单张图片：base64内联，Kiro识别计数")
+    @DisplayName("单张图片：base64内联，转发至Kiro")
     void testSingleImageBase64() {
         ObjectNode req = objectMapper.createObjectNode();
         req.put("model", "claude-sonnet-4-5-20250929");
@@ -66,12 +58,11 @@ public class ImageInputE2ETest extends BaseE2ETest {
         assertNotNull(resp);
         validateBasicResponse(resp);
         String txt = resp.get("content").get(0).get("text").asText("");
-        assertTrue(txt.contains("[Note: 1 image(s) received by Kiro]") || txt.contains("image(s) received"),
-                "Response should contain image recognition count note");
+        assertFalse(txt.isBlank(), "Response should describe the forwarded image");
     }
 
     @Test
-    @DisplayName("多张图片：base64+url混合，Kiro识别计数")
+    @DisplayName("多张图片：base64+url混合，转发至Kiro")
     void testMultipleImagesMixed() {
         ObjectNode req = objectMapper.createObjectNode();
         req.put("model", "claude-sonnet-4-5-20250929");
@@ -97,7 +88,6 @@ public class ImageInputE2ETest extends BaseE2ETest {
         assertNotNull(resp);
         validateBasicResponse(resp);
         String txt = resp.get("content").get(0).get("text").asText("");
-        assertTrue(txt.contains("[Note: 2 image(s) received by Kiro]") || txt.contains("image(s) received"),
-                "Response should contain image recognition count note (2 images)");
+        assertFalse(txt.isBlank(), "Response should compare the images");
     }
 }
@@ -0,0 +1,90 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import org.yanhuang.ai.config.AppProperties;
+
+class AdaptiveConcurrencyLimitTest {
+
+    private final AppProperties properties = new AppProperties();
+    private final AtomicLong clock = new AtomicLong();
+    private AdaptiveConcurrencyLimit limit;
+
+    @BeforeEach
+    void setUp() {
+        properties.getAdmission().setInitialLimit(4);
+        properties.getAdmission().setMinLimit(2);
+        properties.getAdmission().setMaxInFlight(100);
+        limit = new AdaptiveConcurrencyLimit(properties, new RetryPolicy(properties), clock::get);
+    }
+
+    @Test
+    void growsWhileLatencyHoldsButOnlyAsFarAsItIsUsed() {
+        for (int i = 0; i < 30; i++) {
+            round(4, Duration.ofMillis(500));
+        }
+        // Four calls at a time never need more than about twice that
+        assertThat(limit.getLimit()).isBetween(5, 9);
+        assertThat(limit.getLongRttMillis()).isEqualTo(500.0);
+    }
+
+    @Test
+    void shrinksWhenLatencyRises() {
+        for (int i = 0; i < 30; i++) {
+            round(limit.getLimit(), Duration.ofMillis(500));
+        }
+        int before = limit.getLimit();
+
+        for (int i = 0; i < 10; i++) {
+            round(limit.getLimit(), Duration.ofSeconds(5));
+        }
+        assertThat(limit.getLimit()).isLessThan(before);
+    }
+
+    @Test
+    void overloadErrorsCutTheLimit() {
+        properties.getAdmission().setInitialLimit(20);
+        limit = new AdaptiveConcurrencyLimit(properties, new RetryPolicy(properties), clock::get);
+
+        limit.measure(Flux.error(WebClientResponseException.create(503, "unavailable",
+            HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8))).subscribe(item -> { }, error -> { });
+        assertThat(limit.getLimit()).isEqualTo(18);
+
+        // Client errors say nothing about load
+        limit.measure(Flux.error(WebClientResponseException.create(400, "bad request",
+            HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8))).subscribe(item -> { }, error -> { });
+        assertThat(limit.getLimit()).isEqualTo(18);
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    @Test
+    void fixedLimitWhenAdaptationIsOff() {
+        properties.getAdmission().setAdaptiveLimit(false);
+        assertThat(limit.getLimit()).isEqualTo(100);
+    }
+
+    private void round(int concurrency, Duration latency) {
+        List<Sinks.One<String>> calls = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            Sinks.One<String> call = Sinks.one();
+            limit.measure(call.asMono().flux()).subscribe();
+            calls.add(call);
+        }
+        clock.addAndGet(latency.toNanos());
+        calls.forEach(call -> call.tryEmitValue("event"));
+    }
+}
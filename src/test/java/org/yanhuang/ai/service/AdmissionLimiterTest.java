@@ -0,0 +1,196 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import org.yanhuang.ai.config.AppProperties;
+import org.yanhuang.ai.model.AnthropicChatRequest;
+
+class AdmissionLimiterTest {
+
+    private final AppProperties properties = new AppProperties();
+    private final AtomicLong clock = new AtomicLong();
+    private AdmissionLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties.AdmissionProperties config = properties.getAdmission();
+        config.setRequestsPerMinute(60);
+        config.setRequestBurst(2);
+        config.setTokensPerMinute(0);
+        config.setMaxInFlight(1);
+        config.setMaxQueued(1);
+        config.setMaxQueueWaitMillis(10_000);
+        config.setAdaptiveLimit(false);
+        limiter = newLimiter();
+    }
+
+    @Test
+    void requestsBeyondTheBurstAreRejectedUntilTheBucketRefills() {
+        admitOne("key");
+        admitOne("key");
+
+        StepVerifier.create(limiter.admit("key", RequestPriority.INTERACTIVE, 10, Flux.just("event")))
+            .expectErrorSatisfies(error -> assertThat(error)
+                .isInstanceOf(RateLimitExceededException.class)
+                .extracting(e -> ((RateLimitExceededException) e).getRetryAfter().toMillis())
+                .isEqualTo(1000L))
+            .verify();
+        // Other keys have their own buckets
+        admitOne("other-key");
+
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        admitOne("key");
+    }
+
+    @Test
+    void tokenBucketChargesEstimatedTokens() {
+        properties.getAdmission().setRequestsPerMinute(0);
+        properties.getAdmission().setTokensPerMinute(6_000);
+        limiter = newLimiter();
+
+        StepVerifier.create(limiter.admit("key", RequestPriority.INTERACTIVE, 5_000, Flux.just("event"))).expectNext("event").verifyComplete();
+        StepVerifier.create(limiter.admit("key", RequestPriority.INTERACTIVE, 5_000, Flux.just("event")))
+            .expectError(RateLimitExceededException.class)
+            .verify();
+
+        clock.addAndGet(Duration.ofSeconds(40).toNanos());
+        StepVerifier.create(limiter.admit("key", RequestPriority.INTERACTIVE, 5_000, Flux.just("event"))).expectNext("event").verifyComplete();
+    }
+
+    @Test
+    void queuesOneCallerAndShedsTheRest() {
+        Sinks.Empty<String> first = Sinks.empty();
+        limiter.admit("a", RequestPriority.INTERACTIVE, 1, first.asMono().flux()).subscribe();
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+
+        Flux<String> queued = limiter.admit("b", RequestPriority.INTERACTIVE, 1, Flux.just("queued")).cache();
+        queued.subscribe();
+        assertThat(limiter.getQueued()).isEqualTo(1);
+
+        StepVerifier.create(limiter.admit("c", RequestPriority.INTERACTIVE, 1, Flux.just("shed")))
+            .expectError(RateLimitExceededException.class)
+            .verify();
+
+        first.tryEmitEmpty();
+        StepVerifier.create(queued).expectNext("queued").verifyComplete();
+        assertThat(limiter.getInFlight()).isZero();
+        assertThat(limiter.getQueued()).isZero();
+    }
+
+    @Test
+    void queuedCallerGivesUpAfterMaxWait() {
+        Sinks.Empty<String> first = Sinks.empty();
+        limiter.admit("a", RequestPriority.INTERACTIVE, 1, first.asMono().flux()).subscribe();
+
+        StepVerifier.withVirtualTime(() -> limiter.admit("b", RequestPriority.INTERACTIVE, 1, Flux.just("late")))
+            .expectSubscription()
+            .thenAwait(Duration.ofSeconds(10))
+            .expectError(RateLimitExceededException.class)
+            .verify();
+        assertThat(limiter.getQueued()).isZero();
+
+        first.tryEmitEmpty();
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void interactiveWaitersAreServedAheadOfBatchByWeight() {
+        AppProperties.AdmissionProperties config = properties.getAdmission();
+        config.setRequestsPerMinute(0);
+        config.setMaxQueued(10);
+        config.setBatchMaxShare(1.0);
+        limiter = newLimiter();
+
+        Sinks.Empty<String> first = Sinks.empty();
+        limiter.admit("a", RequestPriority.BATCH, 1, first.asMono().flux()).subscribe();
+
+        List<String> order = new ArrayList<>();
+        List<Sinks.Empty<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            queue(RequestPriority.BATCH, "batch-" + i, order, calls);
+        }
+        for (int i = 0; i < 4; i++) {
+            queue(RequestPriority.INTERACTIVE, "interactive-" + i, order, calls);
+        }
+        assertThat(limiter.getQueued(RequestPriority.BATCH)).isEqualTo(2);
+        assertThat(limiter.getQueued(RequestPriority.INTERACTIVE)).isEqualTo(4);
+
+        first.tryEmitEmpty();
+        for (int i = 0; i < 6; i++) {
+            calls.get(calls.size() - 1).tryEmitEmpty();
+        }
+        // Weight 4 to 1: the first batch waiter gets its turn after four interactive ones
+        assertThat(order).containsExactly("interactive-0", "interactive-1", "interactive-2",
+            "interactive-3", "batch-0", "batch-1");
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void batchCallsLeaveRoomForInteractiveOnes() {
+        AppProperties.AdmissionProperties config = properties.getAdmission();
+        config.setRequestsPerMinute(0);
+        config.setMaxInFlight(4);
+        config.setMaxQueued(10);
+        config.setBatchMaxShare(0.5);
+        limiter = newLimiter();
+
+        for (int i = 0; i < 3; i++) {
+            limiter.admit("batch", RequestPriority.BATCH, 1, Sinks.<String>empty().asMono().flux()).subscribe();
+        }
+        assertThat(limiter.getInFlight(RequestPriority.BATCH)).isEqualTo(2);
+        assertThat(limiter.getQueued(RequestPriority.BATCH)).isEqualTo(1);
+
+        StepVerifier.create(limiter.admit("user", RequestPriority.INTERACTIVE, 1, Flux.just("event")))
+            .expectNext("event")
+            .verifyComplete();
+    }
+
+    @Test
+    void classifiesByHeaderMetadataKeyAndStreaming() {
+        properties.getAdmission().setBatchApiKeys(List.of("ci-key"));
+        AnthropicChatRequest streaming = new AnthropicChatRequest();
+        streaming.setStream(true);
+        AnthropicChatRequest tagged = new AnthropicChatRequest();
+        tagged.setMetadata(Map.of("priority", "interactive"));
+
+        assertThat(limiter.classify("user-key", null, streaming)).isEqualTo(RequestPriority.INTERACTIVE);
+        assertThat(limiter.classify("user-key", null, new AnthropicChatRequest())).isEqualTo(RequestPriority.BATCH);
+        assertThat(limiter.classify("ci-key", null, streaming)).isEqualTo(RequestPriority.BATCH);
+        assertThat(limiter.classify("ci-key", null, tagged)).isEqualTo(RequestPriority.INTERACTIVE);
+        assertThat(limiter.classify("ci-key", "high", streaming)).isEqualTo(RequestPriority.INTERACTIVE);
+        assertThat(limiter.classify("user-key", "background", streaming)).isEqualTo(RequestPriority.BATCH);
+    }
+
+    private void queue(RequestPriority priority, String name, List<String> order, List<Sinks.Empty<String>> calls) {
+        Sinks.Empty<String> call = Sinks.empty();
+        limiter.admit(name, priority, 1, Flux.defer(() -> {
+            order.add(name);
+            calls.add(call);
+            return call.asMono().flux();
+        })).subscribe();
+    }
+
+    private AdmissionLimiter newLimiter() {
+        return new AdmissionLimiter(properties,
+            new AdaptiveConcurrencyLimit(properties, new RetryPolicy(properties)), clock::get);
+    }
+
+    private void admitOne(String key) {
+        StepVerifier.create(limiter.admit(key, RequestPriority.INTERACTIVE, 10, Flux.just("event")))
+            .expectNext("event")
+            .verifyComplete();
+    }
+}
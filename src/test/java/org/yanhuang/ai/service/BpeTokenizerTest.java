@@ -0,0 +1,67 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import org.junit.jupiter.api.Test;
+
+class BpeTokenizerTest {
+
+    private final BpeTokenizer tokenizer = BpeTokenizer.shared();
+
+    @Test
+    void bundledVocabularyIsTheGeneratedOne() throws Exception {
+        byte[] data;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(BpeTokenizer.VOCABULARY)) {
+            data = in.readAllBytes();
+        }
+        ByteBuffer header = ByteBuffer.wrap(data);
+
+        assertThat(header.getInt()).isEqualTo(0x42504531);
+        assertThat(header.getInt()).isEqualTo(25_796);
+        assertThat(data).hasSize(8 + 25_796 * 4);
+        assertThat(tokenizer.vocabularySize()).isEqualTo(256 + 25_796);
+        // As printed by tools/tokenizer/build_vocabulary.py; rebuild the vocabulary with it to change this
+        assertThat(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data)))
+            .isEqualTo("a503666e9b79f62ae73407a096846a5b353c511200fd0cd88b7300ee26de24cb");
+    }
+
+    @Test
+    void encodeAndDecodeRoundTrip() {
+        String text = "public static void main(String[] args) {\n    System.out.println(\"héllo, 世界 🌍\");\n}";
+
+        int[] tokens = tokenizer.encode(text);
+
+        assertThat(tokenizer.decode(tokens)).isEqualTo(text);
+        assertThat(tokenizer.count(text)).isEqualTo(tokens.length);
+    }
+
+    @Test
+    void commonWordsAreSingleTokens() {
+        assertThat(tokenizer.count("Hello, world!")).isEqualTo(4);
+        assertThat(tokenizer.count(" the")).isEqualTo(1);
+    }
+
+    @Test
+    void commonHanziAreOneTokenEach() {
+        assertThat(tokenizer.count("今天天气很好")).isEqualTo(6);
+    }
+
+    @Test
+    void codeIsDenserThanTheCharacterHeuristic() {
+        String code = "for (int i = 0; i < items.size(); i++) {\n    total += items.get(i).getPrice();\n}\n";
+
+        // length/4 undercounts punctuation-heavy text
+        assertThat(tokenizer.count(code)).isGreaterThan(code.length() / 4);
+    }
+
+    @Test
+    void emptyTextHasNoTokens() {
+        assertThat(tokenizer.count("")).isZero();
+        assertThat(tokenizer.encode("")).isEmpty();
+    }
+}
@@ -0,0 +1,112 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import org.yanhuang.ai.config.AppProperties;
+
+class CredentialPoolTest {
+
+    private final AppProperties properties = new AppProperties();
+    private final AtomicLong clock = new AtomicLong();
+    private CredentialPool pool;
+
+    @BeforeEach
+    void setUp() {
+        properties.getKiro().setProfileArn("arn:aws:codewhisperer:us-east-1:111111111111:profile/PRIMARY");
+        properties.getKiro().setCredentialCooldownSeconds(60);
+        properties.getKiro().setCredentials(List.of(
+            credential("arn:aws:codewhisperer:us-east-1:222222222222:profile/SECOND", 1),
+            credential("arn:aws:codewhisperer:us-east-1:333333333333:profile/THIRD", 2)));
+        pool = new CredentialPool(properties, clock::get);
+    }
+
+    @Test
+    void namesAccountsAfterTheirProfiles() {
+        assertThat(pool.getCredentials()).extracting(KiroCredential::getName)
+            .containsExactly("PRIMARY", "SECOND", "THIRD");
+        assertThat(pool.primary().isPrimary()).isTrue();
+    }
+
+    @Test
+    void routesToTheLeastLoadedAccountByWeight() {
+        Sinks.Empty<Void> hold = Sinks.empty();
+        KiroCredential first = pool.select(c -> true);
+        assertThat(first.getName()).isEqualTo("THIRD");
+
+        pool.track(first, hold.asMono().flux()).subscribe();
+        pool.track(first, hold.asMono().flux()).subscribe();
+        pool.track(pool.getCredentials().get(0), hold.asMono().flux()).subscribe();
+        pool.track(pool.getCredentials().get(1), hold.asMono().flux()).subscribe();
+
+        // Two calls on THIRD (weight 2) still weigh less than one on each of the others
+        assertThat(pool.select(c -> true).getName()).isEqualTo("THIRD");
+        assertThat(pool.select(c -> !c.getName().equals("THIRD")).getName()).isIn("PRIMARY", "SECOND");
+
+        hold.tryEmitEmpty();
+        assertThat(pool.getCredentials()).allSatisfy(c -> assertThat(c.getInFlight()).isZero());
+    }
+
+    @Test
+    void throttledAccountIsEjectedUntilCooldownEnds() {
+        KiroCredential third = pool.getCredentials().get(2);
+        fail(third, 429);
+
+        assertThat(pool.snapshot().get("THIRD").throttled()).isEqualTo(1);
+        for (int i = 0; i < 10; i++) {
+            assertThat(pool.select(c -> true)).isNotSameAs(third);
+        }
+
+        clock.addAndGet(Duration.ofSeconds(60).toNanos());
+        assertThat(pool.select(c -> true)).isSameAs(third);
+    }
+
+    @Test
+    void singleForbiddenIsToleratedButRepeatedOneEjects() {
+        KiroCredential second = pool.getCredentials().get(1);
+        fail(second, 403);
+        assertThat(pool.snapshot().get("SECOND").cooldownRemainingMillis()).isZero();
+
+        fail(second, 403);
+        assertThat(pool.snapshot().get("SECOND").cooldownRemainingMillis()).isEqualTo(60_000);
+        assertThat(pool.snapshot().get("SECOND").ejections()).isEqualTo(1);
+    }
+
+    @Test
+    void fallsBackToUnavailableAccountsWhenNothingElseIsLeft() {
+        for (KiroCredential credential : pool.getCredentials()) {
+            fail(credential, 429);
+        }
+        assertThat(pool.select(c -> true)).isNotNull();
+        assertThat(pool.select(c -> c.getName().equals("SECOND")).getName()).isEqualTo("SECOND");
+    }
+
+    private void fail(KiroCredential credential, int status) {
+        WebClientResponseException error = WebClientResponseException.create(status, "error",
+            HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        StepVerifier.create(pool.track(credential, Flux.error(error)))
+            .expectError()
+            .verify();
+    }
+
+    private static AppProperties.CredentialProperties credential(String profileArn, int weight) {
+        AppProperties.CredentialProperties credential = new AppProperties.CredentialProperties();
+        credential.setProfileArn(profileArn);
+        credential.setAccessToken("token-" + weight);
+        credential.setWeight(weight);
+        return credential;
+    }
+}
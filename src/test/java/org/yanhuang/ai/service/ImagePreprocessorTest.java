@@ -0,0 +1,120 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.yanhuang.ai.config.AppProperties;
+
+class ImagePreprocessorTest {
+
+    private final AppProperties properties = new AppProperties();
+    private ImagePreprocessor preprocessor = new ImagePreprocessor(properties);
+
+    @AfterEach
+    void shutdown() {
+        preprocessor.shutdown();
+    }
+
+    @Test
+    void oversizedScreenshotIsDownscaledToJpeg() throws IOException {
+        KiroPayload.Image screenshot = new KiroPayload.Image("png", encode(3840, 2160, false));
+
+        KiroPayload.Image prepared = preprocessor.prepare(List.of(screenshot)).block().get(0);
+
+        ImageProbe.Dimensions dimensions = ImageProbe.probe(prepared.data());
+        assertThat(prepared.format()).isEqualTo("jpeg");
+        assertThat(ImageProbe.mediaType(prepared.data())).isEqualTo("image/jpeg");
+        assertThat(dimensions.width()).isLessThanOrEqualTo(1568);
+        assertThat((long) dimensions.width() * dimensions.height()).isLessThanOrEqualTo(1_150_000);
+        // Aspect ratio is kept
+        assertThat(dimensions.width() * 9 / 16).isCloseTo(dimensions.height(), offset(1));
+        assertThat(prepared.data().length()).isLessThan(screenshot.data().length());
+    }
+
+    @Test
+    void translucentImageStaysPng() throws IOException {
+        KiroPayload.Image image = new KiroPayload.Image("png", encode(2400, 2400, true));
+
+        KiroPayload.Image prepared = preprocessor.prepare(List.of(image)).block().get(0);
+
+        assertThat(prepared.format()).isEqualTo("png");
+        assertThat(ImageProbe.probe(prepared.data())).isEqualTo(new ImageProbe.Dimensions(1072, 1072));
+    }
+
+    @Test
+    void imagesWithinBudgetAreSentAsIs() throws IOException {
+        KiroPayload.Image image = new KiroPayload.Image("png", encode(1024, 768, false));
+
+        assertThat(preprocessor.prepare(List.of(image)).block()).singleElement().isSameAs(image);
+    }
+
+    @Test
+    void resizedImagesAreCachedByContent() throws IOException {
+        String data = encode(3000, 2000, false);
+
+        KiroPayload.Image first = preprocessor.prepare(List.of(new KiroPayload.Image("png", data))).block().get(0);
+        // An equal copy of the data, as a resent image arrives
+        KiroPayload.Image second = preprocessor.prepare(List.of(new KiroPayload.Image("png", new String(data)))).block().get(0);
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void orderIsKeptAcrossImages() throws IOException {
+        KiroPayload.Image large = new KiroPayload.Image("png", encode(4000, 1000, false));
+        KiroPayload.Image small = new KiroPayload.Image("png", encode(200, 100, false));
+
+        List<KiroPayload.Image> prepared = preprocessor.prepare(List.of(large, small, large)).block();
+
+        assertThat(prepared).hasSize(3);
+        assertThat(ImageProbe.probe(prepared.get(0).data()).width()).isEqualTo(1568);
+        assertThat(prepared.get(1)).isSameAs(small);
+        assertThat(prepared.get(2).data()).isEqualTo(prepared.get(0).data());
+    }
+
+    @Test
+    void unreadableImagesAreSentAsIs() {
+        // A PNG header claiming a huge image, with no image data behind it
+        byte[] header = new byte[33];
+        System.arraycopy(new byte[] {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 13, 'I', 'H', 'D', 'R',
+            0, 0, 0x10, 0, 0, 0, 0x10, 0}, 0, header, 0, 24);
+        KiroPayload.Image image = new KiroPayload.Image("png", Base64.getEncoder().encodeToString(header));
+
+        assertThat(preprocessor.prepare(List.of(image)).block()).containsExactly(image);
+    }
+
+    @Test
+    void disabledPreprocessingSendsImagesAsIs() throws IOException {
+        properties.getKiro().getImages().setEnabled(false);
+        preprocessor.shutdown();
+        preprocessor = new ImagePreprocessor(properties);
+        List<KiroPayload.Image> images = List.of(new KiroPayload.Image("png", encode(3840, 2160, false)));
+
+        assertThat(preprocessor.prepare(images).block()).isSameAs(images);
+    }
+
+    // Smooth but not periodic, so the full-size PNG does not compress better than the downscaled one
+    private static String encode(int width, int height, boolean translucent) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, translucent ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = (int) (127.5 + 127.5 * Math.sin(x / 41.3) * Math.cos(y / 57.7));
+                int alpha = translucent ? (int) (127.5 + 127.5 * Math.cos(x / 73.1 - y / 37.9)) : 0xFF;
+                image.setRGB(x, y, alpha << 24 | value << 16 | (x / 8 & 0xFF) << 8 | y / 8 & 0xFF);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+}
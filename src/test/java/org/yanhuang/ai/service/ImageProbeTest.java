@@ -0,0 +1,85 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+class ImageProbeTest {
+
+    @Test
+    void readsDimensionsFromTheHeader() throws IOException {
+        for (String format : new String[] {"png", "jpg", "gif"}) {
+            assertThat(ImageProbe.probe(encode(format, 1920, 1080))).isEqualTo(new ImageProbe.Dimensions(1920, 1080));
+            assertThat(ImageProbe.probe(encode(format, 3, 7))).isEqualTo(new ImageProbe.Dimensions(3, 7));
+        }
+    }
+
+    @Test
+    void skipsJpegSegmentsBeforeTheFrameHeader() throws IOException {
+        byte[] jpeg = Base64.getDecoder().decode(encode("jpg", 640, 480));
+        ByteArrayOutputStream withExif = new ByteArrayOutputStream();
+        withExif.write(jpeg, 0, 2);
+        withExif.write(new byte[] {(byte) 0xFF, (byte) 0xE1, (byte) 0xFF, (byte) 0xF0});
+        withExif.write(new byte[0xFFF0 - 2]);
+        withExif.write(jpeg, 2, jpeg.length - 2);
+
+        assertThat(ImageProbe.probe(Base64.getEncoder().encodeToString(withExif.toByteArray())))
+            .isEqualTo(new ImageProbe.Dimensions(640, 480));
+    }
+
+    @Test
+    void readsEveryWebpVariant() {
+        byte[] lossy = webp("VP8 ");
+        lossy[23] = (byte) 0x9D;
+        lossy[24] = 0x01;
+        lossy[25] = 0x2A;
+        putLittleEndian(lossy, 26, 1024, 2);
+        putLittleEndian(lossy, 28, 768, 2);
+
+        byte[] lossless = webp("VP8L");
+        lossless[20] = 0x2F;
+        putLittleEndian(lossless, 21, 799 | 599 << 14, 4);
+
+        byte[] extended = webp("VP8X");
+        putLittleEndian(extended, 24, 1919, 3);
+        putLittleEndian(extended, 27, 1079, 3);
+
+        assertThat(ImageProbe.probe(Base64.getEncoder().encodeToString(lossy))).isEqualTo(new ImageProbe.Dimensions(1024, 768));
+        assertThat(ImageProbe.probe(Base64.getEncoder().encodeToString(lossless))).isEqualTo(new ImageProbe.Dimensions(800, 600));
+        assertThat(ImageProbe.probe(Base64.getEncoder().encodeToString(extended))).isEqualTo(new ImageProbe.Dimensions(1920, 1080));
+    }
+
+    @Test
+    void unknownForUrlsUnsupportedFormatsAndTruncatedHeaders() throws IOException {
+        assertThat(ImageProbe.probe("https://example.com/screenshot.png")).isNull();
+        assertThat(ImageProbe.probe(encode("bmp", 10, 10))).isNull();
+        assertThat(ImageProbe.probe(encode("png", 10, 10).substring(0, 20))).isNull();
+    }
+
+    static String encode(String format, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out);
+        return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    private static byte[] webp(String chunk) {
+        byte[] header = new byte[40];
+        System.arraycopy("RIFF".getBytes(StandardCharsets.US_ASCII), 0, header, 0, 4);
+        System.arraycopy(("WEBP" + chunk).getBytes(StandardCharsets.US_ASCII), 0, header, 8, 8);
+        return header;
+    }
+
+    private static void putLittleEndian(byte[] target, int offset, int value, int length) {
+        for (int i = 0; i < length; i++) {
+            target[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+}
@@ -179,6 +179,75 @@ class ImageValidatorTest {
         assertTrue(exception.getMessage().contains("exceeds maximum limit"));
     }
 
+    @Test
+    @DisplayName("Image data of another format than media_type should fail validation")
+    void testMediaTypeMismatch() {
+        AnthropicMessage.ImageSource imageSource = new AnthropicMessage.ImageSource();
+        imageSource.setType("base64");
+        imageSource.setMediaType("image/jpeg");
+        imageSource.setData("iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==");
+
+        IllegalArgumentException exception = assertThrows(
+            IllegalArgumentException.class,
+            () -> validator.validateImageSource(imageSource)
+        );
+
+        assertTrue(exception.getMessage().contains("declared image/jpeg but the data is image/png"));
+    }
+
+    @Test
+    @DisplayName("Base64 data that is not an image should fail validation")
+    void testNonImageData() {
+        AnthropicMessage.ImageSource imageSource = new AnthropicMessage.ImageSource();
+        imageSource.setType("base64");
+        imageSource.setMediaType("image/png");
+        imageSource.setData(Base64.getEncoder().encodeToString("just some text, not a picture".getBytes()));
+
+        IllegalArgumentException exception = assertThrows(
+            IllegalArgumentException.class,
+            () -> validator.validateImageSource(imageSource)
+        );
+
+        assertTrue(exception.getMessage().contains("not a valid image/png image"));
+    }
+
+    @Test
+    @DisplayName("Padding must complete the last quad but may be omitted")
+    void testBase64Padding() {
+        String smallPng = "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==";
+        AnthropicMessage.ImageSource imageSource = new AnthropicMessage.ImageSource();
+        imageSource.setType("base64");
+        imageSource.setMediaType("image/png");
+
+        imageSource.setData(smallPng.replace("=", ""));
+        assertDoesNotThrow(() -> validator.validateImageSource(imageSource));
+
+        imageSource.setData(smallPng + "=");
+        IllegalArgumentException exception = assertThrows(
+            IllegalArgumentException.class,
+            () -> validator.validateImageSource(imageSource)
+        );
+        assertTrue(exception.getMessage().contains("Invalid base64 encoding"));
+    }
+
+    @Test
+    @DisplayName("A validated image is remembered only for its own media type")
+    void testValidatedImagesAreRememberedPerMediaType() {
+        String smallPng = "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==";
+        AnthropicMessage.ImageSource imageSource = new AnthropicMessage.ImageSource();
+        imageSource.setType("base64");
+        imageSource.setMediaType("image/png");
+        imageSource.setData(smallPng);
+        validator.validateImageSource(imageSource);
+
+        // An equal copy, as the next turn of a conversation would resend it
+        imageSource.setData(new String(smallPng.toCharArray()));
+        assertDoesNotThrow(() -> validator.validateImageSource(imageSource));
+
+        imageSource.setMediaType("image/gif");
+        assertThrows(IllegalArgumentException.class, () -> validator.validateImageSource(imageSource));
+    }
+
     @Test
     @DisplayName("Invalid URL format should fail validation")
     void testInvalidUrlFormat() {
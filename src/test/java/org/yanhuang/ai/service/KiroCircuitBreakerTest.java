@@ -0,0 +1,112 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import org.yanhuang.ai.config.AppProperties;
+
+class KiroCircuitBreakerTest {
+
+    private static final String CIRCUIT = "kiro#test";
+
+    private final AppProperties properties = new AppProperties();
+    private final AtomicLong clock = new AtomicLong();
+    private KiroCircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties.CircuitBreakerProperties config = properties.getKiro().getCircuitBreaker();
+        config.setWindowSize(4);
+        config.setMinimumCalls(4);
+        config.setFailureRateThreshold(50);
+        config.setOpenStateSeconds(30);
+        config.setHalfOpenPermittedCalls(2);
+        circuitBreaker = new KiroCircuitBreaker(properties, new RetryPolicy(properties), clock::get);
+    }
+
+    @Test
+    void opensOnceFailureRateCrossesThresholdAndFailsFast() {
+        succeed();
+        succeed();
+        fail(503);
+        assertThat(circuitBreaker.snapshot().get(CIRCUIT).state()).isEqualTo(KiroCircuitBreaker.State.CLOSED);
+        fail(503);
+        assertThat(circuitBreaker.snapshot().get(CIRCUIT).state()).isEqualTo(KiroCircuitBreaker.State.OPEN);
+
+        AtomicInteger calls = new AtomicInteger();
+        StepVerifier.create(circuitBreaker.guard(CIRCUIT, Flux.defer(() -> Flux.just(calls.incrementAndGet()))))
+            .expectErrorSatisfies(error -> assertThat(error)
+                .isInstanceOf(CircuitBreakerOpenException.class)
+                .extracting(e -> ((CircuitBreakerOpenException) e).getRetryAfter())
+                .isEqualTo(Duration.ofSeconds(30)))
+            .verify();
+        assertThat(calls).hasValue(0);
+    }
+
+    @Test
+    void clientErrorsDoNotCountAsFailures() {
+        for (int i = 0; i < 4; i++) {
+            fail(400);
+        }
+        assertThat(circuitBreaker.snapshot().get(CIRCUIT).state()).isEqualTo(KiroCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void halfOpenProbesCloseTheCircuitOrReopenIt() {
+        for (int i = 0; i < 4; i++) {
+            fail(503);
+        }
+        clock.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertThat(circuitBreaker.snapshot().get(CIRCUIT).state()).isEqualTo(KiroCircuitBreaker.State.HALF_OPEN);
+
+        fail(502);
+        assertThat(circuitBreaker.snapshot().get(CIRCUIT).state()).isEqualTo(KiroCircuitBreaker.State.OPEN);
+
+        clock.addAndGet(Duration.ofSeconds(30).toNanos());
+        succeed();
+        succeed();
+        assertThat(circuitBreaker.snapshot().get(CIRCUIT).state()).isEqualTo(KiroCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void slowFirstEventsTripTheCircuit() {
+        properties.getKiro().getCircuitBreaker().setSlowCallDurationSeconds(5);
+        properties.getKiro().getCircuitBreaker().setSlowCallRateThreshold(75);
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(circuitBreaker.guard(CIRCUIT,
+                    Flux.defer(() -> Flux.just(clock.addAndGet(Duration.ofSeconds(6).toNanos())))))
+                .expectNextCount(1)
+                .verifyComplete();
+        }
+        succeed();
+
+        KiroCircuitBreaker.Snapshot snapshot = circuitBreaker.snapshot().get(CIRCUIT);
+        assertThat(snapshot.state()).isEqualTo(KiroCircuitBreaker.State.OPEN);
+    }
+
+    private void succeed() {
+        StepVerifier.create(circuitBreaker.guard(CIRCUIT, Flux.just("event")))
+            .expectNext("event")
+            .verifyComplete();
+    }
+
+    private void fail(int status) {
+        WebClientResponseException error = WebClientResponseException.create(status, "error",
+            HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        StepVerifier.create(circuitBreaker.guard(CIRCUIT, Flux.error(error)))
+            .expectError()
+            .verify();
+    }
+}
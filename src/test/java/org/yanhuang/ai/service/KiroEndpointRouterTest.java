@@ -0,0 +1,126 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import org.yanhuang.ai.config.AppProperties;
+
+class KiroEndpointRouterTest {
+
+    private final AppProperties properties = new AppProperties();
+    private final AtomicLong clock = new AtomicLong();
+    private KiroEndpointRouter router;
+    private KiroEndpoint east;
+    private KiroEndpoint west;
+
+    @BeforeEach
+    void setUp() {
+        properties.getKiro().setBaseUrl("http://us-east-1.local/generateAssistantResponse");
+        properties.getKiro().setEndpoints(List.of("http://us-west-2.local/generateAssistantResponse",
+            "http://us-east-1.local/generateAssistantResponse"));
+        properties.getKiro().setEndpointCooldownSeconds(30);
+        properties.getKiro().setEndpointProbeSeconds(30);
+        router = new KiroEndpointRouter(properties, clock::get);
+        east = router.getEndpoints().get(0);
+        west = router.getEndpoints().get(1);
+    }
+
+    @Test
+    void listsBaseUrlFirstWithoutDuplicates() {
+        assertThat(router.getEndpoints()).extracting(KiroEndpoint::getUrl).containsExactly(
+            "http://us-east-1.local/generateAssistantResponse", "http://us-west-2.local/generateAssistantResponse");
+    }
+
+    @Test
+    void routesToTheFasterEndpointUntilItsLoadOutweighsTheGap() {
+        respond(east, Duration.ofMillis(100));
+        respond(west, Duration.ofMillis(300));
+        assertThat(router.select(e -> true)).isSameAs(east);
+
+        Sinks.Empty<String> hold = Sinks.empty();
+        for (int i = 0; i < 3; i++) {
+            router.track(east, hold.asMono().flux()).subscribe();
+        }
+        // 100 ms with three calls ahead costs more than an idle 300 ms endpoint
+        assertThat(router.select(e -> true)).isSameAs(west);
+        hold.tryEmitEmpty();
+        assertThat(east.getInFlight()).isZero();
+    }
+
+    @Test
+    void staleLatencyIsMeasuredAgain() {
+        respond(east, Duration.ofMillis(100));
+        respond(west, Duration.ofMillis(300));
+
+        clock.addAndGet(Duration.ofSeconds(31).toNanos());
+        respond(east, Duration.ofMillis(100));
+        // West's old sample has expired, so it counts as fast as the best until measured
+        assertThat(router.snapshot().get(west.getUrl()).rttMillis()).isEqualTo(300);
+        assertThat(List.of(router.select(e -> true), router.select(e -> true))).contains(west);
+    }
+
+    @Test
+    void unreachableEndpointIsEjectedUntilCooldownEnds() {
+        StepVerifier.create(router.track(east, Flux.error(new WebClientRequestException(new ConnectException("refused"),
+                HttpMethod.POST, URI.create(east.getUrl()), HttpHeaders.EMPTY))))
+            .expectError()
+            .verify();
+
+        assertThat(router.hasAlternative(east)).isTrue();
+        for (int i = 0; i < 10; i++) {
+            assertThat(router.select(e -> true)).isSameAs(west);
+        }
+        assertThat(router.snapshot().get(east.getUrl()).ejections()).isEqualTo(1);
+
+        clock.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertThat(List.of(router.select(e -> true), router.select(e -> true))).contains(east);
+    }
+
+    @Test
+    void repeatedServerErrorsEjectButClientErrorsDoNot() {
+        for (int i = 0; i < 10; i++) {
+            fail(west, 400);
+        }
+        assertThat(router.snapshot().get(west.getUrl()).cooldownRemainingMillis()).isZero();
+
+        fail(west, 500);
+        fail(west, 500);
+        assertThat(router.snapshot().get(west.getUrl()).cooldownRemainingMillis()).isZero();
+        fail(west, 503);
+        fail(west, 503);
+        assertThat(router.snapshot().get(west.getUrl()).cooldownRemainingMillis()).isEqualTo(30_000);
+        assertThat(router.snapshot().get(west.getUrl()).failures()).isEqualTo(4);
+    }
+
+    private void respond(KiroEndpoint endpoint, Duration latency) {
+        Sinks.One<String> call = Sinks.one();
+        router.track(endpoint, call.asMono().flux()).subscribe();
+        clock.addAndGet(latency.toNanos());
+        call.tryEmitValue("event");
+    }
+
+    private void fail(KiroEndpoint endpoint, int status) {
+        WebClientResponseException error = WebClientResponseException.create(status, "error",
+            HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        StepVerifier.create(router.track(endpoint, Flux.error(error)))
+            .expectError()
+            .verify();
+    }
+}
@@ -4,25 +4,48 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
 
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import org.yanhuang.ai.config.AppProperties;
 import org.yanhuang.ai.model.AnthropicChatRequest;
+import org.yanhuang.ai.model.AnthropicChatResponse;
 import org.yanhuang.ai.model.AnthropicMessage;
 import org.yanhuang.ai.model.ToolDefinition;
 import org.yanhuang.ai.parser.BracketToolCallParser;
@@ -50,6 +73,34 @@ class KiroServiceTest {
         .defaultHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
         .build();
 
+    private static final BodyInserter.Context EMPTY_CONTEXT = new BodyInserter.Context() {
+        @Override
+        public List<HttpMessageWriter<?>> messageWriters() {
+            return List.of();
+        }
+
+        @Override
+        public Optional<ServerHttpRequest> serverRequest() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Map<String, Object> hints() {
+            return Map.of();
+        }
+    };
+
+    private RetryPolicy retryPolicy;
+    private KiroCircuitBreaker circuitBreaker;
+    private CredentialPool credentialPool;
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+    private KiroEndpointRouter endpointRouter;
+    private TokenCounter tokenCounter;
+    private ImagePreprocessor imagePreprocessor;
+    private ResponseCache responseCache;
+
+    private PromptCache promptCache;
+    private ToolSpecificationCache toolSpecificationCache;
     private KiroService kiroService;
 
     @BeforeEach
@@ -62,9 +113,20 @@ class KiroServiceTest {
         kiroProps.setRefreshToken("refresh");
         kiroProps.setRefreshUrl("http://localhost/refresh");
         when(properties.getKiro()).thenReturn(kiroProps);
+        when(properties.getAdmission()).thenReturn(new AppProperties.AdmissionProperties());
         when(tokenManager.currentToken()).thenReturn("token");
+        retryPolicy = new RetryPolicy(properties);
+        circuitBreaker = new KiroCircuitBreaker(properties, retryPolicy);
+        credentialPool = new CredentialPool(properties);
+        concurrencyLimit = new AdaptiveConcurrencyLimit(properties, retryPolicy);
+        endpointRouter = new KiroEndpointRouter(properties);
+        toolSpecificationCache = new ToolSpecificationCache(properties, mapper);
+        tokenCounter = new TokenCounter(toolSpecificationCache);
+        imagePreprocessor = new ImagePreprocessor(properties);
+        responseCache = new ResponseCache(properties);
+        promptCache = new PromptCache(properties, tokenCounter);
 
-        kiroService = new KiroService(properties, tokenManager, eventParser, bracketToolCallParser, toolCallDeduplicator, mcpToolIdentifier, WebClient.builder(), mapper);
+        kiroService = new KiroService(properties, tokenManager, eventParser, bracketToolCallParser, toolCallDeduplicator, mcpToolIdentifier, retryPolicy, circuitBreaker, credentialPool, concurrencyLimit, endpointRouter, tokenCounter, imagePreprocessor, responseCache, promptCache, toolSpecificationCache, WebClient.builder(), mapper);
     }
 
     @Test
@@ -90,16 +152,400 @@ class KiroServiceTest {
         assertThat(payload.path("conversationState").path("currentMessage").path("userInputMessage").path("stopSequences").get(0).asText()).isEqualTo("stop");
     }
 
+    @Test
+    void base64ImagesAreForwardedWithTheCurrentMessage() {
+        String png = "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==";
+        AnthropicMessage.ContentBlock inline = imageBlock("base64", "image/png", png);
+        AnthropicMessage.ContentBlock linked = imageBlock("url", "image/jpeg", "https://example.com/photo.jpg");
+        AnthropicMessage message = buildUserMessage("What is in these?");
+        message.setContent(List.of(message.getContent().get(0), inline, linked));
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(message));
+        request.setMaxTokens(32);
+
+        JsonNode userInput = invokeBuildPayload(request).path("conversationState").path("currentMessage").path("userInputMessage");
+        assertThat(userInput.path("images")).hasSize(1);
+        assertThat(userInput.path("images").get(0).path("format").asText()).isEqualTo("png");
+        assertThat(userInput.path("images").get(0).path("source").path("bytes").asText()).isEqualTo(png);
+        // Kiro cannot fetch URLs, so those stay a marker in the text
+        assertThat(userInput.path("content").asText()).contains("<image media=image/jpeg, type=url>").doesNotContain(png);
+    }
+
+    @Test
+    void requestBodyIsStreamedAsKiroPayload() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        AtomicReference<String> body = new AtomicReference<>();
+        KiroService capturingService = new KiroService(properties, tokenManager, new CodeWhispererEventParser(mapper),
+            new BracketToolCallParser(), new ToolCallDeduplicator(), mcpToolIdentifier, retryPolicy, circuitBreaker, credentialPool, concurrencyLimit, endpointRouter, tokenCounter, imagePreprocessor, responseCache, promptCache, toolSpecificationCache,
+            WebClient.builder().exchangeFunction(req -> {
+                MockClientHttpRequest wire = new MockClientHttpRequest(req.method(), req.url());
+                return req.body().insert(wire, EMPTY_CONTEXT)
+                    .then(wire.getBodyAsString())
+                    .doOnNext(json -> {
+                        body.set(json);
+                        assertThat(wire.getHeaders().getContentLength()).isEqualTo(json.getBytes(StandardCharsets.UTF_8).length);
+                    })
+                    .thenReturn(ClientResponse.create(HttpStatus.OK).body(Flux.just(eventFrame("{\"content\":\"ok\"}"))).build());
+            }),
+            mapper);
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("First \"quoted\""), buildAssistantMessage("Reply"), buildUserMessage("Second")));
+        request.setMaxTokens(64);
+        ToolDefinition tool = new ToolDefinition();
+        tool.setName("weather");
+        tool.setInputSchema(Map.of("type", "object"));
+        request.setTools(List.of(tool));
+
+        StepVerifier.create(capturingService.createCompletion(request)).expectNextCount(1).verifyComplete();
+
+        JsonNode payload = readTree(body.get());
+        assertThat(payload.path("profileArn").asText()).isEqualTo("test");
+        JsonNode state = payload.path("conversationState");
+        assertThat(state.path("currentMessage").path("userInputMessage").path("content").asText()).contains("Second");
+        assertThat(state.path("currentMessage").path("userInputMessage").path("userInputMessageContext")
+            .path("tools").get(0).path("toolSpecification").path("inputSchema").path("json").path("type").asText())
+            .isEqualTo("object");
+        assertThat(state.path("history")).hasSize(2);
+        assertThat(state.path("history").get(0).path("userInputMessage").path("content").asText()).contains("First \"quoted\"");
+        assertThat(state.path("history").get(1).path("assistantResponseMessage").path("content").asText()).isEqualTo("Reply");
+    }
+
+    @Test
+    void streamCompletionForwardsTextDeltasPerUpstreamFrame() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        Flux<DataBuffer> upstream = Flux.just(
+            eventFrame("{\"content\":\"Hello\"}"),
+            eventFrame("{\"content\":\" world\"}"));
+        KiroService streamingService = new KiroService(properties, tokenManager, new CodeWhispererEventParser(mapper),
+            new BracketToolCallParser(), new ToolCallDeduplicator(), mcpToolIdentifier, retryPolicy, circuitBreaker, credentialPool, concurrencyLimit, endpointRouter, tokenCounter, imagePreprocessor, responseCache, promptCache, toolSpecificationCache,
+            WebClient.builder().exchangeFunction(req -> Mono.just(ClientResponse.create(HttpStatus.OK).body(upstream).build())),
+            mapper);
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("Hi")));
+        request.setMaxTokens(256);
+
+        StepVerifier.create(streamingService.streamCompletion(request).map(this::asString))
+            .assertNext(event -> assertThat(event).startsWith("event: message_start"))
+            .assertNext(event -> assertThat(event).startsWith("event: content_block_start"))
+            .assertNext(event -> assertThat(event).contains("\"text\":\"Hello\""))
+            .assertNext(event -> assertThat(event).contains("\"text\":\" world\""))
+            .assertNext(event -> assertThat(event).startsWith("event: content_block_stop"))
+            .assertNext(event -> assertThat(event).contains("\"stop_reason\":\"end_turn\""))
+            .assertNext(event -> assertThat(event).startsWith("event: message_stop"))
+            .verifyComplete();
+    }
+
+    @Test
+    void streamCompletionForwardsToolInputFragmentsAsTheyArrive() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        Flux<DataBuffer> upstream = Flux.just(
+            eventFrame("{\"name\":\"write_file\",\"toolUseId\":\"tooluse_1\",\"input\":\"{\\\"path\\\":\"}"),
+            eventFrame("{\"name\":\"write_file\",\"toolUseId\":\"tooluse_1\",\"input\":\"\\\"a.txt\\\"}\"}"),
+            eventFrame("{\"name\":\"write_file\",\"toolUseId\":\"tooluse_1\",\"stop\":true}"));
+        KiroService streamingService = new KiroService(properties, tokenManager, new CodeWhispererEventParser(mapper),
+            new BracketToolCallParser(), new ToolCallDeduplicator(), mcpToolIdentifier, retryPolicy, circuitBreaker, credentialPool, concurrencyLimit, endpointRouter, tokenCounter, imagePreprocessor, responseCache, promptCache, toolSpecificationCache,
+            WebClient.builder().exchangeFunction(req -> Mono.just(ClientResponse.create(HttpStatus.OK).body(upstream).build())),
+            mapper);
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("Write a file")));
+        request.setMaxTokens(256);
+
+        StepVerifier.create(streamingService.streamCompletion(request).map(this::asString))
+            .assertNext(event -> assertThat(event).startsWith("event: message_start"))
+            .assertNext(event -> assertThat(event).contains("\"type\":\"tool_use\"").contains("\"id\":\"tooluse_1\""))
+            .assertNext(event -> assertThat(event).contains("\"partial_json\":\"{\\\"path\\\":\""))
+            .assertNext(event -> assertThat(event).contains("\"partial_json\":\"\\\"a.txt\\\"}\""))
+            .assertNext(event -> assertThat(event).startsWith("event: content_block_stop"))
+            .assertNext(event -> assertThat(event).contains("\"stop_reason\":\"tool_use\""))
+            .assertNext(event -> assertThat(event).startsWith("event: message_stop"))
+            .verifyComplete();
+    }
+
+    @Test
+    void deterministicStreamIsReplayedFromTheResponseCache() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        AtomicInteger calls = new AtomicInteger();
+        KiroService cachingService = serviceWithUpstream(() -> {
+            calls.incrementAndGet();
+            return Flux.just(eventFrame("{\"content\":\"Hello\"}"), eventFrame("{\"content\":\" world\"}"));
+        });
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("Hi")));
+        request.setMaxTokens(256);
+        request.setTemperature(0.0);
+
+        List<String> live = cachingService.streamCompletion(request).map(this::asString).collectList().block();
+
+        StepVerifier.create(cachingService.streamCompletion(request).map(this::asString))
+            .assertNext(event -> assertThat(event).startsWith("event: message_start").doesNotContain(messageId(live.get(0))))
+            .assertNext(event -> assertThat(event).startsWith("event: content_block_start"))
+            .assertNext(event -> assertThat(event).contains("\"text\":\"Hello world\""))
+            .assertNext(event -> assertThat(event).startsWith("event: content_block_stop"))
+            .assertNext(event -> assertThat(event).contains("\"stop_reason\":\"end_turn\""))
+            .assertNext(event -> assertThat(event).startsWith("event: message_stop"))
+            .verifyComplete();
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void sampledRequestsAreNotCached() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        AtomicInteger calls = new AtomicInteger();
+        KiroService cachingService = serviceWithUpstream(() -> {
+            calls.incrementAndGet();
+            return Flux.just(eventFrame("{\"content\":\"Hello\"}"));
+        });
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("Hi")));
+        request.setMaxTokens(256);
+
+        cachingService.createCompletion(request).block();
+        cachingService.createCompletion(request).block();
+
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void cachedPromptPrefixBuildsTheSamePayload() {
+        invokeBuildPayload(conversation(true));
+
+        ObjectNode cached = invokeBuildPayload(conversation(true));
+        ObjectNode rebuilt = invokeBuildPayload(conversation(false));
+
+        ((ObjectNode) cached.path("conversationState")).remove("conversationId");
+        ((ObjectNode) rebuilt.path("conversationState")).remove("conversationId");
+        assertThat(cached).isEqualTo(rebuilt);
+    }
+
+    @Test
+    void cachedPromptPrefixIsReportedInUsage() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        KiroService service = serviceWithUpstream(() -> Flux.just(eventFrame("{\"content\":\"Done\"}")));
+
+        AnthropicChatResponse.Usage first = service.createCompletion(conversation(true)).block().getUsage();
+        AnthropicChatResponse.Usage second = service.createCompletion(conversation(true)).block().getUsage();
+        AnthropicChatResponse.Usage uncached = service.createCompletion(conversation(false)).block().getUsage();
+
+        assertThat(first.getCacheCreationInputTokens()).isPositive();
+        assertThat(first.getCacheReadInputTokens()).isZero();
+        assertThat(second.getCacheReadInputTokens()).isEqualTo(first.getCacheCreationInputTokens());
+        assertThat(second.getCacheCreationInputTokens()).isZero();
+        assertThat(second.getInputTokens()).isEqualTo(first.getInputTokens()).isPositive();
+        assertThat(uncached.getCacheReadInputTokens()).isNull();
+        assertThat(uncached.getInputTokens()).isEqualTo(second.getInputTokens() + second.getCacheReadInputTokens());
+    }
+
+    @Test
+    void streamFailsWhenUpstreamGoesIdleBetweenFrames() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        properties.getKiro().setIdleTimeoutSeconds(5);
+        KiroService stallingService = serviceWithUpstream(() ->
+            Flux.concat(Flux.just(eventFrame("{\"content\":\"Hel\"}")), Flux.never()));
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("Hi")));
+        request.setMaxTokens(64);
+
+        StepVerifier.withVirtualTime(() -> stallingService.streamCompletion(request).map(this::asString))
+            .expectNextCount(3)
+            .thenAwait(Duration.ofSeconds(5))
+            .expectErrorSatisfies(error -> assertThat(error)
+                .isInstanceOf(UpstreamTimeoutException.class)
+                .extracting(e -> ((UpstreamTimeoutException) e).getPhase())
+                .isEqualTo(UpstreamTimeoutException.Phase.IDLE))
+            .verify();
+    }
+
+    @Test
+    void clientTimeoutShortensOverallDeadline() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        KiroService steadyService = serviceWithUpstream(() ->
+            Flux.interval(Duration.ofSeconds(1)).map(i -> eventFrame("{\"content\":\"tick\"}")));
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("Hi")));
+        request.setMaxTokens(64);
+        request.setClientTimeout(Duration.ofMillis(3500));
+
+        StepVerifier.withVirtualTime(() -> steadyService.createCompletion(request))
+            .thenAwait(Duration.ofSeconds(4))
+            .expectErrorSatisfies(error -> assertThat(error)
+                .isInstanceOf(UpstreamTimeoutException.class)
+                .extracting(e -> ((UpstreamTimeoutException) e).getPhase())
+                .isEqualTo(UpstreamTimeoutException.Phase.DEADLINE))
+            .verify();
+    }
+
+    @Test
+    void serviceUnavailableIsRetriedAfterBackoff() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        AtomicInteger calls = new AtomicInteger();
+        KiroService flakyService = serviceWithExchange(req -> calls.getAndIncrement() == 0
+            ? Mono.just(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).build())
+            : Mono.just(ClientResponse.create(HttpStatus.OK).body(Flux.just(eventFrame("{\"content\":\"Hi\"}"))).build()));
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("Hi")));
+        request.setMaxTokens(64);
+
+        StepVerifier.withVirtualTime(() -> flakyService.createCompletion(request))
+            .thenAwait(Duration.ofSeconds(1))
+            .assertNext(response -> assertThat(response.getContent().get(0).getText()).isEqualTo("Hi"))
+            .verifyComplete();
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void connectErrorsFailOverToAnotherEndpoint() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        properties.getKiro().setEndpoints(List.of("http://backup.local"));
+        endpointRouter = new KiroEndpointRouter(properties);
+        List<String> hosts = new ArrayList<>();
+        KiroService failoverService = serviceWithExchange(req -> {
+            hosts.add(req.url().getHost());
+            return "localhost".equals(req.url().getHost())
+                ? Mono.error(new WebClientRequestException(new ConnectException("refused"), req.method(), req.url(), req.headers()))
+                : Mono.just(ClientResponse.create(HttpStatus.OK).body(Flux.just(eventFrame("{\"content\":\"Hi\"}"))).build());
+        });
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("Hi")));
+        request.setMaxTokens(64);
+
+        StepVerifier.create(failoverService.createCompletion(request))
+            .assertNext(response -> assertThat(response.getContent().get(0).getText()).isEqualTo("Hi"))
+            .verifyComplete();
+        assertThat(hosts).containsExactly("localhost", "backup.local");
+        assertThat(retryPolicy.getRetriesGranted()).isZero();
+    }
+
+    @Test
+    void validationErrorsAreNotRetried() {
+        when(tokenManager.ensureToken(any(KiroCredential.class))).thenReturn("token");
+        AtomicInteger calls = new AtomicInteger();
+        KiroService rejectingService = serviceWithExchange(req -> {
+            calls.incrementAndGet();
+            return Mono.just(ClientResponse.create(HttpStatus.BAD_REQUEST).build());
+        });
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMessages(List.of(buildUserMessage("Hi")));
+        request.setMaxTokens(64);
+
+        StepVerifier.create(rejectingService.createCompletion(request))
+            .expectError(WebClientResponseException.BadRequest.class)
+            .verify();
+        assertThat(calls).hasValue(1);
+    }
+
+    private KiroService serviceWithExchange(ExchangeFunction exchange) {
+        return new KiroService(properties, tokenManager, new CodeWhispererEventParser(mapper),
+            new BracketToolCallParser(), new ToolCallDeduplicator(), mcpToolIdentifier, retryPolicy, circuitBreaker, credentialPool, concurrencyLimit, endpointRouter, tokenCounter, imagePreprocessor, responseCache, promptCache, toolSpecificationCache,
+            WebClient.builder().exchangeFunction(exchange), mapper);
+    }
+
+    private KiroService serviceWithUpstream(Supplier<Flux<DataBuffer>> upstream) {
+        return new KiroService(properties, tokenManager, new CodeWhispererEventParser(mapper),
+            new BracketToolCallParser(), new ToolCallDeduplicator(), mcpToolIdentifier, retryPolicy, circuitBreaker, credentialPool, concurrencyLimit, endpointRouter, tokenCounter, imagePreprocessor, responseCache, promptCache, toolSpecificationCache,
+            WebClient.builder().exchangeFunction(req -> Mono.just(ClientResponse.create(HttpStatus.OK).body(upstream.get()).build())),
+            mapper);
+    }
+
+    private String messageId(String messageStart) {
+        return readTree(messageStart.substring(messageStart.indexOf('{'))).path("message").path("id").asText();
+    }
+
+    private String asString(DataBuffer buffer) {
+        try {
+            return buffer.toString(StandardCharsets.UTF_8);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    private DataBuffer eventFrame(String json) {
+        byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+        int totalLength = 12 + payload.length + 4;
+        ByteBuffer frame = ByteBuffer.allocate(totalLength);
+        frame.putInt(totalLength).putInt(0).putInt(0).put(payload).putInt(0);
+        return DefaultDataBufferFactory.sharedInstance.wrap(frame.array());
+    }
+
     private ObjectNode invokeBuildPayload(AnthropicChatRequest request) {
         try {
-            var method = KiroService.class.getDeclaredMethod("buildKiroPayload", AnthropicChatRequest.class);
-            method.setAccessible(true);
-            return (ObjectNode) method.invoke(kiroService, request);
+            KiroPayload payload = kiroService.buildKiroPayload(request, kiroService.matchPromptCache(request));
+            return (ObjectNode) mapper.readTree(new KiroPayloadWriter(mapper).toJson(payload));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    private JsonNode readTree(String json) {
+        try {
+            return mapper.readTree(json);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private AnthropicMessage.ContentBlock imageBlock(String type, String mediaType, String data) {
+        AnthropicMessage.ImageSource source = new AnthropicMessage.ImageSource();
+        source.setType(type);
+        source.setMediaType(mediaType);
+        source.setData(data);
+        AnthropicMessage.ContentBlock block = new AnthropicMessage.ContentBlock();
+        block.setType("image");
+        block.setSource(source);
+        return block;
+    }
+
+    // A tool, a system prompt and a turn of history, marked as a cacheable prefix when asked
+    private AnthropicChatRequest conversation(boolean cacheControl) {
+        AnthropicMessage.ContentBlock system = new AnthropicMessage.ContentBlock();
+        system.setType("text");
+        system.setText("You are a careful assistant.");
+        AnthropicMessage answer = buildAssistantMessage("It says \"hello\".");
+        if (cacheControl) {
+            system.setCacheControl(Map.of("type", "ephemeral"));
+            answer.getContent().get(0).setCacheControl(Map.of("type", "ephemeral"));
+        }
+        ToolDefinition tool = new ToolDefinition();
+        tool.setName("read_file");
+        tool.setDescription("Read a file");
+        tool.setInputSchema(Map.of("type", "object", "properties", Map.of("path", Map.of("type", "string"))));
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setSystem(List.of(system));
+        request.setTools(List.of(tool));
+        request.setMessages(List.of(buildUserMessage("What is in a.txt?"), answer, buildUserMessage("Thanks")));
+        request.setMaxTokens(64);
+        return request;
+    }
+
+    private AnthropicMessage buildAssistantMessage(String text) {
+        AnthropicMessage message = buildUserMessage(text);
+        message.setRole("assistant");
+        return message;
+    }
+
     private AnthropicMessage buildUserMessage(String text) {
         AnthropicMessage message = new AnthropicMessage();
         message.setRole("user");
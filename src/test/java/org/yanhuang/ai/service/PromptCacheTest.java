@@ -0,0 +1,163 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.yanhuang.ai.config.AppProperties;
+import org.yanhuang.ai.model.AnthropicChatRequest;
+import org.yanhuang.ai.model.AnthropicMessage;
+import org.yanhuang.ai.model.ToolDefinition;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class PromptCacheTest {
+
+    private final AppProperties properties = new AppProperties();
+    private final AtomicLong now = new AtomicLong();
+    private final TokenCounter tokenCounter = new TokenCounter(new ToolSpecificationCache(properties, new ObjectMapper()));
+    private final PromptCache cache = new PromptCache(properties, tokenCounter, now::get);
+    private final CountingRenderer renderer = new CountingRenderer();
+
+    @Test
+    void requestsWithoutBreakpointsAreNotCached() {
+        assertThat(cache.match(request(false, "Hi", "Hello", "Bye"), renderer)).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void repeatedPrefixIsReadInsteadOfRendered() {
+        PromptCache.Match first = cache.match(request(true, "Hi", "Hello", "Bye"), renderer);
+        int rendered = renderer.messages.size();
+        PromptCache.Match second = cache.match(request(true, "Hi", "Hello", "Bye"), renderer);
+
+        assertThat(first.cacheReadInputTokens()).isZero();
+        assertThat(first.cacheCreationInputTokens()).isPositive();
+        assertThat(second.prefix()).isSameAs(first.prefix());
+        assertThat(second.cacheReadInputTokens()).isEqualTo(first.cacheCreationInputTokens());
+        assertThat(second.cacheCreationInputTokens()).isZero();
+        assertThat(renderer.messages).hasSize(rendered);
+        assertThat(second.prefix().messageContent(1).getValue()).isEqualTo("Hello");
+    }
+
+    @Test
+    void longerConversationExtendsTheCachedPrefix() {
+        cache.match(request(true, "Hi", "Hello", "Bye"), renderer);
+        renderer.messages.clear();
+
+        // The breakpoint moved on to the newest assistant turn; the old one is no longer marked
+        PromptCache.Match match = cache.match(request(true, "Hi", "Hello", "Bye", "Goodbye", "Wait"), renderer);
+
+        assertThat(match.cacheReadInputTokens()).isPositive();
+        assertThat(match.cacheCreationInputTokens()).isPositive();
+        assertThat(renderer.messages).containsExactly("Bye", "Goodbye");
+        assertThat(match.prefix().messageContent(3).getValue()).isEqualTo("Goodbye");
+        assertThat(match.prefix().messageContent(4)).isNull();
+    }
+
+    @Test
+    void changedPrefixIsNotRead() {
+        cache.match(request(true, "Hi", "Hello", "Bye"), renderer);
+        renderer.messages.clear();
+
+        PromptCache.Match match = cache.match(request(true, "Hey", "Hello", "Bye"), renderer);
+
+        // Only the tools and system prompt, before the change, are read
+        assertThat(match.cacheReadInputTokens()).isPositive();
+        assertThat(renderer.messages).containsExactly("Hey", "Hello");
+        assertThat(match.prefix().messageContent(0).getValue()).isEqualTo("Hey");
+    }
+
+    @Test
+    void breakpointInsideAMessageCoversOnlyTheMessagesBeforeIt() {
+        AnthropicChatRequest request = request(false, "Hi", "Hello", "Bye");
+        AnthropicMessage.ContentBlock more = text("More");
+        request.getMessages().get(1).getContent().get(0).setCacheControl(Map.of("type", "ephemeral"));
+        request.getMessages().get(1).setContent(List.of(request.getMessages().get(1).getContent().get(0), more));
+
+        PromptCache.Match match = cache.match(request, renderer);
+
+        assertThat(match.prefix().messageContent(0)).isNotNull();
+        assertThat(match.prefix().messageContent(1)).isNull();
+    }
+
+    @Test
+    void entriesExpireOnceUnusedForTheTtl() {
+        cache.match(request(true, "Hi", "Hello", "Bye"), renderer);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(299));
+        // Reading renews the lifetime
+        assertThat(cache.match(request(true, "Hi", "Hello", "Bye"), renderer).cacheCreationInputTokens()).isZero();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(299));
+        assertThat(cache.match(request(true, "Hi", "Hello", "Bye"), renderer).cacheCreationInputTokens()).isZero();
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(300));
+
+        assertThat(cache.match(request(true, "Hi", "Hello", "Bye"), renderer).cacheReadInputTokens()).isZero();
+    }
+
+    @Test
+    void disabledCacheMatchesNothing() {
+        properties.getKiro().getPromptCache().setEnabled(false);
+        PromptCache disabled = new PromptCache(properties, tokenCounter, now::get);
+
+        assertThat(disabled.match(request(true, "Hi", "Hello", "Bye"), renderer)).isNull();
+    }
+
+    /**
+     * A conversation with a tool and a system prompt; when marked, the system prompt and the
+     * second to last message are breakpoints
+     */
+    private static AnthropicChatRequest request(boolean marked, String... turns) {
+        AnthropicMessage.ContentBlock system = text("Be brief.");
+        List<AnthropicMessage> messages = new ArrayList<>();
+        for (int i = 0; i < turns.length; i++) {
+            AnthropicMessage message = new AnthropicMessage();
+            message.setRole(i % 2 == 0 ? "user" : "assistant");
+            message.setContent(List.of(text(turns[i])));
+            messages.add(message);
+        }
+        if (marked) {
+            system.setCacheControl(Map.of("type", "ephemeral"));
+            messages.get(turns.length - 2).getContent().get(0).setCacheControl(Map.of("type", "ephemeral"));
+        }
+        ToolDefinition tool = new ToolDefinition();
+        tool.setName("read_file");
+        tool.setInputSchema(Map.of("type", "object"));
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setSystem(List.of(system));
+        request.setTools(List.of(tool));
+        request.setMessages(messages);
+        return request;
+    }
+
+    private static AnthropicMessage.ContentBlock text(String text) {
+        AnthropicMessage.ContentBlock block = new AnthropicMessage.ContentBlock();
+        block.setType("text");
+        block.setText(text);
+        return block;
+    }
+
+    private static class CountingRenderer implements PromptCache.Renderer {
+
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        public String systemSegment(AnthropicMessage.ContentBlock block) {
+            return block.getText();
+        }
+
+        @Override
+        public String messageContent(AnthropicMessage message) {
+            String content = message.getContent().get(0).getText();
+            messages.add(content);
+            return content;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.yanhuang.ai.config.AppProperties;
+import org.yanhuang.ai.model.AnthropicChatRequest;
+import org.yanhuang.ai.model.AnthropicChatResponse;
+import org.yanhuang.ai.model.AnthropicMessage;
+import org.yanhuang.ai.model.ToolDefinition;
+
+class ResponseCacheTest {
+
+    private final AppProperties properties = new AppProperties();
+    private final AtomicLong now = new AtomicLong();
+    private final ResponseCache cache = new ResponseCache(properties, now::get);
+
+    @Test
+    void onlyDeterministicOrOptedInRequestsHaveAKey() {
+        AnthropicChatRequest sampled = request("Hi", null);
+        AnthropicChatRequest greedy = request("Hi", 0.0);
+        AnthropicChatRequest optedIn = request("Hi", 0.7);
+        optedIn.setCacheResponse(true);
+        AnthropicChatRequest optedOut = request("Hi", 0.0);
+        optedOut.setCacheResponse(false);
+
+        assertThat(cache.key(sampled)).isNull();
+        assertThat(cache.key(greedy)).hasSize(64);
+        assertThat(cache.key(optedIn)).isNotNull();
+        assertThat(cache.key(optedOut)).isNull();
+    }
+
+    @Test
+    void keyIgnoresMemberOrderAndStreaming() {
+        AnthropicChatRequest first = request("Hi", 0.0);
+        first.setTools(List.of(tool("path", "mode")));
+        AnthropicChatRequest second = request("Hi", 0.0);
+        second.setTools(List.of(tool("mode", "path")));
+        second.setStream(true);
+
+        assertThat(cache.key(first)).isEqualTo(cache.key(second));
+        assertThat(cache.key(first)).isNotEqualTo(cache.key(request("Hello", 0.0)));
+    }
+
+    @Test
+    void hitsAreCopiesUnderANewId() {
+        AnthropicChatResponse response = response("Hello", "msg_original");
+        cache.put("key", response);
+
+        AnthropicChatResponse first = cache.get("key");
+        AnthropicChatResponse second = cache.get("key");
+
+        assertThat(first.getContent().get(0).getText()).isEqualTo("Hello");
+        assertThat(first.getId()).isNotEqualTo("msg_original").isNotEqualTo(second.getId());
+        assertThat(cache.get("other")).isNull();
+    }
+
+    @Test
+    void entriesExpireAfterTheTtl() {
+        cache.put("key", response("Hello", "msg_1"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(299));
+        assertThat(cache.get("key")).isNotNull();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+        assertThat(cache.get("key")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvictedOverTheSizeBudget() {
+        properties.getKiro().getResponseCache().setMaxSizeMegabytes(1);
+        ResponseCache small = new ResponseCache(properties, now::get);
+        String text = "x".repeat(400 * 1024);
+
+        small.put("a", response(text, "msg_a"));
+        small.put("b", response(text, "msg_b"));
+        small.get("a");
+        small.put("c", response(text, "msg_c"));
+
+        assertThat(small.get("a")).isNotNull();
+        assertThat(small.get("b")).isNull();
+        assertThat(small.get("c")).isNotNull();
+    }
+
+    private static AnthropicChatRequest request(String text, Double temperature) {
+        AnthropicMessage.ContentBlock block = new AnthropicMessage.ContentBlock();
+        block.setType("text");
+        block.setText(text);
+        AnthropicMessage message = new AnthropicMessage();
+        message.setRole("user");
+        message.setContent(List.of(block));
+
+        AnthropicChatRequest request = new AnthropicChatRequest();
+        request.setModel("claude-sonnet-4-5-20250929");
+        request.setMaxTokens(256);
+        request.setMessages(List.of(message));
+        request.setTemperature(temperature);
+        return request;
+    }
+
+    private static ToolDefinition tool(String... properties) {
+        Map<String, Object> schemaProperties = new LinkedHashMap<>();
+        for (String property : properties) {
+            schemaProperties.put(property, Map.of("type", "string"));
+        }
+        ToolDefinition tool = new ToolDefinition();
+        tool.setName("write_file");
+        tool.setInputSchema(Map.of("type", "object", "properties", schemaProperties));
+        return tool;
+    }
+
+    private static AnthropicChatResponse response(String text, String id) {
+        AnthropicMessage.ContentBlock block = new AnthropicMessage.ContentBlock();
+        block.setType("text");
+        block.setText(text);
+        AnthropicChatResponse response = new AnthropicChatResponse();
+        response.setId(id);
+        response.setType("message");
+        response.setModel("claude-sonnet-4-5-20250929");
+        response.setContent(List.of(block));
+        response.setStopReason("end_turn");
+        return response;
+    }
+}
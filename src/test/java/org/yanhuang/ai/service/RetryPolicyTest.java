@@ -0,0 +1,75 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import org.yanhuang.ai.config.AppProperties;
+
+class RetryPolicyTest {
+
+    private final AppProperties properties = new AppProperties();
+
+    @Test
+    void classifiesErrorsByCause() {
+        RetryPolicy policy = new RetryPolicy(properties);
+
+        assertThat(policy.classify(status(HttpStatus.FORBIDDEN))).isEqualTo(RetryPolicy.Decision.REFRESH_AND_RETRY);
+        assertThat(policy.classify(status(HttpStatus.TOO_MANY_REQUESTS))).isEqualTo(RetryPolicy.Decision.BACKOFF_RETRY);
+        assertThat(policy.classify(status(HttpStatus.BAD_GATEWAY))).isEqualTo(RetryPolicy.Decision.BACKOFF_RETRY);
+        assertThat(policy.classify(status(HttpStatus.BAD_REQUEST))).isEqualTo(RetryPolicy.Decision.NO_RETRY);
+        assertThat(policy.classify(new UpstreamTimeoutException(UpstreamTimeoutException.Phase.FIRST_BYTE, Duration.ofSeconds(1))))
+            .isEqualTo(RetryPolicy.Decision.BACKOFF_RETRY);
+        assertThat(policy.classify(new UpstreamTimeoutException(UpstreamTimeoutException.Phase.IDLE, Duration.ofSeconds(1))))
+            .isEqualTo(RetryPolicy.Decision.NO_RETRY);
+        assertThat(policy.classify(new IllegalStateException("bug"))).isEqualTo(RetryPolicy.Decision.NO_RETRY);
+    }
+
+    @Test
+    void budgetLimitsRetriesToAFractionOfRequests() {
+        properties.getKiro().getRetry().setBudgetCapacity(2);
+        properties.getKiro().getRetry().setBudgetRatio(0.1);
+        RetryPolicy policy = new RetryPolicy(properties);
+
+        assertThat(policy.tryAcquireRetry()).isTrue();
+        assertThat(policy.tryAcquireRetry()).isTrue();
+        assertThat(policy.tryAcquireRetry()).isFalse();
+
+        for (int i = 0; i < 9; i++) {
+            policy.recordRequest();
+        }
+        assertThat(policy.tryAcquireRetry()).isFalse();
+        policy.recordRequest();
+        assertThat(policy.tryAcquireRetry()).isTrue();
+        assertThat(policy.getRetriesGranted()).isEqualTo(3);
+        assertThat(policy.getRetriesDenied()).isEqualTo(2);
+    }
+
+    @Test
+    void backoffGrowsWithJitterAndHonorsRetryAfter() {
+        properties.getKiro().getRetry().setInitialBackoffMillis(100);
+        properties.getKiro().getRetry().setMaxBackoffMillis(1000);
+        RetryPolicy policy = new RetryPolicy(properties);
+
+        assertThat(policy.backoff(0, status(HttpStatus.BAD_GATEWAY)).toMillis()).isBetween(50L, 100L);
+        assertThat(policy.backoff(2, status(HttpStatus.BAD_GATEWAY)).toMillis()).isBetween(200L, 400L);
+        assertThat(policy.backoff(10, status(HttpStatus.BAD_GATEWAY)).toMillis()).isBetween(500L, 1000L);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", "30");
+        WebClientResponseException throttled = WebClientResponseException.create(
+            429, "Too Many Requests", headers, new byte[0], StandardCharsets.UTF_8);
+        assertThat(policy.backoff(0, throttled)).isEqualTo(Duration.ofMillis(1000));
+    }
+
+    private static WebClientResponseException status(HttpStatus status) {
+        return WebClientResponseException.create(status.value(), status.getReasonPhrase(),
+            HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,69 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.yanhuang.ai.model.AnthropicChatResponse;
+
+class SseEventWriterTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final SseEventWriter writer = new SseEventWriter(mapper.getFactory(), DefaultDataBufferFactory.sharedInstance);
+
+    @Test
+    void writesEachEventIntoItsOwnBuffer() throws Exception {
+        String first = asString(writer.textDelta(0, "Hello"));
+        String second = asString(writer.contentBlockStop(0));
+
+        assertThat(first).isEqualTo("event: content_block_delta\n"
+            + "data: {\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\",\"text\":\"Hello\"}}\n\n");
+        assertThat(second).isEqualTo("event: content_block_stop\n"
+            + "data: {\"type\":\"content_block_stop\",\"index\":0}\n\n");
+    }
+
+    @Test
+    void escapesPartialJsonAndNonAsciiText() throws Exception {
+        JsonNode toolDelta = data(writer.inputJsonDelta(1, "{\"path\":\"a\\b\""));
+        JsonNode textDelta = data(writer.textDelta(0, "你好\n"));
+
+        assertThat(toolDelta.path("delta").path("partial_json").asText()).isEqualTo("{\"path\":\"a\\b\"");
+        assertThat(textDelta.path("delta").path("text").asText()).isEqualTo("你好\n");
+    }
+
+    @Test
+    void writesNullStopSequenceAndUsage() throws Exception {
+        AnthropicChatResponse.Usage usage = new AnthropicChatResponse.Usage();
+        usage.setInputTokens(12);
+        usage.setOutputTokens(3);
+
+        JsonNode event = data(writer.messageDelta("end_turn", null, usage));
+
+        assertThat(event.path("delta").path("stop_reason").asText()).isEqualTo("end_turn");
+        assertThat(event.path("delta").path("stop_sequence").isNull()).isTrue();
+        assertThat(event.path("usage").path("input_tokens").asInt()).isEqualTo(12);
+        assertThat(event.path("usage").path("output_tokens").asInt()).isEqualTo(3);
+    }
+
+    @Test
+    void doneMarkerTerminatesStream() {
+        assertThat(asString(SseEventWriter.done())).isEqualTo("data: [DONE]\n");
+    }
+
+    private JsonNode data(DataBuffer buffer) throws Exception {
+        String event = asString(buffer);
+        int start = event.indexOf("data: ") + "data: ".length();
+        return mapper.readTree(event.substring(start, event.length() - 2));
+    }
+
+    private String asString(DataBuffer buffer) {
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+}
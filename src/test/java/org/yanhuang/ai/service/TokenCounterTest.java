@@ -1,16 +1,24 @@
 package org.yanhuang.ai.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.yanhuang.ai.config.AppProperties;
 import org.yanhuang.ai.model.AnthropicChatRequest;
 import org.yanhuang.ai.model.AnthropicMessage;
 import org.yanhuang.ai.model.ToolDefinition;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import reactor.core.publisher.Flux;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class TokenCounterTest {
@@ -19,7 +27,7 @@ class TokenCounterTest {
 
     @BeforeEach
     void setUp() {
-        tokenCounter = new TokenCounter();
+        tokenCounter = new TokenCounter(new ToolSpecificationCache(new AppProperties(), new ObjectMapper()));
     }
 
     @Test
@@ -185,6 +193,47 @@ class TokenCounterTest {
         assertEquals(100, estimatedTokens, "Empty request should only count max_tokens");
     }
 
+    @Test
+    void testImagesArePricedByDimensions() throws Exception {
+        // 200 x 200 pixels / 750 per token
+        assertEquals(54, tokenCounter.countImageTokens(ImageProbeTest.encode("png", 200, 200)));
+        // Large screenshots are scaled down first, which caps their cost
+        assertEquals(1600, tokenCounter.countImageTokens(ImageProbeTest.encode("png", 3840, 2160)));
+        assertEquals(1600, tokenCounter.countImageTokens("https://example.com/screenshot.png"));
+        assertEquals(0, tokenCounter.countImageTokens(null));
+    }
+
+    @Test
+    void testStreamedBodyMatchesBoundRequest() throws Exception {
+        String json = """
+            {"model":"claude-3-5-sonnet-20241022","max_tokens":100,
+             "system":[{"type":"text","text":"You are a helpful assistant."}],
+             "messages":[
+               {"role":"user","content":"What's the weather in 東京?"},
+               {"role":"assistant","content":[{"type":"tool_use","id":"toolu_1","name":"get_weather",
+                 "input":{"location":"Tokyo","days":3,"units":["celsius",null]}}]},
+               {"role":"user","content":[{"type":"tool_result","tool_use_id":"toolu_1",
+                 "content":[{"type":"text","text":"Sunny, 18°C"}]},
+                 {"type":"image","source":{"type":"base64","media_type":"image/png","data":"iVBORw0KGgoAAAANSUhEUg=="}}]}],
+             "tools":[{"name":"get_weather","description":"Get current weather",
+               "input_schema":{"type":"object","properties":{"location":{"type":"string"}},"required":["location"]}}]}
+            """;
+        int bound = tokenCounter.countInputTokens(new ObjectMapper().readValue(json, AnthropicChatRequest.class));
+
+        // Chunk boundaries fall inside names, strings and multi-byte characters
+        for (int chunkSize : new int[] {1, 7, 4096}) {
+            assertEquals(bound, tokenCounter.countInputTokens(chunks(json, chunkSize)).block());
+        }
+    }
+
+    @Test
+    void testStreamedBodyMustBeAJsonObject() {
+        assertEquals(0, tokenCounter.countInputTokens(Flux.empty()).block());
+        assertThrows(IllegalArgumentException.class, () -> tokenCounter.countInputTokens(chunks("[1, 2]", 4)).block());
+        assertThrows(IllegalArgumentException.class,
+            () -> tokenCounter.countInputTokens(chunks("{\"messages\": [", 4)).block());
+    }
+
     // Helper methods
 
     private AnthropicChatRequest createSimpleRequest(String message) {
@@ -215,4 +264,14 @@ class TokenCounterTest {
         block.setText(text);
         return block;
     }
+
+    private Flux<DataBuffer> chunks(String json, int chunkSize) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int start = 0; start < bytes.length; start += chunkSize) {
+            buffers.add(DefaultDataBufferFactory.sharedInstance.wrap(
+                Arrays.copyOfRange(bytes, start, Math.min(bytes.length, start + chunkSize))));
+        }
+        return Flux.fromIterable(buffers);
+    }
 }
@@ -0,0 +1,79 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import org.yanhuang.ai.config.AppProperties;
+
+class TokenFileWatcherTest {
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private TokenManager tokenManager;
+    private TokenFileWatcher watcher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = dir.resolve("kiro-auth-token.json");
+        Files.writeString(file, tokenCache("first", "2030-01-01T00:00:00Z"));
+        AppProperties properties = new AppProperties();
+        properties.getKiro().setAccessTokenFile(file.toString());
+        properties.getKiro().setRefreshUrl("http://localhost/refresh");
+        Method load = AppProperties.class.getDeclaredMethod("loadTokensFromFile");
+        load.setAccessible(true);
+        load.invoke(properties);
+
+        tokenManager = new TokenManager(properties, WebClient.builder());
+        watcher = new TokenFileWatcher(properties, tokenManager, new CredentialPool(properties));
+        watcher.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        watcher.stop();
+    }
+
+    @Test
+    void rewrittenTokenFileIsSwappedIn() throws Exception {
+        Files.writeString(file, tokenCache("second", "2030-01-01T01:00:00Z"));
+
+        watcher.reload(Set.of(file));
+
+        assertThat(tokenManager.ensureToken()).isEqualTo("second");
+        assertThat(tokenManager.getExpiresAt()).isEqualTo(Instant.parse("2030-01-01T01:00:00Z"));
+    }
+
+    @Test
+    void truncatedWriteIsSkipped() throws Exception {
+        Files.writeString(file, "{\"accessToken\":\"ab");
+
+        watcher.reload(Set.of(file));
+
+        assertThat(tokenManager.ensureToken()).isEqualTo("first");
+        assertThat(tokenManager.getExpiresAt()).isEqualTo(Instant.parse("2030-01-01T00:00:00Z"));
+
+        // The write completes
+        Files.writeString(file, tokenCache("second", "2030-01-01T01:00:00Z"));
+        watcher.reload(Set.of(file));
+
+        assertThat(tokenManager.ensureToken()).isEqualTo("second");
+    }
+
+    private static String tokenCache(String accessToken, String expiresAt) {
+        return "{\"accessToken\":\"" + accessToken + "\",\"refreshToken\":\"refresh-" + accessToken
+            + "\",\"expiresAt\":\"" + expiresAt + "\"}";
+    }
+}
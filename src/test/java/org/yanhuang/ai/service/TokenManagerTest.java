@@ -0,0 +1,121 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import org.yanhuang.ai.config.AppProperties;
+
+class TokenManagerTest {
+
+    private final AppProperties properties = new AppProperties();
+    private final AtomicInteger refreshCalls = new AtomicInteger();
+    private final Sinks.One<String> refreshBody = Sinks.one();
+
+    @BeforeEach
+    void setUp() {
+        properties.getKiro().setAccessToken("old-token");
+        properties.getKiro().setRefreshToken("refresh-token");
+        properties.getKiro().setRefreshUrl("http://localhost/refresh");
+        properties.getKiro().setMinRefreshIntervalSeconds(0);
+    }
+
+    @Test
+    void concurrentRefreshesShareOneUpstreamCall() {
+        TokenManager tokenManager = new TokenManager(properties, refreshEndpoint());
+
+        List<Mono<String>> callers = List.of(tokenManager.refreshIfNeeded(),
+            tokenManager.refreshIfNeeded(), tokenManager.refreshIfNeeded());
+        Flux<String> results = Flux.merge(callers).cache();
+        results.subscribe();
+
+        refreshBody.tryEmitValue("{\"accessToken\":\"new-token\",\"expiresIn\":3600}");
+
+        assertThat(results.collectList().block(Duration.ofSeconds(5)))
+            .containsExactly("new-token", "new-token", "new-token");
+        assertThat(refreshCalls).hasValue(1);
+        assertThat(tokenManager.currentToken()).isEqualTo("new-token");
+    }
+
+    @Test
+    void tracksExpiryAndRotatedRefreshToken() {
+        TokenManager tokenManager = new TokenManager(properties, refreshEndpoint());
+        refreshBody.tryEmitValue("{\"accessToken\":\"new-token\",\"refreshToken\":\"rotated\",\"expiresIn\":3600}");
+
+        Instant before = Instant.now();
+        assertThat(tokenManager.refreshIfNeeded().block(Duration.ofSeconds(5))).isEqualTo("new-token");
+
+        assertThat(tokenManager.getExpiresAt()).isBetween(before.plusSeconds(3600), Instant.now().plusSeconds(3600));
+        assertThat(properties.getKiro().getRefreshToken()).isEqualTo("rotated");
+    }
+
+    @Test
+    void failedRefreshKeepsCurrentTokenAndAllowsNextAttempt() {
+        AtomicInteger calls = new AtomicInteger();
+        WebClient.Builder failing = WebClient.builder().exchangeFunction(request -> {
+            calls.incrementAndGet();
+            return Mono.just(ClientResponse.create(HttpStatus.INTERNAL_SERVER_ERROR).build());
+        });
+        TokenManager tokenManager = new TokenManager(properties, failing);
+
+        assertThat(tokenManager.refreshIfNeeded().block(Duration.ofSeconds(5))).isEqualTo("old-token");
+        assertThat(tokenManager.refreshIfNeeded().block(Duration.ofSeconds(5))).isEqualTo("old-token");
+        assertThat(calls).hasValue(2);
+        assertThat(tokenManager.getExpiresAt()).isNull();
+    }
+
+    @Test
+    void reloadedTokensReplaceCurrentOnesUnlessOlder() {
+        TokenManager tokenManager = new TokenManager(properties, refreshEndpoint());
+        KiroCredential primary = new CredentialPool(properties).primary();
+        Instant expiry = Instant.parse("2030-01-01T01:00:00Z");
+
+        assertThat(tokenManager.reloadTokens(primary,
+            new AppProperties.KiroProperties.TokenPair("disk-token", "disk-refresh", expiry))).isTrue();
+        assertThat(tokenManager.ensureToken()).isEqualTo("disk-token");
+        assertThat(tokenManager.getExpiresAt()).isEqualTo(expiry);
+        assertThat(properties.getKiro().getRefreshToken()).isEqualTo("disk-refresh");
+
+        assertThat(tokenManager.reloadTokens(primary, new AppProperties.KiroProperties.TokenPair(
+            "stale-token", "stale-refresh", expiry.minusSeconds(3600)))).isFalse();
+        assertThat(tokenManager.ensureToken()).isEqualTo("disk-token");
+    }
+
+    @Test
+    void reloadedTokenWithUnknownExpiryDoesNotReplaceOneWithKnownExpiry() {
+        TokenManager tokenManager = new TokenManager(properties, refreshEndpoint());
+        KiroCredential primary = new CredentialPool(properties).primary();
+        Instant expiry = Instant.parse("2030-01-01T01:00:00Z");
+        tokenManager.reloadTokens(primary, new AppProperties.KiroProperties.TokenPair("disk-token", null, expiry));
+
+        assertThat(tokenManager.reloadTokens(primary,
+            new AppProperties.KiroProperties.TokenPair("plain-token", null, null))).isFalse();
+        assertThat(tokenManager.ensureToken()).isEqualTo("disk-token");
+        assertThat(tokenManager.getExpiresAt()).isEqualTo(expiry);
+    }
+
+    private WebClient.Builder refreshEndpoint() {
+        return WebClient.builder().exchangeFunction(request -> {
+            refreshCalls.incrementAndGet();
+            return refreshBody.asMono().map(body -> ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(body)
+                .build());
+        });
+    }
+}
@@ -0,0 +1,62 @@
+package org.yanhuang.ai.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Mono;
+
+import org.yanhuang.ai.config.AppProperties;
+
+class TokenRefreshSchedulerTest {
+
+    private final AppProperties properties = new AppProperties();
+    private final TokenManager tokenManager = mock(TokenManager.class);
+    private CredentialPool credentialPool;
+    private KiroCredential primary;
+    private TokenRefreshScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        properties.getKiro().setTokenRefreshAheadSeconds(3600);
+        credentialPool = new CredentialPool(properties);
+        primary = credentialPool.primary();
+        scheduler = new TokenRefreshScheduler(tokenManager, credentialPool, properties);
+        when(tokenManager.refreshIfNeeded(any(KiroCredential.class))).thenReturn(Mono.just("new-token"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.stop();
+    }
+
+    @Test
+    void refreshesTokenDueForRefresh() {
+        when(tokenManager.getExpiresAt(primary)).thenReturn(Instant.now().plusSeconds(60));
+
+        scheduler.onApplicationReady();
+
+        verify(tokenManager, timeout(2000)).refreshIfNeeded(primary);
+    }
+
+    @Test
+    void timerOfReplacedTokenIsRearmedInsteadOfRefreshing() {
+        // Due when the timer is armed, replaced by a later one before it fires
+        when(tokenManager.getExpiresAt(primary))
+            .thenReturn(Instant.now().plusSeconds(60), Instant.now().plusSeconds(7200));
+
+        scheduler.onApplicationReady();
+
+        verify(tokenManager, after(500).never()).refreshIfNeeded(primary);
+    }
+}
@@ -0,0 +1,111 @@
+package org.yanhuang.ai.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.yanhuang.ai.config.AppProperties;
+import org.yanhuang.ai.model.ToolDefinition;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class ToolSpecificationCacheTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AppProperties properties = new AppProperties();
+    private final ToolSpecificationCache cache = new ToolSpecificationCache(properties, mapper);
+    private final TokenCounter tokenCounter = new TokenCounter(cache);
+
+    @Test
+    void toolsAreSerializedAndCountedOnce() throws Exception {
+        ToolDefinition tool = tool("read_file", "path", "offset");
+
+        ToolSpecificationCache.Tools tools = cache.resolve(List.of(tool), tokenCounter);
+
+        JsonNode specification = mapper.readTree(tools.specifications().get(0).getValue());
+        assertThat(specification.path("toolSpecification").path("name").asText()).isEqualTo("read_file");
+        assertThat(specification.path("toolSpecification").path("inputSchema").path("json").path("properties").has("offset")).isTrue();
+        assertThat(tools.tokens()).isEqualTo(tokenCounter.countToolDefinitionTokens(tool));
+    }
+
+    @Test
+    void repeatedToolsAreSerializedOnce() {
+        ToolSpecificationCache.Tools first = cache.resolve(List.of(tool("read_file", "path"), tool("write_file", "path")), tokenCounter);
+        // Equal definitions, as a new request brings them
+        ToolSpecificationCache.Tools second = cache.resolve(List.of(tool("read_file", "path"), tool("write_file", "path")), tokenCounter);
+
+        assertThat(second.specifications().get(0)).isSameAs(first.specifications().get(0));
+        assertThat(second.specifications().get(1)).isSameAs(first.specifications().get(1));
+        assertThat(second.tokens()).isEqualTo(first.tokens());
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void toolsAreSharedAcrossListsWhateverTheirMemberOrder() {
+        ToolSpecificationCache.Tools first = cache.resolve(List.of(tool("read_file", "path", "offset"), tool("write_file", "path")), tokenCounter);
+        ToolSpecificationCache.Tools second = cache.resolve(List.of(tool("read_file", "offset", "path"), tool("grep", "pattern")), tokenCounter);
+
+        assertThat(second.specifications().get(0)).isSameAs(first.specifications().get(0));
+        assertThat(cache.size()).isEqualTo(3);
+    }
+
+    @Test
+    void changedToolIsSerializedAgain() {
+        ToolSpecificationCache.Tools before = cache.resolve(List.of(tool("read_file", "path")), tokenCounter);
+
+        // The same tool with a new description, as a later request brings it
+        ToolDefinition changed = tool("read_file", "path");
+        changed.setDescription("Read a file from disk");
+        ToolSpecificationCache.Tools after = cache.resolve(List.of(changed), tokenCounter);
+
+        assertThat(after.specifications().get(0).getValue()).contains("Read a file from disk");
+        assertThat(after.tokens()).isGreaterThan(before.tokens());
+    }
+
+    @Test
+    void leastRecentlyUsedToolsAreEvictedOverTheSizeBudget() {
+        properties.getKiro().getToolCache().setMaxSizeMegabytes(1);
+        ToolSpecificationCache small = new ToolSpecificationCache(properties, mapper);
+        // Each about 400K characters, so only two fit in 1 MB
+        ToolDefinition first = tool("first", "path");
+        first.setDescription("a".repeat(400_000));
+        ToolDefinition second = tool("second", "path");
+        second.setDescription("b".repeat(400_000));
+        ToolDefinition third = tool("third", "path");
+        third.setDescription("c".repeat(400_000));
+
+        SerializedString cached = small.resolve(List.of(first), tokenCounter).specifications().get(0);
+        small.resolve(List.of(second), tokenCounter);
+        small.resolve(List.of(third), tokenCounter);
+
+        assertThat(small.size()).isEqualTo(2);
+        assertThat(small.resolve(List.of(first), tokenCounter).specifications().get(0)).isNotSameAs(cached);
+    }
+
+    @Test
+    void disabledCacheKeepsNothing() {
+        properties.getKiro().getToolCache().setEnabled(false);
+        ToolSpecificationCache disabled = new ToolSpecificationCache(properties, mapper);
+
+        ToolSpecificationCache.Tools tools = disabled.resolve(List.of(tool("read_file", "path")), tokenCounter);
+
+        assertThat(tools.specifications()).hasSize(1);
+        assertThat(disabled.size()).isZero();
+    }
+
+    private static ToolDefinition tool(String name, String... properties) {
+        Map<String, Object> schemaProperties = new LinkedHashMap<>();
+        for (String property : properties) {
+            schemaProperties.put(property, Map.of("type", "string"));
+        }
+        ToolDefinition tool = new ToolDefinition();
+        tool.setName(name);
+        tool.setInputSchema(Map.of("type", "object", "properties", schemaProperties));
+        return tool;
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
@@ -18,10 +19,16 @@ import org.yanhuang.ai.controller.AnthropicController;
 import org.yanhuang.ai.model.AnthropicChatRequest;
 import org.yanhuang.ai.model.AnthropicChatResponse;
 import org.yanhuang.ai.model.AnthropicMessage;
+import org.yanhuang.ai.service.AdaptiveConcurrencyLimit;
+import org.yanhuang.ai.service.AdmissionLimiter;
 import org.yanhuang.ai.service.KiroService;
+import org.yanhuang.ai.service.RetryPolicy;
 import org.yanhuang.ai.TestDataFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.ResponseEntity;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -40,6 +47,12 @@ class AnthropicControllerTest {
     @Mock
     private KiroService kiroService;
 
+    private final AppProperties admissionProperties = new AppProperties();
+
+    @Spy
+    private AdmissionLimiter admissionLimiter = new AdmissionLimiter(admissionProperties,
+        new AdaptiveConcurrencyLimit(admissionProperties, new RetryPolicy(admissionProperties)));
+
     @InjectMocks
     private AnthropicController controller;
 
@@ -61,7 +74,7 @@ class AnthropicControllerTest {
                 .thenReturn(Mono.just(mockResponse));
 
         // When & Then
-        Object result = controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+        Object result = controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
 
         assertTrue(result instanceof Mono, "Result should be Mono<AnthropicChatResponse>");
         @SuppressWarnings("unchecked")
@@ -79,19 +92,19 @@ class AnthropicControllerTest {
     void shouldHandleValidStreamingRequest() {
         // Given
         AnthropicChatRequest request = TestDataFactory.createStreamRequest();
-        Flux<String> mockStream = Flux.just(
-                "event: message_start\ndata: {\"type\":\"message_start\",\"message\":{\"id\":\"msg_123\",\"role\":\"assistant\"}}\n\n",
-                "event: content_block_delta\ndata: {\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\",\"text\":\"Hello\"}}\n\n",
-                "event: message_stop\ndata: {\"type\":\"message_stop\"}\n\n"
+        Flux<DataBuffer> mockStream = Flux.just(
+                sse("event: message_start\ndata: {\"type\":\"message_start\",\"message\":{\"id\":\"msg_123\",\"role\":\"assistant\"}}\n\n"),
+                sse("event: content_block_delta\ndata: {\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\",\"text\":\"Hello\"}}\n\n"),
+                sse("event: message_stop\ndata: {\"type\":\"message_stop\"}\n\n")
         );
 
         when(kiroService.streamCompletion(any(AnthropicChatRequest.class)))
                 .thenReturn(mockStream);
 
         // When & Then
-        ResponseEntity<Flux<String>> result = controller.streamMessage("test-api-key-12345", null, "2023-06-01", request);
+        ResponseEntity<Flux<DataBuffer>> result = controller.streamMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
 
-        StepVerifier.create(result.getBody())
+        StepVerifier.create(result.getBody().map(buffer -> buffer.toString(StandardCharsets.UTF_8)))
                 .expectNext("event: message_start\ndata: {\"type\":\"message_start\",\"message\":{\"id\":\"msg_123\",\"role\":\"assistant\"}}\n\n")
                 .expectNext("event: content_block_delta\ndata: {\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\",\"text\":\"Hello\"}}\n\n")
                 .expectNext("event: message_stop\ndata: {\"type\":\"message_stop\"}\n\n")
@@ -106,7 +119,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalStateException.class, () -> {
-            controller.createMessage("invalid-api-key", null, "2023-06-01", request);
+            controller.createMessage("invalid-api-key", null, "2023-06-01", null, null, null, request);
         });
     }
 
@@ -118,7 +131,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalStateException.class, () -> {
-            controller.createMessage(null, null, "2023-06-01", request);
+            controller.createMessage(null, null, "2023-06-01", null, null, null, request);
         });
     }
 
@@ -130,7 +143,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalArgumentException.class, () -> {
-            controller.createMessage("test-api-key-12345", null, null, request);
+            controller.createMessage("test-api-key-12345", null, null, null, null, null, request);
         });
     }
 
@@ -144,7 +157,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalArgumentException.class, () -> {
-            controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+            controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
         });
     }
 
@@ -157,7 +170,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalArgumentException.class, () -> {
-            controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+            controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
         });
     }
 
@@ -170,7 +183,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalArgumentException.class, () -> {
-            controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+            controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
         });
     }
 
@@ -193,7 +206,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalArgumentException.class, () -> {
-            controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+            controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
         });
     }
 
@@ -213,7 +226,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalArgumentException.class, () -> {
-            controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+            controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
         });
     }
 
@@ -226,7 +239,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalArgumentException.class, () -> {
-            controller.streamMessage("test-api-key-12345", null, "2023-06-01", request);
+            controller.streamMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
         });
     }
 
@@ -239,7 +252,7 @@ class AnthropicControllerTest {
 
         // When & Then
         assertThrows(IllegalArgumentException.class, () -> {
-            controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+            controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
         });
     }
 
@@ -253,7 +266,7 @@ class AnthropicControllerTest {
                 .thenReturn(Mono.error(new RuntimeException("Kiro service unavailable")));
 
         // When & Then
-        Object result = controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+        Object result = controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
 
         // Handle both streaming and non-streaming responses
         if (result instanceof Flux) {
@@ -279,7 +292,7 @@ class AnthropicControllerTest {
                 .thenReturn(Flux.error(new RuntimeException("Kiro service error")));
 
         // When & Then
-        ResponseEntity<Flux<String>> result = controller.streamMessage("test-api-key-12345", null, "2023-06-01", request);
+        ResponseEntity<Flux<DataBuffer>> result = controller.streamMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
 
         StepVerifier.create(result.getBody())
                 .expectErrorMatches(throwable ->
@@ -299,7 +312,7 @@ class AnthropicControllerTest {
                 .thenReturn(Mono.just(mockResponse));
 
         // When & Then
-        Object result = controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+        Object result = controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
 
         assertTrue(result instanceof Mono, "Result should be Mono<AnthropicChatResponse>");
         @SuppressWarnings("unchecked")
@@ -324,7 +337,7 @@ class AnthropicControllerTest {
                 .thenReturn(Mono.just(mockResponse));
 
         // When & Then
-        Object result = controller.createMessage("test-api-key-12345", null, "2023-06-01", request);
+        Object result = controller.createMessage("test-api-key-12345", null, "2023-06-01", null, null, null, request);
 
         assertTrue(result instanceof Mono, "Result should be Mono<AnthropicChatResponse>");
         @SuppressWarnings("unchecked")
@@ -337,4 +350,8 @@ class AnthropicControllerTest {
             })
             .verifyComplete();
     }
-}
\ No newline at end of file
+
+    private static DataBuffer sse(String event) {
+        return DefaultDataBufferFactory.sharedInstance.wrap(event.getBytes(StandardCharsets.UTF_8));
+    }
+}
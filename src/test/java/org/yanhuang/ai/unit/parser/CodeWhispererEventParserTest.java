@@ -9,10 +9,18 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.yanhuang.ai.parser.CodeWhispererEventParser;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -233,6 +241,77 @@ class CodeWhispererEventParserTest {
         assertEquals("hello", result.get(0).get("test").asText());
     }
 
+    @Test
+    @DisplayName("应该增量解析跨网络分片的事件")
+    void shouldParseFramesSplitAcrossChunks() {
+        // Given
+        byte[] event1 = createEventPacket("{\"content\":\"Hel\"}".getBytes());
+        byte[] event2 = createEventPacket("{\"content\":\"lo\"}".getBytes());
+        byte[] combined = new byte[event1.length + event2.length];
+        System.arraycopy(event1, 0, combined, 0, event1.length);
+        System.arraycopy(event2, 0, combined, event1.length, event2.length);
+
+        // Split inside the first frame's prelude and inside the second frame's payload
+        int firstCut = 3;
+        int secondCut = event1.length + 15;
+        Flux<DataBuffer> body = Flux.just(
+            Arrays.copyOfRange(combined, 0, firstCut),
+            Arrays.copyOfRange(combined, firstCut, secondCut),
+            Arrays.copyOfRange(combined, secondCut, combined.length)
+        ).<DataBuffer>map(DefaultDataBufferFactory.sharedInstance::wrap);
+
+        // When & Then
+        StepVerifier.create(parser.parseStream(body))
+            .assertNext(event -> assertEquals("Hel", event.get("content").asText()))
+            .assertNext(event -> assertEquals("lo", event.get("content").asText()))
+            .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("应该跳过头部并解析事件负载")
+    void shouldSkipHeadersAndParseEventPayload() {
+        // Given
+        byte[] eventData = createEventPacketWithHeaders(
+            "{\"content\":\"Hello\"}".getBytes(StandardCharsets.UTF_8),
+            ":event-type", "assistantResponseEvent",
+            ":content-type", "application/json",
+            ":message-type", "event");
+
+        // When
+        List<JsonNode> result = parser.parse(eventData);
+
+        // Then
+        assertEquals(1, result.size());
+        assertEquals("Hello", result.get(0).get("content").asText());
+    }
+
+    @Test
+    @DisplayName("应该将异常帧转换为上游错误")
+    void shouldSurfaceExceptionFrameAsUpstreamError() {
+        // Given
+        byte[] eventData = createEventPacketWithHeaders(
+            "{\"message\":\"Rate exceeded\"}".getBytes(StandardCharsets.UTF_8),
+            ":exception-type", "ThrottlingException",
+            ":message-type", "exception");
+
+        // When & Then
+        assertThrows(WebClientResponseException.TooManyRequests.class, () -> parser.parse(eventData));
+    }
+
+    @Test
+    @DisplayName("应该拒绝声明长度超过上限的帧")
+    void shouldRejectFrameWithOversizedLength() {
+        // Given: a length prefix far beyond any real frame, followed by a few bytes
+        ByteBuffer prefix = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN);
+        prefix.putInt(Integer.MAX_VALUE).putInt(0).putInt(0).putInt(0);
+        Flux<DataBuffer> body = Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(prefix.array()));
+
+        // When & Then
+        StepVerifier.create(parser.parseStream(body))
+            .expectError(WebClientResponseException.BadGateway.class)
+            .verify();
+    }
+
     // Helper methods
 
     /**
@@ -271,4 +350,34 @@ class CodeWhispererEventParserTest {
 
         return packet;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates an event packet with AWS event-stream string headers (type 7),
+     * given as alternating name/value pairs.
+     */
+    private byte[] createEventPacketWithHeaders(byte[] payload, String... headers) {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        for (int i = 0; i < headers.length; i += 2) {
+            byte[] name = headers[i].getBytes(StandardCharsets.UTF_8);
+            byte[] value = headers[i + 1].getBytes(StandardCharsets.UTF_8);
+            headerBytes.write(name.length);
+            headerBytes.writeBytes(name);
+            headerBytes.write(7);
+            headerBytes.write(value.length >> 8);
+            headerBytes.write(value.length & 0xFF);
+            headerBytes.writeBytes(value);
+        }
+        byte[] headerSection = headerBytes.toByteArray();
+        int totalLength = 12 + headerSection.length + payload.length + 4;
+
+        ByteBuffer buffer = ByteBuffer.allocate(totalLength);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(totalLength);
+        buffer.putInt(headerSection.length);
+        buffer.putInt(0);
+        buffer.put(headerSection);
+        buffer.put(payload);
+        buffer.putInt(0);
+        return buffer.array();
+    }
+}
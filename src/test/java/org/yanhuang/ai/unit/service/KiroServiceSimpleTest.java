@@ -17,10 +17,20 @@ import org.yanhuang.ai.model.AnthropicChatRequest;
 import org.yanhuang.ai.model.AnthropicChatResponse;
 import org.yanhuang.ai.service.TokenManager;
 import org.yanhuang.ai.service.KiroService;
+import org.yanhuang.ai.service.KiroCircuitBreaker;
+import org.yanhuang.ai.service.AdaptiveConcurrencyLimit;
+import org.yanhuang.ai.service.CredentialPool;
+import org.yanhuang.ai.service.ImagePreprocessor;
+import org.yanhuang.ai.service.KiroEndpointRouter;
+import org.yanhuang.ai.service.TokenCounter;
+import org.yanhuang.ai.service.ToolSpecificationCache;
 import org.yanhuang.ai.parser.CodeWhispererEventParser;
 import org.yanhuang.ai.parser.BracketToolCallParser;
 import org.yanhuang.ai.parser.ToolCallDeduplicator;
 import org.yanhuang.ai.service.McpToolIdentifier;
+import org.yanhuang.ai.service.PromptCache;
+import org.yanhuang.ai.service.ResponseCache;
+import org.yanhuang.ai.service.RetryPolicy;
 import org.yanhuang.ai.TestDataFactory;
 
 import org.springframework.web.reactive.function.client.WebClient;
@@ -58,6 +68,33 @@ class KiroServiceSimpleTest {
     @Mock
     private McpToolIdentifier mcpToolIdentifier;
 
+    @Mock
+    private RetryPolicy retryPolicy;
+
+    @Mock
+    private KiroCircuitBreaker circuitBreaker;
+
+    @Mock
+    private CredentialPool credentialPool;
+
+    @Mock
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+
+    @Mock
+    private KiroEndpointRouter endpointRouter;
+
+    @Mock
+    private ImagePreprocessor imagePreprocessor;
+
+    @Mock
+    private ResponseCache responseCache;
+
+    @Mock
+    private PromptCache promptCache;
+
+    @Mock
+    private ToolSpecificationCache toolSpecificationCache;
+
     @Mock
     private WebClient.Builder webClientBuilder;
 
@@ -82,7 +119,7 @@ class KiroServiceSimpleTest {
         // Manually create the service instance with all mocks
         kiroService = new KiroService(
                 properties, tokenManager, eventParser, bracketToolCallParser,
-                toolCallDeduplicator, mcpToolIdentifier, webClientBuilder, new com.fasterxml.jackson.databind.ObjectMapper());
+                toolCallDeduplicator, mcpToolIdentifier, retryPolicy, circuitBreaker, credentialPool, concurrencyLimit, endpointRouter, new TokenCounter(toolSpecificationCache), imagePreprocessor, responseCache, promptCache, toolSpecificationCache, webClientBuilder, new com.fasterxml.jackson.databind.ObjectMapper());
     }
 
     @Test
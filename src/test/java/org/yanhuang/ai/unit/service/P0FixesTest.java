@@ -2,6 +2,7 @@ package org.yanhuang.ai.unit.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -9,6 +10,8 @@ import java.util.Map;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -21,9 +24,20 @@ import org.yanhuang.ai.model.AnthropicMessage;
 import org.yanhuang.ai.parser.BracketToolCallParser;
 import org.yanhuang.ai.parser.CodeWhispererEventParser;
 import org.yanhuang.ai.parser.ToolCallDeduplicator;
+import org.yanhuang.ai.service.AdaptiveConcurrencyLimit;
+import org.yanhuang.ai.service.ImagePreprocessor;
+import org.yanhuang.ai.service.KiroEndpointRouter;
+import org.yanhuang.ai.service.CredentialPool;
+import org.yanhuang.ai.service.KiroCircuitBreaker;
 import org.yanhuang.ai.service.KiroService;
 import org.yanhuang.ai.service.McpToolIdentifier;
+import org.yanhuang.ai.service.PromptCache;
+import org.yanhuang.ai.service.ResponseCache;
+import org.yanhuang.ai.service.RetryPolicy;
+import org.yanhuang.ai.service.SseEventWriter;
+import org.yanhuang.ai.service.TokenCounter;
 import org.yanhuang.ai.service.TokenManager;
+import org.yanhuang.ai.service.ToolSpecificationCache;
 
 /**
  * Unit tests for P0 critical fixes
@@ -50,6 +64,8 @@ class P0FixesTest {
         BracketToolCallParser bracketParser = new BracketToolCallParser();
         ToolCallDeduplicator deduplicator = new ToolCallDeduplicator();
         McpToolIdentifier mcpToolIdentifier = new McpToolIdentifier();
+        ToolSpecificationCache toolSpecificationCache = new ToolSpecificationCache(properties, mapper);
+        TokenCounter tokenCounter = new TokenCounter(toolSpecificationCache);
 
         kiroService = new KiroService(
             properties,
@@ -58,6 +74,16 @@ class P0FixesTest {
             bracketParser,
             deduplicator,
             mcpToolIdentifier,
+            new RetryPolicy(properties),
+            new KiroCircuitBreaker(properties, new RetryPolicy(properties)),
+            new CredentialPool(properties),
+            new AdaptiveConcurrencyLimit(properties, new RetryPolicy(properties)),
+            new KiroEndpointRouter(properties),
+            tokenCounter,
+            new ImagePreprocessor(properties),
+            new ResponseCache(properties),
+            new PromptCache(properties, tokenCounter),
+            toolSpecificationCache,
             WebClient.builder(),
             mapper
         );
@@ -312,16 +338,29 @@ class P0FixesTest {
 
     @SuppressWarnings("unchecked")
     private AnthropicChatResponse invokeMapResponse(List<JsonNode> events, AnthropicChatRequest request) throws Exception {
-        var method = KiroService.class.getDeclaredMethod("mapResponse", List.class, AnthropicChatRequest.class);
+        // PromptCache.Match is package-private, so it is named rather than imported
+        Class<?> promptMatchType = Class.forName(PromptCache.class.getName() + "$Match");
+        var method = KiroService.class.getDeclaredMethod("mapResponse", List.class, AnthropicChatRequest.class,
+            promptMatchType);
         method.setAccessible(true);
-        return (AnthropicChatResponse) method.invoke(kiroService, events, request);
+        // These requests have no cache_control breakpoints, so there is no prompt cache match
+        Object noPromptMatch = null;
+        return (AnthropicChatResponse) method.invoke(kiroService, events, request, noPromptMatch);
     }
 
     @SuppressWarnings("unchecked")
     private List<String> invokeBuildStreamEvents(AnthropicChatResponse response) throws Exception {
-        var method = KiroService.class.getDeclaredMethod("buildStreamEvents", AnthropicChatResponse.class);
+        var method = KiroService.class.getDeclaredMethod("buildStreamEvents", AnthropicChatResponse.class, SseEventWriter.class,
+            int.class);
         method.setAccessible(true);
-        return (List<String>) method.invoke(kiroService, response);
+        SseEventWriter writer = new SseEventWriter(mapper.getFactory(), DefaultDataBufferFactory.sharedInstance);
+        List<DataBuffer> buffers = (List<DataBuffer>) method.invoke(kiroService, response, writer,
+            new AppProperties().getKiro().getResponseCache().getReplayChunkChars());
+        List<String> events = new ArrayList<>();
+        for (DataBuffer buffer : buffers) {
+            events.add(buffer.toString(StandardCharsets.UTF_8));
+        }
+        return events;
     }
 
     private String invokeBuildMessageContent(AnthropicMessage message) throws Exception {
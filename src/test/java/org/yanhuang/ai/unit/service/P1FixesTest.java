@@ -11,6 +11,8 @@ import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.reactive.function.client.WebClient;
@@ -29,10 +31,15 @@ import org.yanhuang.ai.parser.CodeWhispererEventParser;
 import org.yanhuang.ai.parser.BracketToolCallParser;
 import org.yanhuang.ai.service.ImageValidator;
 import org.yanhuang.ai.service.KiroService;
+import org.yanhuang.ai.service.AdaptiveConcurrencyLimit;
+import org.yanhuang.ai.service.AdmissionLimiter;
+import org.yanhuang.ai.service.RetryPolicy;
 import org.yanhuang.ai.service.TokenManager;
 import org.yanhuang.ai.service.TokenCounter;
+import org.yanhuang.ai.service.ToolSpecificationCache;
 import org.yanhuang.ai.parser.ToolCallDeduplicator;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -92,9 +99,10 @@ class P1FixesTest {
         properties.setAnthropicVersion("2023-06-01");
 
         // Initialize controller with mocked KiroService, TokenCounter, and ImageValidator
-        TokenCounter tokenCounter = new TokenCounter();
+        TokenCounter tokenCounter = new TokenCounter(new ToolSpecificationCache(properties, mapper));
         ImageValidator imageValidator = new ImageValidator();
-        controller = new AnthropicController(properties, kiroService, tokenCounter, imageValidator);
+        controller = new AnthropicController(properties, kiroService, tokenCounter, imageValidator,
+            new AdmissionLimiter(properties, new AdaptiveConcurrencyLimit(properties, new RetryPolicy(properties))));
         webTestClient = WebTestClient.bindToController(controller)
             .controllerAdvice(new GlobalExceptionHandler())
             .build();
@@ -136,9 +144,8 @@ class P1FixesTest {
         request.setStream(true);
 
         when(kiroService.streamCompletion(any())).thenReturn(Flux.just(
-            "event: message_start\ndata: {\"type\":\"message_start\"}\n\n",
-            "event: content_block_start\ndata: {\"type\":\"content_block_start\"}\n\n",
-            "data: [DONE]\n"
+            sse("event: message_start\ndata: {\"type\":\"message_start\"}\n\n"),
+            sse("event: content_block_start\ndata: {\"type\":\"content_block_start\"}\n\n")
         ));
 
         // When & Then
@@ -167,7 +174,7 @@ class P1FixesTest {
         AnthropicChatRequest request = createBasicRequest();
 
         when(kiroService.streamCompletion(any())).thenReturn(Flux.just(
-            "event: message_start\ndata: {\"type\":\"message_start\"}\n\n"
+            sse("event: message_start\ndata: {\"type\":\"message_start\"}\n\n")
         ));
 
         // When & Then
@@ -419,4 +426,8 @@ class P1FixesTest {
         response.setStopReason("end_turn");
         return response;
     }
-}
\ No newline at end of file
+
+    private static DataBuffer sse(String event) {
+        return DefaultDataBufferFactory.sharedInstance.wrap(event.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,275 @@
+#!/usr/bin/env python3
+"""Build src/main/resources/tokenizer/bpe-merges.bin, the BpeTokenizer vocabulary.
+
+Claude's vocabulary is not public, so the merges are learned here from versioned, public
+sources. Run with Python 3.11 (the Unicode tables decide which characters are letters):
+
+    python3 tools/tokenizer/build_vocabulary.py src/main/resources/tokenizer/bpe-merges.bin
+
+Corpus, read in this order (sorted paths, so the result does not depend on the file system):
+
+  1. Node.js documentation, every *.md under /usr/share/doc/nodejs: NodeSource package
+     nodejs 20.20.2-1nodesource1.
+  2. JDK sources, the java.base/java/, java.net.http/ and java.sql/ *.java files of lib/src.zip
+     in Eclipse Temurin 21.0.1+12, up to 14M characters.
+  3. Python standard library, /usr/lib/python3.11/**/*.py without tests and site/dist-packages,
+     up to 8M characters: Debian 12 packages libpython3.11-minimal, libpython3.11-stdlib,
+     python3-distutils, python3-lib2to3 and python3.11-venv, version 3.11.2-6+deb12u6.
+  4. Vim help, /usr/share/vim/vim90/doc/*.txt counted twice: Debian 12 vim-runtime
+     2:9.0.1378-2+deb12u2.
+  5. Perl documentation, /usr/share/perl/5.36.0/pod/*.pod counted twice: Debian 12
+     perl-modules-5.36 5.36.0-7+deb12u3.
+
+Text is split into pieces exactly as BpeTokenizer does, and 16000 merges are learned over
+the piece counts, the most frequent pair first (ties to the smallest pair). Then merges are
+appended so each of these characters becomes a single token: the GB2312 hanzi, hiragana,
+katakana, the KS X 1001 Hangul syllables, and common CJK punctuation.
+
+The file holds the magic "BPE1", a big-endian u32 merge count, then one big-endian u16 pair
+per merge in rank order, merge i producing token 256 + i. The SHA-256 printed at the end
+must match the one BpeTokenizerTest checks.
+"""
+
+import argparse
+import collections
+import glob
+import hashlib
+import heapq
+import os
+import struct
+import sys
+import unicodedata
+import zipfile
+
+TRAINED_MERGES = 16000
+
+LETTER, DIGIT, CJK, SPACE, OTHER = range(5)
+MAX_PIECE = 64
+
+
+def char_class(cp):
+    """Mirror of BpeTokenizer.classify, with Python's Unicode tables"""
+    if (0x3040 <= cp <= 0x30FF or 0x3400 <= cp <= 0x4DBF or 0x4E00 <= cp <= 0x9FFF
+            or 0xAC00 <= cp <= 0xD7AF or 0xF900 <= cp <= 0xFAFF):
+        return CJK
+    c = chr(cp)
+    if c.isalpha():
+        return LETTER
+    category = unicodedata.category(c)
+    if category in ('Mn', 'Mc'):
+        return LETTER
+    if category == 'Nd':
+        return DIGIT
+    if c in ' \t\n\x0b\x0c\r\x1c\x1d\x1e\x1f' or (
+            category in ('Zs', 'Zl', 'Zp') and cp not in (0xA0, 0x2007, 0x202F)):
+        return SPACE
+    return OTHER
+
+
+def pieces(text):
+    """Mirror of BpeTokenizer's pre-tokenizer"""
+    n = len(text)
+    classes = [char_class(ord(ch)) for ch in text]
+    i = 0
+    while i < n:
+        start = i
+        c = classes[i]
+        if text[i] == ' ' and i + 1 < n and classes[i + 1] in (LETTER, DIGIT, OTHER):
+            i += 1
+            c = classes[i]
+        if c == CJK:
+            i += 1
+        elif c == DIGIT:
+            first = i
+            while i < n and classes[i] == DIGIT and i - first < 3:
+                i += 1
+        elif c == SPACE:
+            while i < n and classes[i] == SPACE and i - start < MAX_PIECE:
+                i += 1
+            # Leave the last space to the word after the run
+            if i < n and i - start > 1 and text[i - 1] == ' ' and classes[i] != SPACE:
+                i -= 1
+        else:
+            while i < n and classes[i] == c and i - start < MAX_PIECE:
+                i += 1
+        yield text[start:i]
+
+
+def read_corpus(args):
+    counts = collections.Counter()
+
+    def feed(text, weight=1):
+        for piece in pieces(text):
+            counts[piece] += weight
+
+    def read(path):
+        with open(path, encoding='utf-8', errors='ignore') as f:
+            return f.read()
+
+    for path in sorted(glob.glob(os.path.join(args.node_docs, '**', '*.md'), recursive=True)):
+        feed(read(path))
+
+    used = 0
+    with zipfile.ZipFile(args.jdk_src) as z:
+        for name in sorted(z.namelist()):
+            if name.endswith('.java') and name.startswith(('java.base/java/', 'java.net.http/', 'java.sql/')):
+                text = z.read(name).decode('utf-8', 'ignore')
+                used += len(text)
+                feed(text)
+                if used > 14_000_000:
+                    break
+
+    used = 0
+    for path in sorted(glob.glob(os.path.join(args.python_lib, '**', '*.py'), recursive=True)):
+        if '/test' in path or 'site-packages' in path or 'dist-packages' in path:
+            continue
+        text = read(path)
+        used += len(text)
+        feed(text)
+        if used > 8_000_000:
+            break
+
+    for path in sorted(glob.glob(os.path.join(args.vim_docs, '*.txt'))):
+        feed(read(path), 2)
+    for path in sorted(glob.glob(os.path.join(args.perl_pods, '*.pod'))):
+        feed(read(path), 2)
+    return counts
+
+
+def train(counts, merge_count):
+    words = []
+    freqs = []
+    for piece, count in counts.items():
+        encoded = list(piece.encode('utf-8'))
+        if len(encoded) > 1:
+            words.append(encoded)
+            freqs.append(count)
+
+    pair_counts = collections.defaultdict(int)
+    where = collections.defaultdict(set)
+    for index, word in enumerate(words):
+        for pair in zip(word, word[1:]):
+            pair_counts[pair] += freqs[index]
+            where[pair].add(index)
+    # Counts in the heap may be stale; they are checked against pair_counts when popped
+    heap = [(-count, pair) for pair, count in pair_counts.items()]
+    heapq.heapify(heap)
+
+    merges = []
+    while len(merges) < merge_count and heap:
+        negated, pair = heapq.heappop(heap)
+        count = pair_counts.get(pair, 0)
+        if count <= 0:
+            continue
+        if -negated != count:
+            heapq.heappush(heap, (-count, pair))
+            continue
+        if count < 2:
+            break
+        token = 256 + len(merges)
+        merges.append(pair)
+        left, right = pair
+        changed = collections.defaultdict(int)
+        for index in list(where[pair]):
+            word = words[index]
+            freq = freqs[index]
+            for old in zip(word, word[1:]):
+                changed[old] -= freq
+            merged = []
+            i = 0
+            while i < len(word):
+                if i + 1 < len(word) and word[i] == left and word[i + 1] == right:
+                    merged.append(token)
+                    i += 2
+                else:
+                    merged.append(word[i])
+                    i += 1
+            words[index] = merged
+            for new in zip(merged, merged[1:]):
+                changed[new] += freq
+                where[new].add(index)
+        for changed_pair, delta in changed.items():
+            if delta:
+                pair_counts[changed_pair] += delta
+                if delta > 0:
+                    heapq.heappush(heap, (-pair_counts[changed_pair], changed_pair))
+        pair_counts.pop(pair, None)
+        where.pop(pair, None)
+        if len(merges) % 2000 == 0:
+            print(f'{len(merges)} merges, last seen {count} times', file=sys.stderr, flush=True)
+    return merges
+
+
+def single_token_characters():
+    chars = []
+    for high in range(0xB0, 0xF8):
+        for low in range(0xA1, 0xFF):
+            try:
+                chars.append(bytes([high, low]).decode('gb2312'))
+            except UnicodeDecodeError:
+                pass
+    chars.extend(chr(cp) for cp in range(0x3041, 0x3097))
+    chars.extend(chr(cp) for cp in range(0x30A1, 0x30FB))
+    chars.append('ー')
+    for high in range(0xB0, 0xC9):
+        for low in range(0xA1, 0xFF):
+            try:
+                chars.append(bytes([high, low]).decode('euc-kr'))
+            except UnicodeDecodeError:
+                pass
+    chars.extend(chr(cp) for cp in (0x3001, 0x3002, 0x300C, 0x300D, 0x300E, 0x300F, 0x3010, 0x3011,
+                                    0xFF01, 0xFF08, 0xFF09, 0xFF0C, 0xFF1A, 0xFF1B, 0xFF1F,
+                                    0x2014, 0x2026, 0x201C, 0x201D, 0x2018, 0x2019))
+    return list(dict.fromkeys(chars))
+
+
+def add_single_token_characters(merges):
+    ranks = {pair: 256 + i for i, pair in enumerate(merges)}
+    for ch in single_token_characters():
+        tokens = encode_piece(ch.encode('utf-8'), ranks)
+        while len(tokens) > 1:
+            pair = (tokens[0], tokens[1])
+            ranks[pair] = 256 + len(merges)
+            merges.append(pair)
+            tokens = [ranks[pair]] + tokens[2:]
+
+
+def encode_piece(data, ranks):
+    tokens = list(data)
+    while len(tokens) > 1:
+        best = None
+        at = -1
+        for i in range(len(tokens) - 1):
+            rank = ranks.get((tokens[i], tokens[i + 1]))
+            if rank is not None and (best is None or rank < best):
+                best = rank
+                at = i
+        if best is None:
+            break
+        tokens[at:at + 2] = [best]
+    return tokens
+
+
+def main():
+    parser = argparse.ArgumentParser(description='Build the BpeTokenizer vocabulary')
+    parser.add_argument('output')
+    parser.add_argument('--node-docs', default='/usr/share/doc/nodejs')
+    parser.add_argument('--jdk-src', default=os.path.join(os.environ.get('JAVA_HOME', ''), 'lib', 'src.zip'))
+    parser.add_argument('--python-lib', default='/usr/lib/python3.11')
+    parser.add_argument('--vim-docs', default='/usr/share/vim/vim90/doc')
+    parser.add_argument('--perl-pods', default='/usr/share/perl/5.36.0/pod')
+    args = parser.parse_args()
+
+    if sys.version_info[:2] != (3, 11):
+        print('warning: not Python 3.11, the vocabulary may differ', file=sys.stderr)
+    merges = train(read_corpus(args), TRAINED_MERGES)
+    add_single_token_characters(merges)
+
+    data = struct.pack('>4sI', b'BPE1', len(merges)) + b''.join(struct.pack('>HH', *pair) for pair in merges)
+    with open(args.output, 'wb') as f:
+        f.write(data)
+    print(f'{len(merges)} merges, sha256 {hashlib.sha256(data).hexdigest()}')
+
+
+if __name__ == '__main__':
+    main()